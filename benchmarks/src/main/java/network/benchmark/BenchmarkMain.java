@@ -0,0 +1,42 @@
+package network.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of {@code benchmarks.jar}. Accepts the usual JMH command line, but writes JSON results to
+ * {@code target/jmh-result.json} unless {@code -rf} or {@code -rff} say otherwise, so every run leaves a
+ * machine-readable file that can be compared with earlier releases.
+ */
+public final class BenchmarkMain {
+
+  private static final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+
+  private BenchmarkMain() {
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    CommandLineOptions commandLine;
+    try {
+      commandLine = new CommandLineOptions(args);
+    } catch (CommandLineOptionException e) {
+      System.err.println("Error parsing command line: " + e.getMessage());
+      System.exit(1);
+      return;
+    }
+
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+    if (!commandLine.getResultFormat().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON);
+    }
+    if (!commandLine.getResult().hasValue()) {
+      options.result(DEFAULT_RESULT_FILE);
+    }
+    new Runner(options.build()).run();
+  }
+}
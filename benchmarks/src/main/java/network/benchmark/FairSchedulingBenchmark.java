@@ -0,0 +1,168 @@
+package network.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import network.codec.FrameException;
+import network.codec.LengthFieldFrameCodec;
+import network.handler.MessageHeader;
+import network.log.Log;
+import network.log.LogLevel;
+import network.tcp.TCPServer;
+import network.tcp.TCPServer.IoMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Round-trip latency of a quiet client sharing one {@link IoMode#NIO} reactor with bulk senders, with and without
+ * {@link TCPServer#setFairScheduling(int, int) fair scheduling}.
+ * <p>
+ * Background threads write small messages to the bulk connections as fast as the server takes them, each costing the
+ * reactor some handler work. The benchmark measures the time from writing a probe message until its echo is read back.
+ * Without fair scheduling a probe waits for whole reads of every bulk connection ahead of it; with it, for one turn
+ * each.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dnetwork.log.level=WARN")
+public class FairSchedulingBenchmark {
+
+  private static final int PROBE_TYPE = 7;
+  private static final int PROBE_SIZE = 16;
+  private static final int BULK_MESSAGE_SIZE = 64;
+  private static final int BULK_WRITE_SIZE = 256 * 1024;
+  private static final long HANDLER_TOKENS = 200;
+  private static final int TURN_BYTES = 4096;
+  private static final int TURN_FRAMES = 32;
+  private static final long TIMEOUT_MS = 10000;
+
+  @Param({"false", "true"})
+  public boolean fair;
+
+  @Param({"1", "4"})
+  public int bulkConnections;
+
+  private TCPServer server;
+  private SocketChannel[] bulk;
+  private SocketChannel probe;
+  private ByteBuffer probeFrame;
+  private ByteBuffer echo;
+  private Thread[] loadThreads;
+  private volatile boolean loadRunning;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, InterruptedException {
+    Log.setLevel(LogLevel.WARN);
+    int port = Loopback.freePort();
+
+    // A single reactor, so the probe and the bulk connections compete for it
+    server = new TCPServer(port, IoMode.NIO, 1);
+    if (fair) {
+      server.setFairScheduling(TURN_BYTES, TURN_FRAMES);
+    }
+    server.getDispatcher().register(PROBE_TYPE, (context, typeId, body) -> context.send(typeId, body));
+    server.getDispatcher().setFallbackHandler((context, typeId, body) -> Blackhole.consumeCPU(HANDLER_TOKENS));
+    server.start();
+
+    bulk = new SocketChannel[bulkConnections];
+    for (int i = 0; i < bulkConnections; i++) {
+      bulk[i] = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+    }
+    probe = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+    probe.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    while (server.getActiveConnectionCount() < bulkConnections + 1) {
+      Thread.sleep(1);
+    }
+
+    probeFrame = Loopback.frame(MessageHeader.encode(PROBE_TYPE, new byte[PROBE_SIZE - MessageHeader.LENGTH]));
+    echo = ByteBuffer.allocateDirect(probeFrame.remaining());
+    ByteBuffer bulkFrames = bulkFrames();
+    loadRunning = true;
+    loadThreads = new Thread[bulkConnections];
+    for (int i = 0; i < bulkConnections; i++) {
+      SocketChannel channel = bulk[i];
+      loadThreads[i] = new Thread(() -> generateLoad(channel, bulkFrames.duplicate()), "Bulk-Client-" + i);
+      loadThreads[i].setDaemon(true);
+      loadThreads[i].start();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException, InterruptedException {
+    loadRunning = false;
+    for (SocketChannel channel : bulk) {
+      channel.close();
+    }
+    for (Thread loadThread : loadThreads) {
+      loadThread.join(TIMEOUT_MS);
+    }
+    probe.close();
+    server.shutdown(5);
+  }
+
+  /**
+   * Time from writing a probe message until its echo has been read.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void probeRoundTrip() throws IOException {
+    probeFrame.rewind();
+    while (probeFrame.hasRemaining()) {
+      probe.write(probeFrame);
+    }
+    echo.clear();
+    while (echo.hasRemaining()) {
+      if (probe.read(echo) < 0) {
+        throw new IllegalStateException("Server closed the probe connection");
+      }
+    }
+  }
+
+  /**
+   * Writes back-to-back bulk messages until tear-down closes the connection.
+   */
+  private void generateLoad(SocketChannel channel, ByteBuffer frames) {
+    try {
+      while (loadRunning) {
+        frames.rewind();
+        while (frames.hasRemaining()) {
+          channel.write(frames);
+        }
+      }
+    } catch (IOException e) {
+      // Connection closed by tear-down
+    }
+  }
+
+  /**
+   * Frames as many bulk messages as fit one large write.
+   */
+  private static ByteBuffer bulkFrames() throws FrameException {
+    LengthFieldFrameCodec codec = new LengthFieldFrameCodec();
+    byte[] message = Loopback.message(BULK_MESSAGE_SIZE);
+    int frameLength = codec.encodedLength(message.length);
+    ByteBuffer frames = ByteBuffer.allocateDirect(BULK_WRITE_SIZE / frameLength * frameLength);
+    while (frames.hasRemaining()) {
+      codec.encode(ByteBuffer.wrap(message), frames);
+    }
+    frames.flip();
+    return frames;
+  }
+}
@@ -0,0 +1,79 @@
+package network.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import network.log.Log;
+import network.log.LogLevel;
+import network.tcp.TCPServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link TCPServer#printHexArray(ByteBuffer)} on the calling thread, with debug logging disabled and enabled.
+ * When enabled, the background writer prints into a discarding stream so console speed does not limit the result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexDumpBenchmark {
+
+  @Param({"16", "256", "4096"})
+  public int size;
+
+  @Param({"false", "true"})
+  public boolean enabled;
+
+  private ByteBuffer data;
+  private PrintStream console;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    byte[] bytes = new byte[size];
+    ThreadLocalRandom.current().nextBytes(bytes);
+    data = ByteBuffer.wrap(bytes);
+
+    console = System.out;
+    if (enabled) {
+      System.setOut(new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+      }));
+      Log.setRateLimit(0);
+    }
+    Log.setLevel(enabled ? LogLevel.DEBUG : LogLevel.INFO);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Log.setLevel(LogLevel.INFO);
+    Log.flush();
+    System.setOut(console);
+  }
+
+  @Benchmark
+  public void printHexArray() {
+    TCPServer.printHexArray(data);
+  }
+}
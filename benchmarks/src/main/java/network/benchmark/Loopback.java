@@ -0,0 +1,71 @@
+package network.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import network.codec.FrameException;
+import network.codec.LengthFieldFrameCodec;
+import network.handler.MessageHeader;
+
+/**
+ * Helpers shared by the loopback benchmarks.
+ */
+final class Loopback {
+
+  // Message type the benchmarks send; servers count it with a fallback handler
+  static final int MESSAGE_TYPE = 42;
+
+  private Loopback() {
+  }
+
+  /**
+   * Finds a port that is currently free on the loopback interface.
+   */
+  static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket()) {
+      socket.setReuseAddress(true);
+      socket.bind(new InetSocketAddress("127.0.0.1", 0));
+      return socket.getLocalPort();
+    }
+  }
+
+  /**
+   * Builds a typed message whose total size, header included, is {@code messageSize} bytes.
+   */
+  static byte[] message(int messageSize) {
+    return MessageHeader.encode(MESSAGE_TYPE, new byte[Math.max(0, messageSize - MessageHeader.LENGTH)]);
+  }
+
+  /**
+   * Frames a message with the default codec of {@link network.tcp.TCPServer}.
+   */
+  static ByteBuffer frame(byte[] message) throws FrameException {
+    LengthFieldFrameCodec codec = new LengthFieldFrameCodec();
+    ByteBuffer frame = ByteBuffer.allocateDirect(codec.encodedLength(message.length));
+    codec.encode(ByteBuffer.wrap(message), frame);
+    frame.flip();
+    return frame;
+  }
+
+  /**
+   * Spins until the counter reaches the target.
+   *
+   * @return true if the target was reached before the timeout
+   */
+  static boolean await(AtomicLong counter, long target, long timeoutMillis) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    int spins = 0;
+    while (counter.get() < target) {
+      if (++spins > 1000) {
+        if (System.nanoTime() > deadline) {
+          return false;
+        }
+        Thread.yield();
+      }
+    }
+    return true;
+  }
+}
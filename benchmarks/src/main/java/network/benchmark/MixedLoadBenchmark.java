@@ -0,0 +1,150 @@
+package network.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import network.handler.MessageHeader;
+import network.log.Log;
+import network.log.LogLevel;
+import network.tcp.TCPServer;
+import network.tcp.TCPServer.IoMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency distribution of {@link TCPServer} I/O modes while most connections sit idle and a few others are busy.
+ * <p>
+ * A background thread keeps the busy connections sending; the benchmark measures the time from writing a probe message
+ * on a separate connection until its handler has returned. Compare the percentiles reported for
+ * {@link IoMode#ASYNC}, {@link IoMode#NIO} and the thread-per-connection {@link IoMode#BLOCKING} mode.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dnetwork.log.level=WARN")
+public class MixedLoadBenchmark {
+
+  private static final int PROBE_TYPE = 7;
+  private static final int MESSAGE_SIZE = 256;
+  private static final long BUSY_PAUSE_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+  private static final long TIMEOUT_MS = 10000;
+
+  @Param({"ASYNC", "NIO", "BLOCKING"})
+  public String ioMode;
+
+  // Idle plus busy connections plus the probe stay below the blocking mode's fixed pool size
+  @Param({"0", "40"})
+  public int idleConnections;
+
+  @Param({"1", "8"})
+  public int busyConnections;
+
+  private TCPServer server;
+  private SocketChannel[] idle;
+  private SocketChannel[] busy;
+  private SocketChannel probe;
+  private ByteBuffer probeFrame;
+  private Thread loadThread;
+  private volatile boolean loadRunning;
+  private final AtomicLong probesHandled = new AtomicLong();
+  private long probesSent;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, InterruptedException {
+    Log.setLevel(LogLevel.WARN);
+    int port = Loopback.freePort();
+    server = new TCPServer(port, IoMode.valueOf(ioMode));
+    server.getDispatcher().register(PROBE_TYPE, (context, typeId, body) -> probesHandled.incrementAndGet());
+    server.getDispatcher().setFallbackHandler((context, typeId, body) -> { });
+    server.start();
+
+    idle = connect(port, idleConnections);
+    busy = connect(port, busyConnections);
+    probe = connect(port, 1)[0];
+    while (server.getActiveConnectionCount() < idleConnections + busyConnections + 1) {
+      Thread.sleep(1);
+    }
+
+    probeFrame = Loopback.frame(MessageHeader.encode(PROBE_TYPE, new byte[MESSAGE_SIZE - MessageHeader.LENGTH]));
+    ByteBuffer busyFrame = Loopback.frame(Loopback.message(MESSAGE_SIZE));
+    loadRunning = true;
+    loadThread = new Thread(() -> generateLoad(busyFrame), "Busy-Clients");
+    loadThread.setDaemon(true);
+    loadThread.start();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException, InterruptedException {
+    loadRunning = false;
+    loadThread.join(TIMEOUT_MS);
+    for (SocketChannel channel : idle) {
+      channel.close();
+    }
+    for (SocketChannel channel : busy) {
+      channel.close();
+    }
+    probe.close();
+    server.shutdown(5);
+  }
+
+  /**
+   * Time from writing a probe message until its handler has returned.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void probeLatency() throws IOException {
+    probeFrame.rewind();
+    while (probeFrame.hasRemaining()) {
+      probe.write(probeFrame);
+    }
+    probesSent++;
+    if (!Loopback.await(probesHandled, probesSent, TIMEOUT_MS)) {
+      throw new IllegalStateException("Server handled " + probesHandled.get() + " of " + probesSent + " probes");
+    }
+  }
+
+  /**
+   * Writes one message to every busy connection per round, with a short pause between rounds.
+   */
+  private void generateLoad(ByteBuffer frame) {
+    try {
+      while (loadRunning) {
+        for (SocketChannel channel : busy) {
+          frame.rewind();
+          while (frame.hasRemaining()) {
+            channel.write(frame);
+          }
+        }
+        LockSupport.parkNanos(BUSY_PAUSE_NANOS);
+      }
+    } catch (IOException e) {
+      // Connections closed by tear-down
+    }
+  }
+
+  private static SocketChannel[] connect(int port, int count) throws IOException {
+    SocketChannel[] channels = new SocketChannel[count];
+    for (int i = 0; i < count; i++) {
+      channels[i] = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+      channels[i].setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+    return channels;
+  }
+}
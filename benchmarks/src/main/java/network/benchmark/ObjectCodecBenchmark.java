@@ -0,0 +1,152 @@
+package network.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import network.handler.CodecRegistry;
+import network.handler.MessageContext;
+import network.handler.MessageDispatcher;
+import network.handler.MessageHeader;
+import network.handler.ObjectCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of turning a telemetry object into a message payload and back with a {@link CodecRegistry}, against
+ * {@link ObjectOutputStream} and {@link ObjectInputStream}. Decoding with the registry goes through a
+ * {@link MessageDispatcher}, as on a server. Run with {@code -prof gc} to compare allocation per operation; the encoded
+ * sizes are printed once at setup.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dnetwork.log.level=WARN")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ObjectCodecBenchmark {
+
+  private static final int READING_TYPE = 20;
+
+  /**
+   * A sensor reading, serializable for the comparison.
+   */
+  static final class Reading implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    final String sensor;
+    final long timestampMillis;
+    final int sequence;
+    final double value;
+
+    Reading(String sensor, long timestampMillis, int sequence, double value) {
+      this.sensor = sensor;
+      this.timestampMillis = timestampMillis;
+      this.sequence = sequence;
+      this.value = value;
+    }
+  }
+
+  static final ObjectCodec<Reading> READING_CODEC = new ObjectCodec<Reading>() {
+    @Override
+    public void write(Reading reading, ByteBuffer out) {
+      ObjectCodec.putString(out, reading.sensor);
+      out.putLong(reading.timestampMillis);
+      out.putInt(reading.sequence);
+      out.putDouble(reading.value);
+    }
+
+    @Override
+    public Reading read(ByteBuffer in) {
+      return new Reading(ObjectCodec.getString(in), in.getLong(), in.getInt(), in.getDouble());
+    }
+  };
+
+  private final CodecRegistry codecs = new CodecRegistry();
+  private final MessageDispatcher dispatcher = new MessageDispatcher();
+  private Reading reading;
+  private ByteBuffer encoded;
+  private byte[] serialized;
+  private Reading decoded;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    codecs.register(READING_TYPE, Reading.class, READING_CODEC);
+    dispatcher.register(codecs, Reading.class, (context, message) -> decoded = message);
+
+    reading = new Reading("boiler-room/temperature-3", 1_700_000_000_000L, 4711, 21.75);
+    encoded = ByteBuffer.wrap(codecs.encode(reading));
+    serialized = serialize(reading);
+    System.out.println("Encoded size: registry " + encoded.remaining() + " bytes, serialization " +
+        serialized.length + " bytes");
+  }
+
+  @Benchmark
+  public byte[] registryEncode() {
+    return codecs.encode(reading);
+  }
+
+  @Benchmark
+  public Reading registryDecode() {
+    encoded.rewind();
+    dispatcher.dispatch(Context.INSTANCE, encoded);
+    return decoded;
+  }
+
+  @Benchmark
+  public byte[] serializationEncode() throws IOException {
+    return serialize(reading);
+  }
+
+  @Benchmark
+  public Object serializationDecode() throws IOException, ClassNotFoundException {
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized,
+        MessageHeader.LENGTH, serialized.length - MessageHeader.LENGTH))) {
+      return in.readObject();
+    }
+  }
+
+  /**
+   * Serializes behind a message header, so both payloads carry the same type information.
+   */
+  private static byte[] serialize(Reading reading) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(READING_TYPE);
+    bytes.write(0);
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(reading);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Stands in for the connection a message arrived on.
+   */
+  private enum Context implements MessageContext {
+    INSTANCE;
+
+    @Override
+    public long getId() {
+      return 0;
+    }
+
+    @Override
+    public String getRemoteAddress() {
+      return "benchmark";
+    }
+  }
+}
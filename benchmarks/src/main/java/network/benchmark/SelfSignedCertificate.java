@@ -0,0 +1,82 @@
+package network.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * A throwaway certificate for {@code localhost} and {@code 127.0.0.1}, generated with the JDK's {@code keytool} so the
+ * TLS benchmarks need no checked-in key material. Provides a server context that presents the certificate and a client
+ * context that trusts it.
+ */
+final class SelfSignedCertificate {
+
+  private static final char[] PASSWORD = "benchmark".toCharArray();
+
+  private final KeyStore keyStore;
+
+  private SelfSignedCertificate(KeyStore keyStore) {
+    this.keyStore = keyStore;
+  }
+
+  /**
+   * Generates a new EC P-256 key pair and certificate in a temporary key store, which is deleted once loaded.
+   */
+  static SelfSignedCertificate generate() throws IOException, GeneralSecurityException, InterruptedException {
+    Path directory = Files.createTempDirectory("tls-benchmark");
+    Path file = directory.resolve("localhost.p12");
+    try {
+      String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+      Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "localhost", "-keyalg", "EC",
+          "-groupname", "secp256r1", "-sigalg", "SHA256withECDSA", "-validity", "2", "-dname", "CN=localhost",
+          "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-storetype", "PKCS12", "-keystore", file.toString(),
+          "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+          .redirectErrorStream(true)
+          .redirectOutput(new File(directory.toFile(), "keytool.log"))
+          .start();
+      if (process.waitFor() != 0) {
+        throw new IOException("keytool failed: " + new String(Files.readAllBytes(directory.resolve("keytool.log"))));
+      }
+
+      KeyStore keyStore = KeyStore.getInstance("PKCS12");
+      try (InputStream in = Files.newInputStream(file)) {
+        keyStore.load(in, PASSWORD);
+      }
+      return new SelfSignedCertificate(keyStore);
+    } finally {
+      Files.deleteIfExists(file);
+      Files.deleteIfExists(directory.resolve("keytool.log"));
+      Files.deleteIfExists(directory);
+    }
+  }
+
+  /**
+   * Creates a context that presents the certificate to clients.
+   */
+  SSLContext serverContext() throws GeneralSecurityException {
+    KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    keyManagers.init(keyStore, PASSWORD);
+    SSLContext context = SSLContext.getInstance("TLS");
+    context.init(keyManagers.getKeyManagers(), null, null);
+    return context;
+  }
+
+  /**
+   * Creates a context that trusts the certificate and nothing else.
+   */
+  SSLContext clientContext() throws GeneralSecurityException {
+    TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    trustManagers.init(keyStore);
+    SSLContext context = SSLContext.getInstance("TLS");
+    context.init(null, trustManagers.getTrustManagers(), null);
+    return context;
+  }
+}
@@ -0,0 +1,94 @@
+package network.benchmark;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import network.concurrent.MpscRingBuffer;
+import network.concurrent.MpscRingBuffer.OverflowPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Handoff cost of the client send queue: application threads offering messages while the single sender thread takes
+ * them, as in {@link network.tcp.TCPClient} and {@link network.udp.UDPClient}. Compares the {@link MpscRingBuffer}
+ * behind {@link network.tcp.TCPClient} with a bounded {@link LinkedBlockingQueue}; both drop when full, so a fast
+ * producer cannot exhaust the heap. Run with {@code -prof gc} to compare allocation per message.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendQueueBenchmark {
+
+  private static final int CAPACITY = 4096;
+
+  @Param({"64"})
+  public int messageSize;
+
+  @Param({"ring", "linked"})
+  public String queueType;
+
+  private boolean useRing;
+  private MpscRingBuffer<byte[]> ring;
+  private BlockingQueue<byte[]> linked;
+  private byte[] message;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    useRing = "ring".equals(queueType);
+    ring = new MpscRingBuffer<>(CAPACITY, OverflowPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS);
+    linked = new LinkedBlockingQueue<>(CAPACITY);
+    message = new byte[messageSize];
+  }
+
+  private boolean offer() {
+    return useRing ? ring.offer(message) : linked.offer(message);
+  }
+
+  private byte[] poll() {
+    return useRing ? ring.poll() : linked.poll();
+  }
+
+  @Benchmark
+  @Group("oneProducer")
+  @GroupThreads(1)
+  public boolean offerOne() {
+    return offer();
+  }
+
+  @Benchmark
+  @Group("oneProducer")
+  @GroupThreads(1)
+  public void pollOne(Blackhole blackhole) {
+    blackhole.consume(poll());
+  }
+
+  @Benchmark
+  @Group("fourProducers")
+  @GroupThreads(4)
+  public boolean offerFour() {
+    return offer();
+  }
+
+  @Benchmark
+  @Group("fourProducers")
+  @GroupThreads(1)
+  public void pollFour(Blackhole blackhole) {
+    blackhole.consume(poll());
+  }
+}
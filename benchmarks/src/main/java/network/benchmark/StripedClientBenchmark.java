@@ -0,0 +1,95 @@
+package network.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import network.log.Log;
+import network.log.LogLevel;
+import network.tcp.StripedTCPClient;
+import network.tcp.TCPServer;
+import network.tcp.TCPServer.IoMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end loopback throughput of {@link StripedTCPClient} by number of connections, with messages spread
+ * round-robin or by key, into a {@link TCPServer} in {@link IoMode#NIO} mode. One connection matches a plain
+ * {@link network.tcp.TCPClient}; throughput should grow with the connection count while there are cores for the extra
+ * sender threads and server readers.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dnetwork.log.level=WARN")
+public class StripedClientBenchmark {
+
+  private static final int BATCH = 1024;
+  private static final int KEYS = 64;
+  private static final long TIMEOUT_MS = 10000;
+
+  @Param({"1", "2", "4"})
+  public int connections;
+
+  @Param({"256", "4096"})
+  public int messageSize;
+
+  @Param({"true", "false"})
+  public boolean keyed;
+
+  private TCPServer server;
+  private StripedTCPClient client;
+  private byte[] message;
+  private final AtomicLong handled = new AtomicLong();
+  private long expected;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, InterruptedException {
+    Log.setLevel(LogLevel.WARN);
+    int port = Loopback.freePort();
+    server = new TCPServer(port, IoMode.NIO);
+    server.getDispatcher().setFallbackHandler((context, typeId, body) -> handled.incrementAndGet());
+    server.start();
+
+    client = new StripedTCPClient("127.0.0.1", port, connections);
+    while (client.getConnectedCount() < connections) {
+      Thread.sleep(1);
+    }
+    message = Loopback.message(messageSize);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    client.shutdown(5);
+    server.shutdown(5);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @OperationsPerInvocation(BATCH)
+  public void throughput() {
+    for (int i = 0; i < BATCH; i++) {
+      if (keyed) {
+        client.sendObject(i % KEYS, message);
+      } else {
+        client.sendObject(message);
+      }
+    }
+    expected += BATCH;
+    if (!Loopback.await(handled, expected, TIMEOUT_MS)) {
+      throw new IllegalStateException("Server handled " + handled.get() + " of " + expected + " messages");
+    }
+  }
+}
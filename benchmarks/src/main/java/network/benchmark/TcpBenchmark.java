@@ -0,0 +1,127 @@
+package network.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import network.log.Log;
+import network.log.LogLevel;
+import network.tcp.TCPServer;
+import network.tcp.TCPServer.IoMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loopback throughput and latency of {@link TCPServer}, driven by raw client channels so only the server side is
+ * measured. A message counts once its handler has returned.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dnetwork.log.level=WARN")
+public class TcpBenchmark {
+
+  private static final int BATCH = 256;
+  private static final long TIMEOUT_MS = 10000;
+
+  @Param({"NIO", "ASYNC", "BLOCKING"})
+  public String ioMode;
+
+  @Param({"16", "256", "4096"})
+  public int messageSize;
+
+  // Stays below the blocking mode's fixed pool size so every connection is serviced
+  @Param({"1", "8", "32"})
+  public int connections;
+
+  private TCPServer server;
+  private SocketChannel[] channels;
+  private ByteBuffer frame;
+  private final AtomicLong handled = new AtomicLong();
+  private long expected;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, InterruptedException {
+    Log.setLevel(LogLevel.WARN);
+    int port = Loopback.freePort();
+    server = new TCPServer(port, IoMode.valueOf(ioMode));
+    server.getDispatcher().setFallbackHandler((context, typeId, body) -> handled.incrementAndGet());
+    server.start();
+
+    channels = new SocketChannel[connections];
+    for (int i = 0; i < connections; i++) {
+      channels[i] = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+      channels[i].setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+    while (server.getActiveConnectionCount() < connections) {
+      Thread.sleep(1);
+    }
+    frame = Loopback.frame(Loopback.message(messageSize));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    for (SocketChannel channel : channels) {
+      channel.close();
+    }
+    server.shutdown(5);
+  }
+
+  /**
+   * Messages per second, written round-robin over all connections.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @OperationsPerInvocation(BATCH)
+  public void throughput() throws IOException {
+    for (int i = 0; i < BATCH; i++) {
+      send();
+    }
+    expected += BATCH;
+    awaitHandled();
+  }
+
+  /**
+   * Time from writing one message until its handler has returned.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void latency() throws IOException {
+    send();
+    expected++;
+    awaitHandled();
+  }
+
+  private void send() throws IOException {
+    SocketChannel channel = channels[next];
+    next = (next + 1) % channels.length;
+    frame.rewind();
+    while (frame.hasRemaining()) {
+      channel.write(frame);
+    }
+  }
+
+  private void awaitHandled() {
+    if (!Loopback.await(handled, expected, TIMEOUT_MS)) {
+      throw new IllegalStateException("Server handled " + handled.get() + " of " + expected + " messages");
+    }
+  }
+}
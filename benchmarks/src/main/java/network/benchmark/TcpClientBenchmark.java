@@ -0,0 +1,100 @@
+package network.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import network.log.Log;
+import network.log.LogLevel;
+import network.tcp.TCPClient;
+import network.tcp.TCPServer;
+import network.tcp.TCPServer.IoMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end loopback throughput and latency through {@link TCPClient}: send queue, sender thread, framing and the
+ * socket, into a {@link TCPServer} in {@link IoMode#NIO} mode. With {@code coalesce} off the sender writes and
+ * flushes every message on its own, as before write coalescing; compare the two at small message sizes.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dnetwork.log.level=WARN")
+public class TcpClientBenchmark {
+
+  private static final int BATCH = 256;
+  private static final long TIMEOUT_MS = 10000;
+
+  @Param({"16", "64", "256", "4096"})
+  public int messageSize;
+
+  @Param({"true", "false"})
+  public boolean coalesce;
+
+  private TCPServer server;
+  private TCPClient client;
+  private byte[] message;
+  private final AtomicLong handled = new AtomicLong();
+  private long expected;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, InterruptedException {
+    Log.setLevel(LogLevel.WARN);
+    int port = Loopback.freePort();
+    server = new TCPServer(port, IoMode.NIO);
+    server.getDispatcher().setFallbackHandler((context, typeId, body) -> handled.incrementAndGet());
+    server.start();
+
+    client = new TCPClient("127.0.0.1", port);
+    client.setWriteCoalescing(coalesce ? TCPClient.DEFAULT_MAX_BATCH_BYTES : 0, 0, TimeUnit.MICROSECONDS);
+    while (!client.isConnected()) {
+      Thread.sleep(1);
+    }
+    message = Loopback.message(messageSize);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    client.shutdown(5);
+    server.shutdown(5);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @OperationsPerInvocation(BATCH)
+  public void throughput() {
+    for (int i = 0; i < BATCH; i++) {
+      client.sendObject(message);
+    }
+    expected += BATCH;
+    awaitHandled();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void latency() {
+    client.sendObject(message);
+    expected++;
+    awaitHandled();
+  }
+
+  private void awaitHandled() {
+    if (!Loopback.await(handled, expected, TIMEOUT_MS)) {
+      throw new IllegalStateException("Server handled " + handled.get() + " of " + expected + " messages");
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package network.benchmark;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import network.codec.LengthFieldFrameCodec;
+import network.log.Log;
+import network.log.LogLevel;
+import network.tcp.TCPClient;
+import network.tcp.TCPServer;
+import network.tcp.TCPServer.IoMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of TLS on {@link TCPServer}: handshakes per second with and without session resumption, and end-to-end message
+ * throughput through an encrypted {@link TCPClient} against the same client in plaintext. Certificates are generated
+ * per trial with {@link SelfSignedCertificate}.
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dnetwork.log.level=WARN")
+public class TlsBenchmark {
+
+  private static final int BATCH = 256;
+  private static final long TIMEOUT_MS = 10000;
+
+  /**
+   * A TLS server echoing every message and a client context trusting it. A full handshake connects under a peer name
+   * never used before, so the client has no session to offer; a resumed one reuses the name and offers the session
+   * cached by the last connection. Every connection exchanges one message, which with TLS 1.3 also makes the client
+   * read the resumption ticket the server sends after the handshake.
+   */
+  @State(Scope.Benchmark)
+  public static class Handshakes {
+
+    @Param({"NIO", "ASYNC"})
+    public String ioMode;
+
+    @Param({"FULL", "RESUMED"})
+    public String handshake;
+
+    @Param({"TLSv1.3", "TLSv1.2"})
+    public String protocol;
+
+    private TCPServer server;
+    private int port;
+    private SSLSocketFactory factory;
+    private byte[] frame;
+    private long connections;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GeneralSecurityException, InterruptedException {
+      Log.setLevel(LogLevel.WARN);
+      SelfSignedCertificate certificate = SelfSignedCertificate.generate();
+      port = Loopback.freePort();
+      server = new TCPServer(port, IoMode.valueOf(ioMode));
+      server.setSslContext(certificate.serverContext());
+      server.getDispatcher().setFallbackHandler((context, typeId, body) -> context.send(typeId, body));
+      server.start();
+      factory = certificate.clientContext().getSocketFactory();
+
+      ByteBuffer encoded = Loopback.frame(Loopback.message(16));
+      frame = new byte[encoded.remaining()];
+      encoded.get(frame);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      server.shutdown(5);
+    }
+
+    String peerName() {
+      return "RESUMED".equals(handshake) ? "localhost" : "peer-" + connections++;
+    }
+  }
+
+  /**
+   * A server and a connected client, both encrypted or both plaintext.
+   */
+  @State(Scope.Benchmark)
+  public static class Messages {
+
+    @Param({"false", "true"})
+    public boolean tls;
+
+    @Param({"64", "1024", "16384"})
+    public int messageSize;
+
+    private TCPServer server;
+    private TCPClient client;
+    private byte[] message;
+    private final AtomicLong handled = new AtomicLong();
+    private long expected;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GeneralSecurityException, InterruptedException {
+      Log.setLevel(LogLevel.WARN);
+      int port = Loopback.freePort();
+      server = new TCPServer(port, IoMode.NIO);
+      server.getDispatcher().setFallbackHandler((context, typeId, body) -> handled.incrementAndGet());
+      SSLContext clientContext = null;
+      if (tls) {
+        SelfSignedCertificate certificate = SelfSignedCertificate.generate();
+        server.setSslContext(certificate.serverContext());
+        clientContext = certificate.clientContext();
+      }
+      server.start();
+
+      client = new TCPClient("localhost", port, new LengthFieldFrameCodec(), clientContext);
+      while (!client.isConnected()) {
+        Thread.sleep(1);
+      }
+      message = Loopback.message(messageSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      client.shutdown(5);
+      server.shutdown(5);
+    }
+  }
+
+  /**
+   * Connections per second that complete a handshake, exchange one small message and close.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public void handshake(Handshakes state) throws IOException {
+    Socket socket = new Socket("127.0.0.1", state.port);
+    socket.setTcpNoDelay(true);
+    try (SSLSocket tlsSocket = (SSLSocket) state.factory.createSocket(socket, state.peerName(), state.port, true)) {
+      tlsSocket.setEnabledProtocols(new String[]{state.protocol});
+      tlsSocket.getOutputStream().write(state.frame);
+      new DataInputStream(tlsSocket.getInputStream()).readFully(new byte[state.frame.length]);
+    }
+  }
+
+  /**
+   * Messages per second from the client until their handlers have returned.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @OperationsPerInvocation(BATCH)
+  public void throughput(Messages state) {
+    for (int i = 0; i < BATCH; i++) {
+      state.client.sendObject(state.message);
+    }
+    state.expected += BATCH;
+    if (!Loopback.await(state.handled, state.expected, TIMEOUT_MS)) {
+      throw new IllegalStateException("Server handled " + state.handled.get() + " of " + state.expected +
+          " messages");
+    }
+  }
+}
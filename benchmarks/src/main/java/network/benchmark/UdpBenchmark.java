@@ -0,0 +1,118 @@
+package network.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import network.log.Log;
+import network.log.LogLevel;
+import network.udp.UDPServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loopback throughput and latency of {@link UDPServer}, sending from one or more client sockets. A datagram counts once
+ * its handler has returned. Datagrams lost in a full receive buffer are skipped after a short wait and reported when the
+ * trial ends.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dnetwork.log.level=WARN")
+public class UdpBenchmark {
+
+  private static final int BATCH = 64;
+  private static final long LOSS_TIMEOUT_MS = 200;
+
+  @Param({"16", "256", "1400"})
+  public int messageSize;
+
+  @Param({"1", "8"})
+  public int senders;
+
+  private UDPServer server;
+  private DatagramChannel[] channels;
+  private ByteBuffer datagram;
+  private final AtomicLong handled = new AtomicLong();
+  private long expected;
+  private long lost;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Log.setLevel(LogLevel.WARN);
+    int port = Loopback.freePort();
+    server = new UDPServer(port);
+    server.getDispatcher().setFallbackHandler((context, typeId, body) -> handled.incrementAndGet());
+    server.start();
+
+    channels = new DatagramChannel[senders];
+    for (int i = 0; i < senders; i++) {
+      channels[i] = DatagramChannel.open();
+      channels[i].connect(new InetSocketAddress("127.0.0.1", port));
+    }
+    datagram = ByteBuffer.wrap(Loopback.message(messageSize));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    for (DatagramChannel channel : channels) {
+      channel.close();
+    }
+    server.shutdown(5);
+    if (lost > 0) {
+      System.out.println("Datagrams lost: " + lost);
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @OperationsPerInvocation(BATCH)
+  public void throughput() throws IOException {
+    for (int i = 0; i < BATCH; i++) {
+      send();
+    }
+    expected += BATCH;
+    awaitHandled();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void latency() throws IOException {
+    send();
+    expected++;
+    awaitHandled();
+  }
+
+  private void send() throws IOException {
+    DatagramChannel channel = channels[next];
+    next = (next + 1) % channels.length;
+    datagram.rewind();
+    channel.write(datagram);
+  }
+
+  private void awaitHandled() {
+    if (!Loopback.await(handled, expected, LOSS_TIMEOUT_MS)) {
+      // Resynchronize so later invocations do not wait for datagrams that will never arrive
+      long actual = handled.get();
+      lost += expected - actual;
+      expected = actual;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package network.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded pool of equally sized {@link ByteBuffer}s.
+ * <p>
+ * Buffers are handed out cleared and should be returned with {@link #release(ByteBuffer)} once the caller no longer
+ * needs them. When the pool is empty a new buffer is allocated; when it is full, released buffers are left to the
+ * garbage collector. Acquiring and releasing never allocates once the pool is warm.
+ */
+public final class BufferPool {
+
+  private final int bufferSize;
+  private final boolean direct;
+
+  // Free buffers, used as a stack so recently released (cache-warm) buffers are reused first
+  private final ByteBuffer[] free;
+  private int freeCount;
+  private long allocatedCount;
+
+  /**
+   * Creates a new buffer pool.
+   *
+   * @param bufferSize Capacity of every buffer in bytes
+   * @param maxPooled  Maximum number of idle buffers retained by the pool
+   * @param direct     true to allocate direct (off-heap) buffers, false for heap buffers
+   */
+  public BufferPool(int bufferSize, int maxPooled, boolean direct) {
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("bufferSize must be positive");
+    }
+    if (maxPooled < 0) {
+      throw new IllegalArgumentException("maxPooled must not be negative");
+    }
+    this.bufferSize = bufferSize;
+    this.direct = direct;
+    this.free = new ByteBuffer[maxPooled];
+  }
+
+  /**
+   * Takes a cleared buffer from the pool, allocating a new one if none is idle.
+   *
+   * @return A buffer with position 0 and limit equal to its capacity
+   */
+  public ByteBuffer acquire() {
+    ByteBuffer buffer = null;
+    synchronized (this) {
+      if (freeCount > 0) {
+        buffer = free[--freeCount];
+        free[freeCount] = null;
+      } else {
+        allocatedCount++;
+      }
+    }
+
+    if (buffer == null) {
+      return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer to the pool. Buffers of a different capacity or kind are ignored.
+   *
+   * @param buffer The buffer to return; must not be used by the caller afterwards
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer == null || buffer.capacity() != bufferSize || buffer.isDirect() != direct || buffer.isReadOnly()) {
+      return;
+    }
+    synchronized (this) {
+      if (freeCount < free.length) {
+        free[freeCount++] = buffer;
+      }
+    }
+  }
+
+  /**
+   * Gets the capacity of the buffers handed out by this pool.
+   *
+   * @return The buffer size in bytes
+   */
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * Gets the number of idle buffers currently held by the pool.
+   *
+   * @return The idle buffer count
+   */
+  public synchronized int getPooledCount() {
+    return freeCount;
+  }
+
+  /**
+   * Gets the number of buffers this pool has allocated since it was created.
+   *
+   * @return The allocation count
+   */
+  public synchronized long getAllocatedCount() {
+    return allocatedCount;
+  }
+}
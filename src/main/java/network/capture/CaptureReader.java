@@ -0,0 +1,180 @@
+package network.capture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import network.capture.TrafficCapture.Transport;
+
+/**
+ * Reads the records of a {@link TrafficCapture} in the order they were written, segment by segment. Each segment is
+ * mapped read-only, and payloads are views of the mapping rather than copies.
+ */
+public final class CaptureReader implements Closeable {
+
+  private final List<Path> segments;
+  private final Transport transport;
+  private final long startMillis;
+  private int nextSegment;
+  private FileChannel channel;
+  private MappedByteBuffer buffer;
+
+  // The current record
+  private boolean close;
+  private long timeNanos;
+  private long sourceId;
+  private ByteBuffer payload;
+
+  /**
+   * Opens a capture.
+   *
+   * @param directory The directory holding the segment files
+   * @throws IOException If there are no segments or they are not capture segments
+   */
+  public CaptureReader(Path directory) throws IOException {
+    List<Path> found = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+        TrafficCapture.SEGMENT_PREFIX + "*" + TrafficCapture.SEGMENT_SUFFIX)) {
+      for (Path file : files) {
+        found.add(file);
+      }
+    }
+    if (found.isEmpty()) {
+      throw new IOException("No capture segments in " + directory);
+    }
+    // Segment names are zero-padded, so name order is write order
+    Collections.sort(found);
+    this.segments = found;
+
+    openNextSegment();
+    this.transport = Transport.values()[buffer.get(6)];
+    this.startMillis = buffer.getLong(8);
+  }
+
+  /**
+   * Gets the transport the capture was recorded from.
+   *
+   * @return The transport
+   */
+  public Transport getTransport() {
+    return transport;
+  }
+
+  /**
+   * Gets the wall-clock time at which the capture started.
+   *
+   * @return The start time in milliseconds since the epoch
+   */
+  public long getStartMillis() {
+    return startMillis;
+  }
+
+  /**
+   * Advances to the next record.
+   *
+   * @return false once every record has been read
+   * @throws IOException If a segment cannot be read or is corrupt
+   */
+  public boolean next() throws IOException {
+    while (buffer != null) {
+      if (buffer.remaining() >= TrafficCapture.RECORD_HEADER_LENGTH) {
+        int start = buffer.position();
+        int length = buffer.getInt(start);
+        if (length != 0) {
+          if (length < TrafficCapture.RECORD_HEADER_LENGTH || length > buffer.remaining()) {
+            throw new IOException("Corrupt record at offset " + start + " of " + segments.get(nextSegment - 1));
+          }
+          close = buffer.get(start + 4) == TrafficCapture.KIND_CLOSE;
+          timeNanos = buffer.getLong(start + 5);
+          sourceId = buffer.getLong(start + 13);
+          buffer.limit(start + length);
+          buffer.position(start + TrafficCapture.RECORD_HEADER_LENGTH);
+          payload = buffer.slice();
+          buffer.limit(buffer.capacity());
+          buffer.position(start + length);
+          return true;
+        }
+      }
+      // End of this segment's records
+      closeSegment();
+      if (nextSegment < segments.size()) {
+        openNextSegment();
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether the current record marks the end of a connection rather than a message.
+   *
+   * @return true for a connection end
+   */
+  public boolean isClose() {
+    return close;
+  }
+
+  /**
+   * Gets the time of the current record.
+   *
+   * @return Nanoseconds since the capture started
+   */
+  public long getTimeNanos() {
+    return timeNanos;
+  }
+
+  /**
+   * Gets the connection or datagram source of the current record.
+   *
+   * @return The source ID
+   */
+  public long getSourceId() {
+    return sourceId;
+  }
+
+  /**
+   * Gets the message of the current record. The buffer is a view of the mapped segment, valid until the reader moves
+   * past the segment.
+   *
+   * @return The message payload, between position and limit; empty for a connection end
+   */
+  public ByteBuffer getPayload() {
+    return payload;
+  }
+
+  @Override
+  public void close() throws IOException {
+    closeSegment();
+    nextSegment = segments.size();
+  }
+
+  private void openNextSegment() throws IOException {
+    Path path = segments.get(nextSegment++);
+    channel = FileChannel.open(path);
+    try {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.capacity() < TrafficCapture.FILE_HEADER_LENGTH || buffer.getInt(0) != TrafficCapture.MAGIC ||
+          buffer.getShort(4) != TrafficCapture.VERSION) {
+        throw new IOException("Not a capture segment: " + path);
+      }
+      buffer.position(TrafficCapture.FILE_HEADER_LENGTH);
+    } catch (IOException e) {
+      closeSegment();
+      throw e;
+    }
+  }
+
+  private void closeSegment() throws IOException {
+    buffer = null;
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+}
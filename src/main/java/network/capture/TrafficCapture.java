@@ -0,0 +1,368 @@
+package network.capture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import network.log.Log;
+
+/**
+ * Records the messages a server receives into memory-mapped segment files, for {@link TrafficReplay} to play back.
+ * <p>
+ * Every record carries the time since the capture started, the ID of the connection or datagram source it came from,
+ * and the message payload as the dispatcher saw it, without the transport's framing. A connection's end is recorded
+ * too, so a replay closes it at the same point. Segments are pre-sized files named {@code capture-000000.seg},
+ * {@code capture-000001.seg} and so on; a new one is started when a record no longer fits.
+ * <p>
+ * Recording is built for the I/O threads: a writer reserves its record's space with one atomic add, copies the record
+ * straight into the mapping and publishes it by writing the length last, so concurrent writers never lock. Only
+ * starting a new segment is synchronized, and it does no disk I/O: a background thread creates the next segment's file
+ * ahead of time, and writes each full segment to disk and closes it. Recording never throws; a record that cannot be
+ * written is counted as dropped.
+ * <pre>
+ *   segment   magic int, version short, transport byte, reserved byte, start time long (epoch millis), records
+ *   record    length int (header and payload), kind byte, time long (nanoseconds), source long, payload
+ * </pre>
+ * A length of 0 marks the end of a segment's records.
+ */
+public final class TrafficCapture implements Closeable {
+
+  private static final Log LOG = Log.get(TrafficCapture.class);
+
+  /**
+   * Default size of a segment file in bytes.
+   */
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  /**
+   * The transport a capture was recorded from, which selects how it is replayed.
+   */
+  public enum Transport {
+    /**
+     * Sources are connections; payloads are frame payloads.
+     */
+    TCP,
+    /**
+     * Sources are remote addresses; payloads are whole datagrams.
+     */
+    UDP
+  }
+
+  static final int MAGIC = 0x4E434150; // "NCAP"
+  static final short VERSION = 1;
+  static final int FILE_HEADER_LENGTH = 16;
+  static final int RECORD_HEADER_LENGTH = 21;
+  static final byte KIND_MESSAGE = 0;
+  static final byte KIND_CLOSE = 1;
+  static final String SEGMENT_PREFIX = "capture-";
+  static final String SEGMENT_SUFFIX = ".seg";
+
+  private static final int LENGTH_OFFSET = 0;
+  private static final int KIND_OFFSET = 4;
+  private static final int TIME_OFFSET = 5;
+  private static final int SOURCE_OFFSET = 13;
+
+  private final Path directory;
+  private final Transport transport;
+  private final int segmentSize;
+  private final long startNanos = System.nanoTime();
+  private final long startMillis = System.currentTimeMillis();
+
+  private volatile Segment current; // null once closed or after a failure
+  private int segmentIndex;
+
+  // Creates the next segment's file ahead of time, and forces and closes full segments
+  private final ExecutorService segmentThread;
+  private Future<FileChannel> spare; // The next segment's file, or null once closed
+
+  private final LongAdder records = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+
+  /**
+   * Starts a capture with the default segment size.
+   *
+   * @param directory The directory receiving the segment files; created if missing, and must not hold an earlier
+   *                  capture
+   * @param transport The transport the captured messages arrive on
+   * @throws IOException If the directory or the first segment cannot be created
+   */
+  public TrafficCapture(Path directory, Transport transport) throws IOException {
+    this(directory, transport, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Starts a capture.
+   *
+   * @param directory   The directory receiving the segment files; created if missing, and must not hold an earlier
+   *                    capture
+   * @param transport   The transport the captured messages arrive on
+   * @param segmentSize The size of every segment file in bytes; larger messages are dropped
+   * @throws IOException If the directory or the first segment cannot be created
+   */
+  public TrafficCapture(Path directory, Transport transport, int segmentSize) throws IOException {
+    if (transport == null) {
+      throw new IllegalArgumentException("transport must not be null");
+    }
+    if (segmentSize < FILE_HEADER_LENGTH + RECORD_HEADER_LENGTH) {
+      throw new IllegalArgumentException("segmentSize is too small: " + segmentSize);
+    }
+    this.directory = directory;
+    this.transport = transport;
+    this.segmentSize = segmentSize;
+
+    Files.createDirectories(directory);
+    if (Files.exists(segmentPath(directory, 0))) {
+      throw new IOException("Directory already holds a capture: " + directory);
+    }
+    this.current = openSegment(createSegmentFile(segmentIndex++));
+    this.segmentThread = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "Capture-Segment-Thread");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.spare = prepareSegmentFile();
+  }
+
+  /**
+   * Records a received message. Does not change the buffer's position.
+   *
+   * @param sourceId The connection ID, or the datagram source ID from {@link #sourceId(byte[], int)}
+   * @param message  The message payload, between position and limit
+   */
+  public void recordMessage(long sourceId, ByteBuffer message) {
+    append(KIND_MESSAGE, sourceId, message);
+  }
+
+  /**
+   * Records that a connection ended.
+   *
+   * @param sourceId The connection ID
+   */
+  public void recordClose(long sourceId) {
+    append(KIND_CLOSE, sourceId, null);
+  }
+
+  /**
+   * Derives a source ID for datagrams from the sender's address. IPv4 addresses and the port map to distinct IDs;
+   * IPv6 addresses are hashed.
+   *
+   * @param address The raw IP address of the sender
+   * @param port    The sender's port
+   * @return The source ID
+   */
+  public static long sourceId(byte[] address, int port) {
+    long host = 0;
+    if (address.length == 4) {
+      for (byte b : address) {
+        host = (host << 8) | (b & 0xFF);
+      }
+    } else {
+      host = Arrays.hashCode(address) & 0xFFFFFFFFL;
+    }
+    return (host << 16) | (port & 0xFFFF);
+  }
+
+  private void append(byte kind, long sourceId, ByteBuffer message) {
+    long time = System.nanoTime() - startNanos;
+    int payloadLength = message == null ? 0 : message.remaining();
+    if (payloadLength > segmentSize - FILE_HEADER_LENGTH - RECORD_HEADER_LENGTH) {
+      dropped.increment();
+      return;
+    }
+    int length = RECORD_HEADER_LENGTH + payloadLength;
+
+    while (true) {
+      Segment segment = current;
+      if (segment == null) {
+        dropped.increment();
+        return;
+      }
+      int offset = segment.reserve(length);
+      if (offset >= 0) {
+        segment.write(offset, length, kind, time, sourceId, message);
+        records.increment();
+        return;
+      }
+      roll(segment);
+    }
+  }
+
+  /**
+   * Replaces a full segment with the next one, unless another writer already has. The next file is normally created
+   * by now, so this only maps it; the full segment is written to disk in the background.
+   */
+  private synchronized void roll(Segment full) {
+    if (current != full) {
+      return;
+    }
+    try {
+      current = openSegment(takeSpare());
+      spare = prepareSegmentFile();
+    } catch (IOException e) {
+      current = null;
+      LOG.error("Capture stopped, cannot create segment in " + directory + ": " + e.getMessage());
+    }
+    // Writers still copying into the old mapping finish there; the mapping outlives the channel
+    segmentThread.execute(full::close);
+  }
+
+  /**
+   * Creates the file of the segment after the last one on the background thread.
+   */
+  private Future<FileChannel> prepareSegmentFile() {
+    int index = segmentIndex++;
+    return segmentThread.submit(() -> createSegmentFile(index));
+  }
+
+  /**
+   * Takes the file created ahead of time, waiting if it is still being created.
+   */
+  private FileChannel takeSpare() throws IOException {
+    Future<FileChannel> file = spare;
+    spare = null;
+    try {
+      return file.get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while creating a capture segment");
+    }
+  }
+
+  private FileChannel createSegmentFile(int index) throws IOException {
+    return FileChannel.open(segmentPath(directory, index), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+  }
+
+  private Segment openSegment(FileChannel channel) throws IOException {
+    try {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+      buffer.putInt(0, MAGIC);
+      buffer.putShort(4, VERSION);
+      buffer.put(6, (byte) transport.ordinal());
+      buffer.putLong(8, startMillis);
+      return new Segment(channel, buffer);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  static Path segmentPath(Path directory, int index) {
+    return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+  }
+
+  /**
+   * Gets the number of records written.
+   *
+   * @return The record count
+   */
+  public long getRecordCount() {
+    return records.sum();
+  }
+
+  /**
+   * Gets the number of records that could not be written, because the message was larger than a segment or the
+   * capture was closed or had failed.
+   *
+   * @return The dropped record count
+   */
+  public long getDroppedCount() {
+    return dropped.sum();
+  }
+
+  /**
+   * Stops recording and writes the last segment to disk, waiting for segments still being written in the background.
+   * Records arriving afterwards are dropped.
+   */
+  @Override
+  public synchronized void close() {
+    if (segmentThread.isShutdown()) {
+      return;
+    }
+    Segment segment = current;
+    current = null;
+    if (segment != null) {
+      segmentThread.execute(segment::close);
+    }
+    if (spare != null) {
+      // Never mapped, so the unused file can be deleted right away
+      Path path = segmentPath(directory, segmentIndex - 1);
+      try {
+        takeSpare().close();
+        Files.delete(path);
+      } catch (IOException e) {
+        LOG.warn("Cannot delete unused capture segment " + path + ": " + e.getMessage());
+      }
+    }
+    segmentThread.shutdown();
+    try {
+      segmentThread.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * One mapped segment file.
+   */
+  private final class Segment {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final AtomicInteger reserved = new AtomicInteger(FILE_HEADER_LENGTH);
+
+    Segment(FileChannel channel, MappedByteBuffer buffer) {
+      this.channel = channel;
+      this.buffer = buffer;
+    }
+
+    /**
+     * Reserves space for a record.
+     *
+     * @return The offset of the record, or -1 if the segment is full
+     */
+    int reserve(int length) {
+      int offset = reserved.getAndAdd(length);
+      // Failed reservations keep counting up, so compare without overflowing
+      return offset >= 0 && offset <= segmentSize - length ? offset : -1;
+    }
+
+    void write(int offset, int length, byte kind, long time, long sourceId, ByteBuffer message) {
+      buffer.put(offset + KIND_OFFSET, kind);
+      buffer.putLong(offset + TIME_OFFSET, time);
+      buffer.putLong(offset + SOURCE_OFFSET, sourceId);
+      if (message != null && message.hasRemaining()) {
+        // Absolute bulk puts need Java 16; a view positioned at the record leaves the shared buffer untouched
+        ByteBuffer target = buffer.duplicate();
+        target.position(offset + RECORD_HEADER_LENGTH);
+        target.put(message.duplicate());
+      }
+      // The length publishes the record: a reader stops at the first zero length
+      buffer.putInt(offset + LENGTH_OFFSET, length);
+    }
+
+    void close() {
+      try {
+        buffer.force();
+        channel.close();
+      } catch (IOException e) {
+        LOG.warn("Cannot close capture segment: " + e.getMessage());
+      }
+    }
+  }
+}
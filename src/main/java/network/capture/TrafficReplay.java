@@ -0,0 +1,248 @@
+package network.capture;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import network.capture.TrafficCapture.Transport;
+import network.codec.FrameCodec;
+import network.codec.FrameException;
+import network.codec.LengthFieldFrameCodec;
+
+/**
+ * Plays a {@link TrafficCapture} back against a server, at the recorded pace, a multiple of it, or as fast as possible.
+ * <p>
+ * Every captured source gets its own connection, or its own datagram socket for UDP captures, so the server sees the
+ * same set of senders. Records are sent from a single thread in capture order, which keeps every source's messages in
+ * their original order; a captured connection end closes the replayed connection at the same point. Sends block, so a
+ * server that stops reading one connection holds up the whole replay, as a real client would be held up.
+ * <p>
+ * TCP payloads are framed with the replay's {@link FrameCodec}, which must match the server's. Run from the command
+ * line with the capture directory, the target host and port, and the speed: {@code 1} for real time, {@code N} for N
+ * times faster, or {@code max}; real time is the default.
+ * <pre>
+ *   java network.capture.TrafficReplay /var/capture/orders localhost 5000 10
+ * </pre>
+ */
+public final class TrafficReplay {
+
+  /**
+   * Replay speed that sends every record as soon as the previous one is out.
+   */
+  public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+  private final Path directory;
+  private volatile FrameCodec frameCodec = new LengthFieldFrameCodec();
+
+  private long messages;
+  private long bytes;
+  private long sources;
+  private long skipped;
+  private long elapsedNanos;
+
+  /**
+   * Creates a replay of a capture.
+   *
+   * @param directory The directory holding the capture's segment files
+   */
+  public TrafficReplay(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Sets the framing used for TCP captures. Defaults to a {@link LengthFieldFrameCodec}.
+   *
+   * @param frameCodec The codec the target server uses
+   */
+  public void setFrameCodec(FrameCodec frameCodec) {
+    if (frameCodec == null) {
+      throw new IllegalArgumentException("frameCodec must not be null");
+    }
+    this.frameCodec = frameCodec;
+  }
+
+  /**
+   * Replays the capture and returns once every record has been sent and every connection closed.
+   *
+   * @param target The server to send to
+   * @param speed  How many times faster than recorded to replay; 1 for real time, {@link #MAX_SPEED} for no pauses
+   * @throws IOException If the capture cannot be read or a connection fails
+   */
+  public void replay(InetSocketAddress target, double speed) throws IOException {
+    if (!(speed > 0)) {
+      throw new IllegalArgumentException("speed must be positive: " + speed);
+    }
+    messages = 0;
+    bytes = 0;
+    sources = 0;
+    skipped = 0;
+
+    FrameCodec codec = frameCodec;
+    ByteBuffer frame = ByteBuffer.allocate(codec.encodedLength(1024));
+    Map<Long, ByteChannel> channels = new HashMap<>();
+    long start = System.nanoTime();
+    try (CaptureReader reader = new CaptureReader(directory)) {
+      boolean tcp = reader.getTransport() == Transport.TCP;
+      long firstRecord = -1;
+      while (reader.next()) {
+        if (firstRecord < 0) {
+          firstRecord = reader.getTimeNanos();
+        }
+        awaitSchedule(start, reader.getTimeNanos() - firstRecord, speed);
+
+        Long sourceId = reader.getSourceId();
+        if (reader.isClose()) {
+          ByteChannel channel = channels.remove(sourceId);
+          if (channel != null) {
+            channel.close();
+          }
+          continue;
+        }
+
+        ByteChannel channel = channels.get(sourceId);
+        if (channel == null) {
+          channel = tcp ? openTcp(target) : DatagramChannel.open().connect(target);
+          channels.put(sourceId, channel);
+          sources++;
+        }
+
+        ByteBuffer payload = reader.getPayload();
+        int length = payload.remaining();
+        if (tcp) {
+          if (length > codec.getMaxFrameLength()) {
+            skipped++;
+            continue;
+          }
+          int frameLength = codec.encodedLength(length);
+          if (frame.capacity() < frameLength) {
+            frame = ByteBuffer.allocate(frameLength);
+          }
+          frame.clear();
+          try {
+            codec.encode(payload, frame);
+          } catch (FrameException e) {
+            skipped++;
+            continue;
+          }
+          frame.flip();
+          writeFully(channel, frame);
+        } else {
+          channel.write(payload);
+        }
+        messages++;
+        bytes += length;
+      }
+    } finally {
+      for (ByteChannel channel : channels.values()) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          // Ignore errors during cleanup
+        }
+      }
+      elapsedNanos = System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * Gets the number of messages sent by the last replay.
+   *
+   * @return The message count
+   */
+  public long getMessageCount() {
+    return messages;
+  }
+
+  /**
+   * Gets the number of payload bytes sent by the last replay, excluding framing.
+   *
+   * @return The payload byte count
+   */
+  public long getByteCount() {
+    return bytes;
+  }
+
+  /**
+   * Gets the number of connections or datagram sockets the last replay opened, one per captured source.
+   *
+   * @return The source count
+   */
+  public long getSourceCount() {
+    return sources;
+  }
+
+  /**
+   * Gets the number of messages the last replay skipped because the frame codec could not frame them.
+   *
+   * @return The skipped message count
+   */
+  public long getSkippedCount() {
+    return skipped;
+  }
+
+  /**
+   * Gets how long the last replay took.
+   *
+   * @return The duration in nanoseconds
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * Waits until a record is due. Records that are already late go out straight away.
+   */
+  private static void awaitSchedule(long start, long offsetNanos, double speed) {
+    if (speed == MAX_SPEED) {
+      return;
+    }
+    long due = start + (long) (offsetNanos / speed);
+    long remaining;
+    while ((remaining = due - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(remaining);
+    }
+  }
+
+  private static SocketChannel openTcp(InetSocketAddress target) throws IOException {
+    SocketChannel channel = SocketChannel.open(target);
+    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    return channel;
+  }
+
+  private static void writeFully(ByteChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3) {
+      System.err.println("Usage: TrafficReplay <capture directory> <host> <port> [1|N|max]");
+      System.exit(1);
+    }
+    Path directory = Paths.get(args[0]);
+    InetSocketAddress target = new InetSocketAddress(args[1], Integer.parseInt(args[2]));
+    double speed = args.length < 4 ? 1 : args[3].equalsIgnoreCase("max") ? MAX_SPEED : Double.parseDouble(args[3]);
+
+    TrafficReplay replay = new TrafficReplay(directory);
+    replay.replay(target, speed);
+
+    PrintStream report = System.out;
+    double seconds = replay.getElapsedNanos() / 1e9;
+    report.println(String.format("Replayed %d messages (%d bytes) from %d sources in %.3f s: %.0f messages/s",
+        replay.getMessageCount(), replay.getByteCount(), replay.getSourceCount(), seconds,
+        replay.getMessageCount() / seconds));
+    if (replay.getSkippedCount() > 0) {
+      report.println("Skipped " + replay.getSkippedCount() + " messages the frame codec cannot frame");
+    }
+  }
+}
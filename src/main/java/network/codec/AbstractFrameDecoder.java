@@ -0,0 +1,134 @@
+package network.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Base class for decoders that keep the bytes of an incomplete frame between reads.
+ * <p>
+ * Complete frames are passed to the listener straight out of the caller's buffer. Only a frame that spans reads is
+ * copied into the cumulation buffer, which grows on demand up to {@code maxBufferedBytes} and is then reused for every
+ * later frame, so the decode path does not allocate per frame.
+ */
+abstract class AbstractFrameDecoder implements FrameDecoder {
+
+  // Initial size of the cumulation buffer
+  private static final int INITIAL_CUMULATION_SIZE = 1024;
+
+  private final int maxBufferedBytes;
+  private ByteBuffer cumulation;
+
+  /**
+   * @param maxBufferedBytes Upper bound for the cumulation buffer, including any header or delimiter bytes
+   */
+  AbstractFrameDecoder(int maxBufferedBytes) {
+    this.maxBufferedBytes = maxBufferedBytes;
+  }
+
+  /**
+   * Gets the number of bytes of the current incomplete frame held in the cumulation buffer.
+   *
+   * @return The buffered byte count
+   */
+  final int buffered() {
+    return cumulation == null ? 0 : cumulation.position();
+  }
+
+  @Override
+  public boolean hasPartialFrame() {
+    return buffered() > 0;
+  }
+
+  /**
+   * Gets the cumulation buffer in write mode. Only valid while {@link #buffered()} is greater than zero.
+   *
+   * @return The cumulation buffer
+   */
+  final ByteBuffer cumulation() {
+    return cumulation;
+  }
+
+  /**
+   * Copies {@code length} bytes from the position of {@code in} into the cumulation buffer and advances {@code in}.
+   *
+   * @param in     The source buffer
+   * @param length Number of bytes to copy
+   * @throws FrameException If the buffered frame would exceed the configured maximum
+   */
+  final void accumulate(ByteBuffer in, int length) throws FrameException {
+    int required = buffered() + length;
+    if (required > maxBufferedBytes) {
+      throw new FrameException("Frame exceeds maximum of " + maxBufferedBytes + " buffered bytes");
+    }
+    ensureCapacity(required);
+
+    int oldLimit = in.limit();
+    in.limit(in.position() + length);
+    cumulation.put(in);
+    in.limit(oldLimit);
+  }
+
+  /**
+   * Passes the buffered frame bytes {@code [start, end)} to the listener and empties the cumulation buffer.
+   *
+   * @param start    Offset of the payload in the cumulation buffer
+   * @param end      Offset just past the payload
+   * @param listener Receives the frame
+   */
+  final void emitBuffered(int start, int end, FrameListener listener) {
+    cumulation.limit(end);
+    cumulation.position(start);
+    try {
+      listener.onFrame(cumulation);
+    } finally {
+      cumulation.clear();
+    }
+  }
+
+  /**
+   * Passes the bytes {@code [start, end)} of {@code in} to the listener without copying and leaves {@code in}
+   * positioned at {@code end}.
+   *
+   * @param in       The buffer holding the frame
+   * @param start    Offset of the payload
+   * @param end      Offset just past the payload
+   * @param listener Receives the frame
+   */
+  static void emitInPlace(ByteBuffer in, int start, int end, FrameListener listener) {
+    int oldLimit = in.limit();
+    in.limit(end);
+    in.position(start);
+    try {
+      listener.onFrame(in);
+    } finally {
+      in.limit(oldLimit);
+      in.position(end);
+    }
+  }
+
+  @Override
+  public void reset() {
+    if (cumulation != null) {
+      cumulation.clear();
+    }
+  }
+
+  private void ensureCapacity(int required) {
+    if (cumulation == null) {
+      cumulation = ByteBuffer.allocate(Math.min(maxBufferedBytes, Math.max(INITIAL_CUMULATION_SIZE, required)));
+      return;
+    }
+    if (cumulation.capacity() >= required) {
+      return;
+    }
+
+    // Grow by doubling, bounded by the configured maximum
+    int newCapacity = cumulation.capacity();
+    while (newCapacity < required) {
+      newCapacity = (int) Math.min((long) newCapacity * 2, maxBufferedBytes);
+    }
+    ByteBuffer grown = ByteBuffer.allocate(newCapacity);
+    cumulation.flip();
+    grown.put(cumulation);
+    cumulation = grown;
+  }
+}
@@ -0,0 +1,152 @@
+package network.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Ends each frame with a delimiter byte sequence, such as a line feed. The delimiter is stripped from decoded frames,
+ * so payloads must not contain it.
+ */
+public class DelimiterFrameCodec implements FrameCodec {
+
+  private final byte[] delimiter;
+  private final int[] failure;
+  private final int maxFrameLength;
+
+  /**
+   * Creates a codec that splits on {@code \n}.
+   *
+   * @param maxFrameLength Largest accepted payload in bytes, excluding the delimiter
+   * @return A line-based codec
+   */
+  public static DelimiterFrameCodec lines(int maxFrameLength) {
+    return new DelimiterFrameCodec("\n".getBytes(StandardCharsets.US_ASCII), maxFrameLength);
+  }
+
+  /**
+   * Creates a codec for the given delimiter.
+   *
+   * @param delimiter      Bytes that end every frame
+   * @param maxFrameLength Largest accepted payload in bytes, excluding the delimiter
+   */
+  public DelimiterFrameCodec(byte[] delimiter, int maxFrameLength) {
+    if (delimiter == null || delimiter.length == 0) {
+      throw new IllegalArgumentException("delimiter must not be empty");
+    }
+    if (maxFrameLength < 0 || maxFrameLength > Integer.MAX_VALUE - delimiter.length) {
+      throw new IllegalArgumentException("maxFrameLength out of range");
+    }
+    this.delimiter = delimiter.clone();
+    this.failure = buildFailureTable(this.delimiter);
+    this.maxFrameLength = maxFrameLength;
+  }
+
+  /**
+   * Builds the Knuth-Morris-Pratt failure table so that a delimiter split across reads is still found.
+   */
+  private static int[] buildFailureTable(byte[] pattern) {
+    int[] table = new int[pattern.length];
+    int k = 0;
+    for (int i = 1; i < pattern.length; i++) {
+      while (k > 0 && pattern[i] != pattern[k]) {
+        k = table[k - 1];
+      }
+      if (pattern[i] == pattern[k]) {
+        k++;
+      }
+      table[i] = k;
+    }
+    return table;
+  }
+
+  @Override
+  public FrameDecoder newDecoder() {
+    return new Decoder();
+  }
+
+  @Override
+  public int getMaxFrameLength() {
+    return maxFrameLength;
+  }
+
+  @Override
+  public int encodedLength(int payloadLength) {
+    return payloadLength + delimiter.length;
+  }
+
+  @Override
+  public void writeHeader(int payloadLength, ByteBuffer out) throws FrameException {
+    if (payloadLength > maxFrameLength) {
+      throw new FrameException("Payload of " + payloadLength + " bytes exceeds maximum of " + maxFrameLength);
+    }
+  }
+
+  @Override
+  public void writeTrailer(ByteBuffer out) {
+    out.put(delimiter);
+  }
+
+  /**
+   * Decoder state for one connection.
+   */
+  private final class Decoder extends AbstractFrameDecoder {
+
+    // Number of delimiter bytes matched so far, carried across reads
+    private int matched;
+
+    Decoder() {
+      super(maxFrameLength + delimiter.length);
+    }
+
+    @Override
+    public void decode(ByteBuffer in, FrameListener listener) throws FrameException {
+      int frameStart = in.position();
+      int limit = in.limit();
+
+      for (int i = frameStart; i < limit; i++) {
+        byte b = in.get(i);
+        while (matched > 0 && b != delimiter[matched]) {
+          matched = failure[matched - 1];
+        }
+        if (b == delimiter[matched]) {
+          matched++;
+        }
+
+        if (matched == delimiter.length) {
+          matched = 0;
+          int frameEnd = i + 1;
+          if (buffered() > 0) {
+            // Frame started in an earlier read; finish it in the cumulation buffer
+            in.position(frameStart);
+            accumulate(in, frameEnd - frameStart);
+            emitBuffered(0, buffered() - delimiter.length, listener);
+          } else {
+            checkLength(frameEnd - frameStart - delimiter.length);
+            emitInPlace(in, frameStart, frameEnd - delimiter.length, listener);
+          }
+          in.position(frameEnd);
+          frameStart = frameEnd;
+        } else if (buffered() + (i + 1 - frameStart) - matched > maxFrameLength) {
+          throw new FrameException("Frame exceeds maximum of " + maxFrameLength + " bytes without a delimiter");
+        }
+      }
+
+      in.position(frameStart);
+      if (in.hasRemaining()) {
+        accumulate(in, in.remaining());
+      }
+    }
+
+    private void checkLength(int length) throws FrameException {
+      if (length > maxFrameLength) {
+        throw new FrameException("Frame of " + length + " bytes exceeds maximum of " + maxFrameLength);
+      }
+    }
+
+    @Override
+    public void reset() {
+      super.reset();
+      matched = 0;
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package network.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Treats the stream as a sequence of frames of one fixed length, with no header or delimiter.
+ */
+public class FixedLengthFrameCodec implements FrameCodec {
+
+  private final int frameLength;
+
+  /**
+   * Creates a codec for frames of the given length.
+   *
+   * @param frameLength Length of every frame in bytes
+   */
+  public FixedLengthFrameCodec(int frameLength) {
+    if (frameLength <= 0) {
+      throw new IllegalArgumentException("frameLength must be positive");
+    }
+    this.frameLength = frameLength;
+  }
+
+  @Override
+  public FrameDecoder newDecoder() {
+    return new Decoder();
+  }
+
+  @Override
+  public int getMaxFrameLength() {
+    return frameLength;
+  }
+
+  @Override
+  public int encodedLength(int payloadLength) {
+    return payloadLength;
+  }
+
+  @Override
+  public void writeHeader(int payloadLength, ByteBuffer out) throws FrameException {
+    if (payloadLength != frameLength) {
+      throw new FrameException("Payload of " + payloadLength + " bytes does not match frame length " + frameLength);
+    }
+  }
+
+  @Override
+  public void writeTrailer(ByteBuffer out) {
+    // Fixed-length frames have no trailer
+  }
+
+  /**
+   * Decoder state for one connection.
+   */
+  private final class Decoder extends AbstractFrameDecoder {
+
+    Decoder() {
+      super(frameLength);
+    }
+
+    @Override
+    public void decode(ByteBuffer in, FrameListener listener) throws FrameException {
+      if (buffered() > 0) {
+        // Complete the frame that started in an earlier read
+        int missing = frameLength - buffered();
+        int available = Math.min(missing, in.remaining());
+        accumulate(in, available);
+        if (available < missing) {
+          return;
+        }
+        emitBuffered(0, frameLength, listener);
+      }
+
+      while (in.remaining() >= frameLength) {
+        int start = in.position();
+        emitInPlace(in, start, start + frameLength, listener);
+      }
+
+      if (in.hasRemaining()) {
+        accumulate(in, in.remaining());
+      }
+    }
+  }
+}
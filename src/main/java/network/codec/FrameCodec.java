@@ -0,0 +1,61 @@
+package network.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Describes how messages are delimited on a TCP stream. A codec is stateless and can be shared; per-connection state
+ * lives in the decoders it creates.
+ */
+public interface FrameCodec {
+
+  /**
+   * Creates a decoder for a new connection.
+   *
+   * @return A fresh decoder with no buffered data
+   */
+  FrameDecoder newDecoder();
+
+  /**
+   * Gets the largest payload this codec accepts in either direction.
+   *
+   * @return The maximum frame payload length in bytes
+   */
+  int getMaxFrameLength();
+
+  /**
+   * Gets the number of bytes a payload occupies on the wire once framed.
+   *
+   * @param payloadLength Length of the payload in bytes
+   * @return The encoded frame length in bytes
+   */
+  int encodedLength(int payloadLength);
+
+  /**
+   * Writes the bytes that precede a payload of the given length.
+   *
+   * @param payloadLength Length of the payload in bytes
+   * @param out           Buffer receiving the header
+   * @throws FrameException If the payload length cannot be framed by this codec
+   */
+  void writeHeader(int payloadLength, ByteBuffer out) throws FrameException;
+
+  /**
+   * Writes the bytes that follow a payload.
+   *
+   * @param out Buffer receiving the trailer
+   */
+  void writeTrailer(ByteBuffer out);
+
+  /**
+   * Writes a complete frame for the remaining bytes of {@code payload} into {@code out}.
+   *
+   * @param payload The payload, between position and limit; fully consumed on return
+   * @param out     Buffer receiving the frame; must have {@link #encodedLength(int)} bytes remaining
+   * @throws FrameException If the payload cannot be framed by this codec
+   */
+  default void encode(ByteBuffer payload, ByteBuffer out) throws FrameException {
+    writeHeader(payload.remaining(), out);
+    out.put(payload);
+    writeTrailer(out);
+  }
+}
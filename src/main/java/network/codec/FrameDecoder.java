@@ -0,0 +1,35 @@
+package network.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incrementally splits a byte stream into frames. A decoder keeps the state of one stream and must not be shared
+ * between connections.
+ */
+public interface FrameDecoder {
+
+  /**
+   * Consumes all remaining bytes of {@code in} and reports every frame they complete. Bytes of an incomplete frame are
+   * kept until the next call.
+   *
+   * @param in       Newly received bytes, between position and limit; fully consumed on return
+   * @param listener Receives each complete frame
+   * @throws FrameException If the stream violates the framing rules
+   */
+  void decode(ByteBuffer in, FrameListener listener) throws FrameException;
+
+  /**
+   * Discards any partially received frame.
+   */
+  void reset();
+
+  /**
+   * Checks whether bytes of an incomplete frame are held between calls. Used to detect peers that stall in the middle
+   * of a frame.
+   *
+   * @return true if a frame has started but not yet completed
+   */
+  default boolean hasPartialFrame() {
+    return false;
+  }
+}
@@ -0,0 +1,21 @@
+package network.codec;
+
+import java.io.IOException;
+
+/**
+ * Signals that a byte stream violates the framing rules of a {@link FrameCodec}, for example a frame that exceeds the
+ * configured maximum length. The connection that produced it can no longer be decoded reliably and should be closed.
+ */
+public class FrameException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Creates a new framing exception.
+   *
+   * @param message Description of the violation
+   */
+  public FrameException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,17 @@
+package network.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives complete frames from a {@link FrameDecoder}.
+ */
+public interface FrameListener {
+
+  /**
+   * Called once per decoded frame. The frame payload lies between the buffer's position and limit. The buffer is only
+   * valid for the duration of the call and must not be retained; copy the bytes if they are needed afterwards.
+   *
+   * @param frame The frame payload, without header or delimiter
+   */
+  void onFrame(ByteBuffer frame);
+}
@@ -0,0 +1,165 @@
+package network.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames each payload with a big-endian unsigned length prefix of 1, 2 or 4 bytes. This is the default codec of
+ * {@code TCPServer} and {@code TCPClient}.
+ */
+public class LengthFieldFrameCodec implements FrameCodec {
+
+  /**
+   * Maximum payload length used when none is given: 1 MiB.
+   */
+  public static final int DEFAULT_MAX_FRAME_LENGTH = 1024 * 1024;
+
+  private final int lengthFieldBytes;
+  private final int maxFrameLength;
+
+  /**
+   * Creates a codec with a 4-byte length prefix and a 1 MiB payload limit.
+   */
+  public LengthFieldFrameCodec() {
+    this(4, DEFAULT_MAX_FRAME_LENGTH);
+  }
+
+  /**
+   * Creates a codec with the given prefix size and payload limit.
+   *
+   * @param lengthFieldBytes Size of the length prefix: 1, 2 or 4
+   * @param maxFrameLength   Largest accepted payload in bytes
+   */
+  public LengthFieldFrameCodec(int lengthFieldBytes, int maxFrameLength) {
+    if (lengthFieldBytes != 1 && lengthFieldBytes != 2 && lengthFieldBytes != 4) {
+      throw new IllegalArgumentException("lengthFieldBytes must be 1, 2 or 4");
+    }
+    long fieldMax = lengthFieldBytes == 4 ? Integer.MAX_VALUE : (1L << (lengthFieldBytes * 8)) - 1;
+    if (maxFrameLength < 0 || maxFrameLength > fieldMax || maxFrameLength > Integer.MAX_VALUE - lengthFieldBytes) {
+      throw new IllegalArgumentException("maxFrameLength does not fit a " + lengthFieldBytes + "-byte length field");
+    }
+    this.lengthFieldBytes = lengthFieldBytes;
+    this.maxFrameLength = maxFrameLength;
+  }
+
+  @Override
+  public FrameDecoder newDecoder() {
+    return new Decoder();
+  }
+
+  @Override
+  public int getMaxFrameLength() {
+    return maxFrameLength;
+  }
+
+  @Override
+  public int encodedLength(int payloadLength) {
+    return lengthFieldBytes + payloadLength;
+  }
+
+  @Override
+  public void writeHeader(int payloadLength, ByteBuffer out) throws FrameException {
+    if (payloadLength > maxFrameLength) {
+      throw new FrameException("Payload of " + payloadLength + " bytes exceeds maximum of " + maxFrameLength);
+    }
+    switch (lengthFieldBytes) {
+      case 1:
+        out.put((byte) payloadLength);
+        break;
+      case 2:
+        out.putShort((short) payloadLength);
+        break;
+      default:
+        out.putInt(payloadLength);
+        break;
+    }
+  }
+
+  @Override
+  public void writeTrailer(ByteBuffer out) {
+    // Length-prefixed frames have no trailer
+  }
+
+  /**
+   * Reads the length prefix at an absolute offset.
+   */
+  private long readLength(ByteBuffer buffer, int offset) {
+    switch (lengthFieldBytes) {
+      case 1:
+        return buffer.get(offset) & 0xFFL;
+      case 2:
+        return buffer.getShort(offset) & 0xFFFFL;
+      default:
+        return buffer.getInt(offset) & 0xFFFFFFFFL;
+    }
+  }
+
+  private int checkLength(long length) throws FrameException {
+    if (length > maxFrameLength) {
+      throw new FrameException("Frame of " + length + " bytes exceeds maximum of " + maxFrameLength);
+    }
+    return (int) length;
+  }
+
+  /**
+   * Decoder state for one connection.
+   */
+  private final class Decoder extends AbstractFrameDecoder {
+
+    Decoder() {
+      super(lengthFieldBytes + maxFrameLength);
+    }
+
+    @Override
+    public void decode(ByteBuffer in, FrameListener listener) throws FrameException {
+      while (in.hasRemaining()) {
+        if (buffered() > 0) {
+          // Complete the frame that started in an earlier read
+          if (!completeBuffered(in, listener)) {
+            return;
+          }
+          continue;
+        }
+
+        if (in.remaining() < lengthFieldBytes) {
+          accumulate(in, in.remaining());
+          return;
+        }
+
+        int frameLength = checkLength(readLength(in, in.position()));
+        if (in.remaining() - lengthFieldBytes < frameLength) {
+          // Partial frame; keep it for the next read
+          accumulate(in, in.remaining());
+          return;
+        }
+
+        int start = in.position() + lengthFieldBytes;
+        emitInPlace(in, start, start + frameLength, listener);
+      }
+    }
+
+    /**
+     * Moves bytes from {@code in} into the cumulation buffer until the buffered frame is complete.
+     *
+     * @return true if a frame was emitted, false if more input is needed
+     */
+    private boolean completeBuffered(ByteBuffer in, FrameListener listener) throws FrameException {
+      if (buffered() < lengthFieldBytes) {
+        accumulate(in, Math.min(lengthFieldBytes - buffered(), in.remaining()));
+        if (buffered() < lengthFieldBytes) {
+          return false;
+        }
+      }
+
+      int frameLength = checkLength(readLength(cumulation(), 0));
+      int missing = lengthFieldBytes + frameLength - buffered();
+      int available = Math.min(missing, in.remaining());
+      accumulate(in, available);
+      if (available < missing) {
+        return false;
+      }
+
+      emitBuffered(lengthFieldBytes, lengthFieldBytes + frameLength, listener);
+      return true;
+    }
+  }
+}
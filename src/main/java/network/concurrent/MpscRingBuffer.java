@@ -0,0 +1,411 @@
+package network.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue for many producer threads and one consumer thread, backed by a preallocated ring of slots.
+ * <p>
+ * Every slot carries a sequence number telling producers when it is free and the consumer when it is filled (the
+ * bounded queue of D. Vyukov). A producer claims a slot with one compare-and-set on the tail counter and publishes its
+ * element by advancing the slot's sequence, so producers only contend on that counter, never on a lock, and offering
+ * allocates nothing. The consumer parks while the queue is empty and is unparked by the next offer.
+ * <p>
+ * What an offer does when the ring is full is set by the {@link OverflowPolicy}. Only producers blocked by
+ * {@link OverflowPolicy#BLOCK} use a lock, to wait for the consumer to free a slot.
+ *
+ * @param <E> The element type
+ */
+public final class MpscRingBuffer<E> {
+
+  /**
+   * Selects what an offer does when the queue is full.
+   */
+  public enum OverflowPolicy {
+    /**
+     * Wait for the consumer to free a slot, up to the block timeout, then drop the new element.
+     */
+    BLOCK,
+    /**
+     * Drop the new element.
+     */
+    DROP_NEWEST,
+    /**
+     * Drop the oldest queued elements until the new one fits.
+     */
+    DROP_OLDEST,
+    /**
+     * Reject the new element with an {@link IllegalStateException}.
+     */
+    FAIL
+  }
+
+  private final int mask;
+  private final Object[] elements;
+  // Slot i is free for the producer of position p when its sequence is p, and filled for the consumer when it is p + 1
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong(); // Next position to fill
+  private final AtomicLong head = new AtomicLong(); // Next position to take
+
+  private volatile OverflowPolicy overflowPolicy;
+  private volatile long blockTimeoutNanos;
+  private final LongAdder dropped = new LongAdder();
+
+  // The consumer while it is parked on an empty queue; the first offer to take it out unparks it
+  private final AtomicReference<Thread> parkedConsumer = new AtomicReference<>();
+  private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+  // Producers waiting for a free slot under OverflowPolicy.BLOCK. The consumer signals one at a time and not again until
+  // it has woken, which hands the lock off once per wakeup rather than once per poll
+  private final ReentrantLock fullLock = new ReentrantLock();
+  private final Condition notFull = fullLock.newCondition();
+  private volatile int blockedProducers;
+  private volatile boolean producerSignalled;
+
+  /**
+   * Creates a queue.
+   *
+   * @param capacity         The minimum number of elements the queue holds; rounded up to a power of two
+   * @param overflowPolicy   What an offer does when the queue is full
+   * @param blockTimeout     How long an offer waits for a free slot under {@link OverflowPolicy#BLOCK}
+   * @param blockTimeoutUnit The unit of the block timeout
+   */
+  public MpscRingBuffer(int capacity, OverflowPolicy overflowPolicy, long blockTimeout, TimeUnit blockTimeoutUnit) {
+    if (capacity < 1 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("capacity must be between 1 and 2^30: " + capacity);
+    }
+    int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    this.mask = size - 1;
+    this.elements = new Object[size];
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    setOverflowPolicy(overflowPolicy);
+    setBlockTimeout(blockTimeout, blockTimeoutUnit);
+  }
+
+  /**
+   * Adds an element, applying the overflow policy if the queue is full.
+   *
+   * @param element The element to add
+   * @return true if the element was queued, false if it was dropped
+   * @throws IllegalStateException If the queue is full and the policy is {@link OverflowPolicy#FAIL}
+   */
+  public boolean offer(E element) {
+    if (element == null) {
+      throw new IllegalArgumentException("element must not be null");
+    }
+    if (!tryOffer(element)) {
+      switch (overflowPolicy) {
+        case DROP_NEWEST:
+          dropped.increment();
+          return false;
+        case DROP_OLDEST:
+          do {
+            if (dequeue() != null) {
+              dropped.increment();
+            } else {
+              // The oldest slot is claimed but not yet filled; let its producer finish
+              Thread.yield();
+            }
+          } while (!tryOffer(element));
+          break;
+        case FAIL:
+          dropped.increment();
+          throw new IllegalStateException("Queue is full (capacity " + capacity() + ")");
+        default:
+          if (!awaitOffer(element)) {
+            dropped.increment();
+            return false;
+          }
+      }
+    }
+
+    Thread consumer = parkedConsumer.get();
+    if (consumer != null && parkedConsumer.compareAndSet(consumer, null)) {
+      LockSupport.unpark(consumer);
+    }
+    return true;
+  }
+
+  /**
+   * Removes the oldest element. Must only be called from the consumer thread.
+   *
+   * @return The element, or null if the queue is empty
+   */
+  public E poll() {
+    E element = dequeue();
+    if (element != null && blockedProducers > 0 && !producerSignalled) {
+      fullLock.lock();
+      try {
+        if (blockedProducers > 0) {
+          producerSignalled = true;
+          notFull.signal();
+        }
+      } finally {
+        fullLock.unlock();
+      }
+    }
+    return element;
+  }
+
+  /**
+   * Removes the oldest element, waiting for one if the queue is empty. Must only be called from the consumer thread.
+   *
+   * @return The element, or null if {@link #wakeup()} ended the wait
+   * @throws InterruptedException If the thread is interrupted while waiting
+   */
+  public E take() throws InterruptedException {
+    E element = poll();
+    return element != null ? element : await(false, 0);
+  }
+
+  /**
+   * Removes the oldest element, waiting up to the timeout for one if the queue is empty. Must only be called from the
+   * consumer thread.
+   *
+   * @param timeout How long to wait
+   * @param unit    The unit of the timeout
+   * @return The element, or null if none arrived in time or {@link #wakeup()} ended the wait
+   * @throws InterruptedException If the thread is interrupted while waiting
+   */
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    E element = poll();
+    return element != null || timeout <= 0 ? element : await(true, System.nanoTime() + unit.toNanos(timeout));
+  }
+
+  /**
+   * Makes the consumer's current wait for an element return null, or its next one if it is not waiting, so it can
+   * attend to something other than the queue.
+   */
+  public void wakeup() {
+    wakeupPending.set(true);
+    Thread consumer = parkedConsumer.get();
+    if (consumer != null && parkedConsumer.compareAndSet(consumer, null)) {
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  /**
+   * Parks the consumer until an element arrives, the deadline passes or {@link #wakeup()} is called.
+   */
+  private E await(boolean timed, long deadline) throws InterruptedException {
+    Thread current = Thread.currentThread();
+    while (true) {
+      // Announce the park before checking again, so an offer in between either is seen here or unparks this thread
+      parkedConsumer.set(current);
+      E element = poll();
+      if (element == null) {
+        if (wakeupPending.getAndSet(false)) {
+          parkedConsumer.set(null);
+          return null;
+        }
+        if (!timed) {
+          LockSupport.park(this);
+        } else {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            parkedConsumer.set(null);
+            return null;
+          }
+          LockSupport.parkNanos(this, remaining);
+        }
+      }
+      parkedConsumer.set(null);
+      if (element != null) {
+        return element;
+      }
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+  }
+
+  /**
+   * Claims the slot at the tail and fills it.
+   *
+   * @return false if the queue is full
+   */
+  private boolean tryOffer(E element) {
+    long position = tail.get();
+    while (true) {
+      int index = (int) position & mask;
+      long available = sequences.get(index) - position;
+      if (available == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements[index] = element;
+          sequences.set(index, position + 1);
+          return true;
+        }
+        position = tail.get();
+      } else if (available < 0) {
+        // The slot still holds the element from one lap ago
+        return false;
+      } else {
+        // Another producer claimed this position
+        position = tail.get();
+      }
+    }
+  }
+
+  /**
+   * Takes the element at the head. Normally only the consumer takes, but producers dropping the oldest element take
+   * too, so the head also advances by compare-and-set.
+   *
+   * @return The element, or null if the queue is empty
+   */
+  @SuppressWarnings("unchecked")
+  private E dequeue() {
+    long position = head.get();
+    while (true) {
+      int index = (int) position & mask;
+      long filled = sequences.get(index) - (position + 1);
+      if (filled == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          E element = (E) elements[index];
+          elements[index] = null;
+          // Free the slot for the producer one lap ahead
+          sequences.set(index, position + mask + 1);
+          return element;
+        }
+        position = head.get();
+      } else if (filled < 0) {
+        return null;
+      } else {
+        position = head.get();
+      }
+    }
+  }
+
+  /**
+   * Waits for a free slot until the block timeout expires.
+   *
+   * @return false if the element could not be queued in time
+   */
+  private boolean awaitOffer(E element) {
+    long remaining = blockTimeoutNanos;
+    fullLock.lock();
+    try {
+      // Counted before trying again, so a poll in between either is seen by the retry or signals
+      blockedProducers++;
+      try {
+        while (!tryOffer(element)) {
+          if (remaining <= 0) {
+            return false;
+          }
+          try {
+            remaining = notFull.awaitNanos(remaining);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+          } finally {
+            // Cleared before trying again, so a poll in between either is seen by the retry or signals
+            producerSignalled = false;
+          }
+        }
+        // Pass the wakeup on while there is room, as the consumer will not signal again until a producer waits
+        if (blockedProducers > 1 && size() < capacity()) {
+          producerSignalled = true;
+          notFull.signal();
+        }
+        return true;
+      } finally {
+        if (--blockedProducers == 0) {
+          producerSignalled = false;
+        }
+      }
+    } finally {
+      fullLock.unlock();
+    }
+  }
+
+  /**
+   * Sets what an offer does when the queue is full. Takes effect for the next offer.
+   *
+   * @param overflowPolicy The overflow policy
+   */
+  public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+    if (overflowPolicy == null) {
+      throw new IllegalArgumentException("overflowPolicy must not be null");
+    }
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * Gets what an offer does when the queue is full.
+   *
+   * @return The overflow policy
+   */
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * Sets how long an offer waits for a free slot under {@link OverflowPolicy#BLOCK}.
+   *
+   * @param timeout The timeout, 0 to drop at once
+   * @param unit    The unit of the timeout
+   */
+  public void setBlockTimeout(long timeout, TimeUnit unit) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("timeout must not be negative: " + timeout);
+    }
+    this.blockTimeoutNanos = unit.toNanos(timeout);
+  }
+
+  /**
+   * Gets how long an offer waits for a free slot under {@link OverflowPolicy#BLOCK}.
+   *
+   * @return The block timeout in milliseconds
+   */
+  public long getBlockTimeoutMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(blockTimeoutNanos);
+  }
+
+  /**
+   * Gets the number of elements the queue holds.
+   *
+   * @return The capacity
+   */
+  public int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Gets the number of queued elements. Elements being offered or taken concurrently may or may not be counted.
+   *
+   * @return The queue depth
+   */
+  public int size() {
+    // Read head first so a concurrent take cannot make the difference negative
+    long taken = head.get();
+    long size = tail.get() - taken;
+    return (int) Math.max(0, Math.min(size, capacity()));
+  }
+
+  /**
+   * Checks whether the queue is empty.
+   *
+   * @return true if no element is queued
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Gets the number of elements dropped or rejected because the queue was full.
+   *
+   * @return The drop count
+   */
+  public long getDroppedCount() {
+    return dropped.sum();
+  }
+}
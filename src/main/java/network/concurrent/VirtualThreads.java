@@ -0,0 +1,87 @@
+package network.concurrent;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads (Java 21+) from code compiled for older language levels.
+ * <p>
+ * The virtual thread API is looked up reflectively once. On a runtime without it, {@link #isSupported()} returns false
+ * and the factory methods throw {@link UnsupportedOperationException}.
+ */
+public final class VirtualThreads {
+
+  private static final Method OF_VIRTUAL;
+  private static final Method BUILDER_NAME;
+  private static final Method BUILDER_FACTORY;
+
+  static {
+    Method ofVirtual = null;
+    Method builderName = null;
+    Method builderFactory = null;
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      builderName = builderClass.getMethod("name", String.class, long.class);
+      builderFactory = builderClass.getMethod("factory");
+    } catch (ClassNotFoundException | NoSuchMethodException e) {
+      // Runtime predates virtual threads
+    }
+    OF_VIRTUAL = ofVirtual;
+    BUILDER_NAME = builderName;
+    BUILDER_FACTORY = builderFactory;
+  }
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * Checks whether the running JVM supports virtual threads.
+   *
+   * @return true if virtual threads are available
+   */
+  public static boolean isSupported() {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * Creates a factory for virtual threads named {@code namePrefix0}, {@code namePrefix1}, ...
+   *
+   * @param namePrefix Prefix of the thread names
+   * @return A virtual thread factory
+   * @throws UnsupportedOperationException If the runtime does not support virtual threads
+   */
+  public static ThreadFactory newThreadFactory(String namePrefix) {
+    if (!isSupported()) {
+      throw new UnsupportedOperationException("Virtual threads require Java 21 or newer (running " +
+          System.getProperty("java.version") + ")");
+    }
+    try {
+      Object builder = OF_VIRTUAL.invoke(null);
+      builder = BUILDER_NAME.invoke(builder, namePrefix, 0L);
+      return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new UnsupportedOperationException("Virtual threads are not available", e);
+    }
+  }
+
+  /**
+   * Creates an executor that starts a new virtual thread for every task.
+   *
+   * @param namePrefix Prefix of the thread names
+   * @return A thread-per-task executor backed by virtual threads
+   * @throws UnsupportedOperationException If the runtime does not support virtual threads
+   */
+  public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+    ThreadFactory factory = newThreadFactory(namePrefix);
+    try {
+      Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      return (ExecutorService) method.invoke(null, factory);
+    } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+      throw new UnsupportedOperationException("Virtual thread executor is not available", e);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package network.handler;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps message classes to type IDs and {@link ObjectCodec}s, so clients can send objects and servers can dispatch them
+ * decoded.
+ * <p>
+ * The type ID of a registered class is the type ID in the {@link MessageHeader}; only that byte identifies the type on
+ * the wire. Sender and receiver must register the same classes under the same IDs. Encoding looks the class up in a
+ * map and calls its codec; there is no reflection and no class name on the wire.
+ * <p>
+ * Registration copies the tables and publishes them atomically, like {@link MessageDispatcher}, so lookups never lock.
+ * Objects are encoded into a per-thread buffer that grows on demand and is reused, and only the finished message is
+ * copied out.
+ */
+public final class CodecRegistry {
+
+  /**
+   * Largest encoded message, header included, in bytes.
+   */
+  public static final int MAX_MESSAGE_LENGTH = 1024 * 1024;
+
+  private static final int INITIAL_BUFFER_SIZE = 256;
+
+  private volatile Map<Class<?>, Registration<?>> byClass = new HashMap<>();
+  private volatile Registration<?>[] byTypeId = new Registration<?>[MessageHeader.MAX_TYPE_ID + 1];
+
+  private final ThreadLocal<ByteBuffer> encodeBuffer =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+
+  /**
+   * Registers a message class. Instances of subclasses are not covered and need registrations of their own.
+   *
+   * @param typeId The type ID marking the class on the wire, 0 to {@link MessageHeader#MAX_TYPE_ID}
+   * @param type   The message class
+   * @param codec  The codec writing and reading its body
+   * @param <T>    The message type
+   * @throws IllegalArgumentException If the type ID or the class is already registered
+   */
+  public synchronized <T> void register(int typeId, Class<T> type, ObjectCodec<T> codec) {
+    MessageHeader.checkTypeId(typeId);
+    if (type == null || codec == null) {
+      throw new IllegalArgumentException("type and codec must not be null");
+    }
+    if (byTypeId[typeId] != null) {
+      throw new IllegalArgumentException("Type ID " + typeId + " is already registered for " +
+          byTypeId[typeId].type.getName());
+    }
+    if (byClass.containsKey(type)) {
+      throw new IllegalArgumentException(type.getName() + " is already registered");
+    }
+
+    Registration<T> registration = new Registration<>(typeId, type, codec);
+    Map<Class<?>, Registration<?>> updatedByClass = new HashMap<>(byClass);
+    updatedByClass.put(type, registration);
+    Registration<?>[] updatedByTypeId = byTypeId.clone();
+    updatedByTypeId[typeId] = registration;
+    byTypeId = updatedByTypeId;
+    byClass = updatedByClass;
+  }
+
+  /**
+   * Gets the type ID of a registered class.
+   *
+   * @param type The message class
+   * @return The type ID
+   * @throws IllegalArgumentException If the class is not registered
+   */
+  public int getTypeId(Class<?> type) {
+    return registration(type).typeId;
+  }
+
+  /**
+   * Gets the codec of a registered class.
+   *
+   * @param type The message class
+   * @param <T>  The message type
+   * @return The codec
+   * @throws IllegalArgumentException If the class is not registered
+   */
+  @SuppressWarnings("unchecked")
+  public <T> ObjectCodec<T> getCodec(Class<T> type) {
+    return (ObjectCodec<T>) registration(type).codec;
+  }
+
+  /**
+   * Encodes an object as a complete message payload: a header carrying the type ID of its class, followed by the body
+   * written by its codec.
+   *
+   * @param message The object to encode
+   * @return The message payload
+   * @throws IllegalArgumentException If the object's class is not registered or it encodes to more than
+   *                                  {@link #MAX_MESSAGE_LENGTH} bytes
+   */
+  public byte[] encode(Object message) {
+    Registration<?> registration = registration(message.getClass());
+    ByteBuffer buffer = encodeBuffer.get();
+    while (true) {
+      buffer.clear();
+      MessageHeader.put(registration.typeId, buffer);
+      try {
+        registration.write(message, buffer);
+        break;
+      } catch (BufferOverflowException e) {
+        if (buffer.capacity() >= MAX_MESSAGE_LENGTH) {
+          throw new IllegalArgumentException(message.getClass().getName() + " encodes to more than " +
+              MAX_MESSAGE_LENGTH + " bytes");
+        }
+        buffer = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_MESSAGE_LENGTH));
+        encodeBuffer.set(buffer);
+      }
+    }
+
+    byte[] encoded = new byte[buffer.position()];
+    buffer.flip();
+    buffer.get(encoded);
+    return encoded;
+  }
+
+  /**
+   * Decodes a complete message payload into an object of the class registered for its type ID.
+   *
+   * @param message The message payload including the header, between position and limit; consumed
+   * @return The decoded object
+   * @throws IllegalArgumentException If the payload has no header, is compressed or no class is registered for its type
+   *                                  ID
+   */
+  public Object decode(ByteBuffer message) {
+    int position = message.position();
+    if (message.limit() - position < MessageHeader.LENGTH) {
+      throw new IllegalArgumentException("Message is too short to contain a header");
+    }
+    if ((message.get(position + MessageHeader.FLAGS_OFFSET) & MessageHeader.FLAG_COMPRESSED) != 0) {
+      throw new IllegalArgumentException("Message is compressed; dispatch it through a MessageDispatcher");
+    }
+    int typeId = message.get(position + MessageHeader.TYPE_OFFSET) & 0xFF;
+    Registration<?> registration = byTypeId[typeId];
+    if (registration == null) {
+      throw new IllegalArgumentException("No class is registered for type ID " + typeId);
+    }
+    message.position(position + MessageHeader.LENGTH);
+    return registration.codec.read(message);
+  }
+
+  private Registration<?> registration(Class<?> type) {
+    Registration<?> registration = byClass.get(type);
+    if (registration == null) {
+      throw new IllegalArgumentException(type.getName() + " is not registered");
+    }
+    return registration;
+  }
+
+  /**
+   * A registered class with its type ID and codec.
+   */
+  private static final class Registration<T> {
+
+    final int typeId;
+    final Class<T> type;
+    final ObjectCodec<T> codec;
+
+    Registration(int typeId, Class<T> type, ObjectCodec<T> codec) {
+      this.typeId = typeId;
+      this.type = type;
+      this.codec = codec;
+    }
+
+    void write(Object message, ByteBuffer out) {
+      codec.write(type.cast(message), out);
+    }
+  }
+}
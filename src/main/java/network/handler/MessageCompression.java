@@ -0,0 +1,340 @@
+package network.handler;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-message deflate compression of message bodies, flagged in the {@link MessageHeader}.
+ * <p>
+ * A sender compresses a message only if its body reaches the threshold and deflating actually makes it smaller;
+ * otherwise the message goes out unchanged. A compressed message carries {@link MessageHeader#FLAG_COMPRESSED}, so a
+ * receiver can tell them apart and uncompressed senders keep working. The type ID is never compressed. Receivers enable
+ * decompression with {@link MessageDispatcher#setCompression(MessageCompression)}.
+ * <p>
+ * An optional preset dictionary of typical content lets even short messages compress well. Sender and receiver must
+ * use the same dictionary; its checksum is part of every compressed body, so a receiver with a different dictionary
+ * rejects the message instead of delivering garbage.
+ * <p>
+ * {@link Deflater}s and {@link Inflater}s are expensive to create and hold native memory, so they are pooled and reset
+ * after every message. A pooled inflater keeps its buffers up to 64 KiB; larger ones, grown for an unusually large
+ * message, are dropped when it is released. Instances are thread-safe.
+ */
+public final class MessageCompression {
+
+  /**
+   * Default smallest body that is compressed, in bytes. Without a dictionary, shorter bodies rarely shrink by more
+   * than the deflate overhead.
+   */
+  public static final int DEFAULT_THRESHOLD = 128;
+
+  /**
+   * Default largest accepted decompressed body, in bytes.
+   */
+  public static final int DEFAULT_MAX_BODY_LENGTH = 1024 * 1024;
+
+  // Idle deflaters and inflaters kept per instance; extra ones are ended when released
+  private static final int MAX_POOLED = 64;
+  private static final int INITIAL_OUTPUT_SIZE = 8 * 1024;
+  // Largest buffer a pooled decompressor keeps, so the pool never pins MAX_POOLED times the largest body
+  private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+  private final int threshold;
+  private final byte[] dictionary;
+  private final int dictionaryId;
+  private final int level;
+  private final int maxBodyLength;
+
+  // Free deflaters and decompressors, used as stacks like BufferPool
+  private final Deflater[] deflaters = new Deflater[MAX_POOLED];
+  private int deflaterCount;
+  private final Decompressor[] decompressors = new Decompressor[MAX_POOLED];
+  private int decompressorCount;
+
+  private final LongAdder compressedMessages = new LongAdder();
+  private final LongAdder skippedMessages = new LongAdder();
+  private final LongAdder bytesBeforeCompression = new LongAdder();
+  private final LongAdder bytesAfterCompression = new LongAdder();
+
+  /**
+   * Creates a compression without a dictionary, using the default threshold.
+   */
+  public MessageCompression() {
+    this(DEFAULT_THRESHOLD, null);
+  }
+
+  /**
+   * Creates a compression with the default level and body limit.
+   *
+   * @param threshold  Smallest body length in bytes that is compressed
+   * @param dictionary Preset dictionary of content typical for the messages, or null for none
+   */
+  public MessageCompression(int threshold, byte[] dictionary) {
+    this(threshold, dictionary, Deflater.DEFAULT_COMPRESSION, DEFAULT_MAX_BODY_LENGTH);
+  }
+
+  /**
+   * Creates a compression.
+   *
+   * @param threshold     Smallest body length in bytes that is compressed
+   * @param dictionary    Preset dictionary of content typical for the messages, or null for none
+   * @param level         Deflate level, 1 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+   * @param maxBodyLength Largest decompressed body accepted from a sender, in bytes
+   */
+  public MessageCompression(int threshold, byte[] dictionary, int level, int maxBodyLength) {
+    if (threshold < 0) {
+      throw new IllegalArgumentException("threshold must not be negative");
+    }
+    if ((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+      throw new IllegalArgumentException("level must be between 1 and 9 or DEFAULT_COMPRESSION: " + level);
+    }
+    if (maxBodyLength <= 0) {
+      throw new IllegalArgumentException("maxBodyLength must be positive");
+    }
+    this.threshold = threshold;
+    this.dictionary = dictionary == null || dictionary.length == 0 ? null : dictionary.clone();
+    this.level = level;
+    this.maxBodyLength = maxBodyLength;
+
+    if (this.dictionary != null) {
+      Adler32 checksum = new Adler32();
+      checksum.update(this.dictionary, 0, this.dictionary.length);
+      this.dictionaryId = (int) checksum.getValue();
+    } else {
+      this.dictionaryId = 0;
+    }
+  }
+
+  /**
+   * Compresses a message payload into {@code out} if that is worthwhile: the payload has a header without
+   * {@link MessageHeader#FLAG_COMPRESSED}, its body reaches the threshold, and the result is shorter than the payload.
+   *
+   * @param message The message payload including the header
+   * @param out     Buffer receiving the compressed payload, at least as long as {@code message}
+   * @return The length of the compressed payload in {@code out}, or -1 if the message should be sent unchanged
+   */
+  public int compress(byte[] message, byte[] out) {
+    int bodyLength = message.length - MessageHeader.LENGTH;
+    if (bodyLength < threshold || bodyLength <= 0 ||
+        (message[MessageHeader.FLAGS_OFFSET] & MessageHeader.FLAG_COMPRESSED) != 0) {
+      skippedMessages.increment();
+      return -1;
+    }
+    if (out.length < message.length) {
+      throw new IllegalArgumentException("out must hold at least " + message.length + " bytes");
+    }
+
+    Deflater deflater = acquireDeflater();
+    try {
+      deflater.setInput(message, MessageHeader.LENGTH, bodyLength);
+      deflater.finish();
+
+      // Stop as soon as the output would be no shorter than the input
+      int position = MessageHeader.LENGTH;
+      int end = message.length - 1;
+      while (!deflater.finished()) {
+        if (position == end) {
+          skippedMessages.increment();
+          return -1;
+        }
+        position += deflater.deflate(out, position, end - position);
+      }
+
+      out[MessageHeader.TYPE_OFFSET] = message[MessageHeader.TYPE_OFFSET];
+      out[MessageHeader.FLAGS_OFFSET] = (byte) (message[MessageHeader.FLAGS_OFFSET] | MessageHeader.FLAG_COMPRESSED);
+      compressedMessages.increment();
+      bytesBeforeCompression.add(message.length);
+      bytesAfterCompression.add(position);
+      return position;
+    } finally {
+      releaseDeflater(deflater);
+    }
+  }
+
+  /**
+   * Gets the smallest body length that is compressed.
+   *
+   * @return The threshold in bytes
+   */
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Gets the number of messages compressed.
+   *
+   * @return The compressed message count
+   */
+  public long getCompressedCount() {
+    return compressedMessages.sum();
+  }
+
+  /**
+   * Gets the number of messages sent unchanged, because they were below the threshold or did not shrink.
+   *
+   * @return The skipped message count
+   */
+  public long getSkippedCount() {
+    return skippedMessages.sum();
+  }
+
+  /**
+   * Gets the total length of the compressed messages before compression.
+   *
+   * @return The byte count
+   */
+  public long getBytesBeforeCompression() {
+    return bytesBeforeCompression.sum();
+  }
+
+  /**
+   * Gets the total length of the compressed messages after compression.
+   *
+   * @return The byte count
+   */
+  public long getBytesAfterCompression() {
+    return bytesAfterCompression.sum();
+  }
+
+  private Deflater acquireDeflater() {
+    Deflater deflater = null;
+    synchronized (deflaters) {
+      if (deflaterCount > 0) {
+        deflater = deflaters[--deflaterCount];
+        deflaters[deflaterCount] = null;
+      }
+    }
+    if (deflater == null) {
+      deflater = new Deflater(level);
+    }
+    // Resetting drops the dictionary, so it is set again for every message
+    if (dictionary != null) {
+      deflater.setDictionary(dictionary);
+    }
+    return deflater;
+  }
+
+  private void releaseDeflater(Deflater deflater) {
+    deflater.reset();
+    synchronized (deflaters) {
+      if (deflaterCount < deflaters.length) {
+        deflaters[deflaterCount++] = deflater;
+        return;
+      }
+    }
+    deflater.end();
+  }
+
+  /**
+   * Takes an idle decompressor from the pool, creating one if none is idle. Must be returned with
+   * {@link #release(Decompressor)} once its output is no longer used.
+   */
+  Decompressor acquire() {
+    synchronized (decompressors) {
+      if (decompressorCount > 0) {
+        Decompressor decompressor = decompressors[--decompressorCount];
+        decompressors[decompressorCount] = null;
+        return decompressor;
+      }
+    }
+    return new Decompressor();
+  }
+
+  void release(Decompressor decompressor) {
+    decompressor.inflater.reset();
+    decompressor.trim();
+    synchronized (decompressors) {
+      if (decompressorCount < decompressors.length) {
+        decompressors[decompressorCount++] = decompressor;
+        return;
+      }
+    }
+    decompressor.inflater.end();
+  }
+
+  /**
+   * An inflater with the buffers it reads from and writes to, reused for every message it decompresses.
+   */
+  final class Decompressor {
+
+    private final Inflater inflater = new Inflater();
+    private byte[] input = new byte[0];
+    private byte[] output = new byte[Math.min(INITIAL_OUTPUT_SIZE, maxBodyLength)];
+    private ByteBuffer outputView = ByteBuffer.wrap(output);
+
+    /**
+     * Decompresses a message body.
+     *
+     * @param body The compressed body, between position and limit; consumed
+     * @return The decompressed body, valid until this decompressor is released
+     * @throws DataFormatException If the body is corrupt, needs a different dictionary or exceeds the length limit
+     */
+    ByteBuffer inflate(ByteBuffer body) throws DataFormatException {
+      int length = body.remaining();
+      if (body.hasArray()) {
+        inflater.setInput(body.array(), body.arrayOffset() + body.position(), length);
+      } else {
+        // Java 8 inflaters only read arrays; direct read buffers are copied into a reused one
+        if (input.length < length) {
+          input = new byte[Math.max(length, input.length * 2)];
+        }
+        body.get(input, 0, length);
+        body.position(body.position() - length);
+        inflater.setInput(input, 0, length);
+      }
+      body.position(body.limit());
+
+      int position = 0;
+      while (!inflater.finished()) {
+        if (position == output.length) {
+          grow();
+        }
+        int inflated = inflater.inflate(output, position, output.length - position);
+        position += inflated;
+        if (inflated == 0) {
+          if (inflater.needsDictionary()) {
+            if (dictionary == null || inflater.getAdler() != dictionaryId) {
+              throw new DataFormatException("Message was compressed with an unknown dictionary");
+            }
+            inflater.setDictionary(dictionary);
+          } else if (inflater.needsInput()) {
+            throw new DataFormatException("Compressed body is truncated");
+          }
+        }
+      }
+      if (inflater.getRemaining() > 0) {
+        throw new DataFormatException("Compressed body has trailing bytes");
+      }
+
+      outputView.clear();
+      outputView.limit(position);
+      return outputView;
+    }
+
+    /**
+     * Drops buffers grown beyond {@link #MAX_RETAINED_BUFFER_SIZE}, invalidating the last output.
+     */
+    void trim() {
+      if (input.length > MAX_RETAINED_BUFFER_SIZE) {
+        input = new byte[0];
+      }
+      if (output.length > MAX_RETAINED_BUFFER_SIZE) {
+        output = new byte[Math.min(INITIAL_OUTPUT_SIZE, maxBodyLength)];
+        outputView = ByteBuffer.wrap(output);
+      }
+    }
+
+    private void grow() throws DataFormatException {
+      if (output.length >= maxBodyLength) {
+        throw new DataFormatException("Decompressed body exceeds " + maxBodyLength + " bytes");
+      }
+      byte[] grown = new byte[(int) Math.min((long) output.length * 2, maxBodyLength)];
+      System.arraycopy(output, 0, grown, 0, output.length);
+      output = grown;
+      outputView = ByteBuffer.wrap(output);
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package network.handler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Describes where a message came from. The same context object is reused for every message of a connection, so
+ * handlers must not assume a new instance per message.
+ */
+public interface MessageContext {
+
+  /**
+   * Gets the identifier of the TCP connection or UDP datagram the message arrived on.
+   *
+   * @return The connection or datagram identifier
+   */
+  long getId();
+
+  /**
+   * Gets the address of the remote peer as {@code host:port}.
+   *
+   * @return The remote address
+   */
+  String getRemoteAddress();
+
+  /**
+   * Sends a typed message back to the peer. The body is copied, framed like incoming messages and queued; its position
+   * is left unchanged. Messages sent while handling a message are written together once the read that delivered it has
+   * been dispatched. May be called from any thread.
+   *
+   * @param typeId The message type ID, 0 to {@link MessageHeader#MAX_TYPE_ID}
+   * @param body   The message body, between position and limit
+   * @return true if the message was queued; false if the transport cannot reply, the connection is closed or its
+   *     outbound queue is full (see {@link #isWritable()})
+   */
+  default boolean send(int typeId, ByteBuffer body) {
+    return false;
+  }
+
+  /**
+   * Checks whether {@link #send(int, ByteBuffer)} currently accepts messages. A connection stops accepting them when the
+   * peer reads too slowly and its outbound queue reaches the high watermark, and accepts them again once the queue has
+   * drained to the low watermark.
+   *
+   * @return true if messages can be sent
+   */
+  default boolean isWritable() {
+    return false;
+  }
+}
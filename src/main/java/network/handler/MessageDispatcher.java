@@ -0,0 +1,192 @@
+package network.handler;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import network.log.Log;
+
+/**
+ * Routes decoded messages to handlers by the type ID in their {@link MessageHeader}.
+ * <p>
+ * Handlers live in a 256-entry array indexed by type ID, so dispatch is a single array lookup and does not allocate.
+ * Registration copies the array and publishes it atomically, so handlers can be added or removed while messages are
+ * being dispatched. A fallback handler, if set, receives every message whose type has no handler of its own.
+ * <p>
+ * Messages flagged {@link MessageHeader#FLAG_COMPRESSED} are decompressed before dispatch once a
+ * {@link MessageCompression} is set; without one they count as malformed.
+ */
+public final class MessageDispatcher {
+
+  private static final Log LOG = Log.get(MessageDispatcher.class);
+
+  private volatile MessageHandler[] handlers = new MessageHandler[MessageHeader.MAX_TYPE_ID + 1];
+  private volatile MessageHandler fallbackHandler;
+  private volatile MessageCompression compression;
+
+  // Messages that could not be delivered
+  private final LongAdder malformedMessages = new LongAdder();
+  private final LongAdder unhandledMessages = new LongAdder();
+  private final LongAdder failedMessages = new LongAdder();
+
+  /**
+   * Registers the handler for a message type, replacing any previous one.
+   *
+   * @param typeId  The message type ID, 0 to {@link MessageHeader#MAX_TYPE_ID}
+   * @param handler The handler to invoke for messages of that type
+   */
+  public synchronized void register(int typeId, MessageHandler handler) {
+    MessageHeader.checkTypeId(typeId);
+    if (handler == null) {
+      throw new IllegalArgumentException("handler must not be null");
+    }
+    MessageHandler[] updated = handlers.clone();
+    updated[typeId] = handler;
+    handlers = updated;
+  }
+
+  /**
+   * Registers the handler for a class registered with a {@link CodecRegistry}. Messages of the class's type ID are
+   * decoded by its codec straight from the received bytes and passed to the handler as objects. A body the codec cannot
+   * read counts as failed.
+   *
+   * @param codecs  The registry holding the class's type ID and codec
+   * @param type    The message class
+   * @param handler The handler to invoke with every decoded message
+   * @param <T>     The message type
+   * @throws IllegalArgumentException If the class is not registered with {@code codecs}
+   */
+  public <T> void register(CodecRegistry codecs, Class<T> type, ObjectHandler<? super T> handler) {
+    if (handler == null) {
+      throw new IllegalArgumentException("handler must not be null");
+    }
+    ObjectCodec<T> codec = codecs.getCodec(type);
+    register(codecs.getTypeId(type), (context, typeId, body) -> handler.handle(context, codec.read(body)));
+  }
+
+  /**
+   * Removes the handler for a message type.
+   *
+   * @param typeId The message type ID
+   */
+  public synchronized void unregister(int typeId) {
+    MessageHeader.checkTypeId(typeId);
+    MessageHandler[] updated = handlers.clone();
+    updated[typeId] = null;
+    handlers = updated;
+  }
+
+  /**
+   * Sets the handler for messages whose type has no registered handler.
+   *
+   * @param handler The fallback handler, or null to drop such messages
+   */
+  public void setFallbackHandler(MessageHandler handler) {
+    this.fallbackHandler = handler;
+  }
+
+  /**
+   * Sets the compression used to decompress flagged messages. It must use the same dictionary as the senders.
+   *
+   * @param compression The compression, or null to reject compressed messages
+   */
+  public void setCompression(MessageCompression compression) {
+    this.compression = compression;
+  }
+
+  /**
+   * Gets the compression used to decompress flagged messages.
+   *
+   * @return The compression, or null if compressed messages are rejected
+   */
+  public MessageCompression getCompression() {
+    return compression;
+  }
+
+  /**
+   * Routes one message payload to its handler. Exceptions thrown by the handler are counted and logged; they never
+   * propagate to the I/O thread.
+   *
+   * @param context Where the message came from
+   * @param message The message payload including the header, between position and limit
+   */
+  public void dispatch(MessageContext context, ByteBuffer message) {
+    int position = message.position();
+    if (message.limit() - position < MessageHeader.LENGTH) {
+      malformedMessages.increment();
+      return;
+    }
+
+    int typeId = message.get(position + MessageHeader.TYPE_OFFSET) & 0xFF;
+    MessageHandler handler = handlers[typeId];
+    if (handler == null) {
+      handler = fallbackHandler;
+      if (handler == null) {
+        unhandledMessages.increment();
+        return;
+      }
+    }
+
+    message.position(position + MessageHeader.LENGTH);
+    if ((message.get(position + MessageHeader.FLAGS_OFFSET) & MessageHeader.FLAG_COMPRESSED) != 0) {
+      dispatchCompressed(context, typeId, handler, message);
+    } else {
+      invoke(context, typeId, handler, message);
+    }
+  }
+
+  private void dispatchCompressed(MessageContext context, int typeId, MessageHandler handler, ByteBuffer body) {
+    MessageCompression compression = this.compression;
+    if (compression == null) {
+      malformedMessages.increment();
+      return;
+    }
+
+    // The decompressed body lives in the decompressor's buffer, so it is only returned once the handler is done
+    MessageCompression.Decompressor decompressor = compression.acquire();
+    try {
+      invoke(context, typeId, handler, decompressor.inflate(body));
+    } catch (DataFormatException e) {
+      malformedMessages.increment();
+      LOG.warn("[Connection #" + context.getId() + "] Cannot decompress message type " + typeId + ": " +
+          e.getMessage());
+    } finally {
+      compression.release(decompressor);
+    }
+  }
+
+  private void invoke(MessageContext context, int typeId, MessageHandler handler, ByteBuffer body) {
+    try {
+      handler.handle(context, typeId, body);
+    } catch (RuntimeException e) {
+      failedMessages.increment();
+      LOG.error("[Connection #" + context.getId() + "] Handler for message type " + typeId + " failed", e);
+    }
+  }
+
+  /**
+   * Gets the number of messages too short to contain a header, or compressed messages that could not be decompressed.
+   *
+   * @return The malformed message count
+   */
+  public long getMalformedCount() {
+    return malformedMessages.sum();
+  }
+
+  /**
+   * Gets the number of messages dropped because no handler was registered for their type.
+   *
+   * @return The unhandled message count
+   */
+  public long getUnhandledCount() {
+    return unhandledMessages.sum();
+  }
+
+  /**
+   * Gets the number of messages whose handler threw an exception.
+   *
+   * @return The failed message count
+   */
+  public long getFailedCount() {
+    return failedMessages.sum();
+  }
+}
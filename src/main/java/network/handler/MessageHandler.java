@@ -0,0 +1,19 @@
+package network.handler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Processes messages of one or more type IDs. Registered with a {@link MessageDispatcher}.
+ */
+public interface MessageHandler {
+
+  /**
+   * Handles one message. The body buffer is only valid for the duration of the call and must not be retained; copy the
+   * bytes if they are needed afterwards.
+   *
+   * @param context Where the message came from
+   * @param typeId  The message type ID from the header
+   * @param body    The message body, after the header, between position and limit
+   */
+  void handle(MessageContext context, int typeId, ByteBuffer body);
+}
@@ -0,0 +1,80 @@
+package network.handler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the header at the start of every message payload (the frame payload on TCP, the datagram on UDP).
+ * <pre>
+ *   offset 0  type ID  unsigned byte, selects the handler
+ *   offset 1  flags    unsigned byte, see {@link #FLAG_COMPRESSED}; the other bits are reserved and always 0
+ *   offset 2  body
+ * </pre>
+ */
+public final class MessageHeader {
+
+  /**
+   * Length of the header in bytes.
+   */
+  public static final int LENGTH = 2;
+
+  /**
+   * Offset of the type ID.
+   */
+  public static final int TYPE_OFFSET = 0;
+
+  /**
+   * Offset of the flags byte.
+   */
+  public static final int FLAGS_OFFSET = 1;
+
+  /**
+   * Largest valid type ID.
+   */
+  public static final int MAX_TYPE_ID = 255;
+
+  /**
+   * Flag set when the body is deflated, see {@link MessageCompression}.
+   */
+  public static final int FLAG_COMPRESSED = 0x01;
+
+  private MessageHeader() {
+  }
+
+  /**
+   * Builds a message payload consisting of a header followed by a copy of {@code body}.
+   *
+   * @param typeId The message type ID, 0 to {@link #MAX_TYPE_ID}
+   * @param body   The message body
+   * @return The complete message payload
+   */
+  public static byte[] encode(int typeId, byte[] body) {
+    checkTypeId(typeId);
+    byte[] message = new byte[LENGTH + body.length];
+    message[TYPE_OFFSET] = (byte) typeId;
+    System.arraycopy(body, 0, message, LENGTH, body.length);
+    return message;
+  }
+
+  /**
+   * Writes a header into a buffer.
+   *
+   * @param typeId The message type ID, 0 to {@link #MAX_TYPE_ID}
+   * @param out    Buffer receiving the header
+   */
+  public static void put(int typeId, ByteBuffer out) {
+    checkTypeId(typeId);
+    out.put((byte) typeId);
+    out.put((byte) 0);
+  }
+
+  /**
+   * Validates a type ID.
+   *
+   * @param typeId The type ID to check
+   */
+  public static void checkTypeId(int typeId) {
+    if (typeId < 0 || typeId > MAX_TYPE_ID) {
+      throw new IllegalArgumentException("typeId must be between 0 and " + MAX_TYPE_ID + ": " + typeId);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package network.handler;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes and reads the body of one message type. Registered with a {@link CodecRegistry} under the type ID that marks
+ * the type on the wire.
+ * <p>
+ * Codecs write fields explicitly, in a fixed order, so encoding needs no reflection and no class names. A codec must
+ * read exactly the fields it writes; changing the layout of a type changes its wire format, so it should get a new
+ * type ID.
+ *
+ * @param <T> The message type
+ */
+public interface ObjectCodec<T> {
+
+  /**
+   * Writes a message body. Throwing {@link java.nio.BufferOverflowException} makes the registry retry with a larger
+   * buffer, so writers need not compute the length up front.
+   *
+   * @param message The message to write
+   * @param out     Buffer receiving the body
+   */
+  void write(T message, ByteBuffer out);
+
+  /**
+   * Reads a message body. The buffer is only valid for the duration of the call, so the returned object must not keep
+   * a reference to it.
+   *
+   * @param in The body, between position and limit
+   * @return The message
+   * @throws java.nio.BufferUnderflowException If the body is shorter than the fields it should hold
+   */
+  T read(ByteBuffer in);
+
+  /**
+   * Writes a string as a length-prefixed UTF-8 sequence, or a length of -1 for null.
+   *
+   * @param out   Buffer receiving the string
+   * @param value The string, or null
+   */
+  static void putString(ByteBuffer out, String value) {
+    if (value == null) {
+      out.putInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.putInt(bytes.length);
+    out.put(bytes);
+  }
+
+  /**
+   * Reads a string written by {@link #putString(ByteBuffer, String)}.
+   *
+   * @param in Buffer holding the string at its position
+   * @return The string, or null
+   * @throws IllegalArgumentException If the length is invalid
+   */
+  static String getString(ByteBuffer in) {
+    int length = in.getInt();
+    if (length == -1) {
+      return null;
+    }
+    if (length < 0 || length > in.remaining()) {
+      throw new IllegalArgumentException("Invalid string length: " + length);
+    }
+    String value;
+    if (in.hasArray()) {
+      value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+      in.position(in.position() + length);
+    } else {
+      byte[] bytes = new byte[length];
+      in.get(bytes);
+      value = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return value;
+  }
+}
@@ -0,0 +1,18 @@
+package network.handler;
+
+/**
+ * Processes decoded messages of one registered type. Registered with
+ * {@link MessageDispatcher#register(CodecRegistry, Class, ObjectHandler)}.
+ *
+ * @param <T> The message type
+ */
+public interface ObjectHandler<T> {
+
+  /**
+   * Handles one message.
+   *
+   * @param context Where the message came from
+   * @param message The message, decoded by the codec registered for its type
+   */
+  void handle(MessageContext context, T message);
+}
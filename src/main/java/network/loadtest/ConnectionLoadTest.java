@@ -0,0 +1,285 @@
+package network.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import network.codec.FrameException;
+import network.codec.LengthFieldFrameCodec;
+import network.log.Log;
+import network.log.LogLevel;
+import network.tcp.TCPServer;
+import network.tcp.TCPServer.IoMode;
+
+/**
+ * Load test comparing the memory use and throughput of the {@link TCPServer} I/O modes.
+ * <p>
+ * Opens the requested number of loopback connections to an in-process server, samples memory once they are all idle,
+ * then pushes a fixed number of framed messages through every connection and reports the receive rate. Run it once per
+ * mode and compare the reports, for example:
+ * <pre>
+ *   java -Xss256k network.loadtest.ConnectionLoadTest BLOCKING 5000 100 64
+ *   java network.loadtest.ConnectionLoadTest VIRTUAL_THREADS 100000 10 64
+ *   java network.loadtest.ConnectionLoadTest ASYNC 100000 10 64
+ * </pre>
+ * Arguments: I/O mode, connection count, messages per connection, payload size in bytes, and optionally the port.
+ * Large connection counts need a raised open file limit ({@code ulimit -n}). Connections are spread over several
+ * 127.0.0.x addresses so the ephemeral port range of a single address does not cap the test. Connections the server
+ * never reads from (for example beyond the fixed pool size in blocking mode) are reported as stalled rather than
+ * blocking the test.
+ */
+public final class ConnectionLoadTest {
+
+  // Connections per loopback destination address, kept below the default ephemeral port range
+  private static final int CONNECTIONS_PER_ADDRESS = 20000;
+  private static final long CONNECT_TIMEOUT_MS = 60000;
+  private static final long RECEIVE_TIMEOUT_MS = 300000;
+  private static final long STALL_TIMEOUT_MS = 2000;
+
+  private ConnectionLoadTest() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    IoMode ioMode = args.length > 0 ? IoMode.valueOf(args[0].toUpperCase()) : IoMode.BLOCKING;
+    int connections = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    int messagesPerConnection = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+    int payloadSize = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+    int port = args.length > 4 ? Integer.parseInt(args[4]) : 5700;
+
+    PrintStream report = System.out;
+    report.println("===========================================");
+    report.println("TCP load test: " + ioMode + ", " + connections + " connections, " + messagesPerConnection +
+        " x " + payloadSize + "-byte messages each");
+    report.println("===========================================");
+
+    // Only report problems; per-connection output would dominate the measurement
+    Log.setLevel(LogLevel.WARN);
+
+    MemorySample baseline = MemorySample.take();
+    TCPServer server = new TCPServer(port, ioMode);
+    server.start();
+
+    List<SocketChannel> channels = new ArrayList<>(connections);
+    try {
+      // Phase 1: open every connection and let it go idle
+      long connectStart = System.nanoTime();
+      for (int i = 0; i < connections; i++) {
+        String address = "127.0.0." + (1 + i / CONNECTIONS_PER_ADDRESS);
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(address, port));
+        channel.configureBlocking(false);
+        channels.add(channel);
+      }
+      awaitActiveConnections(server, connections);
+      long connectMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart);
+
+      MemorySample idle = MemorySample.take();
+      report.println("Connected " + connections + " clients in " + connectMillis + " ms");
+      report.println("Idle memory   " + idle.minus(baseline));
+      report.println("Per connection: " + (idle.minus(baseline).heapBytes / Math.max(1, connections)) + " bytes heap, " +
+          (idle.minus(baseline).rssBytes / Math.max(1, connections)) + " bytes RSS");
+
+      // Phase 2: push messages through every connection
+      long expectedFrames = (long) connections * messagesPerConnection;
+      long sendStart = System.nanoTime();
+      int stalled = sendAll(channels, messagesPerConnection, payloadSize);
+      long sendNanos = awaitFrames(server, expectedFrames) - sendStart;
+
+      long received = server.getTotalFrameCount();
+      double seconds = sendNanos / 1e9;
+      report.println(String.format("Received %d/%d frames in %.3f s: %.0f frames/s, %.2f MB/s", received,
+          expectedFrames, seconds, received / seconds, received * (double) payloadSize / seconds / (1024 * 1024)));
+      report.println("Stalled connections: " + stalled + ", frames never read by the server: " +
+          (expectedFrames - received));
+      report.println("Loaded memory " + MemorySample.take().minus(baseline));
+      report.println("Server metrics: " + server.getMetricsSnapshot());
+
+    } finally {
+      for (SocketChannel channel : channels) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          // Ignore errors during cleanup
+        }
+      }
+      server.shutdown(5);
+    }
+  }
+
+  /**
+   * Writes the messages from one sender thread per processor, each owning a slice of the connections. Senders make
+   * round-robin passes over their connections and never wait on a single one; connections that accept no more data for
+   * {@link #STALL_TIMEOUT_MS} are counted as stalled.
+   *
+   * @return The number of stalled connections
+   */
+  private static int sendAll(List<SocketChannel> channels, int messagesPerConnection, int payloadSize)
+      throws InterruptedException, FrameException {
+    LengthFieldFrameCodec codec = new LengthFieldFrameCodec();
+    ByteBuffer frame = ByteBuffer.allocate(codec.encodedLength(payloadSize));
+    codec.encode(ByteBuffer.wrap(new byte[payloadSize]), frame);
+    frame.flip();
+
+    AtomicInteger stalledCount = new AtomicInteger();
+    int senders = Math.min(channels.size(), Runtime.getRuntime().availableProcessors());
+    Thread[] threads = new Thread[senders];
+    for (int t = 0; t < senders; t++) {
+      final int first = t;
+      threads[t] = new Thread(() -> {
+        try {
+          stalledCount.addAndGet(sendSlice(channels, first, senders, messagesPerConnection, frame.duplicate()));
+        } catch (IOException | InterruptedException e) {
+          System.err.println("Sender failed: " + e.getMessage());
+        }
+      }, "LoadTest-Sender-" + t);
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return stalledCount.get();
+  }
+
+  /**
+   * Sends every message of the connections {@code first, first + step, ...} over non-blocking writes.
+   *
+   * @return The number of connections that stalled before all their messages were written
+   */
+  private static int sendSlice(List<SocketChannel> channels, int first, int step, int messages, ByteBuffer frame)
+      throws IOException, InterruptedException {
+    int count = (channels.size() - first + step - 1) / step;
+    int[] sent = new int[count];
+    int[] offset = new int[count];
+    int remaining = messages > 0 ? count : 0;
+    long lastProgress = System.currentTimeMillis();
+
+    while (remaining > 0 && System.currentTimeMillis() - lastProgress <= STALL_TIMEOUT_MS) {
+      boolean progress = false;
+      for (int k = 0; k < count; k++) {
+        SocketChannel channel = channels.get(first + k * step);
+        while (sent[k] < messages) {
+          frame.limit(frame.capacity()).position(offset[k]);
+          if (channel.write(frame) == 0) {
+            break;
+          }
+          progress = true;
+          offset[k] = frame.position();
+          if (offset[k] == frame.capacity()) {
+            offset[k] = 0;
+            if (++sent[k] == messages) {
+              remaining--;
+            }
+          }
+        }
+      }
+
+      if (progress) {
+        lastProgress = System.currentTimeMillis();
+      } else {
+        Thread.sleep(1);
+      }
+    }
+    return remaining;
+  }
+
+  private static void awaitActiveConnections(TCPServer server, int expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+    while (server.getActiveConnectionCount() < expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  /**
+   * Waits until the server has received the expected number of frames, or until the count stops moving because some
+   * connections are not being serviced.
+   *
+   * @return The {@link System#nanoTime()} at which the last frame was observed
+   */
+  private static long awaitFrames(TCPServer server, long expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + RECEIVE_TIMEOUT_MS;
+    long lastCount = -1;
+    long lastProgress = System.nanoTime();
+    while (System.currentTimeMillis() < deadline) {
+      long count = server.getTotalFrameCount();
+      if (count != lastCount) {
+        lastCount = count;
+        lastProgress = System.nanoTime();
+      }
+      if (count >= expected || System.nanoTime() - lastProgress > TimeUnit.MILLISECONDS.toNanos(STALL_TIMEOUT_MS)) {
+        break;
+      }
+      Thread.sleep(1);
+    }
+    return lastProgress;
+  }
+
+  /**
+   * A point-in-time view of the process's memory and thread usage.
+   */
+  private static final class MemorySample {
+
+    private final long heapBytes;
+    private final long directBytes;
+    private final long rssBytes;
+    private final int threads;
+
+    private MemorySample(long heapBytes, long directBytes, long rssBytes, int threads) {
+      this.heapBytes = heapBytes;
+      this.directBytes = directBytes;
+      this.rssBytes = rssBytes;
+      this.threads = threads;
+    }
+
+    static MemorySample take() {
+      System.gc();
+      long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+      long direct = 0;
+      for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+        if ("direct".equals(pool.getName())) {
+          direct = pool.getMemoryUsed();
+        }
+      }
+      return new MemorySample(heap, direct, readRss(), ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+
+    /**
+     * Reads the resident set size from /proc on Linux; returns 0 elsewhere.
+     */
+    private static long readRss() {
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+          Files.newInputStream(Paths.get("/proc/self/status")), StandardCharsets.US_ASCII))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.startsWith("VmRSS:")) {
+            return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+          }
+        }
+      } catch (IOException | NumberFormatException e) {
+        // Not available on this platform
+      }
+      return 0;
+    }
+
+    MemorySample minus(MemorySample other) {
+      return new MemorySample(heapBytes - other.heapBytes, directBytes - other.directBytes, rssBytes - other.rssBytes,
+          threads - other.threads);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("heap %+.1f MB, direct %+.1f MB, RSS %+.1f MB, threads %+d", heapBytes / 1048576.0,
+          directBytes / 1048576.0, rssBytes / 1048576.0, threads);
+    }
+  }
+}
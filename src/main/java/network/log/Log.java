@@ -0,0 +1,213 @@
+package network.log;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous logger for the network hot paths.
+ * <p>
+ * Records are handed to a lock-free ring buffer and written to the console by a background thread, so the calling I/O
+ * thread never waits on console output. Disabled levels cost a single comparison; hex dumps are only rendered when
+ * their level is enabled, directly into the reusable record buffer. Each logger lets through at most
+ * {@link #setRateLimit(int) a configured number of records per second}; the rest are dropped and summarized by the
+ * writer once per second. For events that happen on every frame, combine a level check with a {@link LogSampler}.
+ * <p>
+ * The initial level and rate limit can be set with the {@code network.log.level} and {@code network.log.rateLimit}
+ * system properties.
+ */
+public final class Log {
+
+  // Global configuration
+  private static volatile LogLevel level = parseLevel(System.getProperty("network.log.level"), LogLevel.INFO);
+  private static volatile int rateLimit = Integer.getInteger("network.log.rateLimit", 1000);
+
+  private static final LogRing RING = new LogRing(Integer.getInteger("network.log.bufferSize", 8192));
+
+  private final String name;
+
+  // Rate limit window: the current second and the records logged within it
+  private volatile long windowSecond;
+  private final AtomicInteger windowCount = new AtomicInteger();
+
+  private Log(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Creates a logger named after a class.
+   *
+   * @param owner The class that logs
+   * @return A new logger
+   */
+  public static Log get(Class<?> owner) {
+    return new Log(owner.getSimpleName());
+  }
+
+  /**
+   * Creates a logger with the given name.
+   *
+   * @param name The logger name printed with every record
+   * @return A new logger
+   */
+  public static Log get(String name) {
+    return new Log(name);
+  }
+
+  /**
+   * Sets the minimum level logged by every logger.
+   *
+   * @param newLevel The new level; {@link LogLevel#OFF} disables logging
+   */
+  public static void setLevel(LogLevel newLevel) {
+    if (newLevel == null) {
+      throw new IllegalArgumentException("level must not be null");
+    }
+    level = newLevel;
+  }
+
+  /**
+   * Gets the minimum level logged by every logger.
+   *
+   * @return The current level
+   */
+  public static LogLevel getLevel() {
+    return level;
+  }
+
+  /**
+   * Sets the maximum number of records each logger may emit per second.
+   *
+   * @param recordsPerSecond The limit; 0 or less disables rate limiting
+   */
+  public static void setRateLimit(int recordsPerSecond) {
+    rateLimit = recordsPerSecond;
+  }
+
+  /**
+   * Waits briefly until every record logged so far has been written to the console.
+   */
+  public static void flush() {
+    RING.flush(1000);
+  }
+
+  /**
+   * Checks whether records of the given level are logged.
+   *
+   * @param recordLevel The level to check
+   * @return true if the level is enabled
+   */
+  public boolean isEnabled(LogLevel recordLevel) {
+    return recordLevel.compareTo(level) >= 0 && recordLevel != LogLevel.OFF;
+  }
+
+  /**
+   * Logs a message at {@link LogLevel#TRACE} level.
+   *
+   * @param message The message text
+   */
+  public void trace(String message) {
+    log(LogLevel.TRACE, message, null);
+  }
+
+  /**
+   * Logs a message at {@link LogLevel#DEBUG} level.
+   *
+   * @param message The message text
+   */
+  public void debug(String message) {
+    log(LogLevel.DEBUG, message, null);
+  }
+
+  /**
+   * Logs a message at {@link LogLevel#INFO} level.
+   *
+   * @param message The message text
+   */
+  public void info(String message) {
+    log(LogLevel.INFO, message, null);
+  }
+
+  /**
+   * Logs a message at {@link LogLevel#WARN} level.
+   *
+   * @param message The message text
+   */
+  public void warn(String message) {
+    log(LogLevel.WARN, message, null);
+  }
+
+  /**
+   * Logs a message at {@link LogLevel#ERROR} level.
+   *
+   * @param message The message text
+   */
+  public void error(String message) {
+    log(LogLevel.ERROR, message, null);
+  }
+
+  /**
+   * Logs an error together with the exception that caused it.
+   *
+   * @param message The message text
+   * @param cause   The exception; its string form is appended to the message
+   */
+  public void error(String message, Throwable cause) {
+    if (isEnabled(LogLevel.ERROR)) {
+      log(LogLevel.ERROR, message + ": " + cause, null);
+    }
+  }
+
+  /**
+   * Logs the remaining bytes of a buffer as hex. Nothing is rendered unless the level is enabled, and the buffer's
+   * position and limit are left unchanged.
+   *
+   * @param recordLevel The level to log at
+   * @param prefix      Text printed before the hex digits
+   * @param data        The bytes to dump
+   */
+  public void hex(LogLevel recordLevel, String prefix, ByteBuffer data) {
+    log(recordLevel, prefix, data);
+  }
+
+  private void log(LogLevel recordLevel, String message, ByteBuffer hexData) {
+    if (!isEnabled(recordLevel)) {
+      return;
+    }
+    if (!acquirePermit()) {
+      RING.recordSuppressed();
+      return;
+    }
+    RING.publish(recordLevel, name, message, hexData);
+  }
+
+  /**
+   * Counts the record against this logger's per-second budget.
+   *
+   * @return true if the record may be logged
+   */
+  private boolean acquirePermit() {
+    int limit = rateLimit;
+    if (limit <= 0) {
+      return true;
+    }
+    long second = System.nanoTime() / 1_000_000_000L;
+    if (second != windowSecond) {
+      // A racing thread may reset the count twice; the limit is approximate by design
+      windowSecond = second;
+      windowCount.set(0);
+    }
+    return windowCount.incrementAndGet() <= limit;
+  }
+
+  private static LogLevel parseLevel(String value, LogLevel defaultLevel) {
+    if (value == null) {
+      return defaultLevel;
+    }
+    try {
+      return LogLevel.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      return defaultLevel;
+    }
+  }
+}
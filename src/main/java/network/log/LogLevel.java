@@ -0,0 +1,13 @@
+package network.log;
+
+/**
+ * Severity of a log record, from least to most severe. {@link #OFF} disables logging entirely.
+ */
+public enum LogLevel {
+  TRACE,
+  DEBUG,
+  INFO,
+  WARN,
+  ERROR,
+  OFF
+}
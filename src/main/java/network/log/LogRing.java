@@ -0,0 +1,278 @@
+package network.log;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free multi-producer ring of log records, drained by a single background writer thread.
+ * <p>
+ * Slots are allocated once and reused: a producer claims a slot with one CAS, renders its text straight into the
+ * slot's {@link StringBuilder} and publishes it by advancing the slot's sequence number (Vyukov's bounded queue). When
+ * the ring is full the record is dropped and counted, so logging never blocks an I/O thread.
+ */
+final class LogRing {
+
+  // Hex dumps longer than this are truncated
+  private static final int MAX_HEX_BYTES = 512;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  // Writer idle back-off before it parks until the next record, and drop report interval
+  private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final Slot[] slots;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  private volatile long head; // Only written by the writer thread
+
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder suppressed = new LongAdder();
+
+  private final Thread writer;
+  // The writer while it is parked on an empty ring; the first record to take it out unparks it
+  private final AtomicReference<Thread> parkedWriter = new AtomicReference<>();
+
+  /**
+   * A preallocated, reusable log record.
+   */
+  private static final class Slot {
+
+    private final StringBuilder text = new StringBuilder(256);
+    private LogLevel level;
+    private String loggerName;
+    private String threadName;
+    private long timestamp;
+  }
+
+  /**
+   * Creates the ring and starts its writer thread.
+   *
+   * @param capacity Number of slots; rounded up to a power of two
+   */
+  LogRing(int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    this.slots = new Slot[size];
+    this.sequences = new AtomicLongArray(size);
+    this.mask = size - 1;
+    for (int i = 0; i < size; i++) {
+      slots[i] = new Slot();
+      sequences.set(i, i);
+    }
+
+    writer = new Thread(this::drainLoop, "Network-Log-Writer");
+    writer.setDaemon(true);
+    writer.start();
+
+    // Print whatever is still queued when the JVM exits
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(500), "Network-Log-Flush"));
+  }
+
+  /**
+   * Queues one record.
+   *
+   * @param level      Severity of the record
+   * @param loggerName Name of the logger
+   * @param message    The message text
+   * @param hexData    Bytes to append as a hex dump, or null
+   */
+  void publish(LogLevel level, String loggerName, String message, ByteBuffer hexData) {
+    long position;
+    while (true) {
+      position = tail.get();
+      long available = sequences.get((int) position & mask) - position;
+      if (available == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          break;
+        }
+      } else if (available < 0) {
+        // Ring is full; never block the caller
+        dropped.increment();
+        return;
+      }
+    }
+
+    int index = (int) position & mask;
+    Slot slot = slots[index];
+    slot.level = level;
+    slot.loggerName = loggerName;
+    slot.threadName = Thread.currentThread().getName();
+    slot.timestamp = System.currentTimeMillis();
+    slot.text.setLength(0);
+    slot.text.append(message);
+    if (hexData != null) {
+      appendHex(slot.text, hexData);
+    }
+    // A full barrier, so the writer either sees the record or is seen parked below
+    sequences.set(index, position + 1);
+
+    Thread parked = parkedWriter.get();
+    if (parked != null && parkedWriter.compareAndSet(parked, null)) {
+      LockSupport.unpark(parked);
+    }
+  }
+
+  /**
+   * Counts a record rejected by a logger's rate limit.
+   */
+  void recordSuppressed() {
+    suppressed.increment();
+  }
+
+  /**
+   * Waits until every record published before this call has been written.
+   *
+   * @param timeoutMillis Maximum time to wait
+   */
+  void flush(long timeoutMillis) {
+    long target = tail.get();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (head < target && System.nanoTime() < deadline) {
+      LockSupport.unpark(writer);
+      LockSupport.parkNanos(50_000);
+    }
+  }
+
+  /**
+   * Renders bytes as space-separated hex, reading without changing the buffer's position.
+   */
+  private static void appendHex(StringBuilder out, ByteBuffer data) {
+    int length = data.remaining();
+    int shown = Math.min(length, MAX_HEX_BYTES);
+    int offset = data.position();
+    for (int i = 0; i < shown; i++) {
+      int v = data.get(offset + i) & 0xFF;
+      if (i > 0) {
+        out.append(' ');
+      }
+      out.append(HEX_DIGITS[v >>> 4]).append(HEX_DIGITS[v & 0x0F]);
+    }
+    if (shown < length) {
+      out.append(" ... (").append(length - shown).append(" more bytes)");
+    }
+  }
+
+  private void drainLoop() {
+    StringBuilder out = new StringBuilder(4096);
+    StringBuilder err = new StringBuilder(1024);
+    long idleNanos = 0;
+    long lastReport = System.nanoTime();
+
+    while (true) {
+      boolean wrote = drain(out, err);
+
+      long now = System.nanoTime();
+      if (now - lastReport >= REPORT_INTERVAL_NANOS) {
+        lastReport = now;
+        reportLosses(err);
+      }
+
+      if (wrote) {
+        idleNanos = 0;
+      } else if (idleNanos < MAX_IDLE_PARK_NANOS) {
+        // Back off while idle, then park until the next record so an empty ring costs nothing
+        idleNanos = Math.min(MAX_IDLE_PARK_NANOS, Math.max(10_000, idleNanos * 2));
+        LockSupport.parkNanos(idleNanos);
+      } else {
+        awaitRecord();
+      }
+    }
+  }
+
+  /**
+   * Parks the writer until a record is published, or until the next loss report is due if losses are waiting for one.
+   */
+  private void awaitRecord() {
+    // Announce the park before checking again, so a record published in between either is seen here or unparks
+    parkedWriter.set(writer);
+    long position = head;
+    if (sequences.get((int) position & mask) != position + 1) {
+      if (dropped.sum() > 0 || suppressed.sum() > 0) {
+        LockSupport.parkNanos(this, REPORT_INTERVAL_NANOS);
+      } else {
+        LockSupport.park(this);
+      }
+    }
+    parkedWriter.set(null);
+  }
+
+  /**
+   * Writes every published record and prints it in one batch per stream.
+   *
+   * @return true if at least one record was written
+   */
+  private boolean drain(StringBuilder out, StringBuilder err) {
+    long position = head;
+    int count = 0;
+    while (true) {
+      int index = (int) position & mask;
+      if (sequences.get(index) != position + 1) {
+        break;
+      }
+      Slot slot = slots[index];
+      format(slot, slot.level.compareTo(LogLevel.WARN) >= 0 ? err : out);
+      sequences.lazySet(index, position + slots.length);
+      position++;
+      count++;
+    }
+    head = position;
+
+    print(System.out, out);
+    print(System.err, err);
+    return count > 0;
+  }
+
+  private void reportLosses(StringBuilder err) {
+    long droppedCount = dropped.sumThenReset();
+    long suppressedCount = suppressed.sumThenReset();
+    if (droppedCount > 0 || suppressedCount > 0) {
+      err.append("[Log] ").append(droppedCount).append(" records dropped (buffer full), ").append(suppressedCount)
+          .append(" suppressed by rate limit\n");
+      print(System.err, err);
+    }
+  }
+
+  private static void print(PrintStream stream, StringBuilder text) {
+    if (text.length() > 0) {
+      stream.print(text);
+      stream.flush();
+      text.setLength(0);
+    }
+  }
+
+  /**
+   * Formats a record as {@code HH:mm:ss.SSS LEVEL [thread] logger - text}.
+   */
+  private static void format(Slot slot, StringBuilder out) {
+    long local = slot.timestamp + TimeZone.getDefault().getOffset(slot.timestamp);
+    long millisOfDay = Math.floorMod(local, TimeUnit.DAYS.toMillis(1));
+    appendPadded(out, millisOfDay / 3_600_000, 2).append(':');
+    appendPadded(out, millisOfDay / 60_000 % 60, 2).append(':');
+    appendPadded(out, millisOfDay / 1000 % 60, 2).append('.');
+    appendPadded(out, millisOfDay % 1000, 3).append(' ');
+
+    String level = slot.level.name();
+    out.append(level);
+    for (int i = level.length(); i < 6; i++) {
+      out.append(' ');
+    }
+    out.append('[').append(slot.threadName).append("] ").append(slot.loggerName).append(" - ").append(slot.text)
+        .append('\n');
+  }
+
+  private static StringBuilder appendPadded(StringBuilder out, long value, int width) {
+    for (long limit = 10, digits = 1; digits < width; limit *= 10, digits++) {
+      if (value < limit) {
+        out.append('0');
+      }
+    }
+    return out.append(value);
+  }
+}
@@ -0,0 +1,40 @@
+package network.log;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether one occurrence of a frequent event should be logged, passing roughly one in every {@code n}.
+ * Sampling uses the calling thread's random generator, so it is contention-free and does not allocate.
+ * <pre>
+ *   private static final LogSampler FRAME_SAMPLER = new LogSampler(1000);
+ *   ...
+ *   if (LOG.isEnabled(LogLevel.DEBUG) &amp;&amp; FRAME_SAMPLER.sample()) {
+ *     LOG.debug("Frame received: " + length + " bytes");
+ *   }
+ * </pre>
+ */
+public final class LogSampler {
+
+  private final int oneIn;
+
+  /**
+   * Creates a sampler.
+   *
+   * @param oneIn Average number of events per logged event; 1 logs every event
+   */
+  public LogSampler(int oneIn) {
+    if (oneIn < 1) {
+      throw new IllegalArgumentException("oneIn must be at least 1");
+    }
+    this.oneIn = oneIn;
+  }
+
+  /**
+   * Decides whether the current event should be logged.
+   *
+   * @return true for roughly one in every {@code oneIn} calls
+   */
+  public boolean sample() {
+    return oneIn == 1 || ThreadLocalRandom.current().nextInt(oneIn) == 0;
+  }
+}
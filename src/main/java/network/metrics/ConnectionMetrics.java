@@ -0,0 +1,95 @@
+package network.metrics;
+
+/**
+ * Counters for a single connection.
+ * <p>
+ * Every update comes from the one thread that reads the connection, so the counters are plain volatile fields rather
+ * than atomics: writes never contend and other threads always see a recent value. Each update is also added to the
+ * owning {@link ServerMetrics}.
+ */
+public final class ConnectionMetrics {
+
+  private final ServerMetrics server;
+  private final long connectionId;
+  private final String remoteAddress;
+  private final long openedAtMillis;
+
+  // Written only by the connection's reading thread
+  private volatile long bytesReceived;
+  private volatile long framesReceived;
+  private volatile long readCalls;
+  private volatile long errors;
+  private volatile long lastReadNanos;
+
+  ConnectionMetrics(ServerMetrics server, long connectionId, String remoteAddress) {
+    this.server = server;
+    this.connectionId = connectionId;
+    this.remoteAddress = remoteAddress;
+    this.openedAtMillis = System.currentTimeMillis();
+  }
+
+  /**
+   * Records one read call that returned data. Also starts the latency clock for the frames decoded from it.
+   *
+   * @param bytes     The number of bytes read
+   * @param readNanos The {@link System#nanoTime()} at which the read returned
+   */
+  public void recordRead(int bytes, long readNanos) {
+    lastReadNanos = readNanos;
+    readCalls++;
+    bytesReceived += bytes;
+    server.recordRead(bytes);
+  }
+
+  /**
+   * Records one frame whose handler has completed, measuring the time since the read that completed the frame.
+   *
+   * @param frameLength The frame payload length in bytes
+   */
+  public void recordFrame(int frameLength) {
+    framesReceived++;
+    server.recordFrame(frameLength, System.nanoTime() - lastReadNanos);
+  }
+
+  /**
+   * Records a read or framing error on this connection.
+   */
+  public void recordError() {
+    errors++;
+    server.recordError();
+  }
+
+  public long getConnectionId() {
+    return connectionId;
+  }
+
+  public String getRemoteAddress() {
+    return remoteAddress;
+  }
+
+  public long getOpenedAtMillis() {
+    return openedAtMillis;
+  }
+
+  public long getBytesReceived() {
+    return bytesReceived;
+  }
+
+  public long getFramesReceived() {
+    return framesReceived;
+  }
+
+  public long getReadCalls() {
+    return readCalls;
+  }
+
+  public long getErrors() {
+    return errors;
+  }
+
+  @Override
+  public String toString() {
+    return "[Connection #" + connectionId + "] " + remoteAddress + ": " + bytesReceived + " bytes, " + framesReceived +
+        " frames, " + readCalls + " reads, " + errors + " errors";
+  }
+}
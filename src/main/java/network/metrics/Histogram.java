@@ -0,0 +1,131 @@
+package network.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of non-negative long values with log-linear buckets.
+ * <p>
+ * Values below 16 are counted exactly; above that every power of two is split into 8 linear sub-buckets, so any
+ * reported value is within 12.5% of the recorded one. Bucket counts are striped {@link LongAdder}s, so threads
+ * recording the same value do not contend, and recording never allocates once the adders are warm.
+ */
+public final class Histogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final LongAdder[] counts = new LongAdder[BUCKET_COUNT];
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Creates an empty histogram.
+   */
+  public Histogram() {
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Records one value. Negative values are recorded as 0.
+   *
+   * @param value The value to record
+   */
+  public void record(long value) {
+    long v = Math.max(0, value);
+    counts[bucketIndex(v)].increment();
+    sum.add(v);
+    max.accumulate(v);
+  }
+
+  /**
+   * Gets the largest recorded value.
+   *
+   * @return The maximum, or 0 if nothing has been recorded
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Computes the arithmetic mean of the recorded values from the live counts.
+   *
+   * @return The mean, or 0 if nothing has been recorded
+   */
+  public double getMean() {
+    long total = 0;
+    for (LongAdder count : counts) {
+      total += count.sum();
+    }
+    return total == 0 ? 0 : (double) sum.sum() / total;
+  }
+
+  /**
+   * Computes the value at a percentile from the live counts, without allocating.
+   *
+   * @param percentile The percentile, 0 to 100
+   * @return The upper bound of the bucket holding that percentile, or 0 if nothing has been recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    long total = 0;
+    for (LongAdder count : counts) {
+      total += count.sum();
+    }
+    long rank = rank(percentile, total);
+    long seen = 0;
+    for (int i = 0; i < counts.length && rank > 0; i++) {
+      seen += counts[i].sum();
+      if (seen >= rank) {
+        return Math.min(bucketUpperBound(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Copies the current state into an immutable snapshot. Values recorded concurrently may or may not be included.
+   *
+   * @return The snapshot
+   */
+  public HistogramSnapshot snapshot() {
+    long[] copy = new long[counts.length];
+    long total = 0;
+    for (int i = 0; i < counts.length; i++) {
+      copy[i] = counts[i].sum();
+      total += copy[i];
+    }
+    return new HistogramSnapshot(copy, total, sum.sum(), max.get());
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long bucketUpperBound(int index) {
+    if (index + 1 >= BUCKET_COUNT) {
+      return Long.MAX_VALUE;
+    }
+    return bucketLowerBound(index + 1) - 1;
+  }
+
+  private static long bucketLowerBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    return ((long) SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+  }
+
+  static long rank(double percentile, long total) {
+    double clamped = Math.min(100, Math.max(0, percentile));
+    return Math.max(1, (long) Math.ceil(clamped / 100 * total));
+  }
+}
@@ -0,0 +1,73 @@
+package network.metrics;
+
+/**
+ * An immutable copy of a {@link Histogram} at one point in time.
+ */
+public final class HistogramSnapshot {
+
+  private final long[] counts;
+  private final long count;
+  private final long sum;
+  private final long max;
+
+  HistogramSnapshot(long[] counts, long count, long sum, long max) {
+    this.counts = counts;
+    this.count = count;
+    this.sum = sum;
+    this.max = max;
+  }
+
+  /**
+   * Gets the number of recorded values.
+   *
+   * @return The value count
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Gets the largest recorded value.
+   *
+   * @return The maximum, or 0 if nothing has been recorded
+   */
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * Gets the arithmetic mean of the recorded values.
+   *
+   * @return The mean, or 0 if nothing has been recorded
+   */
+  public double getMean() {
+    return count == 0 ? 0 : (double) sum / count;
+  }
+
+  /**
+   * Gets the value at a percentile.
+   *
+   * @param percentile The percentile, 0 to 100
+   * @return The upper bound of the bucket holding that percentile, or 0 if nothing has been recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Histogram.rank(percentile, count);
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(Histogram.bucketUpperBound(i), max);
+      }
+    }
+    return max;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d mean=%.1f p50=%d p99=%d p99.9=%d max=%d", count, getMean(),
+        getValueAtPercentile(50), getValueAtPercentile(99), getValueAtPercentile(99.9), max);
+  }
+}
@@ -0,0 +1,122 @@
+package network.metrics;
+
+/**
+ * An immutable copy of a server's {@link ServerMetrics} at one point in time. Rates can be derived by subtracting two
+ * snapshots taken a known interval apart.
+ */
+public final class MetricsSnapshot {
+
+  private final long timestampMillis;
+  private final int activeConnections;
+  private final long totalConnections;
+  private final long rejectedConnections;
+  private final long timedOutConnections;
+  private final long bytesReceived;
+  private final long framesReceived;
+  private final long readCalls;
+  private final long bytesSent;
+  private final long framesSent;
+  private final long writeCalls;
+  private final long errors;
+  private final HistogramSnapshot frameSize;
+  private final HistogramSnapshot handlerLatencyNanos;
+
+  MetricsSnapshot(long timestampMillis, int activeConnections, long totalConnections, long rejectedConnections,
+      long timedOutConnections, long bytesReceived, long framesReceived, long readCalls, long bytesSent, long framesSent,
+      long writeCalls, long errors, HistogramSnapshot frameSize, HistogramSnapshot handlerLatencyNanos) {
+    this.timestampMillis = timestampMillis;
+    this.activeConnections = activeConnections;
+    this.totalConnections = totalConnections;
+    this.rejectedConnections = rejectedConnections;
+    this.timedOutConnections = timedOutConnections;
+    this.bytesReceived = bytesReceived;
+    this.framesReceived = framesReceived;
+    this.readCalls = readCalls;
+    this.bytesSent = bytesSent;
+    this.framesSent = framesSent;
+    this.writeCalls = writeCalls;
+    this.errors = errors;
+    this.frameSize = frameSize;
+    this.handlerLatencyNanos = handlerLatencyNanos;
+  }
+
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  public int getActiveConnections() {
+    return activeConnections;
+  }
+
+  public long getTotalConnections() {
+    return totalConnections;
+  }
+
+  public long getRejectedConnections() {
+    return rejectedConnections;
+  }
+
+  public long getTimedOutConnections() {
+    return timedOutConnections;
+  }
+
+  public long getBytesReceived() {
+    return bytesReceived;
+  }
+
+  public long getFramesReceived() {
+    return framesReceived;
+  }
+
+  public long getReadCalls() {
+    return readCalls;
+  }
+
+  public long getBytesSent() {
+    return bytesSent;
+  }
+
+  public long getFramesSent() {
+    return framesSent;
+  }
+
+  /**
+   * Gets the number of write calls. Each may carry several frames, so comparing it with {@link #getFramesSent()} shows
+   * how well outbound frames are being coalesced.
+   *
+   * @return The number of write calls
+   */
+  public long getWriteCalls() {
+    return writeCalls;
+  }
+
+  public long getErrors() {
+    return errors;
+  }
+
+  /**
+   * Gets the distribution of received frame payload sizes in bytes.
+   *
+   * @return The frame size histogram
+   */
+  public HistogramSnapshot getFrameSize() {
+    return frameSize;
+  }
+
+  /**
+   * Gets the distribution of the time from the read that completed a frame until its handler returned.
+   *
+   * @return The latency histogram, in nanoseconds
+   */
+  public HistogramSnapshot getHandlerLatencyNanos() {
+    return handlerLatencyNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "connections " + activeConnections + " active / " + totalConnections + " total / " + rejectedConnections +
+        " rejected / " + timedOutConnections + " timed out, received " + bytesReceived + " bytes / " + framesReceived + " frames / " +
+        readCalls + " reads, sent " + bytesSent + " bytes / " + framesSent + " frames / " + writeCalls + " writes, " +
+        errors + " errors; frame size [" + frameSize + "]; handler latency ns [" + handlerLatencyNanos + "]";
+  }
+}
@@ -0,0 +1,273 @@
+package network.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Server-wide traffic counters and histograms, plus the {@link ConnectionMetrics} of every open connection.
+ * <p>
+ * Hot-path counters are {@link LongAdder}s, so reader threads never contend on a shared cache line. Reading them sums a
+ * handful of cells, which makes {@link #snapshot()} cheap enough to poll every second. The same numbers are available
+ * over JMX once {@link #register(String)} has been called.
+ */
+public final class ServerMetrics implements ServerMetricsMXBean {
+
+  // Connections
+  private final AtomicLong totalConnections = new AtomicLong();
+  private final AtomicInteger activeConnections = new AtomicInteger();
+  private final LongAdder rejectedConnections = new LongAdder();
+  private final LongAdder timedOutConnections = new LongAdder();
+  private final Map<Long, ConnectionMetrics> connections = new ConcurrentHashMap<>();
+
+  // Traffic
+  private final LongAdder bytesReceived = new LongAdder();
+  private final LongAdder framesReceived = new LongAdder();
+  private final LongAdder readCalls = new LongAdder();
+  private final LongAdder bytesSent = new LongAdder();
+  private final LongAdder framesSent = new LongAdder();
+  private final LongAdder writeCalls = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final Histogram frameSize = new Histogram();
+  private final Histogram handlerLatencyNanos = new Histogram();
+
+  private ObjectName objectName;
+
+  /**
+   * Records a newly accepted connection and assigns its identifier.
+   *
+   * @param remoteAddress Address of the remote peer
+   * @return The metrics of the new connection, carrying its identifier
+   */
+  public ConnectionMetrics connectionOpened(String remoteAddress) {
+    long connectionId = totalConnections.incrementAndGet();
+    activeConnections.incrementAndGet();
+    ConnectionMetrics metrics = new ConnectionMetrics(this, connectionId, remoteAddress);
+    connections.put(connectionId, metrics);
+    return metrics;
+  }
+
+  /**
+   * Records that a connection has been closed. Must be called exactly once per opened connection.
+   *
+   * @param metrics The metrics returned by {@link #connectionOpened(String)}
+   * @return The number of connections still open
+   */
+  public int connectionClosed(ConnectionMetrics metrics) {
+    connections.remove(metrics.getConnectionId());
+    return activeConnections.decrementAndGet();
+  }
+
+  /**
+   * Records a connection that was refused because the server was at its connection limit.
+   */
+  public void connectionRejected() {
+    rejectedConnections.increment();
+  }
+
+  /**
+   * Records a connection that was closed because it exceeded an idle, read or slow-frame timeout.
+   */
+  public void connectionTimedOut() {
+    timedOutConnections.increment();
+  }
+
+  void recordRead(int bytes) {
+    readCalls.increment();
+    bytesReceived.add(bytes);
+  }
+
+  void recordFrame(int frameLength, long latencyNanos) {
+    framesReceived.increment();
+    frameSize.record(frameLength);
+    handlerLatencyNanos.record(latencyNanos);
+  }
+
+  void recordError() {
+    errors.increment();
+  }
+
+  /**
+   * Records a failed write. Writes may come from any thread, so unlike read errors they are only counted server-wide.
+   */
+  public void recordWriteError() {
+    errors.increment();
+  }
+
+  /**
+   * Records a frame accepted into a connection's outbound queue.
+   */
+  public void recordFrameSent() {
+    framesSent.increment();
+  }
+
+  /**
+   * Records one write call, which may carry several queued frames.
+   *
+   * @param bytes The number of bytes written
+   */
+  public void recordWrite(long bytes) {
+    writeCalls.increment();
+    bytesSent.add(bytes);
+  }
+
+  /**
+   * Copies the server-wide counters and histograms.
+   *
+   * @return The snapshot
+   */
+  public MetricsSnapshot snapshot() {
+    return new MetricsSnapshot(System.currentTimeMillis(), activeConnections.get(), totalConnections.get(),
+        rejectedConnections.sum(), timedOutConnections.sum(), bytesReceived.sum(), framesReceived.sum(), readCalls.sum(),
+        bytesSent.sum(), framesSent.sum(), writeCalls.sum(), errors.sum(), frameSize.snapshot(),
+        handlerLatencyNanos.snapshot());
+  }
+
+  /**
+   * Gets the live metrics of every open connection. The returned list is a copy; its elements keep updating.
+   *
+   * @return The per-connection metrics
+   */
+  public List<ConnectionMetrics> getConnectionMetrics() {
+    return new ArrayList<>(connections.values());
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server. Does nothing if already registered.
+   *
+   * @param name The JMX object name, for example {@code network:type=TCPServer,port=5000}
+   * @throws JMException If the name is invalid or already in use
+   */
+  public synchronized void register(String name) throws JMException {
+    if (objectName != null) {
+      return;
+    }
+    ObjectName candidate = new ObjectName(name);
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, candidate);
+    objectName = candidate;
+  }
+
+  /**
+   * Removes these metrics from the platform MBean server if they are registered.
+   */
+  public synchronized void unregister() {
+    if (objectName == null) {
+      return;
+    }
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+    } catch (JMException e) {
+      // Already gone
+    }
+    objectName = null;
+  }
+
+  // MXBean attributes
+
+  @Override
+  public int getActiveConnections() {
+    return activeConnections.get();
+  }
+
+  @Override
+  public long getTotalConnections() {
+    return totalConnections.get();
+  }
+
+  @Override
+  public long getRejectedConnections() {
+    return rejectedConnections.sum();
+  }
+
+  @Override
+  public long getTimedOutConnections() {
+    return timedOutConnections.sum();
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return bytesReceived.sum();
+  }
+
+  @Override
+  public long getFramesReceived() {
+    return framesReceived.sum();
+  }
+
+  @Override
+  public long getReadCalls() {
+    return readCalls.sum();
+  }
+
+  @Override
+  public long getBytesSent() {
+    return bytesSent.sum();
+  }
+
+  @Override
+  public long getFramesSent() {
+    return framesSent.sum();
+  }
+
+  @Override
+  public long getWriteCalls() {
+    return writeCalls.sum();
+  }
+
+  @Override
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  @Override
+  public double getFrameSizeMean() {
+    return frameSize.getMean();
+  }
+
+  @Override
+  public long getFrameSizeP50() {
+    return frameSize.getValueAtPercentile(50);
+  }
+
+  @Override
+  public long getFrameSizeP99() {
+    return frameSize.getValueAtPercentile(99);
+  }
+
+  @Override
+  public long getFrameSizeMax() {
+    return frameSize.getMax();
+  }
+
+  @Override
+  public long getHandlerLatencyP50Micros() {
+    return TimeUnit.NANOSECONDS.toMicros(handlerLatencyNanos.getValueAtPercentile(50));
+  }
+
+  @Override
+  public long getHandlerLatencyP99Micros() {
+    return TimeUnit.NANOSECONDS.toMicros(handlerLatencyNanos.getValueAtPercentile(99));
+  }
+
+  @Override
+  public long getHandlerLatencyP999Micros() {
+    return TimeUnit.NANOSECONDS.toMicros(handlerLatencyNanos.getValueAtPercentile(99.9));
+  }
+
+  @Override
+  public long getHandlerLatencyMaxMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(handlerLatencyNanos.getMax());
+  }
+}
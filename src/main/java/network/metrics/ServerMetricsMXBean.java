@@ -0,0 +1,45 @@
+package network.metrics;
+
+/**
+ * JMX view of a server's {@link ServerMetrics}. Latencies are in microseconds and frame sizes in bytes.
+ */
+public interface ServerMetricsMXBean {
+
+  int getActiveConnections();
+
+  long getTotalConnections();
+
+  long getRejectedConnections();
+
+  long getTimedOutConnections();
+
+  long getBytesReceived();
+
+  long getFramesReceived();
+
+  long getReadCalls();
+
+  long getBytesSent();
+
+  long getFramesSent();
+
+  long getWriteCalls();
+
+  long getErrors();
+
+  double getFrameSizeMean();
+
+  long getFrameSizeP50();
+
+  long getFrameSizeP99();
+
+  long getFrameSizeMax();
+
+  long getHandlerLatencyP50Micros();
+
+  long getHandlerLatencyP99Micros();
+
+  long getHandlerLatencyP999Micros();
+
+  long getHandlerLatencyMaxMicros();
+}
@@ -0,0 +1,132 @@
+package network.tcp;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.util.concurrent.Semaphore;
+import network.log.Log;
+import network.log.LogLevel;
+import network.metrics.ServerMetrics;
+
+/**
+ * Limits the number of open connections of a {@link TCPServer}. Shared by the accept loops of every I/O mode.
+ * <p>
+ * Each open connection holds one permit. Under {@link TCPServer.OverloadPolicy#PAUSE_ACCEPTING} the accept thread takes
+ * a permit before calling {@code accept()}, so while the server is saturated new connections wait in the kernel's
+ * accept backlog and cost the process nothing. Under {@link TCPServer.OverloadPolicy#REJECT} connections are accepted
+ * and, if no permit is free, reset immediately and counted.
+ */
+final class AdmissionController {
+
+  private static final Log LOG = Log.get(AdmissionController.class);
+
+  private final int maxConnections;
+  private final TCPServer.OverloadPolicy policy;
+  private final ServerMetrics metrics;
+  private final Semaphore permits;
+  private volatile Runnable capacityListener;
+
+  /**
+   * Creates a controller.
+   *
+   * @param maxConnections Maximum number of connections open at once
+   * @param policy         What to do with connections beyond the limit
+   * @param metrics        Receives the rejection count
+   */
+  AdmissionController(int maxConnections, TCPServer.OverloadPolicy policy, ServerMetrics metrics) {
+    this.maxConnections = maxConnections;
+    this.policy = policy;
+    this.metrics = metrics;
+    this.permits = new Semaphore(maxConnections);
+  }
+
+  /**
+   * Called by the accept thread before each {@code accept()}. Blocks while the server is saturated if accepting is
+   * paused on overload.
+   *
+   * @throws InterruptedException If the accept thread is interrupted, typically by shutdown
+   */
+  void awaitCapacity() throws InterruptedException {
+    if (policy != TCPServer.OverloadPolicy.PAUSE_ACCEPTING || permits.tryAcquire()) {
+      return;
+    }
+    LOG.warn("Connection limit of " + maxConnections + " reached; pausing accept");
+    permits.acquire();
+    LOG.info("Connection slot available; resuming accept");
+  }
+
+  /**
+   * Non-blocking form of {@link #awaitCapacity()} for accept loops that must not block. When it fails, the caller
+   * stops accepting until the {@link #setCapacityListener(Runnable) capacity listener} runs.
+   *
+   * @return true if the next accept may proceed
+   */
+  boolean tryReserveCapacity() {
+    return policy != TCPServer.OverloadPolicy.PAUSE_ACCEPTING || permits.tryAcquire();
+  }
+
+  int getMaxConnections() {
+    return maxConnections;
+  }
+
+  /**
+   * Sets a callback run whenever a slot is returned, so a non-blocking accept loop can resume.
+   *
+   * @param capacityListener The callback; must not block
+   */
+  void setCapacityListener(Runnable capacityListener) {
+    this.capacityListener = capacityListener;
+  }
+
+  /**
+   * Returns the slot reserved by {@link #awaitCapacity()} when the following {@code accept()} failed.
+   */
+  void acceptFailed() {
+    if (policy == TCPServer.OverloadPolicy.PAUSE_ACCEPTING) {
+      release();
+    }
+  }
+
+  /**
+   * Decides whether a freshly accepted channel may stay open. A rejected channel is reset and closed.
+   *
+   * @param channel    The accepted channel
+   * @param clientInfo The remote address of the channel, for logging
+   * @return true if the connection was admitted and now holds a slot
+   */
+  boolean admit(NetworkChannel channel, String clientInfo) {
+    if (policy == TCPServer.OverloadPolicy.PAUSE_ACCEPTING || permits.tryAcquire()) {
+      return true;
+    }
+
+    metrics.connectionRejected();
+    if (LOG.isEnabled(LogLevel.DEBUG)) {
+      LOG.debug("Connection limit of " + maxConnections + " reached; rejecting " + clientInfo);
+    }
+    try {
+      // Reset rather than close gracefully, so no TIME_WAIT state is left behind; asynchronous channels cannot linger
+      if (channel.supportedOptions().contains(StandardSocketOptions.SO_LINGER)) {
+        channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+      }
+    } catch (IOException e) {
+      // Closed anyway below
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // Ignore errors during cleanup
+    }
+    return false;
+  }
+
+  /**
+   * Frees the slot of a closed connection.
+   */
+  void release() {
+    permits.release();
+    Runnable listener = capacityListener;
+    if (listener != null) {
+      listener.run();
+    }
+  }
+}
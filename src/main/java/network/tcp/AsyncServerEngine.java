@@ -0,0 +1,417 @@
+package network.tcp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ShutdownChannelGroupException;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLException;
+import network.codec.FrameException;
+import network.log.Log;
+import network.log.LogLevel;
+
+/**
+ * Completion-based connection engine for {@link TCPServer} built on {@link AsynchronousServerSocketChannel}.
+ * <p>
+ * Accepts and reads are started asynchronously and finish in {@link CompletionHandler}s that run on the threads of one
+ * shared {@link AsynchronousChannelGroup}. No thread waits on a particular connection: between reads a connection is
+ * just a pending operation and its read buffer. Each connection has at most one read outstanding, so its frames are
+ * still decoded and dispatched in order, though not always on the same thread. Likewise at most one gathering write is
+ * outstanding; frames queued while it runs go out with the next one.
+ */
+final class AsyncServerEngine implements ServerEngine {
+
+  private static final Log LOG = Log.get(AsyncServerEngine.class);
+
+  private final TCPServer server;
+  private final int threads;
+  private final AtomicBoolean isRunning = new AtomicBoolean(false);
+  private volatile boolean accepting;
+  private final Set<AsyncConnection> connections = ConcurrentHashMap.newKeySet();
+
+  private AsynchronousChannelGroup group;
+  private AsynchronousServerSocketChannel[] serverChannels;
+  private AcceptLoop[] acceptLoops;
+  private AdmissionController admission;
+
+  /**
+   * Creates a new engine for the given server.
+   *
+   * @param server  The server that receives connection and data callbacks
+   * @param threads The number of threads running completion handlers
+   */
+  AsyncServerEngine(TCPServer server, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be at least 1");
+    }
+    this.server = server;
+    this.threads = threads;
+  }
+
+  @Override
+  public void start(int port, int acceptBacklog, int acceptors, boolean reusePort) throws IOException {
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "TCP-Async-" + threadCount.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+    group = AsynchronousChannelGroup.withFixedThreadPool(threads, threadFactory);
+
+    try {
+      serverChannels = Listeners.openAsync(group, port, acceptBacklog, acceptors, reusePort);
+    } catch (IOException e) {
+      group.shutdownNow();
+      throw e;
+    }
+
+    acceptLoops = new AcceptLoop[serverChannels.length];
+    for (int i = 0; i < serverChannels.length; i++) {
+      acceptLoops[i] = new AcceptLoop(serverChannels[i]);
+    }
+    admission = server.admission();
+    admission.setCapacityListener(this::resumeAccept);
+    isRunning.set(true);
+    accepting = true;
+    for (AcceptLoop acceptLoop : acceptLoops) {
+      acceptLoop.acceptNext();
+    }
+  }
+
+  /**
+   * Called by the admission controller whenever a connection slot frees up.
+   */
+  private void resumeAccept() {
+    for (AcceptLoop acceptLoop : acceptLoops) {
+      acceptLoop.resume();
+    }
+  }
+
+  @Override
+  public void stopAccepting() {
+    accepting = false;
+
+    // Close the listening channels, which fails the pending accepts
+    Listeners.closeAll(serverChannels);
+  }
+
+  @Override
+  public void shutdown(long timeoutMillis) {
+    isRunning.set(false);
+    stopAccepting();
+
+    // Close every channel; the pending reads fail and their handlers close the connections
+    for (AsyncConnection connection : new ArrayList<>(connections)) {
+      closeQuietly(connection.channel);
+    }
+
+    group.shutdown();
+    try {
+      if (!group.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+        group.shutdownNow();
+      }
+    } catch (IOException e) {
+      LOG.error("Error stopping completion threads: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    // Connections whose handlers never ran
+    for (AsyncConnection connection : new ArrayList<>(connections)) {
+      connection.close();
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // Ignore errors during cleanup
+      }
+    }
+  }
+
+  /**
+   * The chain of accepts on one listener. Completing an accept admits the channel, starts the next accept and then the
+   * connection's first read.
+   */
+  private final class AcceptLoop implements CompletionHandler<AsynchronousSocketChannel, Void> {
+
+    private final AsynchronousServerSocketChannel serverChannel;
+
+    // Set while accepting is paused on overload; cleared by whichever thread resumes it
+    private final AtomicBoolean paused = new AtomicBoolean(false);
+
+    AcceptLoop(AsynchronousServerSocketChannel serverChannel) {
+      this.serverChannel = serverChannel;
+    }
+
+    /**
+     * Starts the next accept, unless the server is saturated and accepting pauses on overload.
+     */
+    void acceptNext() {
+      if (!accepting) {
+        return;
+      }
+      if (!admission.tryReserveCapacity()) {
+        paused.set(true);
+        // A connection may have closed before the flag was set, in which case nobody else resumes accepting
+        if (!admission.tryReserveCapacity()) {
+          LOG.warn("Connection limit of " + admission.getMaxConnections() + " reached; pausing accept");
+          return;
+        }
+        if (!paused.compareAndSet(true, false)) {
+          // Another thread resumed accepting in the meantime
+          admission.acceptFailed();
+          return;
+        }
+      }
+
+      try {
+        serverChannel.accept(null, this);
+      } catch (ShutdownChannelGroupException e) {
+        // Shutdown in progress
+        admission.acceptFailed();
+      }
+    }
+
+    void resume() {
+      if (accepting && paused.compareAndSet(true, false)) {
+        LOG.info("Connection slot available; resuming accept");
+        acceptNext();
+      }
+    }
+
+    @Override
+    public void completed(AsynchronousSocketChannel channel, Void attachment) {
+      String clientInfo;
+      try {
+        clientInfo = TCPServer.describe((InetSocketAddress) channel.getRemoteAddress());
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      } catch (IOException e) {
+        // Peer already gone
+        closeQuietly(channel);
+        admission.acceptFailed();
+        acceptNext();
+        return;
+      }
+
+      if (!admission.admit(channel, clientInfo)) {
+        acceptNext();
+        return;
+      }
+      AsyncConnection connection = new AsyncConnection(channel, server.connectionOpened(channel, clientInfo));
+
+      acceptNext();
+      connection.start();
+    }
+
+    @Override
+    public void failed(Throwable e, Void attachment) {
+      admission.acceptFailed();
+      if (!accepting || e instanceof AsynchronousCloseException || e instanceof ClosedChannelException) {
+        // Channel closed during shutdown - this is expected
+        return;
+      }
+      LOG.error("Error accepting client connection: " + e.getMessage());
+      acceptNext();
+    }
+  }
+
+  /**
+   * One accepted connection and the read and write it has in flight.
+   */
+  private final class AsyncConnection implements CompletionHandler<Integer, Void> {
+
+    private final AsynchronousSocketChannel channel;
+    private final TcpConnection connection;
+    private final OutboundBuffer outbound;
+    private final WriteHandler writeHandler = new WriteHandler();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile boolean writeFailed;
+    private ByteBuffer readBuffer;
+
+    AsyncConnection(AsynchronousSocketChannel channel, TcpConnection connection) {
+      this.channel = channel;
+      this.connection = connection;
+      this.outbound = connection.outbound();
+      connection.setFlushHandler(c -> flush());
+    }
+
+    void start() {
+      connections.add(this);
+      readBuffer = server.getReadBufferPool().acquire();
+      server.timeouts().watch(connection);
+
+      if (LOG.isEnabled(LogLevel.DEBUG)) {
+        LOG.debug("[Connection #" + connection.getId() + "] Ready to receive objects from " +
+            connection.getRemoteAddress());
+      }
+      read();
+    }
+
+    private void read() {
+      readBuffer.clear();
+      try {
+        channel.read(readBuffer, null, this);
+      } catch (ShutdownChannelGroupException e) {
+        close();
+      }
+    }
+
+    @Override
+    public void completed(Integer bytesRead, Void attachment) {
+      boolean open = bytesRead >= 0;
+      try {
+        if (open) {
+          readBuffer.flip();
+          open = connection.decode(readBuffer);
+        }
+      } catch (FrameException e) {
+        // Peer violated the framing rules; the stream cannot be resynchronized
+        connection.metrics().recordError();
+        LOG.warn("[Connection #" + connection.getId() + "] Framing error: " + e.getMessage());
+        close();
+        return;
+      } catch (SSLException e) {
+        // Failed handshake or corrupt record
+        connection.metrics().recordError();
+        LOG.warn("[Connection #" + connection.getId() + "] TLS error: " + e.getMessage());
+        close();
+        return;
+      } catch (IOException e) {
+        failed(e, attachment);
+        return;
+      }
+
+      if (!open) {
+        // Client closed connection gracefully
+        if (LOG.isEnabled(LogLevel.DEBUG)) {
+          LOG.debug("[Connection #" + connection.getId() + "] Client disconnected: " + connection.getRemoteAddress());
+        }
+        close();
+        return;
+      }
+      read();
+    }
+
+    @Override
+    public void failed(Throwable e, Void attachment) {
+      // Failures after shutdown, a server-side close or a failed write closed the channel are expected
+      if (isRunning.get() && !connection.isClosedByServer() && !writeFailed && !closed.get()) {
+        connection.metrics().recordError();
+        if (LOG.isEnabled(LogLevel.DEBUG)) {
+          LOG.debug("[Connection #" + connection.getId() + "] Connection lost: " + connection.getRemoteAddress() +
+              " - " + e.getMessage());
+        }
+      }
+      close();
+    }
+
+    /**
+     * Starts writing the outbound queue unless a write is already in flight. Called from any thread.
+     */
+    void flush() {
+      while (!writeFailed && connection.hasPendingWrites() && outbound.tryLock()) {
+        if (startWrite()) {
+          // The write's completion continues the flush and releases the lock
+          return;
+        }
+        outbound.unlock();
+      }
+    }
+
+    /**
+     * Starts one gathering write of the queued frames, or of their ciphertext on a TLS connection. Only called while
+     * holding the flush lock.
+     *
+     * @return true if a write is now in flight
+     */
+    private boolean startWrite() {
+      if (closed.get()) {
+        return false;
+      }
+      try {
+        int count = connection.prepareWrite();
+        if (count == 0) {
+          return false;
+        }
+        channel.write(connection.writeBatch(), 0, count, 0L, TimeUnit.MILLISECONDS, null, writeHandler);
+        return true;
+      } catch (ShutdownChannelGroupException e) {
+        return false;
+      } catch (IOException e) {
+        // Encryption failed; the pending read fails next and closes the connection
+        writeFailed = true;
+        connection.writeFailed(e);
+        closeQuietly(channel);
+        return false;
+      }
+    }
+
+    /**
+     * Completes gathering writes, starting the next one while frames remain queued.
+     */
+    private final class WriteHandler implements CompletionHandler<Long, Void> {
+
+      @Override
+      public void completed(Long written, Void attachment) {
+        connection.wrote(written);
+        if (startWrite()) {
+          return;
+        }
+        outbound.unlock();
+        // Frames may have been queued after the batch was taken but before the lock was released
+        flush();
+      }
+
+      @Override
+      public void failed(Throwable e, Void attachment) {
+        outbound.unlock();
+        if (closed.get()) {
+          return;
+        }
+        writeFailed = true;
+        if (e instanceof IOException) {
+          connection.writeFailed((IOException) e);
+        }
+        // The pending read fails next and closes the connection
+        closeQuietly(channel);
+      }
+    }
+
+    /**
+     * Closes the connection and reports it to the server. Only the first call has an effect. Called when no read is in
+     * flight, so the read buffer can go back to the pool.
+     */
+    void close() {
+      if (!closed.compareAndSet(false, true)) {
+        return;
+      }
+      connection.cancelTimeout();
+      connection.discardOutbound();
+      closeQuietly(channel);
+      connections.remove(this);
+      if (readBuffer != null) {
+        server.getReadBufferPool().release(readBuffer);
+      }
+      server.connectionClosed(connection);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package network.tcp;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import network.handler.MessageContext;
+import network.handler.MessageHeader;
+
+/**
+ * A named set of connections of one {@link TCPServer} that messages can be sent to together, for example the clients
+ * subscribed to a topic. Obtained with {@link TCPServer#getGroup(String)}.
+ * <p>
+ * Connections leave every group automatically when they close. A message sent to the group is framed once and the
+ * same bytes are shared by all members, each of which gets its own small buffer view and queue entry. Sending only
+ * queues the message, so a member that reads slowly holds up neither the sender nor the other members.
+ */
+public final class ConnectionGroup {
+
+  private final TCPServer server;
+  private final String name;
+  private final Map<Long, TcpConnection> members = new ConcurrentHashMap<>();
+
+  ConnectionGroup(TCPServer server, String name) {
+    this.server = server;
+    this.name = name;
+  }
+
+  /**
+   * Gets the name the group was created with.
+   *
+   * @return The group name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Adds a connection, typically the context of a message asking to join.
+   *
+   * @param context The connection to add
+   * @return true if the connection is an open connection of this group's server and is now a member
+   */
+  public boolean add(MessageContext context) {
+    if (!(context instanceof TcpConnection)) {
+      return false;
+    }
+    TcpConnection connection = (TcpConnection) context;
+    if (!server.isRegistered(connection)) {
+      return false;
+    }
+    members.put(connection.getId(), connection);
+
+    // The connection may have closed, and left all groups, while it was being added
+    if (!server.isRegistered(connection)) {
+      members.remove(connection.getId(), connection);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Removes a connection.
+   *
+   * @param context The connection to remove
+   * @return true if it was a member
+   */
+  public boolean remove(MessageContext context) {
+    return context instanceof TcpConnection && members.remove(context.getId(), context);
+  }
+
+  /**
+   * Checks whether a connection is a member.
+   *
+   * @param context The connection to check
+   * @return true if it is a member
+   */
+  public boolean contains(MessageContext context) {
+    return context instanceof TcpConnection && members.get(context.getId()) == context;
+  }
+
+  /**
+   * Gets the number of members.
+   *
+   * @return The member count
+   */
+  public int size() {
+    return members.size();
+  }
+
+  /**
+   * Sends a typed message to every member. Members whose outbound queue is full are skipped.
+   *
+   * @param typeId The message type ID, 0 to {@link MessageHeader#MAX_TYPE_ID}
+   * @param body   The message body, between position and limit; its position is left unchanged
+   * @return The number of members the message was queued for
+   */
+  public int send(int typeId, ByteBuffer body) {
+    if (members.isEmpty()) {
+      return 0;
+    }
+    return TcpConnection.writeToAll(members.values(), TcpConnection.encode(server.getFrameCodec(), typeId, body, true));
+  }
+
+  /**
+   * Sends a message that already starts with its {@link MessageHeader} to every member. Members whose outbound queue is
+   * full are skipped.
+   *
+   * @param message The message, between position and limit; its position is left unchanged
+   * @return The number of members the message was queued for
+   */
+  public int send(ByteBuffer message) {
+    if (members.isEmpty()) {
+      return 0;
+    }
+    return TcpConnection.writeToAll(members.values(), TcpConnection.encode(server.getFrameCodec(), message, true));
+  }
+
+  void removeClosed(TcpConnection connection) {
+    members.remove(connection.getId(), connection);
+  }
+}
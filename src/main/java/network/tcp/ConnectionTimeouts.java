@@ -0,0 +1,120 @@
+package network.tcp;
+
+import java.util.concurrent.TimeUnit;
+import network.timer.HashedTimingWheel;
+
+/**
+ * Enforces the idle, read and slow-frame timeouts of a {@link TCPServer}'s connections on a shared
+ * {@link HashedTimingWheel}.
+ * <p>
+ * Each connection has at most one timeout in the wheel. Reads only update timestamps on the connection; when the
+ * timeout fires it compares them with the limits and either closes the connection or re-arms itself for the earliest
+ * remaining deadline. Bookkeeping is therefore O(1) per read and O(1) per check, whatever the number of connections.
+ * Limits are enforced at tick resolution: a connection is closed no earlier than its limit and, for the read and
+ * slow-frame limits, at most one extra limit period later.
+ */
+final class ConnectionTimeouts {
+
+  // Wheel geometry: 100 ms resolution, one rotation every 51.2 s
+  private static final long TICK_MILLIS = 100;
+  private static final int TICKS_PER_WHEEL = 512;
+  private static final long MIN_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+
+  private final long idleNanos;
+  private final long readNanos;
+  private final long slowFrameNanos;
+  private final HashedTimingWheel wheel;
+
+  /**
+   * Creates the timeouts. A limit of 0 disables that check.
+   *
+   * @param idleNanos      Maximum time without any traffic on the connection
+   * @param readNanos      Maximum time without new bytes while a frame is incomplete
+   * @param slowFrameNanos Maximum time from the first to the last byte of a frame
+   */
+  ConnectionTimeouts(long idleNanos, long readNanos, long slowFrameNanos) {
+    this.idleNanos = idleNanos;
+    this.readNanos = readNanos;
+    this.slowFrameNanos = slowFrameNanos;
+    this.wheel = new HashedTimingWheel("TCP-Timeout-Wheel", TICK_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+  }
+
+  boolean isEnabled() {
+    return idleNanos > 0 || readNanos > 0 || slowFrameNanos > 0;
+  }
+
+  void start() {
+    if (isEnabled()) {
+      wheel.start();
+    }
+  }
+
+  void stop() {
+    wheel.stop();
+  }
+
+  /**
+   * Starts enforcing the limits on a connection. The watch ends when the connection expires or
+   * {@link TcpConnection#cancelTimeout()} is called.
+   *
+   * @param connection The newly opened connection
+   */
+  void watch(TcpConnection connection) {
+    if (isEnabled()) {
+      schedule(connection, System.nanoTime());
+    }
+  }
+
+  private void schedule(TcpConnection connection, long now) {
+    try {
+      connection.setTimeout(wheel.schedule(() -> check(connection), nextCheckDelay(connection, now),
+          TimeUnit.NANOSECONDS));
+    } catch (IllegalStateException e) {
+      // Wheel stopped by shutdown
+    }
+  }
+
+  /**
+   * Runs on the wheel thread when a connection's timeout fires.
+   */
+  private void check(TcpConnection connection) {
+    if (connection.isClosed()) {
+      return;
+    }
+    long now = System.nanoTime();
+    long frameStart = connection.frameStartNanos();
+
+    String reason = null;
+    if (idleNanos > 0 && now - connection.lastActivityNanos() >= idleNanos) {
+      reason = "Idle timeout: no traffic for " + TimeUnit.NANOSECONDS.toMillis(idleNanos) + " ms";
+    } else if (frameStart != 0 && readNanos > 0 && now - connection.lastReadNanos() >= readNanos) {
+      reason = "Read timeout: incomplete frame and no data for " + TimeUnit.NANOSECONDS.toMillis(readNanos) + " ms";
+    } else if (frameStart != 0 && slowFrameNanos > 0 && now - frameStart >= slowFrameNanos) {
+      reason = "Slow frame: frame incomplete after " + TimeUnit.NANOSECONDS.toMillis(slowFrameNanos) + " ms";
+    }
+
+    if (reason != null) {
+      connection.expire(reason);
+    } else {
+      schedule(connection, now);
+    }
+  }
+
+  /**
+   * Computes the time until the earliest limit could next be exceeded.
+   */
+  private long nextCheckDelay(TcpConnection connection, long now) {
+    long delay = Long.MAX_VALUE;
+    long frameStart = connection.frameStartNanos();
+    if (idleNanos > 0) {
+      delay = Math.min(delay, connection.lastActivityNanos() + idleNanos - now);
+    }
+    if (readNanos > 0) {
+      delay = Math.min(delay, frameStart != 0 ? connection.lastReadNanos() + readNanos - now : readNanos);
+    }
+    if (slowFrameNanos > 0) {
+      delay = Math.min(delay, frameStart != 0 ? frameStart + slowFrameNanos - now : slowFrameNanos);
+    }
+    return Math.max(MIN_DELAY_NANOS, delay);
+  }
+}
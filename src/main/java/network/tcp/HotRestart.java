@@ -0,0 +1,271 @@
+package network.tcp;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import network.log.Log;
+
+/**
+ * Hands the port of a {@link TCPServer} over to a successor process, so a restart refuses no connections.
+ * <p>
+ * A server in hot-restart mode binds its listeners with {@code SO_REUSEPORT} and serves a control socket, a
+ * Unix-domain socket at a configured path. A successor starting on the same port binds next to the running instance,
+ * so for a moment both accept, then connects to the control socket and asks for the port. The running instance closes
+ * its listeners, confirms, and {@link TCPServer#drain() drains}: it keeps serving its open connections and closes them
+ * gradually, so their clients reconnect to the successor spread over the drain period rather than all at once. The
+ * successor then serves the control socket itself, ready for the next restart.
+ * <p>
+ * Java cannot pass file descriptors over a Unix-domain socket, so the successor shares the port through
+ * {@code SO_REUSEPORT} instead of receiving the listening socket. On Linux, connections still waiting in a listener's
+ * accept queue when it closes are reset; the predecessor accepts until the moment it closes, so only handshakes
+ * completing in that instant are affected. Unix-domain socket channels need Java 16 and are looked up reflectively, like
+ * {@code SO_REUSEPORT} in {@link Listeners}.
+ */
+final class HotRestart {
+
+  private static final Log LOG = Log.get(HotRestart.class);
+
+  // Control protocol: the successor sends one request byte and the predecessor answers with one byte
+  private static final byte HANDOFF_REQUEST = 'H';
+  private static final byte RELEASED = 'R';
+  // Longest waits for the other side's byte, so a stuck or stray peer cannot hold up a restart. A successor sends its
+  // request as soon as it connects; its wait for the release covers a few stray connections queued ahead of it
+  private static final long REQUEST_TIMEOUT_MS = 1000;
+  private static final long RELEASE_TIMEOUT_MS = 10000;
+
+  private static final ProtocolFamily UNIX = lookupUnixFamily();
+  private static final Method UNIX_ADDRESS_OF = lookupMethod("java.net.UnixDomainSocketAddress", "of", Path.class);
+  private static final Method OPEN_SERVER_CHANNEL = lookupMethod(ServerSocketChannel.class.getName(), "open",
+      ProtocolFamily.class);
+  private static final Method OPEN_CHANNEL = lookupMethod(SocketChannel.class.getName(), "open", ProtocolFamily.class);
+
+  private final TCPServer server;
+  private final Path path;
+  private volatile ServerSocketChannel controlChannel;
+  private volatile boolean stopped;
+  private volatile boolean handedOff;
+
+  /**
+   * Creates the control socket handler of a server.
+   *
+   * @param server The server whose port is handed over
+   * @param path   The path of the control socket, shared by every instance of the server
+   */
+  HotRestart(TCPServer server, Path path) {
+    this.server = server;
+    this.path = path;
+  }
+
+  /**
+   * Checks whether this runtime supports Unix-domain socket channels.
+   *
+   * @return true if hot restart is available
+   */
+  static boolean isSupported() {
+    return UNIX != null && UNIX_ADDRESS_OF != null && OPEN_SERVER_CHANNEL != null && OPEN_CHANNEL != null;
+  }
+
+  /**
+   * Starts the control thread, which takes the port over from a running predecessor, if there is one, and then waits
+   * for a successor. Called once the server's own listeners are bound.
+   */
+  void start() {
+    Thread thread = new Thread(this::run, "TCP-Handoff-Thread");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Closes the control socket. The socket file is removed unless a successor has taken it over.
+   */
+  void stop() {
+    stopped = true;
+    ServerSocketChannel channel = controlChannel;
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Ignore errors during cleanup
+      }
+    }
+    if (!handedOff) {
+      try {
+        Files.deleteIfExists(path);
+      } catch (IOException e) {
+        // Ignore errors during cleanup
+      }
+    }
+  }
+
+  private void run() {
+    try {
+      takeOver();
+      listen();
+    } catch (IOException e) {
+      if (!stopped) {
+        LOG.error("Hot restart control socket " + path + " failed: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Asks a running predecessor to release the port and waits until it has.
+   */
+  private void takeOver() throws IOException {
+    try (SocketChannel predecessor = open(OPEN_CHANNEL)) {
+      try {
+        predecessor.connect(address());
+      } catch (IOException e) {
+        // No predecessor: nothing listens on the path, or the file is left over from a process that died
+        return;
+      }
+
+      LOG.info("Taking over port " + server.getPort() + " from the running instance at " + path);
+      predecessor.write(ByteBuffer.wrap(new byte[]{HANDOFF_REQUEST}));
+      int reply;
+      try {
+        reply = readByte(predecessor, RELEASE_TIMEOUT_MS);
+      } catch (SocketTimeoutException e) {
+        // Serve alongside it; it keeps its port until it is shut down
+        LOG.warn("Previous instance did not release port " + server.getPort() + " within " + RELEASE_TIMEOUT_MS
+            + " ms; serving alongside it");
+        return;
+      }
+      if (reply == RELEASED) {
+        LOG.info("Previous instance released port " + server.getPort() + " and is draining its connections");
+      } else {
+        LOG.warn("Previous instance closed the control socket without releasing port " + server.getPort());
+      }
+    }
+  }
+
+  /**
+   * Serves the control socket until a successor asks for the port, then hands it over and drains the server.
+   */
+  private void listen() throws IOException {
+    Files.deleteIfExists(path);
+    ServerSocketChannel channel = open(OPEN_SERVER_CHANNEL);
+    channel.bind(address());
+    controlChannel = channel;
+    if (stopped) {
+      // Shutdown raced with the bind
+      stop();
+      return;
+    }
+
+    try {
+      while (true) {
+        try (SocketChannel successor = channel.accept()) {
+          if (readByte(successor, REQUEST_TIMEOUT_MS) != HANDOFF_REQUEST) {
+            continue;
+          }
+
+          // The successor rebinds the path, so it must not be deleted from here on
+          handedOff = true;
+          server.stopAccepting();
+          successor.write(ByteBuffer.wrap(new byte[]{RELEASED}));
+          break;
+        } catch (SocketTimeoutException e) {
+          LOG.warn("Ignoring a control connection that sent no hot restart request within " + REQUEST_TIMEOUT_MS
+              + " ms");
+        } catch (IOException e) {
+          if (stopped) {
+            return;
+          }
+          LOG.warn("Hot restart request failed: " + e.getMessage());
+        }
+      }
+    } finally {
+      channel.close();
+    }
+
+    LOG.info("Port " + server.getPort() + " handed over to a new instance");
+    server.drain();
+  }
+
+  /**
+   * Reads one byte from a control connection. Unix-domain channels have no socket adapter to set a read timeout on, so
+   * the wait is a select with a timeout.
+   *
+   * @param channel   The control connection
+   * @param timeoutMs The longest time to wait for the byte
+   * @return The byte, or -1 if the peer closed the connection
+   * @throws SocketTimeoutException If nothing arrived in time
+   */
+  private static int readByte(SocketChannel channel, long timeoutMs) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(1);
+    try {
+      try (Selector selector = Selector.open()) {
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long remaining;
+        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+          selector.select(remaining);
+          int read = channel.read(buffer);
+          if (read != 0) {
+            return read < 0 ? -1 : buffer.get(0) & 0xFF;
+          }
+        }
+      }
+    } finally {
+      // Closing the selector deregistered the channel, so the reply can be written blocking
+      if (channel.isOpen()) {
+        channel.configureBlocking(true);
+      }
+    }
+    throw new SocketTimeoutException("No control byte within " + timeoutMs + " ms");
+  }
+
+  private SocketAddress address() throws IOException {
+    return (SocketAddress) invoke(UNIX_ADDRESS_OF, path);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T open(Method openMethod) throws IOException {
+    return (T) invoke(openMethod, UNIX);
+  }
+
+  private static Object invoke(Method method, Object argument) throws IOException {
+    try {
+      return method.invoke(null, argument);
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    } catch (IllegalAccessException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static ProtocolFamily lookupUnixFamily() {
+    try {
+      return StandardProtocolFamily.valueOf("UNIX");
+    } catch (IllegalArgumentException e) {
+      // Before Java 16
+      return null;
+    }
+  }
+
+  private static Method lookupMethod(String className, String name, Class<?> parameterType) {
+    try {
+      return Class.forName(className).getMethod(name, parameterType);
+    } catch (ClassNotFoundException | NoSuchMethodException e) {
+      // Before Java 16
+      return null;
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package network.tcp;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.Channel;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * Opens the listening channels of a {@link TCPServer}.
+ * <p>
+ * A server can listen with several channels bound to the same port, each served by its own accept loop. This needs
+ * {@code SO_REUSEPORT} (Linux 3.9+, Java 9+), with which the kernel spreads incoming connections over the listeners.
+ * The option is looked up reflectively so the code still runs on Java 8, where {@link #isReusePortSupported()} returns
+ * false. The same option lets a successor process bind the port while this one still listens, see {@link HotRestart}.
+ * <p>
+ * A process launched with a listening socket as its standard input (inetd style, or systemd socket activation with
+ * {@code StandardInput=socket}) listens on that socket instead of binding a new one, see {@link #inherited(int)}.
+ * Since the supervisor keeps the socket open across restarts, connections arriving meanwhile wait in its backlog
+ * instead of being refused.
+ */
+final class Listeners {
+
+  private static final SocketOption<Boolean> SO_REUSEPORT = lookupReusePort();
+
+  private Listeners() {
+  }
+
+  /**
+   * Checks whether several listeners can share a port on this platform.
+   *
+   * @return true if {@code SO_REUSEPORT} is available
+   */
+  static boolean isReusePortSupported() {
+    return SO_REUSEPORT != null;
+  }
+
+  /**
+   * Opens and binds blocking listening channels. A single listener is the {@link #inherited(int) inherited} channel if
+   * there is one for the port.
+   *
+   * @param port          The port number to listen on
+   * @param acceptBacklog Requested length of each listener's accept queue
+   * @param count         The number of listeners; more than one requires {@code reusePort}
+   * @param reusePort     true to bind with {@code SO_REUSEPORT}, so other listeners can share the port
+   * @return The bound channels
+   * @throws IOException If a channel cannot be bound; channels opened so far are closed
+   */
+  static ServerSocketChannel[] open(int port, int acceptBacklog, int count, boolean reusePort) throws IOException {
+    if (count == 1) {
+      ServerSocketChannel inherited = inherited(port);
+      if (inherited != null) {
+        return new ServerSocketChannel[]{inherited};
+      }
+    }
+
+    ServerSocketChannel[] channels = new ServerSocketChannel[count];
+    try {
+      for (int i = 0; i < count; i++) {
+        channels[i] = ServerSocketChannel.open();
+        configure(channels[i], reusePort);
+        channels[i].bind(new InetSocketAddress(port), acceptBacklog);
+      }
+    } catch (IOException e) {
+      closeAll(channels);
+      throw e;
+    }
+    return channels;
+  }
+
+  /**
+   * Opens and binds asynchronous listening channels in a channel group. An inherited channel cannot be used
+   * asynchronously, so these are always bound anew.
+   *
+   * @param group         The group whose threads complete the accepts
+   * @param port          The port number to listen on
+   * @param acceptBacklog Requested length of each listener's accept queue
+   * @param count         The number of listeners; more than one requires {@code reusePort}
+   * @param reusePort     true to bind with {@code SO_REUSEPORT}, so other listeners can share the port
+   * @return The bound channels
+   * @throws IOException If a channel cannot be bound; channels opened so far are closed
+   */
+  static AsynchronousServerSocketChannel[] openAsync(AsynchronousChannelGroup group, int port, int acceptBacklog,
+      int count, boolean reusePort) throws IOException {
+    AsynchronousServerSocketChannel[] channels = new AsynchronousServerSocketChannel[count];
+    try {
+      for (int i = 0; i < count; i++) {
+        channels[i] = AsynchronousServerSocketChannel.open(group);
+        configure(channels[i], reusePort);
+        channels[i].bind(new InetSocketAddress(port), acceptBacklog);
+      }
+    } catch (IOException e) {
+      closeAll(channels);
+      throw e;
+    }
+    return channels;
+  }
+
+  /**
+   * Sets the options every listener needs before it is bound.
+   */
+  private static void configure(NetworkChannel channel, boolean reusePort) throws IOException {
+    channel.setOption(StandardSocketOptions.SO_REUSEADDR, true); // Allow port reuse
+    if (reusePort) {
+      if (!isReusePortSupported()) {
+        throw new UnsupportedOperationException("Sharing the port requires SO_REUSEPORT, which is not available");
+      }
+      channel.setOption(SO_REUSEPORT, true);
+    }
+  }
+
+  /**
+   * Gets the listening channel this process inherited from whoever launched it, if it is still open and bound to the
+   * given port. The channel is put in blocking mode, as {@link #open} channels are.
+   *
+   * @param port The port number to listen on
+   * @return The inherited channel, or null if there is none for the port
+   * @throws IOException If the inherited channel cannot be inspected
+   */
+  static ServerSocketChannel inherited(int port) throws IOException {
+    Channel channel = System.inheritedChannel();
+    if (!(channel instanceof ServerSocketChannel) || !channel.isOpen()) {
+      return null;
+    }
+    ServerSocketChannel serverChannel = (ServerSocketChannel) channel;
+    InetSocketAddress address = (InetSocketAddress) serverChannel.getLocalAddress();
+    if (address == null || address.getPort() != port) {
+      return null;
+    }
+    serverChannel.configureBlocking(true);
+    return serverChannel;
+  }
+
+  /**
+   * Closes every channel of an array, ignoring errors and missing entries.
+   *
+   * @param channels The channels to close
+   */
+  static void closeAll(NetworkChannel[] channels) {
+    if (channels == null) {
+      return;
+    }
+    for (NetworkChannel channel : channels) {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          // Ignore errors during cleanup
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static SocketOption<Boolean> lookupReusePort() {
+    try {
+      Field field = StandardSocketOptions.class.getField("SO_REUSEPORT");
+      SocketOption<Boolean> option = (SocketOption<Boolean>) field.get(null);
+      try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+        return probe.supportedOptions().contains(option) ? option : null;
+      }
+    } catch (NoSuchFieldException | IllegalAccessException | IOException e) {
+      // Java 8, or a platform without the option
+      return null;
+    }
+  }
+}
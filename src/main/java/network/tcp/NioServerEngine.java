@@ -0,0 +1,567 @@
+package network.tcp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLException;
+import network.codec.FrameException;
+import network.log.Log;
+import network.log.LogLevel;
+
+/**
+ * Non-blocking connection engine for {@link TCPServer} built on {@link ServerSocketChannel} and {@link Selector}.
+ * <p>
+ * One accept thread per listener hands new channels to a small, fixed set of reactor threads in round-robin order. Each reactor
+ * owns one selector and multiplexes all of its connections, so the number of threads no longer grows with the number of
+ * clients.
+ * <p>
+ * With fair scheduling enabled, a reactor does not read a connection as soon as it is selected but queues it, and then
+ * gives every queued connection one turn bounded by the server's per-turn budgets. Connections with data left after
+ * their turn go to the back of the queue, and the reactor polls the selector without blocking until the queue is empty.
+ */
+final class NioServerEngine implements ServerEngine {
+
+  private static final Log LOG = Log.get(NioServerEngine.class);
+
+  private final TCPServer server;
+  private final Reactor[] reactors;
+  private final AtomicBoolean isRunning = new AtomicBoolean(false);
+  private volatile boolean accepting;
+
+  private ServerSocketChannel[] serverChannels;
+  private Thread[] acceptThreads;
+  private final AtomicInteger nextReactor = new AtomicInteger();
+
+  /**
+   * Creates a new engine for the given server.
+   *
+   * @param server         The server that receives connection and data callbacks
+   * @param reactorThreads The number of selector threads to run
+   */
+  NioServerEngine(TCPServer server, int reactorThreads) {
+    if (reactorThreads < 1) {
+      throw new IllegalArgumentException("reactorThreads must be at least 1");
+    }
+    this.server = server;
+    this.reactors = new Reactor[reactorThreads];
+  }
+
+  /**
+   * Binds the listening channels and starts the accept and reactor threads.
+   *
+   * @param port          The port number to listen on
+   * @param acceptBacklog Requested length of each listener's kernel accept queue
+   * @param acceptors     The number of listening channels, each with its own accept thread
+   * @param reusePort     true to bind the listening channels with {@code SO_REUSEPORT}
+   * @throws IOException If a channel cannot be bound or a selector cannot be opened
+   */
+  @Override
+  public void start(int port, int acceptBacklog, int acceptors, boolean reusePort) throws IOException {
+    serverChannels = Listeners.open(port, acceptBacklog, acceptors, reusePort);
+
+    isRunning.set(true);
+
+    try {
+      for (int i = 0; i < reactors.length; i++) {
+        reactors[i] = new Reactor(i);
+      }
+    } catch (IOException e) {
+      isRunning.set(false);
+      Listeners.closeAll(serverChannels);
+      for (Reactor reactor : reactors) {
+        if (reactor != null) {
+          reactor.closeSelector();
+        }
+      }
+      throw e;
+    }
+
+    for (Reactor reactor : reactors) {
+      reactor.start();
+    }
+    accepting = true;
+    acceptThreads = new Thread[serverChannels.length];
+    for (int i = 0; i < serverChannels.length; i++) {
+      acceptThreads[i] = startAcceptThread(serverChannels[i], TCPServer.acceptThreadName(i, serverChannels.length));
+    }
+  }
+
+  /**
+   * Starts a thread that accepts incoming channels on one listener and distributes them over the reactors.
+   *
+   * @param serverChannel The listening channel
+   * @param name          The thread name
+   * @return The started thread
+   */
+  private Thread startAcceptThread(ServerSocketChannel serverChannel, String name) {
+    AdmissionController admission = server.admission();
+    Thread acceptThread = new Thread(() -> {
+      while (accepting) {
+        try {
+          // Wait for a free connection slot if accepting pauses on overload
+          admission.awaitCapacity();
+        } catch (InterruptedException e) {
+          // Interrupted by shutdown
+          break;
+        }
+
+        try {
+          // Accept incoming client connection (blocking call)
+          SocketChannel channel = serverChannel.accept();
+          String clientInfo = TCPServer.describe(channel.socket());
+          if (!admission.admit(channel, clientInfo)) {
+            continue;
+          }
+
+          TcpConnection connection = server.connectionOpened(channel, clientInfo);
+
+          // Hand the channel to the next reactor
+          Reactor reactor = reactors[Math.floorMod(nextReactor.getAndIncrement(), reactors.length)];
+          connection.setFlushHandler(reactor::flushLater);
+          reactor.register(connection);
+
+        } catch (AsynchronousCloseException e) {
+          admission.acceptFailed();
+          // Channel closed during shutdown - this is expected
+          if (accepting) {
+            LOG.error("Socket error: " + e.getMessage());
+          }
+        } catch (IOException e) {
+          admission.acceptFailed();
+          if (accepting) {
+            LOG.error("Error accepting client connection: " + e.getMessage());
+          }
+        }
+      }
+    }, name);
+
+    acceptThread.setDaemon(true);
+    acceptThread.start();
+    return acceptThread;
+  }
+
+  /**
+   * Closes the listening channels. The accept threads exit while the reactors keep serving open connections.
+   */
+  @Override
+  public void stopAccepting() {
+    accepting = false;
+
+    // Close server channels to unblock accept()
+    Listeners.closeAll(serverChannels);
+
+    // Wake accept threads that are paused waiting for a connection slot
+    if (acceptThreads != null) {
+      for (Thread acceptThread : acceptThreads) {
+        acceptThread.interrupt();
+      }
+    }
+  }
+
+  /**
+   * Stops accepting, closes every connection and waits for the reactor threads to exit.
+   *
+   * @param timeoutMillis Maximum time to wait for the threads to finish
+   */
+  @Override
+  public void shutdown(long timeoutMillis) {
+    stopAccepting();
+
+    // Stop the reactors only once the accept threads are done, so a connection accepted just before the listener closed
+    // is registered in time to be closed with the rest rather than left open
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    if (acceptThreads != null) {
+      for (Thread acceptThread : acceptThreads) {
+        join(acceptThread, deadline);
+      }
+    }
+
+    isRunning.set(false);
+    for (Reactor reactor : reactors) {
+      if (reactor != null) {
+        reactor.wakeup();
+      }
+    }
+    for (Reactor reactor : reactors) {
+      if (reactor != null) {
+        join(reactor.thread, deadline);
+      }
+    }
+  }
+
+  private static void join(Thread thread, long deadline) {
+    if (thread == null) {
+      return;
+    }
+    try {
+      thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // Ignore errors during cleanup
+      }
+    }
+  }
+
+  /**
+   * A selector thread that owns a subset of the server's connections.
+   */
+  private final class Reactor implements Runnable {
+
+    private final Selector selector;
+    private final Queue<TcpConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Queue<TcpConnection> closeRequests = new ConcurrentLinkedQueue<>();
+    private final Queue<TcpConnection> pendingFlushes = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer;
+    private final Thread thread;
+
+    // Fair scheduling: connections waiting for a turn, and the budgets of a turn at weight 1; 0 bytes when disabled
+    private final ArrayDeque<TcpConnection> runQueue = new ArrayDeque<>();
+    private final int turnBytes;
+    private final int turnFrames;
+
+    Reactor(int index) throws IOException {
+      this.selector = Selector.open();
+      this.readBuffer = server.getReadBufferPool().acquire();
+      this.turnBytes = server.getTurnByteBudget();
+      this.turnFrames = server.getTurnFrameBudget();
+      this.thread = new Thread(this, "TCP-Reactor-" + index);
+      this.thread.setDaemon(true);
+    }
+
+    void start() {
+      thread.start();
+    }
+
+    void wakeup() {
+      selector.wakeup();
+    }
+
+    void closeSelector() {
+      closeQuietly(selector);
+    }
+
+    /**
+     * Queues a connection for registration. The selector is only touched from the reactor thread.
+     *
+     * @param connection The newly accepted connection
+     */
+    void register(TcpConnection connection) {
+      pendingRegistrations.add(connection);
+      selector.wakeup();
+    }
+
+    /**
+     * Queues a connection the server closes, on a timeout or while draining, to be closed by the reactor thread, which
+     * owns its selection key.
+     *
+     * @param connection The connection to close
+     */
+    void closeLater(TcpConnection connection) {
+      closeRequests.add(connection);
+      selector.wakeup();
+    }
+
+    /**
+     * Writes a connection's outbound queue: directly when called on the reactor thread, otherwise by queueing the
+     * connection for the reactor, so the selection key is only touched by its owner.
+     *
+     * @param connection The connection with frames to write
+     */
+    void flushLater(TcpConnection connection) {
+      if (Thread.currentThread() == thread) {
+        flush(connection);
+      } else {
+        pendingFlushes.add(connection);
+        selector.wakeup();
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (isRunning.get()) {
+          // Connections with data left from their last turn must not wait for new events
+          if (runQueue.isEmpty()) {
+            selector.select();
+          } else {
+            selector.selectNow();
+          }
+          registerPending();
+          closeRequested();
+          flushPending();
+
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            if (key.isValid() && key.isReadable()) {
+              if (turnBytes > 0) {
+                schedule((TcpConnection) key.attachment());
+              } else {
+                read(key, readBuffer.capacity());
+              }
+            }
+            if (key.isValid() && key.isWritable()) {
+              flush((TcpConnection) key.attachment());
+            }
+          }
+          runTurns();
+        }
+      } catch (IOException | ClosedSelectorException e) {
+        if (isRunning.get()) {
+          LOG.error("Reactor error: " + e.getMessage());
+        }
+      } finally {
+        closeAll();
+      }
+    }
+
+    private void registerPending() {
+      TcpConnection connection;
+      while ((connection = pendingRegistrations.poll()) != null) {
+        try {
+          SocketChannel channel = (SocketChannel) connection.channel();
+          channel.configureBlocking(false);
+          channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+          channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+          channel.register(selector, SelectionKey.OP_READ, connection);
+          connection.setCloseHandler(this::closeLater);
+          server.timeouts().watch(connection);
+          if (connection.hasPendingWrites()) {
+            flush(connection);
+          }
+
+          if (LOG.isEnabled(LogLevel.DEBUG)) {
+            LOG.debug("[Connection #" + connection.getId() + "] Ready to receive objects from " +
+                connection.getRemoteAddress());
+          }
+        } catch (IOException e) {
+          LOG.error("[Connection #" + connection.getId() + "] Error setting up client handler: " + e.getMessage());
+          close(connection);
+        }
+      }
+    }
+
+    private void closeRequested() {
+      TcpConnection connection;
+      while ((connection = closeRequests.poll()) != null) {
+        // Skip connections the reactor closed itself after the close was requested
+        SelectionKey key = ((SocketChannel) connection.channel()).keyFor(selector);
+        if (key != null && key.isValid()) {
+          key.cancel();
+          close(connection);
+        }
+      }
+    }
+
+    private void flushPending() {
+      TcpConnection connection;
+      while ((connection = pendingFlushes.poll()) != null) {
+        flush(connection);
+      }
+    }
+
+    /**
+     * Writes as much of the outbound queue as the socket accepts with gathering writes. If the socket buffer fills up,
+     * write interest is registered and the rest is written once the channel becomes writable.
+     */
+    private void flush(TcpConnection connection) {
+      SocketChannel channel = (SocketChannel) connection.channel();
+      SelectionKey key = channel.keyFor(selector);
+      OutboundBuffer outbound = connection.outbound();
+      if (key == null || !key.isValid() || !outbound.tryLock()) {
+        return;
+      }
+      try {
+        int count;
+        while ((count = connection.prepareWrite()) > 0) {
+          long written = channel.write(connection.writeBatch(), 0, count);
+          connection.wrote(written);
+          if (written == 0) {
+            break;
+          }
+        }
+        int interestOps = count > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        if (key.interestOps() != interestOps) {
+          key.interestOps(interestOps);
+        }
+      } catch (IOException e) {
+        connection.writeFailed(e);
+        key.cancel();
+        close(connection);
+      } finally {
+        outbound.unlock();
+      }
+    }
+
+    /**
+     * Queues a readable connection for its turn, unless it is queued already.
+     */
+    private void schedule(TcpConnection connection) {
+      if (!connection.isScheduled()) {
+        connection.setScheduled(true);
+        runQueue.add(connection);
+      }
+    }
+
+    /**
+     * Gives every connection queued at the start of the round one turn. Connections that may have data left are queued
+     * again behind those that became readable meanwhile.
+     */
+    private void runTurns() {
+      for (int turns = runQueue.size(); turns > 0; turns--) {
+        TcpConnection connection = runQueue.poll();
+        if (turn(connection)) {
+          runQueue.add(connection);
+        } else {
+          connection.setScheduled(false);
+        }
+      }
+    }
+
+    /**
+     * Reads a connection until its socket is drained or a budget is used up.
+     *
+     * @return true if the turn ended on a budget, so the connection may have more data
+     */
+    private boolean turn(TcpConnection connection) {
+      SelectionKey key = ((SocketChannel) connection.channel()).keyFor(selector);
+      if (key == null || !key.isValid()) {
+        return false;
+      }
+
+      int weight = connection.schedulingWeight();
+      long bytesLeft = (long) turnBytes * weight;
+      long frameBudget = turnFrames > 0 ? (long) turnFrames * weight : Long.MAX_VALUE;
+      long framesAtStart = connection.metrics().getFramesReceived();
+      while (true) {
+        int maxBytes = (int) Math.min(readBuffer.capacity(), bytesLeft);
+        int bytesRead = read(key, maxBytes);
+        if (bytesRead < maxBytes) {
+          // Drained or closed; the selector reports the connection again once more data arrives
+          return false;
+        }
+        bytesLeft -= bytesRead;
+        if (bytesLeft == 0 || connection.metrics().getFramesReceived() - framesAtStart >= frameBudget) {
+          return key.isValid();
+        }
+      }
+    }
+
+    /**
+     * Reads once from a connection and dispatches the frames the bytes complete, closing the connection if the read
+     * finds it closed or broken.
+     *
+     * @param maxBytes The most bytes to read, at most the read buffer's capacity
+     * @return The number of bytes read, or -1 if the connection was closed
+     */
+    private int read(SelectionKey key, int maxBytes) {
+      TcpConnection connection = (TcpConnection) key.attachment();
+      try {
+        readBuffer.clear();
+        readBuffer.limit(maxBytes);
+        int bytesRead = ((SocketChannel) key.channel()).read(readBuffer);
+        boolean open = bytesRead >= 0;
+        if (bytesRead > 0) {
+          readBuffer.flip();
+          open = connection.decode(readBuffer);
+        }
+
+        if (!open) {
+          // Client closed connection gracefully
+          if (LOG.isEnabled(LogLevel.DEBUG)) {
+            LOG.debug("[Connection #" + connection.getId() + "] Client disconnected: " + connection.getRemoteAddress());
+          }
+          closeAfterRead(key, connection);
+          return -1;
+        }
+        return bytesRead;
+
+      } catch (FrameException e) {
+        // Peer violated the framing rules; the stream cannot be resynchronized
+        connection.metrics().recordError();
+        LOG.warn("[Connection #" + connection.getId() + "] Framing error: " + e.getMessage());
+        closeAfterRead(key, connection);
+        return -1;
+
+      } catch (SSLException e) {
+        // Failed handshake or corrupt record
+        connection.metrics().recordError();
+        LOG.warn("[Connection #" + connection.getId() + "] TLS error: " + e.getMessage());
+        closeAfterRead(key, connection);
+        return -1;
+
+      } catch (IOException e) {
+        // Connection reset or closed unexpectedly
+        connection.metrics().recordError();
+        if (LOG.isEnabled(LogLevel.DEBUG)) {
+          LOG.debug("[Connection #" + connection.getId() + "] Connection lost: " + connection.getRemoteAddress() +
+              " - " + e.getMessage());
+        }
+        closeAfterRead(key, connection);
+        return -1;
+      }
+    }
+
+    /**
+     * Closes a connection after a read found it closed or broken, unless a flush during the read closed it already.
+     */
+    private void closeAfterRead(SelectionKey key, TcpConnection connection) {
+      if (key.isValid()) {
+        key.cancel();
+        close(connection);
+      }
+    }
+
+    private void close(TcpConnection connection) {
+      connection.cancelTimeout();
+      connection.discardOutbound();
+      closeQuietly(connection.channel());
+      server.connectionClosed(connection);
+    }
+
+    private void closeAll() {
+      // Connections that were accepted but never registered
+      TcpConnection pending;
+      while ((pending = pendingRegistrations.poll()) != null) {
+        close(pending);
+      }
+
+      try {
+        for (SelectionKey key : selector.keys()) {
+          // Cancelled keys belong to connections that were already closed
+          Object attachment = key.attachment();
+          if (key.isValid() && attachment instanceof TcpConnection) {
+            close((TcpConnection) attachment);
+          }
+        }
+      } catch (ClosedSelectorException e) {
+        // Selector already closed
+      }
+      closeSelector();
+      server.getReadBufferPool().release(readBuffer);
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package network.tcp;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The outbound queue of one {@link TcpConnection}.
+ * <p>
+ * Any thread may {@link #offer(ByteBuffer) queue} encoded frames. A single flusher at a time, chosen with
+ * {@link #tryLock()}, collects the queued frames into a {@link #batch() batch} that is written with one gathering write,
+ * so a burst of small frames costs one system call instead of one per frame.
+ * <p>
+ * The queued byte count is bounded by two watermarks. Once it reaches the high watermark the buffer stops accepting
+ * frames until writes bring it back down to the low watermark, so a peer that reads slowly cannot make the server buffer
+ * without limit.
+ */
+final class OutboundBuffer {
+
+  // Upper bound on the buffers passed to one gathering write; operating systems cap it (IOV_MAX is 1024 on Linux)
+  private static final int MAX_BATCH = 64;
+
+  private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicLong pendingBytes = new AtomicLong();
+  private final AtomicBoolean flushing = new AtomicBoolean(false);
+  private final int lowWatermark;
+  private final int highWatermark;
+  private volatile boolean writable = true;
+
+  // Owned by the thread holding the flush lock
+  private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+  private int batchCount;
+
+  /**
+   * Creates an empty buffer.
+   *
+   * @param lowWatermark  Queued bytes at or below which a full buffer accepts frames again
+   * @param highWatermark Queued bytes at or above which the buffer stops accepting frames
+   */
+  OutboundBuffer(int lowWatermark, int highWatermark) {
+    this.lowWatermark = lowWatermark;
+    this.highWatermark = highWatermark;
+  }
+
+  /**
+   * Queues an encoded frame unless the buffer is above its high watermark.
+   *
+   * @param frame The frame, between position and limit; must not be modified afterwards
+   * @return true if the frame was queued
+   */
+  boolean offer(ByteBuffer frame) {
+    if (!writable) {
+      return false;
+    }
+    queue.add(frame);
+    if (pendingBytes.addAndGet(frame.remaining()) >= highWatermark) {
+      writable = false;
+      // The flusher may have drained the buffer before the flag was cleared, and would not set it again
+      if (pendingBytes.get() <= lowWatermark) {
+        writable = true;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether the buffer accepts frames.
+   *
+   * @return false between reaching the high watermark and draining to the low watermark
+   */
+  boolean isWritable() {
+    return writable;
+  }
+
+  /**
+   * Gets the number of bytes queued or partially written.
+   *
+   * @return The pending byte count
+   */
+  long getPendingBytes() {
+    return pendingBytes.get();
+  }
+
+  boolean hasPending() {
+    return pendingBytes.get() > 0;
+  }
+
+  /**
+   * Tries to become the single flusher of this buffer.
+   *
+   * @return true if the caller now holds the flush lock and must call {@link #unlock()}
+   */
+  boolean tryLock() {
+    return flushing.compareAndSet(false, true);
+  }
+
+  void unlock() {
+    flushing.set(false);
+  }
+
+  /**
+   * Refills the batch: drops frames written completely, keeps a partially written one at the front and appends queued
+   * frames until the batch is full. Only called while holding the flush lock.
+   *
+   * @return The number of buffers in the batch; 0 when nothing is pending
+   */
+  int fillBatch() {
+    int kept = 0;
+    for (int i = 0; i < batchCount; i++) {
+      if (batch[i].hasRemaining()) {
+        batch[kept++] = batch[i];
+      }
+    }
+    for (int i = kept; i < batchCount; i++) {
+      batch[i] = null;
+    }
+    ByteBuffer frame;
+    while (kept < MAX_BATCH && (frame = queue.poll()) != null) {
+      batch[kept++] = frame;
+    }
+    batchCount = kept;
+    return batchCount;
+  }
+
+  /**
+   * Gets the buffers collected by {@link #fillBatch()}.
+   *
+   * @return The batch array; only the first {@code fillBatch()} entries are valid
+   */
+  ByteBuffer[] batch() {
+    return batch;
+  }
+
+  /**
+   * Accounts for bytes the flusher has written, making the buffer writable again once it drains to the low watermark.
+   *
+   * @param bytes The number of bytes written
+   */
+  void written(long bytes) {
+    if (pendingBytes.addAndGet(-bytes) <= lowWatermark && !writable) {
+      writable = true;
+    }
+  }
+
+  /**
+   * Drops everything still queued when the connection closes.
+   */
+  void clear() {
+    queue.clear();
+    pendingBytes.set(0);
+  }
+}
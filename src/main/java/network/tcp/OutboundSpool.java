@@ -0,0 +1,561 @@
+package network.tcp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import network.log.Log;
+
+/**
+ * A file-backed queue of outgoing messages that holds what a {@link TCPClient} cannot send while its connection is
+ * down, and gives it back in order once the connection is up again. Set it with
+ * {@link TCPClient#setSpool(OutboundSpool)}.
+ * <p>
+ * Messages are appended to pre-sized, memory-mapped segment files named {@code spool-000000000000.seg} and so on, and
+ * never held on the heap. Each segment header records how far it has been sent, so a client restarted after a crash
+ * sends what its predecessor left behind. A segment sent completely, or dropped to make room, is cleared and kept for
+ * later messages rather than deleted, so the files never take more than the spool's size, and no file is deleted
+ * while it is still mapped, which would leave its blocks allocated until the mapping is collected. A batch whose
+ * write fails is spooled again, although the server may already have received part of it, so messages may arrive
+ * twice. Without acknowledgements from the server, messages the socket accepted just before the connection broke can
+ * still be lost. The files are not forced to disk after every message, so they survive the process but not the
+ * machine failing.
+ * <p>
+ * The spool's size is capped; what happens to messages once it is full is set by its {@link FullPolicy}. Only the
+ * client's sender thread appends and reads, so the spool does no locking of its own.
+ * <pre>
+ *   segment   magic int, version short, reserved short, sent offset int, reserved int, records
+ *   record    length int (header and payload), payload as framed, compressed if the client compresses
+ * </pre>
+ * A length of 0 marks the end of a segment's records.
+ */
+public final class OutboundSpool implements Closeable {
+
+  private static final Log LOG = Log.get(OutboundSpool.class);
+
+  /**
+   * Selects what happens to new messages once the spool is full.
+   */
+  public enum FullPolicy {
+    /**
+     * Keep new messages in the client's send queue until the connection is back and sending frees room; the send
+     * queue's own overflow policy applies once it fills up.
+     */
+    BLOCK,
+    /**
+     * Drop the new message.
+     */
+    DROP_NEWEST,
+    /**
+     * Delete the oldest segment, with every message in it that has not been sent, to make room.
+     */
+    DROP_OLDEST
+  }
+
+  static final int MAGIC = 0x4E53504C; // "NSPL"
+  static final short VERSION = 1;
+  static final int HEADER_LENGTH = 16;
+  static final int RECORD_HEADER_LENGTH = 4;
+  private static final int SENT_OFFSET = 8;
+  private static final String SEGMENT_PREFIX = "spool-";
+  private static final String SEGMENT_SUFFIX = ".seg";
+
+  private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+  private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+  private static final byte[] ZEROS = new byte[4096];
+
+  private final Path directory;
+  private final long maxBytes;
+  private final int segmentSize;
+  private final FullPolicy fullPolicy;
+
+  // Oldest first; the last segment takes appends
+  private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+  // Cleared segments waiting to be reused; they count towards maxBytes like the others
+  private final ArrayDeque<Segment> free = new ArrayDeque<>();
+  private long nextIndex;
+  private long spooledBytes; // Total size of the segment files, free ones included
+
+  // Read cursor of the batch being sent, committed once the write succeeds
+  private Segment readSegment;
+  private int readOffset;
+  private int readRecords;
+
+  private volatile long pendingMessages;
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder replayed = new LongAdder();
+
+  /**
+   * Opens a spool, taking over any messages left in the directory by an earlier client.
+   *
+   * @param directory  The directory receiving the segment files; created if missing
+   * @param maxBytes   The most disk space the segment files may take, at least 128 KiB
+   * @param fullPolicy What happens to new messages once the spool is full
+   * @throws IOException If the directory or a segment cannot be opened, or holds a segment that is not a spool segment
+   */
+  public OutboundSpool(Path directory, long maxBytes, FullPolicy fullPolicy) throws IOException {
+    if (maxBytes < 2L * MIN_SEGMENT_SIZE) {
+      throw new IllegalArgumentException("maxBytes must be at least " + 2 * MIN_SEGMENT_SIZE + ": " + maxBytes);
+    }
+    if (fullPolicy == null) {
+      throw new IllegalArgumentException("fullPolicy must not be null");
+    }
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    // At least four segments, so dropping the oldest frees a fraction of the spool rather than most of it
+    this.segmentSize = (int) Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, maxBytes / 4));
+    this.fullPolicy = fullPolicy;
+
+    Files.createDirectories(directory);
+    try {
+      recover();
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    if (pendingMessages > 0) {
+      LOG.info("Recovered " + pendingMessages + " unsent messages from " + directory);
+    }
+  }
+
+  /**
+   * Reopens the segments of an earlier spool, keeping those that were sent completely for reuse.
+   */
+  private void recover() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> found = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (Path file : found) {
+        files.add(file);
+      }
+    }
+    // Segment names are zero-padded, so name order is write order
+    Collections.sort(files);
+
+    long pending = 0;
+    for (Path file : files) {
+      String name = file.getFileName().toString();
+      long index = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+      nextIndex = Math.max(nextIndex, index + 1);
+
+      FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      Segment segment;
+      try {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        if (buffer.capacity() < HEADER_LENGTH || buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+          throw new IOException("Not a spool segment: " + file);
+        }
+        segment = new Segment(file, channel, buffer);
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+      segment.scan();
+      spooledBytes += segment.size;
+      if (segment.isSent()) {
+        recycle(segment);
+        continue;
+      }
+      segments.add(segment);
+      pending += segment.records - segment.sentRecords;
+    }
+    pendingMessages = pending;
+
+    // A crash can leave part of a record behind the last complete one; clear it before appending over it
+    Segment last = segments.peekLast();
+    if (last != null) {
+      last.clearTail();
+    }
+  }
+
+  /**
+   * Appends a message, applying the full policy if there is no room.
+   *
+   * @param payload The message payload as it will be framed, between position and limit; consumed
+   * @return false if the spool is full and the policy is {@link FullPolicy#BLOCK}, in which case the caller keeps the
+   *     message; true if it was spooled or dropped
+   */
+  boolean append(ByteBuffer payload) {
+    int length = RECORD_HEADER_LENGTH + payload.remaining();
+    if (length > segmentSize - HEADER_LENGTH) {
+      LOG.warn("Message of " + payload.remaining() + " bytes exceeds the spool segment size. Message dropped.");
+      dropped.increment();
+      return true;
+    }
+
+    Segment segment = segments.peekLast();
+    if (segment == null || segment.writeOffset + length > segment.size) {
+      segment = roll();
+      if (segment == null) {
+        if (fullPolicy == FullPolicy.BLOCK) {
+          return false;
+        }
+        dropped.increment();
+        return true;
+      }
+    }
+
+    ByteBuffer buffer = segment.buffer;
+    int offset = segment.writeOffset;
+    buffer.position(offset + RECORD_HEADER_LENGTH);
+    buffer.put(payload);
+    // The length publishes the record: recovery stops at the first zero length
+    buffer.putInt(offset, length);
+    segment.writeOffset = offset + length;
+    segment.records++;
+    pendingMessages++;
+    return true;
+  }
+
+  /**
+   * Appends a message, dropping it if the spool is full whatever the policy.
+   *
+   * @param payload The message payload as it will be framed, between position and limit; consumed
+   */
+  void appendOrDrop(ByteBuffer payload) {
+    if (!append(payload)) {
+      dropped.increment();
+    }
+  }
+
+  /**
+   * Starts a new segment for appends, reusing a cleared one if there is one and making room under
+   * {@link FullPolicy#DROP_OLDEST} if needed.
+   *
+   * @return The new segment, or null if the spool is full or the segment cannot be created
+   */
+  private Segment roll() {
+    while (free.isEmpty() && spooledBytes + segmentSize > maxBytes) {
+      if (fullPolicy != FullPolicy.DROP_OLDEST || segments.isEmpty()) {
+        return null;
+      }
+      Segment oldest = segments.removeFirst();
+      long lost = oldest.records - oldest.sentRecords;
+      dropped.add(lost);
+      pendingMessages -= lost;
+      recycle(oldest);
+      LOG.warn("Spool full. Dropped " + lost + " unsent messages.");
+      rewind();
+    }
+
+    Path path = directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, nextIndex, SEGMENT_SUFFIX));
+    Segment reused = free.peekFirst();
+    if (reused != null) {
+      // Renamed to the next index, so recovery still finds the segments in write order
+      try {
+        Files.move(reused.path, path, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        LOG.error("Cannot reuse spool segment " + reused.path + ": " + e.getMessage());
+        return null;
+      }
+      free.removeFirst();
+      reused.path = path;
+      nextIndex++;
+      segments.addLast(reused);
+      return reused;
+    }
+
+    try {
+      FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+      try {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, VERSION);
+        buffer.putInt(SENT_OFFSET, HEADER_LENGTH);
+        Segment segment = new Segment(path, channel, buffer);
+        nextIndex++;
+        segments.addLast(segment);
+        spooledBytes += segmentSize;
+        return segment;
+      } catch (IOException e) {
+        channel.close();
+        Files.deleteIfExists(path);
+        throw e;
+      }
+    } catch (IOException e) {
+      LOG.error("Cannot create spool segment " + path + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Clears a segment that was sent or dropped and keeps it for reuse.
+   */
+  private void recycle(Segment segment) {
+    if (segment == readSegment) {
+      readSegment = null;
+    }
+    if (segment.size != segmentSize) {
+      // Left by a spool of another size, so it cannot be reused. Deleted while mapped, which happens at most once per
+      // such file: on Linux its blocks are freed when the mapping is collected, and on Windows the delete fails and the
+      // next spool opened on the directory tries again
+      spooledBytes -= segment.size;
+      segment.delete();
+      return;
+    }
+    segment.clear();
+    free.addLast(segment);
+  }
+
+  /**
+   * Checks whether every spooled message has been sent.
+   *
+   * @return true if nothing is waiting to be sent
+   */
+  public boolean isEmpty() {
+    return pendingMessages == 0;
+  }
+
+  /**
+   * Moves the read cursor back to the first unsent message, discarding an uncommitted batch.
+   */
+  void rewind() {
+    readSegment = segments.peekFirst();
+    readOffset = readSegment == null ? 0 : readSegment.sentOffset;
+    readRecords = readSegment == null ? 0 : readSegment.sentRecords;
+  }
+
+  /**
+   * Reads the next unsent message after the read cursor and advances the cursor. Call {@link #rewind()} before the
+   * first read of a batch.
+   *
+   * @return A view of the payload in the mapped segment, valid until the next append or commit; null if there are no
+   *     more messages
+   */
+  ByteBuffer next() {
+    while (readSegment != null) {
+      if (readOffset < readSegment.writeOffset) {
+        ByteBuffer record = readSegment.buffer.duplicate();
+        int length = record.getInt(readOffset);
+        record.limit(readOffset + length);
+        record.position(readOffset + RECORD_HEADER_LENGTH);
+        readOffset += length;
+        readRecords++;
+        return record;
+      }
+      // Move on to the next segment, if this one is complete
+      Segment next = nextSegment(readSegment);
+      if (next == null) {
+        return null;
+      }
+      readSegment = next;
+      readOffset = next.sentOffset;
+      readRecords = next.sentRecords;
+    }
+    return null;
+  }
+
+  private Segment nextSegment(Segment segment) {
+    Iterator<Segment> iterator = segments.iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next() == segment) {
+        return iterator.hasNext() ? iterator.next() : null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Marks every message read since the last {@link #rewind()} as sent, recycling the segments that are now sent
+   * completely.
+   */
+  void commit() {
+    if (readSegment == null) {
+      return;
+    }
+    // Segments before the read segment were read to their end
+    while (segments.peekFirst() != readSegment) {
+      Segment sent = segments.removeFirst();
+      long count = sent.records - sent.sentRecords;
+      pendingMessages -= count;
+      replayed.add(count);
+      recycle(sent);
+    }
+    long count = readRecords - readSegment.sentRecords;
+    pendingMessages -= count;
+    replayed.add(count);
+    readSegment.markSent(readOffset, readRecords);
+    if (readSegment.isSent() && readSegment != segments.peekLast()) {
+      recycle(segments.removeFirst());
+    }
+    rewind();
+  }
+
+  /**
+   * Gets the number of spooled messages that have not been sent yet.
+   *
+   * @return The pending message count
+   */
+  public long getPendingMessageCount() {
+    return pendingMessages;
+  }
+
+  /**
+   * Gets the number of spooled messages that have been sent since the spool was opened.
+   *
+   * @return The replayed message count
+   */
+  public long getReplayedMessageCount() {
+    return replayed.sum();
+  }
+
+  /**
+   * Gets the number of messages dropped because the spool was full or they were larger than a segment.
+   *
+   * @return The dropped message count
+   */
+  public long getDroppedMessageCount() {
+    return dropped.sum();
+  }
+
+  /**
+   * Gets the directory holding the segment files.
+   *
+   * @return The spool directory
+   */
+  public Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Gets the most disk space the segment files may take.
+   *
+   * @return The size cap in bytes
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Gets what happens to new messages once the spool is full.
+   *
+   * @return The full policy
+   */
+  public FullPolicy getFullPolicy() {
+    return fullPolicy;
+  }
+
+  /**
+   * Writes the segments to disk and closes them. Unsent messages stay in the directory for the next spool opened on
+   * it.
+   */
+  @Override
+  public void close() {
+    for (Segment segment : segments) {
+      segment.close();
+    }
+    for (Segment segment : free) {
+      segment.close();
+    }
+    segments.clear();
+    free.clear();
+    readSegment = null;
+  }
+
+  /**
+   * One mapped segment file with its write position and how far it has been sent.
+   */
+  private static final class Segment {
+
+    Path path; // Changes when the segment is reused
+    final FileChannel channel;
+    final int size;
+    final MappedByteBuffer buffer;
+    int writeOffset = HEADER_LENGTH;
+    int records;
+    int sentOffset = HEADER_LENGTH;
+    int sentRecords;
+
+    Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+      this.path = path;
+      this.channel = channel;
+      this.buffer = buffer;
+      this.size = buffer.capacity();
+    }
+
+    /**
+     * Finds the end of the records and counts those before and after the sent offset.
+     */
+    void scan() {
+      int sent = buffer.getInt(SENT_OFFSET);
+      int offset = HEADER_LENGTH;
+      while (offset + RECORD_HEADER_LENGTH <= buffer.capacity()) {
+        int length = buffer.getInt(offset);
+        if (length < RECORD_HEADER_LENGTH || length > buffer.capacity() - offset) {
+          // The end, or a record cut short by a crash
+          break;
+        }
+        if (offset < sent) {
+          sentRecords++;
+        }
+        records++;
+        offset += length;
+      }
+      writeOffset = offset;
+      sentOffset = Math.min(Math.max(sent, HEADER_LENGTH), offset);
+    }
+
+    void clearTail() {
+      zero(writeOffset, buffer.capacity());
+    }
+
+    /**
+     * Removes every record, so the segment reads as empty and can take appends again.
+     */
+    void clear() {
+      // Zeroed to the old end, so recovery after a crash stops at the new records' end rather than reading old ones
+      zero(HEADER_LENGTH, writeOffset);
+      writeOffset = HEADER_LENGTH;
+      records = 0;
+      markSent(HEADER_LENGTH, 0);
+    }
+
+    private void zero(int from, int to) {
+      ByteBuffer target = buffer.duplicate();
+      target.position(from);
+      while (target.position() < to) {
+        target.put(ZEROS, 0, Math.min(ZEROS.length, to - target.position()));
+      }
+    }
+
+    boolean isSent() {
+      return sentOffset == writeOffset;
+    }
+
+    void markSent(int offset, int count) {
+      sentOffset = offset;
+      sentRecords = count;
+      buffer.putInt(SENT_OFFSET, offset);
+    }
+
+    void delete() {
+      try {
+        channel.close();
+        Files.deleteIfExists(path);
+      } catch (IOException e) {
+        LOG.warn("Cannot delete spool segment " + path + ": " + e.getMessage());
+      }
+    }
+
+    void close() {
+      try {
+        buffer.force();
+        channel.close();
+      } catch (IOException e) {
+        LOG.warn("Cannot close spool segment " + path + ": " + e.getMessage());
+      }
+    }
+  }
+}
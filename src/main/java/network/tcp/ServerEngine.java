@@ -0,0 +1,33 @@
+package network.tcp;
+
+import java.io.IOException;
+
+/**
+ * A connection engine that runs the accept loop and reads of a {@link TCPServer} in the modes that do not dedicate a
+ * thread to each connection. Engines report connections and frames back through the server's callbacks.
+ */
+interface ServerEngine {
+
+  /**
+   * Binds the listening channels and starts accepting connections.
+   *
+   * @param port          The port number to listen on
+   * @param acceptBacklog Requested length of each listener's kernel accept queue
+   * @param acceptors     The number of listening channels sharing the port, each with its own accept loop
+   * @param reusePort     true to bind the listeners with {@code SO_REUSEPORT}
+   * @throws IOException If a channel cannot be bound or the engine's threads cannot be set up
+   */
+  void start(int port, int acceptBacklog, int acceptors, boolean reusePort) throws IOException;
+
+  /**
+   * Closes the listening channels and ends the accept loops. Open connections keep being served.
+   */
+  void stopAccepting();
+
+  /**
+   * Stops accepting, closes every connection and waits for the engine's threads to exit.
+   *
+   * @param timeoutMillis Maximum time to wait for the threads to finish
+   */
+  void shutdown(long timeoutMillis);
+}
@@ -0,0 +1,402 @@
+package network.tcp;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLContext;
+import network.codec.FrameCodec;
+import network.codec.LengthFieldFrameCodec;
+import network.concurrent.MpscRingBuffer.OverflowPolicy;
+import network.handler.CodecRegistry;
+import network.handler.MessageCompression;
+import network.handler.MessageHeader;
+import network.tcp.OutboundSpool.FullPolicy;
+
+/**
+ * A client keeping several parallel connections to the same server, each a {@link TCPClient} with its own socket,
+ * send queue and sender thread. One connection is limited by its single sender thread and stalls behind its slowest
+ * write; spreading messages over several lets their writes proceed in parallel, so throughput grows with the number
+ * of connections until the link or the server is saturated.
+ * <p>
+ * Messages sent with a key go to the connection the key hashes to, so messages with the same key arrive in the order
+ * they were sent. Messages sent without a key are spread round-robin and may arrive in any order; they skip
+ * connections that are down while any other is up. Every connection reconnects on its own. A keyed message still goes
+ * to its connection while that is down, to keep the key's order, and is discarded like with a single
+ * {@link TCPClient} unless the connection has a spool; see {@link #setSpools(Path, long, FullPolicy)} to give every
+ * connection one.
+ * <p>
+ * The setters apply to every connection. Settings that must differ between connections are made on the connections
+ * themselves, see {@link #getConnection(int)}.
+ */
+public class StripedTCPClient {
+
+  private final TCPClient[] connections;
+  private final AtomicInteger nextConnection = new AtomicInteger();
+
+  /**
+   * Creates a client with the given number of connections.
+   *
+   * @param host        The hostname or IP address to connect to
+   * @param port        The port number to connect to
+   * @param connections The number of parallel connections
+   */
+  public StripedTCPClient(String host, int port, int connections) {
+    this(host, port, connections, new LengthFieldFrameCodec(), null);
+  }
+
+  /**
+   * Creates a client with the given number of connections, framing every message with the given codec and optionally
+   * connecting over TLS.
+   *
+   * @param host        The hostname or IP address to connect to
+   * @param port        The port number to connect to
+   * @param connections The number of parallel connections
+   * @param frameCodec  The codec used to frame outgoing messages
+   * @param sslContext  The context supplying the trusted certificates and enabled protocols, or null for plaintext
+   */
+  public StripedTCPClient(String host, int port, int connections, FrameCodec frameCodec, SSLContext sslContext) {
+    if (connections < 1) {
+      throw new IllegalArgumentException("connections must be positive: " + connections);
+    }
+    if (frameCodec == null) {
+      throw new IllegalArgumentException("frameCodec must not be null");
+    }
+    this.connections = new TCPClient[connections];
+    int created = 0;
+    try {
+      for (; created < connections; created++) {
+        this.connections[created] = new TCPClient(host, port, frameCodec, sslContext);
+      }
+    } catch (RuntimeException | Error e) {
+      // Stop the connections already started, or their threads would keep reconnecting
+      for (int i = 0; i < created; i++) {
+        this.connections[i].shutdown();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Sends a message on the next connection in turn, see {@link TCPClient#sendObject(byte[])}.
+   *
+   * @param message The message payload to send
+   * @return true if message was queued successfully, false otherwise
+   * @throws IllegalStateException If the send queue is full and the overflow policy is {@link OverflowPolicy#FAIL}
+   */
+  public boolean sendObject(byte[] message) {
+    return nextConnection().sendObject(message);
+  }
+
+  /**
+   * Sends a message on the connection its key hashes to, see {@link TCPClient#sendObject(byte[])}. Messages with equal
+   * keys are sent in order on the same connection.
+   *
+   * @param key     The ordering key
+   * @param message The message payload to send
+   * @return true if message was queued successfully, false otherwise
+   * @throws IllegalStateException If the send queue is full and the overflow policy is {@link OverflowPolicy#FAIL}
+   */
+  public boolean sendObject(Object key, byte[] message) {
+    return connectionFor(key).sendObject(message);
+  }
+
+  /**
+   * Sends a typed message on the next connection in turn, see {@link TCPClient#sendMessage(int, byte[])}.
+   *
+   * @param typeId The message type ID, 0 to {@link MessageHeader#MAX_TYPE_ID}
+   * @param body   The message body
+   * @return true if message was queued successfully, false otherwise
+   * @throws IllegalStateException If the send queue is full and the overflow policy is {@link OverflowPolicy#FAIL}
+   */
+  public boolean sendMessage(int typeId, byte[] body) {
+    return nextConnection().sendMessage(typeId, body);
+  }
+
+  /**
+   * Sends a typed message on the connection its key hashes to, see {@link TCPClient#sendMessage(int, byte[])}.
+   *
+   * @param key    The ordering key
+   * @param typeId The message type ID, 0 to {@link MessageHeader#MAX_TYPE_ID}
+   * @param body   The message body
+   * @return true if message was queued successfully, false otherwise
+   * @throws IllegalStateException If the send queue is full and the overflow policy is {@link OverflowPolicy#FAIL}
+   */
+  public boolean sendMessage(Object key, int typeId, byte[] body) {
+    return connectionFor(key).sendMessage(typeId, body);
+  }
+
+  /**
+   * Sends an object on the next connection in turn, see {@link TCPClient#send(Object)}.
+   *
+   * @param message The object to send
+   * @param <T>     The message type
+   * @return true if message was queued successfully, false otherwise
+   * @throws IllegalStateException    If no codec registry is set, or the send queue is full and the overflow policy is
+   *                                  {@link OverflowPolicy#FAIL}
+   * @throws IllegalArgumentException If the object's class is not registered
+   */
+  public <T> boolean send(T message) {
+    return nextConnection().send(message);
+  }
+
+  /**
+   * Sends an object on the connection its key hashes to, see {@link TCPClient#send(Object)}.
+   *
+   * @param key     The ordering key
+   * @param message The object to send
+   * @param <T>     The message type
+   * @return true if message was queued successfully, false otherwise
+   * @throws IllegalStateException    If no codec registry is set, or the send queue is full and the overflow policy is
+   *                                  {@link OverflowPolicy#FAIL}
+   * @throws IllegalArgumentException If the object's class is not registered
+   */
+  public <T> boolean send(Object key, T message) {
+    return connectionFor(key).send(message);
+  }
+
+  /**
+   * Picks the next connection round-robin, passing over connections that are down unless all are.
+   */
+  private TCPClient nextConnection() {
+    int count = connections.length;
+    int start = nextConnection.getAndIncrement();
+    for (int i = 0; i < count; i++) {
+      TCPClient connection = connections[Math.floorMod(start + i, count)];
+      if (connection.isConnected()) {
+        return connection;
+      }
+    }
+    return connections[Math.floorMod(start, count)];
+  }
+
+  /**
+   * Picks the connection a key hashes to, whether it is up or not, so the key's messages stay in order.
+   */
+  private TCPClient connectionFor(Object key) {
+    if (key == null) {
+      throw new IllegalArgumentException("key must not be null");
+    }
+    int hash = key.hashCode();
+    // Spread the high bits, as HashMap does, so keys differing only there do not share a connection
+    return connections[Math.floorMod(hash ^ (hash >>> 16), connections.length)];
+  }
+
+  /**
+   * Gets one of the connections, to configure it on its own.
+   *
+   * @param index The connection index, 0 to {@link #getConnectionCount()} - 1
+   * @return The connection
+   */
+  public TCPClient getConnection(int index) {
+    return connections[index];
+  }
+
+  /**
+   * Gets the number of connections.
+   *
+   * @return The connection count
+   */
+  public int getConnectionCount() {
+    return connections.length;
+  }
+
+  /**
+   * Gets the number of connections that are currently up.
+   *
+   * @return The connected count
+   */
+  public int getConnectedCount() {
+    int connected = 0;
+    for (TCPClient connection : connections) {
+      if (connection.isConnected()) {
+        connected++;
+      }
+    }
+    return connected;
+  }
+
+  /**
+   * Checks if any connection is up.
+   *
+   * @return true if at least one connection is connected
+   */
+  public boolean isConnected() {
+    return getConnectedCount() > 0;
+  }
+
+  /**
+   * Gives every connection its own {@link OutboundSpool}, in a subdirectory {@code connection-N} of the given directory,
+   * so messages sent while their connection is down are kept and sent in order once it is back, see
+   * {@link TCPClient#setSpool(OutboundSpool)}. Messages left behind by an earlier client with as many connections are
+   * sent too. Set the spools before sending.
+   *
+   * @param directory             The directory receiving one subdirectory per connection
+   * @param maxBytesPerConnection The most disk space each connection's spool may take, at least 128 KiB
+   * @param fullPolicy            What happens to new messages once a spool is full
+   * @throws IOException If a spool cannot be opened; no connection gets a spool then
+   */
+  public void setSpools(Path directory, long maxBytesPerConnection, FullPolicy fullPolicy) throws IOException {
+    OutboundSpool[] spools = new OutboundSpool[connections.length];
+    try {
+      for (int i = 0; i < spools.length; i++) {
+        spools[i] = new OutboundSpool(directory.resolve("connection-" + i), maxBytesPerConnection, fullPolicy);
+      }
+    } catch (IOException e) {
+      for (OutboundSpool spool : spools) {
+        if (spool != null) {
+          spool.close();
+        }
+      }
+      throw e;
+    }
+    for (int i = 0; i < spools.length; i++) {
+      connections[i].setSpool(spools[i]);
+    }
+  }
+
+  /**
+   * Sets the registry that maps the objects passed to {@link #send(Object)} to their type IDs and codecs, on every
+   * connection.
+   *
+   * @param codecRegistry The registry, or null to disable {@link #send(Object)}
+   */
+  public void setCodecRegistry(CodecRegistry codecRegistry) {
+    for (TCPClient connection : connections) {
+      connection.setCodecRegistry(codecRegistry);
+    }
+  }
+
+  /**
+   * Sets what sending does when a connection's send queue is full, see
+   * {@link TCPClient#setOverflowPolicy(OverflowPolicy)}.
+   *
+   * @param overflowPolicy The overflow policy
+   */
+  public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+    for (TCPClient connection : connections) {
+      connection.setOverflowPolicy(overflowPolicy);
+    }
+  }
+
+  /**
+   * Sets how long sending waits for room in a full send queue, see {@link TCPClient#setBlockTimeout(long, TimeUnit)}.
+   *
+   * @param timeout The timeout, 0 to drop at once
+   * @param unit    The unit of the timeout
+   */
+  public void setBlockTimeout(long timeout, TimeUnit unit) {
+    for (TCPClient connection : connections) {
+      connection.setBlockTimeout(timeout, unit);
+    }
+  }
+
+  /**
+   * Sets how every connection's sender coalesces queued messages into writes, see
+   * {@link TCPClient#setWriteCoalescing(int, long, TimeUnit)}.
+   *
+   * @param maxBatchBytes The number of framed bytes after which a batch is written
+   * @param linger        How long to wait for more messages once the queue is empty, 0 to write at once
+   * @param unit          The unit of the linger time
+   */
+  public void setWriteCoalescing(int maxBatchBytes, long linger, TimeUnit unit) {
+    for (TCPClient connection : connections) {
+      connection.setWriteCoalescing(maxBatchBytes, linger, unit);
+    }
+  }
+
+  /**
+   * Sets how long a connection attempt may take, see {@link TCPClient#setConnectTimeout(long, TimeUnit)}.
+   *
+   * @param timeout The connect timeout
+   * @param unit    The unit of the timeout
+   */
+  public void setConnectTimeout(long timeout, TimeUnit unit) {
+    for (TCPClient connection : connections) {
+      connection.setConnectTimeout(timeout, unit);
+    }
+  }
+
+  /**
+   * Sets the wait between failed connection attempts, see {@link TCPClient#setReconnectBackoff(long, long, TimeUnit)}.
+   * Each connection backs off on its own, with its own jitter.
+   *
+   * @param initial The wait after the first failed attempt
+   * @param max     The longest wait
+   * @param unit    The unit of both waits
+   */
+  public void setReconnectBackoff(long initial, long max, TimeUnit unit) {
+    for (TCPClient connection : connections) {
+      connection.setReconnectBackoff(initial, max, unit);
+    }
+  }
+
+  /**
+   * Compresses outgoing messages on every connection, see {@link TCPClient#setCompression(MessageCompression)}.
+   *
+   * @param compression The compression, or null to send messages uncompressed
+   */
+  public void setCompression(MessageCompression compression) {
+    for (TCPClient connection : connections) {
+      connection.setCompression(compression);
+    }
+  }
+
+  /**
+   * Gets the number of messages currently queued for sending on all connections.
+   *
+   * @return The number of queued messages
+   */
+  public int getQueuedMessageCount() {
+    int queued = 0;
+    for (TCPClient connection : connections) {
+      queued += connection.getQueuedMessageCount();
+    }
+    return queued;
+  }
+
+  /**
+   * Gets the number of messages dropped or rejected because a send queue was full.
+   *
+   * @return The dropped message count
+   */
+  public long getDroppedMessageCount() {
+    long dropped = 0;
+    for (TCPClient connection : connections) {
+      dropped += connection.getDroppedMessageCount();
+    }
+    return dropped;
+  }
+
+  /**
+   * Gracefully shuts down every connection. Stops all of them from accepting messages, then waits for queued messages
+   * to be sent before closing; the connections drain in parallel, so the wait is bounded by the timeout as a whole
+   * rather than per connection.
+   *
+   * @param timeoutSeconds Maximum time to wait for queued messages to be sent
+   */
+  public void shutdown(int timeoutSeconds) {
+    // Every phase runs on all connections before the next, so they drain in parallel against one deadline
+    for (TCPClient connection : connections) {
+      connection.stopAccepting();
+    }
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+    for (TCPClient connection : connections) {
+      connection.awaitSent(deadline);
+    }
+    for (TCPClient connection : connections) {
+      connection.stopWorkers();
+    }
+    long closeDeadline = System.nanoTime() + TCPClient.SENDER_JOIN_NANOS;
+    for (TCPClient connection : connections) {
+      connection.close(closeDeadline);
+    }
+  }
+
+  /**
+   * Gracefully shuts down every connection immediately.
+   */
+  public void shutdown() {
+    shutdown(0);
+  }
+}
@@ -1,47 +1,163 @@
 package network.tcp;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.Serializable;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import network.buffer.BufferPool;
+import network.codec.FrameCodec;
+import network.codec.FrameException;
+import network.codec.LengthFieldFrameCodec;
+import network.concurrent.MpscRingBuffer;
+import network.concurrent.MpscRingBuffer.OverflowPolicy;
+import network.handler.CodecRegistry;
+import network.handler.MessageCompression;
+import network.handler.MessageHeader;
+import network.handler.ObjectCodec;
+import network.log.Log;
+import network.log.LogLevel;
 
 /**
- * A robust TCP client that automatically reconnects when connection is lost and can send serializable Java objects to a
- * remote server.
+ * A robust TCP client that automatically reconnects when connection is lost and can send typed messages to a remote
+ * server, either as raw bytes or as objects encoded by the codecs of a {@link CodecRegistry} (see {@link #send(Object)}).
  * <p>
- * Features: - Automatic reconnection with exponential backoff - Thread-safe object sending - Connection state management -
- * Message queuing when disconnected - Graceful shutdown
+ * Features: - Non-blocking connect with a timeout, and automatic reconnection as soon as the connection is lost, with
+ * jittered exponential backoff between failed attempts (see {@link #setReconnectBackoff(long, long, TimeUnit)}) -
+ * Thread-safe object sending - Connection state management (see {@link #getConnectionState()}) - Graceful shutdown -
+ * Every message is sent as one frame of the configured {@link FrameCodec} - Optional TLS, resuming the session on
+ * reconnect - Optional per-message compression - Bounded send queue with a choice of overflow policy (see
+ * {@link #setOverflowPolicy(OverflowPolicy)}) - Queued messages coalesced into as few writes as possible (see
+ * {@link #setWriteCoalescing(int, long, TimeUnit)}) - Optional durable spool of messages sent while disconnected (see
+ * {@link #setSpool(OutboundSpool)})
+ * <p>
+ * Messages sent while the client is disconnected are discarded unless a spool is set.
  */
 public class TCPClient {
 
+  private static final Log LOG = Log.get(TCPClient.class);
+
+  /**
+   * Default number of messages that can wait to be sent.
+   */
+  public static final int DEFAULT_SEND_QUEUE_CAPACITY = 64 * 1024;
+
+  /**
+   * Default number of framed bytes the sender coalesces into one write.
+   */
+  public static final int DEFAULT_MAX_BATCH_BYTES = 64 * 1024;
+
+  /**
+   * The states of the connection to the server. A client starts {@link #DISCONNECTED} and goes through
+   * {@link #CONNECTING} to {@link #CONNECTED}, or to {@link #BACKOFF} and back to {@link #DISCONNECTED} if the attempt
+   * fails. A lost connection goes back to {@link #DISCONNECTED} and is connected again at once.
+   */
+  public enum ConnectionState {
+    /**
+     * Not connected; the next attempt is about to start.
+     */
+    DISCONNECTED,
+    /**
+     * Connecting, including the TLS handshake.
+     */
+    CONNECTING,
+    /**
+     * Connected; queued messages are sent.
+     */
+    CONNECTED,
+    /**
+     * Waiting after a failed attempt before the next one.
+     */
+    BACKOFF,
+    /**
+     * Shut down.
+     */
+    CLOSED
+  }
+
   // Connection parameters
   private final String host;
   private final int port;
 
-  // Network components
-  private Socket socket;
-  private OutputStream outputStream;
-
-  // Connection state management
-  private final AtomicBoolean isConnected = new AtomicBoolean(false);
+  // Network components, set and cleared under the connection lock
+  private SocketChannel channel;
+
+  // TLS, null for plaintext. Engines are created per connection from the same context, whose client session cache lets
+  // a reconnect resume the last session
+  private static final int TLS_HANDSHAKE_TIMEOUT_MS = 10000;
+  private static final int TLS_TICKET_WAIT_MS = 200;
+  private final SSLContext sslContext;
+  private final BufferPool tlsPacketPool;
+  private final BufferPool tlsApplicationPool;
+  private TlsSession tls;
+
+  // Connection state management. The state changes by compare-and-set, so the sender finding a write failed, the
+  // connection thread and shutdown never wait for each other to change it; the lock only keeps the sender's writes
+  // apart from closing the channel
+  private final AtomicReference<ConnectionState> state = new AtomicReference<>(ConnectionState.DISCONNECTED);
   private final AtomicBoolean isRunning = new AtomicBoolean(true);
   private final ReentrantLock connectionLock = new ReentrantLock();
 
-  // Reconnection configuration
-  private static final int INITIAL_RECONNECT_DELAY_MS = 1000;
-  private static final int MAX_RECONNECT_DELAY_MS = 30000;
-  private static final double BACKOFF_MULTIPLIER = 2.0;
-  private int currentReconnectDelay = INITIAL_RECONNECT_DELAY_MS;
-
-  // Message queue for objects to be sent
-  private final BlockingQueue<byte[]> messageQueue = new LinkedBlockingQueue<>();
+  // Shutdown checks for unsent messages this often, and waits this long for an interrupted sender to stop
+  private static final long SHUTDOWN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  static final long SENDER_JOIN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  // Reconnection configuration: connects time out, and failed attempts are retried after an exponential backoff with
+  // jitter. A lost connection is retried at once
+  private static final long DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+  private static final long DEFAULT_INITIAL_BACKOFF_MS = 50;
+  private static final long DEFAULT_MAX_BACKOFF_MS = 30000;
+  private static final int DISCARD_BUFFER_SIZE = 512;
+  private volatile long connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_CONNECT_TIMEOUT_MS);
+  private volatile long initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_INITIAL_BACKOFF_MS);
+  private volatile long maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_BACKOFF_MS);
+  private int failedAttempts; // Only used by the connection thread
+
+  // Message queue for objects to be sent, bounded so a slow or lost connection cannot exhaust the heap. Application
+  // threads block for a while when it is full rather than lose messages
+  private static final long DEFAULT_BLOCK_TIMEOUT_MS = 5000;
+  private final MpscRingBuffer<byte[]> messageQueue;
+
+  // Framing of outgoing messages
+  private static final int INITIAL_FRAME_BUFFER_SIZE = 8 * 1024;
+  private final FrameCodec frameCodec;
+  private ByteBuffer frameBuffer = ByteBuffer.allocate(INITIAL_FRAME_BUFFER_SIZE); // Only used by the sender thread
+
+  // Write coalescing: the sender frames queued messages back to back into one write of up to this many bytes, waiting
+  // up to the linger time for more to arrive
+  private volatile int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+  private volatile long lingerNanos;
+
+  // Compression of outgoing messages, null to send them as they are
+  private volatile MessageCompression compression;
+  private byte[] compressBuffer = new byte[0]; // Only used by the sender thread
+
+  // Spool holding messages while disconnected, null to discard them; only the sender thread uses it and the held message.
+  // Setting it and connecting wake the sender, so it neither polls for the spool nor for the connection
+  private volatile OutboundSpool spool;
+  private byte[] heldMessage; // Did not fit into the full spool
+
+  // Type IDs and codecs of the objects passed to send(T), null until set
+  private volatile CodecRegistry codecRegistry;
 
   // Worker threads
   private Thread connectionThread;
@@ -54,8 +170,62 @@ public class TCPClient {
    * @param port The port number to connect to
    */
   public TCPClient(String host, int port) {
+    this(host, port, new LengthFieldFrameCodec());
+  }
+
+  /**
+   * Creates a new TCP client that frames every message with the given codec. The server must use the same codec.
+   *
+   * @param host       The hostname or IP address to connect to
+   * @param port       The port number to connect to
+   * @param frameCodec The codec used to frame outgoing messages
+   */
+  public TCPClient(String host, int port, FrameCodec frameCodec) {
+    this(host, port, frameCodec, null);
+  }
+
+  /**
+   * Creates a new TCP client that connects over TLS. The server certificate must be trusted by the context and match
+   * {@code host}.
+   *
+   * @param host       The hostname or IP address to connect to
+   * @param port       The port number to connect to
+   * @param frameCodec The codec used to frame outgoing messages
+   * @param sslContext The context supplying the trusted certificates and enabled protocols, or null for plaintext
+   */
+  public TCPClient(String host, int port, FrameCodec frameCodec, SSLContext sslContext) {
+    this(host, port, frameCodec, sslContext, DEFAULT_SEND_QUEUE_CAPACITY);
+  }
+
+  /**
+   * Creates a new TCP client with a send queue of the given size.
+   *
+   * @param host              The hostname or IP address to connect to
+   * @param port              The port number to connect to
+   * @param frameCodec        The codec used to frame outgoing messages
+   * @param sslContext        The context supplying the trusted certificates and enabled protocols, or null for
+   *                          plaintext
+   * @param sendQueueCapacity The number of messages that can wait to be sent; rounded up to a power of two
+   */
+  public TCPClient(String host, int port, FrameCodec frameCodec, SSLContext sslContext, int sendQueueCapacity) {
+    if (frameCodec == null) {
+      throw new IllegalArgumentException("frameCodec must not be null");
+    }
     this.host = host;
     this.port = port;
+    this.frameCodec = frameCodec;
+    this.sslContext = sslContext;
+    this.messageQueue = new MpscRingBuffer<>(sendQueueCapacity, OverflowPolicy.BLOCK, DEFAULT_BLOCK_TIMEOUT_MS,
+        TimeUnit.MILLISECONDS);
+    if (sslContext != null) {
+      // Only the connection thread and the sender use the buffers, one connection at a time
+      SSLSession limits = sslContext.createSSLEngine().getSession();
+      this.tlsPacketPool = new BufferPool(limits.getPacketBufferSize(), 2, false);
+      this.tlsApplicationPool = new BufferPool(limits.getApplicationBufferSize(), 1, false);
+    } else {
+      this.tlsPacketPool = null;
+      this.tlsApplicationPool = null;
+    }
 
     // Start the connection management thread
     startConnectionThread();
@@ -65,21 +235,17 @@ public class TCPClient {
   }
 
   /**
-   * Starts the thread responsible for establishing and maintaining connection. This thread continuously monitors the
-   * connection and attempts to reconnect if the connection is lost.
+   * Starts the thread responsible for establishing and maintaining connection. This thread connects, then waits on the
+   * connection until it is lost and connects again at once; only failed attempts back off before the next one.
    */
   private void startConnectionThread() {
     connectionThread = new Thread(() -> {
-      while (isRunning.get()) {
-        if (!isConnected.get()) {
-          attemptConnection();
-        }
-
-        // Check connection status periodically
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
+      while (isRunning.get() && state.compareAndSet(ConnectionState.DISCONNECTED, ConnectionState.CONNECTING)) {
+        SocketChannel connected = connect();
+        if (connected != null) {
+          failedAttempts = 0;
+          awaitConnectionLoss(connected);
+        } else if (!backOff()) {
           break;
         }
       }
@@ -90,80 +256,228 @@ public class TCPClient {
   }
 
   /**
-   * Attempts to establish a connection to the remote server. Uses exponential backoff for reconnection attempts.
+   * Attempts to establish a connection to the remote server, moving from {@link ConnectionState#CONNECTING} to
+   * {@link ConnectionState#CONNECTED} if it succeeds. No lock is held while connecting, so sending and shutdown are
+   * never held up by an unreachable server.
+   *
+   * @return The connected channel, or null if the attempt failed or the client shut down meanwhile
    */
-  private void attemptConnection() {
-    connectionLock.lock();
+  private SocketChannel connect() {
+    LOG.info("Attempting to connect to " + host + ":" + port + "...");
+
+    SocketChannel connecting = null;
+    TlsSession session = null;
     try {
-      // Don't attempt if already connected or shutting down
-      if (isConnected.get() || !isRunning.get()) {
-        return;
+      connecting = SocketChannel.open();
+      connecting.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+      connecting.setOption(StandardSocketOptions.TCP_NODELAY, true); // Disable Nagle's algorithm for lower latency
+      connecting.configureBlocking(false);
+      if (!connecting.connect(new InetSocketAddress(host, port))) {
+        awaitConnect(connecting);
+      }
+      // Frames are written straight to the channel
+      connecting.configureBlocking(true);
+      if (sslContext != null) {
+        session = startTls(connecting);
       }
 
-      System.out.println("Attempting to connect to " + host + ":" + port + "...");
-
+      connectionLock.lock();
       try {
-        // Create socket connection
-        socket = new Socket(host, port);
-
-        // Configure socket options for better performance and reliability
-        socket.setKeepAlive(true);
-        socket.setTcpNoDelay(true); // Disable Nagle's algorithm for lower latency
-        socket.setSoTimeout(0); // Infinite timeout for blocking operations
-
-        // Create object output stream for sending serializable objects
-        outputStream = socket.getOutputStream();
-        outputStream.flush(); // Flush header information
-
-        // Mark as connected
-        isConnected.set(true);
-        currentReconnectDelay = INITIAL_RECONNECT_DELAY_MS; // Reset backoff delay
+        if (state.compareAndSet(ConnectionState.CONNECTING, ConnectionState.CONNECTED)) {
+          channel = connecting;
+          tls = session;
+          LOG.info("Successfully connected to " + host + ":" + port);
+          wakeSender();
+          return connecting;
+        }
+      } finally {
+        connectionLock.unlock();
+      }
 
-        System.out.println("Successfully connected to " + host + ":" + port);
+    } catch (IOException e) {
+      // Shutdown interrupting the attempt is no failure
+      if (isRunning.get()) {
+        LOG.warn("Connection failed: " + e.getMessage());
+      }
+    }
 
+    // Clean up any partially created resources
+    if (session != null) {
+      session.release(true);
+    }
+    if (connecting != null) {
+      try {
+        connecting.close();
       } catch (IOException e) {
-        System.err.println("Connection failed: " + e.getMessage());
+        // Ignore errors during cleanup
+      }
+    }
+    return null;
+  }
 
-        // Clean up any partially created resources
-        closeConnection();
+  /**
+   * Wakes the sender from waiting for messages or for room in the spool, so it sends what was spooled while
+   * disconnected straight away.
+   */
+  private void wakeSender() {
+    if (spool != null) {
+      messageQueue.wakeup();
+      LockSupport.unpark(senderThread);
+    }
+  }
 
-        // Apply exponential backoff before next retry
-        System.out.println("Retrying in " + currentReconnectDelay + "ms...");
-        try {
-          Thread.sleep(currentReconnectDelay);
-        } catch (InterruptedException ie) {
-          Thread.currentThread().interrupt();
-          return;
+  /**
+   * Waits for a non-blocking connect to complete, up to the connect timeout.
+   *
+   * @param connecting The channel, with its connect started
+   * @throws IOException If the connect fails, times out or shutdown interrupts it
+   */
+  private void awaitConnect(SocketChannel connecting) throws IOException {
+    long deadline = System.nanoTime() + connectTimeoutNanos;
+    // A selector of its own, closed before the channel is switched back to blocking; connects are rare
+    try (Selector selector = Selector.open()) {
+      connecting.register(selector, SelectionKey.OP_CONNECT);
+      while (!connecting.finishConnect()) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          throw new SocketTimeoutException("Connect timed out after " + getConnectTimeoutMillis() + "ms");
         }
+        selector.select(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+        if (Thread.currentThread().isInterrupted()) {
+          throw new ClosedByInterruptException();
+        }
+      }
+    }
+  }
 
-        // Increase delay for next attempt (exponential backoff)
-        currentReconnectDelay = Math.min(
-            (int) (currentReconnectDelay * BACKOFF_MULTIPLIER),
-            MAX_RECONNECT_DELAY_MS
-        );
+  /**
+   * Waits until the connection is lost: the server closes it, or the sender closes it after a failed write. The client
+   * sends only, so whatever the server sends is read and dropped; reading is what notices the server closing the
+   * connection while there is nothing to send.
+   *
+   * @param connected The connected channel
+   */
+  private void awaitConnectionLoss(SocketChannel connected) {
+    ByteBuffer discard = ByteBuffer.allocate(DISCARD_BUFFER_SIZE);
+    try {
+      while (connected.read(discard) >= 0) {
+        discard.clear();
+      }
+    } catch (IOException e) {
+      // Closed by the sender or by shutdown, or reset by the server
+    }
+
+    connectionLock.lock();
+    try {
+      if (channel == connected) {
+        handleConnectionLoss();
       }
     } finally {
       connectionLock.unlock();
     }
   }
 
+  /**
+   * Waits before the next attempt after a failed one, moving from {@link ConnectionState#CONNECTING} through
+   * {@link ConnectionState#BACKOFF} back to {@link ConnectionState#DISCONNECTED}. The delay doubles with every failed
+   * attempt up to the maximum, and a random part of up to half of it keeps clients that lost the same server from
+   * retrying in step.
+   *
+   * @return false if the client shut down meanwhile
+   */
+  private boolean backOff() {
+    if (!state.compareAndSet(ConnectionState.CONNECTING, ConnectionState.BACKOFF)) {
+      return false;
+    }
+    long maxBackoffNanos = this.maxBackoffNanos;
+    long ceiling = Math.min(initialBackoffNanos, maxBackoffNanos);
+    for (int i = 0; i < failedAttempts && ceiling < maxBackoffNanos; i++) {
+      ceiling = Math.min(ceiling * 2, maxBackoffNanos);
+    }
+    failedAttempts++;
+    long delay = ceiling - ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+
+    LOG.info("Retrying in " + TimeUnit.NANOSECONDS.toMillis(delay) + "ms...");
+    long deadline = System.nanoTime() + delay;
+    long remaining;
+    while (isRunning.get() && (remaining = deadline - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(this, remaining);
+      if (Thread.currentThread().isInterrupted()) {
+        return false;
+      }
+    }
+    return state.compareAndSet(ConnectionState.BACKOFF, ConnectionState.DISCONNECTED);
+  }
+
+  /**
+   * Runs the TLS handshake on the newly connected channel, then waits briefly for a TLS 1.3 resumption ticket so the
+   * next reconnect can skip the full handshake.
+   *
+   * @param connecting The connected channel, in blocking mode
+   * @return The TLS session
+   * @throws IOException If the handshake fails or times out
+   */
+  private TlsSession startTls(SocketChannel connecting) throws IOException {
+    SSLEngine engine = sslContext.createSSLEngine(host, port);
+    engine.setUseClientMode(true);
+    SSLParameters parameters = engine.getSSLParameters();
+    parameters.setEndpointIdentificationAlgorithm("HTTPS");
+    engine.setSSLParameters(parameters);
+
+    TlsSession session = new TlsSession(engine, tlsPacketPool, tlsApplicationPool);
+    try {
+      // Reads go through the socket's stream, which unlike the channel honours the read timeout; nothing else uses
+      // the connection yet
+      Socket socket = connecting.socket();
+      ReadableByteChannel in = Channels.newChannel(socket.getInputStream());
+      socket.setSoTimeout(TLS_HANDSHAKE_TIMEOUT_MS);
+      session.handshake(in, connecting);
+      socket.setSoTimeout(TLS_TICKET_WAIT_MS);
+      session.awaitSessionTicket(in);
+      socket.setSoTimeout(0);
+    } catch (IOException e) {
+      session.release(true);
+      throw e;
+    }
+
+    if (LOG.isEnabled(LogLevel.DEBUG)) {
+      LOG.debug("TLS session established: " + engine.getSession().getProtocol() + ", " +
+          engine.getSession().getCipherSuite());
+    }
+    return session;
+  }
+
   /**
    * Starts the thread responsible for sending queued messages. This thread processes the message queue and sends objects
-   * when connected.
+   * when connected, spooling them while disconnected if a spool is set.
    */
   private void startSenderThread() {
     senderThread = new Thread(() -> {
-      while (isRunning.get()) {
+      // Keep draining after shutdown begins; shutdown interrupts the thread once the queue is empty or time is up
+      while (isRunning.get() || hasUnsentMessages()) {
         try {
+          OutboundSpool spool = this.spool;
+          if (spool != null) {
+            runSpooled(spool);
+            continue;
+          }
+
+          // Setting a spool wakes the wait, so the spool takes over and sends what an earlier client left in it
           byte[] message = messageQueue.take();
+          if (message == null) {
+            continue;
+          }
+          if (this.spool != null) {
+            // Set while waiting; the spooled path takes the message first
+            heldMessage = message;
+            continue;
+          }
 
-          if (message != null) {
-            // Only attempt to send if connected
-            if (isConnected.get()) {
-              sendMessageInternal(message);
-            } else {
-              System.out.println("Not connected. Message discarded.");
-            }
+          // Only attempt to send if connected
+          if (isConnected()) {
+            sendBatch(message, null);
+          } else {
+            LOG.warn("Not connected. Message discarded.");
           }
         } catch (InterruptedException e) {
           Thread.currentThread().interrupt();
@@ -177,98 +491,527 @@ public class TCPClient {
   }
 
   /**
-   * Internal method to actually send a message over the network. Handles IOException and triggers reconnection if needed.
+   * Runs one round of the sender with a spool. Messages go straight out while connected and the spool is empty;
+   * otherwise they are appended to the spool, which is sent first once connected so the order is kept.
    *
-   * @param message The serializable object to send
+   * @param spool The spool
+   * @throws InterruptedException If shutdown interrupts the wait for messages
    */
-  private void sendMessageInternal(byte[] message) {
-    connectionLock.lock();
-    try {
-      if (!isConnected.get() || outputStream == null) {
+  private void runSpooled(OutboundSpool spool) throws InterruptedException {
+    // A message that did not fit into the full spool waits here, and the queue behind it
+    if (heldMessage != null) {
+      if (spool.append(payloadOf(heldMessage))) {
+        heldMessage = null;
+      } else if (isConnected()) {
+        replaySpool(spool);
+        return;
+      } else {
+        // Nothing frees room before the connection is back, which unparks this thread
+        LockSupport.park(this);
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
         return;
       }
+    }
 
-      // Send the object
-      outputStream.write(message);
-      outputStream.flush();
+    // Connecting ends the wait, so spooled messages are sent as soon as the connection is back
+    byte[] message = messageQueue.take();
+    if (message != null) {
+      if (isConnected() && spool.isEmpty()) {
+        sendBatch(message, spool);
+      } else {
+        // Move everything queued into the spool, behind what is already there
+        while (message != null) {
+          if (!spool.append(payloadOf(message))) {
+            heldMessage = message;
+            break;
+          }
+          message = messageQueue.poll();
+        }
+      }
+    }
+    if (isConnected() && !spool.isEmpty()) {
+      replaySpool(spool);
+    }
+  }
 
-      System.out.println("Message sent successfully: " + message.getClass().getSimpleName());
+  /**
+   * Sends spooled messages in batches until the spool is empty or the connection is lost. Each batch is marked as sent
+   * only once its write succeeded.
+   *
+   * @param spool The spool
+   */
+  private void replaySpool(OutboundSpool spool) {
+    int maxBatchBytes = this.maxBatchBytes;
+    while (isConnected() && !spool.isEmpty()) {
+      spool.rewind();
+      frameBuffer.clear();
+      int read = 0;
+      int messages = 0;
+      ByteBuffer payload;
+      while ((read == 0 || frameBuffer.position() < maxBatchBytes) && (payload = spool.next()) != null) {
+        read++;
+        if (appendFrame(payload)) {
+          messages++;
+        }
+      }
+      if (read == 0 || messages > 0 && !writeBatch(messages)) {
+        return;
+      }
+      spool.commit();
+    }
+  }
 
-    } catch (SocketException e) {
-      // Connection lost during send
-      System.err.println("Connection lost during send: " + e.getMessage());
-      handleConnectionLoss();
+  /**
+   * Sends a message together with whatever else is queued behind it. The messages are framed back to back into the
+   * frame buffer until it holds {@link #setWriteCoalescing(int, long, TimeUnit) maxBatchBytes}, the queue is empty and
+   * the linger time has passed, and then written and flushed once. Handles IOException and triggers reconnection if
+   * needed.
+   *
+   * @param first The first message payload to send
+   * @param spool The spool taking the batch back if the write fails, or null to lose it
+   */
+  private void sendBatch(byte[] first, OutboundSpool spool) {
+    int maxBatchBytes = this.maxBatchBytes;
+    long lingerNanos = this.lingerNanos;
+    long deadline = lingerNanos > 0 ? System.nanoTime() + lingerNanos : 0;
+
+    // Frame outside the lock; a long linger must not hold up reconnecting
+    frameBuffer.clear();
+    int messages = 0;
+    byte[] message = first;
+    while (message != null) {
+      if (appendFrame(payloadOf(message))) {
+        messages++;
+      }
+      if (frameBuffer.position() >= maxBatchBytes) {
+        break;
+      }
+      message = messageQueue.poll();
+      if (message == null && lingerNanos > 0) {
+        try {
+          message = messageQueue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+          // Shutdown; send what is framed and let the sender loop see the interrupt
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    if (messages == 0) {
+      return;
+    }
+
+    int batchBytes = frameBuffer.position();
+    if (!writeBatch(messages) && spool != null) {
+      // The server may have received part of the batch; spool all of it again rather than lose any
+      ByteBuffer frames = frameBuffer.duplicate();
+      frames.clear().limit(batchBytes);
+      try {
+        frameCodec.newDecoder().decode(frames, spool::appendOrDrop);
+      } catch (FrameException e) {
+        // Cannot happen for frames this client encoded
+        LOG.error("Cannot spool unsent batch: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Writes and flushes the frames in the frame buffer as one batch. Handles IOException and triggers reconnection if
+   * needed.
+   *
+   * @param messages The number of messages in the batch, for logging
+   * @return true if the batch was written, false if not connected or the connection was lost
+   */
+  private boolean writeBatch(int messages) {
+    connectionLock.lock();
+    // Writing to the channel from an interrupted thread would close it; shutdown interrupts the sender while it may
+    // still be writing its last batch
+    boolean interrupted = Thread.interrupted();
+    try {
+      if (state.get() != ConnectionState.CONNECTED || channel == null) {
+        return false;
+      }
+
+      // Send the whole batch with a single write
+      int batchBytes = frameBuffer.position();
+      frameBuffer.flip();
+      if (tls == null) {
+        while (frameBuffer.hasRemaining()) {
+          channel.write(frameBuffer);
+        }
+      } else {
+        tls.writeFully(frameBuffer, channel);
+      }
+
+      if (LOG.isEnabled(LogLevel.DEBUG)) {
+        LOG.debug(messages + " message(s) sent successfully (" + batchBytes + " bytes framed)");
+      }
+      return true;
 
     } catch (IOException e) {
-      System.err.println("Error sending message: " + e.getMessage());
+      // Connection lost during send
+      LOG.warn("Connection lost during send: " + e.getMessage());
       handleConnectionLoss();
+      return false;
 
     } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
       connectionLock.unlock();
     }
   }
 
   /**
-   * Public method to send a serializable object. The message is queued and will be sent when connection is available.
+   * Compresses a message if compression is enabled.
    *
-   * @param message The serializable object to send
+   * @param message The message payload
+   * @return The payload to frame, either the message itself or a view of the sender thread's compression buffer
+   */
+  private ByteBuffer payloadOf(byte[] message) {
+    // Compress into the reusable buffer; messages that do not shrink are sent as they are
+    MessageCompression compression = this.compression;
+    if (compression != null) {
+      if (compressBuffer.length < message.length) {
+        compressBuffer = new byte[message.length];
+      }
+      int compressedLength = compression.compress(message, compressBuffer);
+      if (compressedLength >= 0) {
+        return ByteBuffer.wrap(compressBuffer, 0, compressedLength);
+      }
+    }
+    return ByteBuffer.wrap(message);
+  }
+
+  /**
+   * Appends a payload as a frame to the sender thread's frame buffer, growing the buffer if the frame does not fit.
+   *
+   * @param payload The payload, between position and limit; consumed if framed
+   * @return false if the payload cannot be framed by the codec and was discarded
+   */
+  private boolean appendFrame(ByteBuffer payload) {
+    int length = payload.remaining();
+    int frameLength = frameCodec.encodedLength(length);
+    if (frameBuffer.remaining() < frameLength) {
+      ByteBuffer grown = ByteBuffer.allocate(Math.max(frameBuffer.capacity() * 2, frameBuffer.position() + frameLength));
+      frameBuffer.flip();
+      grown.put(frameBuffer);
+      frameBuffer = grown;
+    }
+    int start = frameBuffer.position();
+    try {
+      frameCodec.writeHeader(length, frameBuffer);
+      frameBuffer.put(payload);
+      frameCodec.writeTrailer(frameBuffer);
+      return true;
+    } catch (FrameException e) {
+      // The message itself cannot be framed; the rest of the batch is fine
+      frameBuffer.position(start);
+      LOG.warn("Message discarded: " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Public method to send a message payload. The message is queued and sent by the sender thread; if the client is
+   * disconnected by then, it is discarded unless a spool is set, see {@link #setSpool(OutboundSpool)}.
+   * The bytes are sent as one frame as-is; servers dispatching by type expect them to start with a
+   * {@link MessageHeader}, see {@link #sendMessage(int, byte[])}.
+   *
+   * @param message The message payload to send
    * @return true if message was queued successfully, false otherwise
+   * @throws IllegalStateException If the send queue is full and the overflow policy is {@link OverflowPolicy#FAIL}
    */
   public boolean sendObject(byte[] message) {
     if (message == null) {
-      System.err.println("Cannot send null message");
+      LOG.warn("Cannot send null message");
       return false;
     }
 
     if (!isRunning.get()) {
-      System.err.println("Client is shutting down. Cannot send message.");
+      LOG.warn("Client is shutting down. Cannot send message.");
       return false;
     }
 
-    // Add message to queue
-    boolean queued = messageQueue.add(message);
+    if (message.length > frameCodec.getMaxFrameLength()) {
+      LOG.warn("Cannot send message of " + message.length + " bytes; maximum frame length is " +
+          frameCodec.getMaxFrameLength());
+      return false;
+    }
+
+    // Add message to queue, applying the overflow policy if it is full
+    boolean queued = messageQueue.offer(message);
 
     if (queued) {
-      System.out.println("Message queued for sending: " + message.getClass().getSimpleName());
-    } else {
-      System.err.println("Failed to queue message. Queue may be full.");
+      if (LOG.isEnabled(LogLevel.DEBUG)) {
+        LOG.debug("Message queued for sending (" + message.length + " bytes)");
+      }
+    } else if (LOG.isEnabled(LogLevel.DEBUG)) {
+      // Debug output only; a full queue drops at the rate messages arrive
+      LOG.debug("Send queue full. Message dropped.");
     }
 
     return queued;
   }
 
   /**
-   * Handles connection loss by cleaning up resources and marking as disconnected. This will trigger the connection thread to
-   * attempt reconnection.
+   * Sends a typed message. The body is prefixed with a {@link MessageHeader} carrying the type ID, which the server uses
+   * to select the handler. The message is queued and sent like {@link #sendObject(byte[])}, so it is discarded while
+   * disconnected unless a spool is set.
+   *
+   * @param typeId The message type ID, 0 to {@link MessageHeader#MAX_TYPE_ID}
+   * @param body   The message body
+   * @return true if message was queued successfully, false otherwise
+   * @throws IllegalStateException If the send queue is full and the overflow policy is {@link OverflowPolicy#FAIL}
+   */
+  public boolean sendMessage(int typeId, byte[] body) {
+    if (body == null) {
+      LOG.warn("Cannot send null message");
+      return false;
+    }
+    return sendObject(MessageHeader.encode(typeId, body));
+  }
+
+  /**
+   * Sends an object of a class registered with the client's {@link CodecRegistry}, see
+   * {@link #setCodecRegistry(CodecRegistry)}. The object is encoded on the calling thread, so changing it afterwards
+   * does not affect the message. The message is queued and sent like {@link #sendObject(byte[])}, so it is discarded
+   * while disconnected unless a spool is set.
+   *
+   * @param message The object to send
+   * @param <T>     The message type
+   * @return true if message was queued successfully, false otherwise
+   * @throws IllegalStateException    If no codec registry is set, or the send queue is full and the overflow policy is
+   *                                  {@link OverflowPolicy#FAIL}
+   * @throws IllegalArgumentException If the object's class is not registered
+   */
+  public <T> boolean send(T message) {
+    if (message == null) {
+      LOG.warn("Cannot send null message");
+      return false;
+    }
+    CodecRegistry codecs = codecRegistry;
+    if (codecs == null) {
+      throw new IllegalStateException("No codec registry set");
+    }
+    return sendObject(codecs.encode(message));
+  }
+
+  /**
+   * Sets the spool that holds messages while the connection is down, so they are sent in order once it is back rather
+   * than discarded. Messages are spooled to disk, not kept on the heap, and a spool left behind by a client that did
+   * not shut down cleanly is sent by the next client opened on it. The client closes the spool when it shuts down.
+   * Set it before sending.
+   *
+   * @param spool The spool, or null to discard messages while disconnected
+   */
+  public void setSpool(OutboundSpool spool) {
+    this.spool = spool;
+    messageQueue.wakeup();
+  }
+
+  /**
+   * Gets the spool that holds messages while the connection is down.
+   *
+   * @return The spool, or null if messages are discarded while disconnected
+   */
+  public OutboundSpool getSpool() {
+    return spool;
+  }
+
+  /**
+   * Sets the registry that maps the objects passed to {@link #send(Object)} to their type IDs and codecs. The server
+   * must register the same classes under the same type IDs.
+   *
+   * @param codecRegistry The registry, or null to disable {@link #send(Object)}
+   */
+  public void setCodecRegistry(CodecRegistry codecRegistry) {
+    this.codecRegistry = codecRegistry;
+  }
+
+  /**
+   * Sets what sending does when the send queue is full: wait for room up to the block timeout
+   * ({@link OverflowPolicy#BLOCK}, the default), drop the new message ({@link OverflowPolicy#DROP_NEWEST}), drop the
+   * oldest queued messages to make room ({@link OverflowPolicy#DROP_OLDEST}), or throw an
+   * {@link IllegalStateException} ({@link OverflowPolicy#FAIL}). Dropped messages are counted, see
+   * {@link #getDroppedMessageCount()}. Takes effect for the next message sent.
+   *
+   * @param overflowPolicy The overflow policy
+   */
+  public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+    messageQueue.setOverflowPolicy(overflowPolicy);
+  }
+
+  /**
+   * Gets what sending does when the send queue is full.
+   *
+   * @return The overflow policy
+   */
+  public OverflowPolicy getOverflowPolicy() {
+    return messageQueue.getOverflowPolicy();
+  }
+
+  /**
+   * Sets how long sending waits for room in a full send queue under {@link OverflowPolicy#BLOCK} before dropping the
+   * message. The default is 5 seconds.
+   *
+   * @param timeout The timeout, 0 to drop at once
+   * @param unit    The unit of the timeout
+   */
+  public void setBlockTimeout(long timeout, TimeUnit unit) {
+    messageQueue.setBlockTimeout(timeout, unit);
+  }
+
+  /**
+   * Gets how long sending waits for room in a full send queue under {@link OverflowPolicy#BLOCK}.
+   *
+   * @return The block timeout in milliseconds
+   */
+  public long getBlockTimeoutMillis() {
+    return messageQueue.getBlockTimeoutMillis();
+  }
+
+  /**
+   * Sets how the sender thread coalesces queued messages into writes. It frames everything queued, up to
+   * {@code maxBatchBytes}, into one buffer and sends it with one write and one flush, so a burst of small messages
+   * costs one system call and few packets instead of one each. If the queue runs dry sooner, the sender waits up to
+   * the linger time for more messages before writing, trading that much latency for fuller writes under a steady
+   * trickle. Takes effect for the next batch. The default is 64 KiB with no linger; a {@code maxBatchBytes} of 0
+   * writes every message on its own.
+   *
+   * @param maxBatchBytes The number of framed bytes after which a batch is written; a single larger message is still
+   *                      sent whole
+   * @param linger        How long to wait for more messages once the queue is empty, 0 to write at once
+   * @param unit          The unit of the linger time
+   */
+  public void setWriteCoalescing(int maxBatchBytes, long linger, TimeUnit unit) {
+    if (maxBatchBytes < 0 || linger < 0) {
+      throw new IllegalArgumentException("maxBatchBytes and linger must not be negative: " + maxBatchBytes + ", " +
+          linger);
+    }
+    this.maxBatchBytes = maxBatchBytes;
+    this.lingerNanos = unit.toNanos(linger);
+  }
+
+  /**
+   * Gets the number of framed bytes after which the sender writes a batch.
+   *
+   * @return The batch size in bytes, 0 if every message is written on its own
+   */
+  public int getMaxBatchBytes() {
+    return maxBatchBytes;
+  }
+
+  /**
+   * Gets how long the sender waits for more messages before writing a batch.
+   *
+   * @return The linger time in microseconds
+   */
+  public long getLingerMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(lingerNanos);
+  }
+
+  /**
+   * Compresses outgoing messages whose body reaches the compression's threshold, flagging them in their
+   * {@link MessageHeader}. The server's dispatcher needs a compression with the same dictionary, see
+   * {@link network.handler.MessageDispatcher#setCompression(MessageCompression)}. Takes effect for the next message sent.
+   *
+   * @param compression The compression, or null to send messages uncompressed
+   */
+  public void setCompression(MessageCompression compression) {
+    this.compression = compression;
+  }
+
+  /**
+   * Sets how long a connection attempt may take before it is abandoned and retried after the backoff. Takes effect
+   * for the next attempt. The default is 5 seconds.
+   *
+   * @param timeout The connect timeout
+   * @param unit    The unit of the timeout
+   */
+  public void setConnectTimeout(long timeout, TimeUnit unit) {
+    if (timeout <= 0) {
+      throw new IllegalArgumentException("timeout must be positive: " + timeout);
+    }
+    this.connectTimeoutNanos = unit.toNanos(timeout);
+  }
+
+  /**
+   * Gets how long a connection attempt may take.
+   *
+   * @return The connect timeout in milliseconds
+   */
+  public long getConnectTimeoutMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(connectTimeoutNanos);
+  }
+
+  /**
+   * Sets the wait between failed connection attempts. The first retry after a failed attempt waits about
+   * {@code initial}, and every further failure doubles the wait up to {@code max}; each wait is shortened by a random
+   * part of up to half, so clients that lost the same server do not retry in step. A connection that is lost, rather
+   * than an attempt that fails, is retried at once. Takes effect for the next failed attempt. The default is 50
+   * milliseconds up to 30 seconds.
+   *
+   * @param initial The wait after the first failed attempt
+   * @param max     The longest wait
+   * @param unit    The unit of both waits
+   */
+  public void setReconnectBackoff(long initial, long max, TimeUnit unit) {
+    if (initial <= 0 || max < initial) {
+      throw new IllegalArgumentException("initial must be positive and max at least initial: " + initial + ", " + max);
+    }
+    this.initialBackoffNanos = unit.toNanos(initial);
+    this.maxBackoffNanos = unit.toNanos(max);
+  }
+
+  /**
+   * Gets the wait after the first failed connection attempt.
+   *
+   * @return The initial backoff in milliseconds
+   */
+  public long getInitialBackoffMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(initialBackoffNanos);
+  }
+
+  /**
+   * Gets the longest wait between failed connection attempts.
+   *
+   * @return The maximum backoff in milliseconds
+   */
+  public long getMaxBackoffMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxBackoffNanos);
+  }
+
+  /**
+   * Handles connection loss by cleaning up resources and marking as disconnected. Closing the channel wakes the
+   * connection thread, which reconnects at once. Must be called with the connection lock held.
    */
   private void handleConnectionLoss() {
-    isConnected.set(false);
-    closeConnection();
-    System.out.println("Connection lost. Will attempt to reconnect...");
+    if (state.compareAndSet(ConnectionState.CONNECTED, ConnectionState.DISCONNECTED)) {
+      closeConnection();
+      LOG.warn("Connection lost. Will attempt to reconnect...");
+    }
   }
 
   /**
    * Closes the current connection and cleans up resources. This method is safe to call multiple times.
    */
   private void closeConnection() {
-    // Close output stream
-    if (outputStream != null) {
-      try {
-        outputStream.close();
-      } catch (IOException e) {
-        // Ignore errors during cleanup
-      }
-      outputStream = null;
+    // Return the TLS buffers; the session stays cached in the context for the next connection
+    if (tls != null) {
+      tls.release(true);
+      tls = null;
     }
 
-    // Close socket
-    if (socket != null) {
+    // Close channel
+    if (channel != null) {
       try {
-        socket.close();
+        channel.close();
       } catch (IOException e) {
         // Ignore errors during cleanup
       }
-      socket = null;
+      channel = null;
     }
   }
 
@@ -278,7 +1021,25 @@ public class TCPClient {
    * @return true if connected, false otherwise
    */
   public boolean isConnected() {
-    return isConnected.get();
+    return state.get() == ConnectionState.CONNECTED;
+  }
+
+  /**
+   * Gets the state of the connection to the server.
+   *
+   * @return The connection state
+   */
+  public ConnectionState getConnectionState() {
+    return state.get();
+  }
+
+  /**
+   * Checks whether messages are still waiting to be sent: queued, or spooled while a connection is available to send
+   * them. Messages spooled while disconnected are left for the next client opened on the spool.
+   */
+  private boolean hasUnsentMessages() {
+    OutboundSpool spool = this.spool;
+    return !messageQueue.isEmpty() || (spool != null && !spool.isEmpty() && isConnected());
   }
 
   /**
@@ -290,47 +1051,108 @@ public class TCPClient {
     return messageQueue.size();
   }
 
+  /**
+   * Gets the number of messages the send queue can hold.
+   *
+   * @return The send queue capacity
+   */
+  public int getSendQueueCapacity() {
+    return messageQueue.capacity();
+  }
+
+  /**
+   * Gets the number of messages dropped or rejected because the send queue was full.
+   *
+   * @return The dropped message count
+   */
+  public long getDroppedMessageCount() {
+    return messageQueue.getDroppedCount();
+  }
+
   /**
    * Gracefully shuts down the TCP client. Waits for queued messages to be sent before closing.
    *
    * @param timeoutSeconds Maximum time to wait for queued messages to be sent
    */
   public void shutdown(int timeoutSeconds) {
-    System.out.println("Initiating shutdown...");
+    stopAccepting();
+    awaitSent(System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds));
+    stopWorkers();
+    close(System.nanoTime() + SENDER_JOIN_NANOS);
+  }
+
+  // The phases of shutdown(int), run one after another for every connection of a StripedTCPClient so they share
+  // one deadline
 
-    // Stop accepting new messages and connections
+  /**
+   * Stops accepting new messages and connections.
+   */
+  void stopAccepting() {
+    LOG.info("Initiating shutdown...");
     isRunning.set(false);
+  }
 
-    // Wait for queued messages to be sent
-    long startTime = System.currentTimeMillis();
-    while (!messageQueue.isEmpty() &&
-        (System.currentTimeMillis() - startTime) < timeoutSeconds * 1000L) {
+  /**
+   * Waits until queued messages are sent or the deadline passes.
+   *
+   * @param deadline The {@link System#nanoTime()} to stop waiting at
+   */
+  void awaitSent(long deadline) {
+    long remaining;
+    while (hasUnsentMessages() && (remaining = deadline - System.nanoTime()) > 0) {
       try {
-        Thread.sleep(100);
+        TimeUnit.NANOSECONDS.sleep(Math.min(remaining, SHUTDOWN_POLL_NANOS));
       } catch (InterruptedException e) {
         Thread.currentThread().interrupt();
         break;
       }
     }
+  }
 
-    // Interrupt worker threads
+  /**
+   * Stops reconnecting, then interrupts the worker threads.
+   */
+  void stopWorkers() {
+    state.set(ConnectionState.CLOSED);
     if (senderThread != null) {
       senderThread.interrupt();
     }
     if (connectionThread != null) {
       connectionThread.interrupt();
     }
+  }
+
+  /**
+   * Closes the spool once the sender has stopped using it, then the connection.
+   *
+   * @param deadline The {@link System#nanoTime()} to stop waiting for the sender at
+   */
+  void close(long deadline) {
+    // What is left in the spool stays on disk
+    OutboundSpool spool = this.spool;
+    if (spool != null) {
+      try {
+        long remaining = deadline - System.nanoTime();
+        if (remaining > 0) {
+          TimeUnit.NANOSECONDS.timedJoin(senderThread, remaining);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (!senderThread.isAlive()) {
+        spool.close();
+      }
+    }
 
-    // Close connection
     connectionLock.lock();
     try {
-      isConnected.set(false);
       closeConnection();
     } finally {
       connectionLock.unlock();
     }
 
-    System.out.println("Shutdown complete.");
+    LOG.info("Shutdown complete.");
+    Log.flush();
   }
 
   /**
@@ -352,11 +1174,14 @@ public class TCPClient {
 //      // Wait a bit for initial connection
 //      Thread.sleep(2000);
 //
-//      // Send a string (String implements Serializable)
-//      client.sendObject("Hello, Server!");
+//      // Send a text message
+//      client.sendMessage(TCPServer.TEXT_MESSAGE_TYPE, "Hello, Server!".getBytes(StandardCharsets.UTF_8));
 //
-//      // Send a custom serializable object
-//      client.sendObject(new TestMessage("Test", 42));
+//      // Send a custom object encoded by its registered codec
+//      CodecRegistry codecs = new CodecRegistry();
+//      codecs.register(2, TestMessage.class, TestMessage.CODEC);
+//      client.setCodecRegistry(codecs);
+//      client.send(new TestMessage("Test", 42));
 //
 //      // Keep the application running for demonstration
 //      Thread.sleep(10000);
@@ -389,7 +1214,7 @@ public class TCPClient {
         break;
       }
 
-      client.sendObject(message.getBytes(StandardCharsets.UTF_8));
+      client.sendMessage(TCPServer.TEXT_MESSAGE_TYPE, message.getBytes(StandardCharsets.UTF_8));
 
     }
 
@@ -399,11 +1224,23 @@ public class TCPClient {
   }
 
   /**
-   * Example serializable class for testing.
+   * Example message class for testing, sent with {@link #send(Object)} once registered with {@link #CODEC}.
    */
-  private static class TestMessage implements Serializable {
+  private static class TestMessage {
+
+    // Writes the fields in declaration order; register with codecRegistry.register(typeId, TestMessage.class, CODEC)
+    static final ObjectCodec<TestMessage> CODEC = new ObjectCodec<TestMessage>() {
+      @Override
+      public void write(TestMessage message, ByteBuffer out) {
+        ObjectCodec.putString(out, message.message);
+        out.putInt(message.value);
+      }
 
-    private static final long serialVersionUID = 1L;
+      @Override
+      public TestMessage read(ByteBuffer in) {
+        return new TestMessage(ObjectCodec.getString(in), in.getInt());
+      }
+    };
 
     private final String message;
     private final int value;
@@ -1,52 +1,268 @@
 package network.tcp;
 
-import java.io.ByteArrayOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.management.JMException;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import network.buffer.BufferPool;
+import network.capture.TrafficCapture;
+import network.codec.FrameCodec;
+import network.codec.FrameException;
+import network.codec.LengthFieldFrameCodec;
+import network.concurrent.VirtualThreads;
+import network.handler.MessageContext;
+import network.handler.MessageDispatcher;
+import network.log.Log;
+import network.log.LogLevel;
+import network.metrics.ConnectionMetrics;
+import network.metrics.MetricsSnapshot;
+import network.metrics.ServerMetrics;
 
 /**
- * A multi-threaded TCP server that receives serializable Java objects from clients.
+ * A multi-threaded TCP server that receives typed messages from clients.
+ * <p>
+ * Incoming bytes pass through a pipeline: the {@link FrameCodec} splits each stream into frames, the
+ * {@link MessageDispatcher} routes every frame by the type ID in its header, and the handler registered for that type
+ * processes it. Register handlers with {@code getDispatcher().register(typeId, handler)}, or receive decoded objects with
+ * {@code getDispatcher().register(codecRegistry, type, handler)}. Handlers reply through
+ * {@link network.handler.MessageContext#send(int, ByteBuffer)}; replies are framed with the same codec, queued per
+ * connection and written with gathering writes.
  * <p>
  * Features: - Accepts multiple concurrent client connections - Thread pool for efficient client handling - Graceful shutdown
- * with resource cleanup - Connection state tracking - Comprehensive error handling
+ * with resource cleanup - Connection state tracking - Comprehensive error handling - Optional non-blocking mode that
+ * multiplexes all connections over a few selector threads - Optional completion-based mode on
+ * {@link java.nio.channels.AsynchronousServerSocketChannel} - Optional TLS with session resumption (see
+ * {@link #setSslContext(SSLContext)}) - Optional hot restart, in which a new instance takes the port over from the
+ * running one while the old one drains its connections (see {@link #setHandoffSocket(Path)}) - Optional fair,
+ * weighted round-robin scheduling of reads in NIO mode (see {@link #setFairScheduling(int, int)}) - Optional
+ * capture of received messages to memory-mapped files for replay (see {@link #setCaptureDirectory(Path)})
  */
 public class TCPServer {
 
+  private static final Log LOG = Log.get(TCPServer.class);
+
+  /**
+   * Selects how client connections are serviced.
+   */
+  public enum IoMode {
+    /**
+     * One pooled thread per connection doing blocking reads.
+     */
+    BLOCKING,
+    /**
+     * A small set of selector threads multiplexing all connections with non-blocking reads.
+     */
+    NIO,
+    /**
+     * One virtual thread per connection doing blocking reads. Requires Java 21 or newer at runtime.
+     */
+    VIRTUAL_THREADS,
+    /**
+     * Asynchronous accepts and reads completing on a shared pool of handler threads; no thread waits on a connection.
+     */
+    ASYNC
+  }
+
+  /**
+   * Selects what happens to new connections once the connection limit is reached.
+   */
+  public enum OverloadPolicy {
+    /**
+     * Stop calling accept until a connection closes. New connections wait in the kernel's accept backlog, and are
+     * refused by the kernel once it is full.
+     */
+    PAUSE_ACCEPTING,
+    /**
+     * Keep accepting, but reset every connection beyond the limit immediately and count it as rejected.
+     */
+    REJECT
+  }
+
   // Server configuration
   private final int port;
-  private ServerSocket serverSocket;
+  private final IoMode ioMode;
+  private ServerSocketChannel[] serverSockets;
+
+  // Read buffers shared by all connections of this server
+  private final BufferPool readBufferPool;
+
+  // Splits each connection's byte stream into frames
+  private volatile FrameCodec frameCodec = new LengthFieldFrameCodec();
 
   // Thread management
   private final ExecutorService clientThreadPool;
-  private Thread acceptThread;
+  // Writes what other threads send on a connection of the thread-per-connection modes, whose own thread is blocked
+  // reading; a thread is only busy while a connection has frames queued
+  private final ExecutorService writerThreadPool;
+  private final ServerEngine engine; // null in the thread-per-connection modes
+  private Thread[] acceptThreads;
 
   // Server state
   private final AtomicBoolean isRunning = new AtomicBoolean(false);
-  private final AtomicInteger activeConnections = new AtomicInteger(0);
-  private final AtomicInteger totalConnectionsAccepted = new AtomicInteger(0);
+  private volatile boolean accepting; // Used by the accept threads of the thread-per-connection modes
+
+  // Connection and traffic counters, also published over JMX while the server runs
+  private final ServerMetrics metrics = new ServerMetrics();
+
+  // Routes decoded frames to the handler registered for their type
+  private final MessageDispatcher dispatcher = new MessageDispatcher();
+
+  // Open connections by ID, and named groups of them, for sending to many connections at once
+  private final Map<Long, TcpConnection> connections = new ConcurrentHashMap<>();
+  private final Map<String, ConnectionGroup> groups = new ConcurrentHashMap<>();
 
   // Thread pool configuration
   private static final int MAX_CLIENTS = 50;
 
+  // Admission control; a larger backlog than the JDK default of 50 absorbs connection bursts while accepting is paused
+  private static final int DEFAULT_ACCEPT_BACKLOG = 1024;
+  private volatile int maxConnections;
+  private volatile OverloadPolicy overloadPolicy = OverloadPolicy.PAUSE_ACCEPTING;
+  private volatile int acceptBacklog = DEFAULT_ACCEPT_BACKLOG;
+  private volatile int acceptorThreads = 1;
+  private AdmissionController admission;
+
+  // Connection timeouts in nanoseconds, 0 when disabled; enforced on a timing wheel while the server runs
+  private static final long DEFAULT_READ_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+  private static final long DEFAULT_SLOW_FRAME_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+  private volatile long idleTimeoutNanos;
+  private volatile long readTimeoutNanos = DEFAULT_READ_TIMEOUT_NANOS;
+  private volatile long slowFrameTimeoutNanos = DEFAULT_SLOW_FRAME_TIMEOUT_NANOS;
+  private ConnectionTimeouts timeouts;
+
+  // Outbound queue bounds per connection, in bytes
+  private static final int DEFAULT_WRITE_LOW_WATERMARK = 32 * 1024;
+  private static final int DEFAULT_WRITE_HIGH_WATERMARK = 64 * 1024;
+  private volatile int writeLowWatermark = DEFAULT_WRITE_LOW_WATERMARK;
+  private volatile int writeHighWatermark = DEFAULT_WRITE_HIGH_WATERMARK;
+
+  // Hot restart: the control socket shared with the next instance, null when disabled, and how long draining takes
+  private static final long DEFAULT_DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+  private static final long DRAIN_TICK_MILLIS = 10;
+  private static final long DRAIN_GRACE_NANOS = TimeUnit.SECONDS.toNanos(5);
+  private volatile Path handoffSocket;
+  private volatile long drainTimeoutNanos = DEFAULT_DRAIN_TIMEOUT_NANOS;
+  private HotRestart hotRestart;
+
+  // TLS, null for plaintext; the pooled buffers are sized from the context's session limits when the server starts.
+  // Packet buffers are direct since they are written to and read from sockets; plaintext only passes through the engine
+  private static final int DEFAULT_TLS_SESSION_CACHE_SIZE = 10_000;
+  private static final long DEFAULT_TLS_SESSION_TIMEOUT_NANOS = TimeUnit.HOURS.toNanos(1);
+  private static final int TLS_MAX_POOLED_BUFFERS = 1024;
+  private volatile SSLContext sslContext;
+  private volatile int tlsSessionCacheSize = DEFAULT_TLS_SESSION_CACHE_SIZE;
+  private volatile long tlsSessionTimeoutNanos = DEFAULT_TLS_SESSION_TIMEOUT_NANOS;
+  private BufferPool tlsPacketPool;
+  private BufferPool tlsApplicationPool;
+
+  // Fair scheduling of reads in NIO mode: what one connection may consume per turn, 0 bytes when disabled
+  private static final int MAX_SCHEDULING_WEIGHT = 1000;
+  private volatile int turnByteBudget;
+  private volatile int turnFrameBudget;
+
+  // Traffic capture: where received messages are recorded, null when disabled, and the capture while the server runs
+  private volatile Path captureDirectory;
+  private volatile TrafficCapture capture;
+
+  // Message type used by the demo client and server
+  static final int TEXT_MESSAGE_TYPE = 1;
+
+  // Read buffer configuration; a parked virtual thread or a pending asynchronous read keeps its buffer, so those
+  // connections get a smaller one
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+  private static final int HELD_READ_BUFFER_SIZE = 4 * 1024;
+  private static final int HELD_MAX_POOLED_BUFFERS = 1024;
+
   /**
    * Creates a new TCP server that listens on the specified port.
    *
    * @param port The port number to listen on
    */
   public TCPServer(int port) {
-    this.port = port;
+    this(port, IoMode.BLOCKING);
+  }
 
-    // Create a fixed thread pool for handling client connections
-    this.clientThreadPool = Executors.newFixedThreadPool(MAX_CLIENTS);
+  /**
+   * Creates a new TCP server using the given I/O mode. In {@link IoMode#NIO} and {@link IoMode#ASYNC} mode one reactor
+   * or handler thread is started per available processor.
+   *
+   * @param port   The port number to listen on
+   * @param ioMode How client connections are serviced
+   */
+  public TCPServer(int port, IoMode ioMode) {
+    this(port, ioMode, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a new TCP server using the given I/O mode.
+   *
+   * @param port           The port number to listen on
+   * @param ioMode         How client connections are serviced
+   * @param reactorThreads Number of selector threads in {@link IoMode#NIO} mode or completion handler threads in
+   *                       {@link IoMode#ASYNC} mode; ignored in the other modes
+   * @throws UnsupportedOperationException If {@link IoMode#VIRTUAL_THREADS} is requested on a runtime without virtual
+   *                                       threads
+   */
+  public TCPServer(int port, IoMode ioMode, int reactorThreads) {
+    this.port = port;
+    this.ioMode = ioMode;
+
+    if (ioMode == IoMode.NIO) {
+      // Connections are multiplexed over a few selector threads
+      this.readBufferPool = new BufferPool(READ_BUFFER_SIZE, reactorThreads, true);
+      this.clientThreadPool = null;
+      this.writerThreadPool = null;
+      this.engine = new NioServerEngine(this, reactorThreads);
+      this.maxConnections = Integer.MAX_VALUE;
+    } else if (ioMode == IoMode.ASYNC) {
+      // Reads complete on a shared handler pool; each connection keeps its buffer while a read is pending
+      this.readBufferPool = new BufferPool(HELD_READ_BUFFER_SIZE, HELD_MAX_POOLED_BUFFERS, true);
+      this.clientThreadPool = null;
+      this.writerThreadPool = null;
+      this.engine = new AsyncServerEngine(this, reactorThreads);
+      this.maxConnections = Integer.MAX_VALUE;
+    } else if (ioMode == IoMode.VIRTUAL_THREADS) {
+      // Every connection gets its own virtual thread; concurrency is bounded only by the OS
+      this.readBufferPool = new BufferPool(HELD_READ_BUFFER_SIZE, HELD_MAX_POOLED_BUFFERS, true);
+      this.clientThreadPool = VirtualThreads.newThreadPerTaskExecutor("TCP-Client-");
+      this.writerThreadPool = VirtualThreads.newThreadPerTaskExecutor("TCP-Writer-");
+      this.engine = null;
+      this.maxConnections = Integer.MAX_VALUE;
+    } else {
+      // Create a fixed thread pool for handling client connections
+      this.readBufferPool = new BufferPool(READ_BUFFER_SIZE, MAX_CLIENTS, true);
+      this.clientThreadPool = Executors.newFixedThreadPool(MAX_CLIENTS);
+      AtomicInteger writerCount = new AtomicInteger();
+      this.writerThreadPool = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "TCP-Writer-" + writerCount.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.engine = null;
+      this.maxConnections = MAX_CLIENTS;
+    }
   }
 
   /**
@@ -57,64 +273,802 @@ public class TCPServer {
    */
   public void start() throws IOException {
     if (isRunning.get()) {
-      System.out.println("Server is already running.");
+      LOG.warn("Server is already running.");
       return;
     }
 
-    // Create server socket
-    serverSocket = new ServerSocket(port);
-    serverSocket.setReuseAddress(true); // Allow port reuse
+    if (captureDirectory != null) {
+      capture = new TrafficCapture(captureDirectory, TrafficCapture.Transport.TCP);
+    }
+    admission = new AdmissionController(maxConnections, overloadPolicy, metrics);
+    timeouts = new ConnectionTimeouts(idleTimeoutNanos, readTimeoutNanos, slowFrameTimeoutNanos);
+    timeouts.start();
+    if (sslContext != null) {
+      startTls();
+    }
+
+    // Listeners share the port with each other, or with the previous and next instance on a hot restart
+    boolean reusePort = acceptorThreads > 1 || handoffSocket != null;
+
+    if (engine != null) {
+      // Bind and start the engine's threads
+      isRunning.set(true);
+      try {
+        engine.start(port, acceptBacklog, acceptorThreads, reusePort);
+      } catch (IOException e) {
+        isRunning.set(false);
+        timeouts.stop();
+        stopCapture();
+        throw e;
+      }
+    } else {
+      // Create server sockets; the channels stay in blocking mode so each handler can block in read()
+      try {
+        serverSockets = Listeners.open(port, acceptBacklog, acceptorThreads, reusePort);
+      } catch (IOException e) {
+        timeouts.stop();
+        stopCapture();
+        throw e;
+      }
+
+      isRunning.set(true);
+    }
+
+    LOG.info("TCP Server started on port " + port + " (" + ioMode + " mode), waiting for client connections...");
 
-    isRunning.set(true);
+    try {
+      metrics.register("network:type=TCPServer,port=" + port);
+    } catch (JMException e) {
+      LOG.warn("Metrics not published over JMX: " + e.getMessage());
+    }
 
-    System.out.println("===========================================");
-    System.out.println("TCP Server started on port " + port);
-    System.out.println("Waiting for client connections...");
-    System.out.println("===========================================");
+    if (engine == null) {
+      // Start one accept thread per listener
+      accepting = true;
+      acceptThreads = new Thread[serverSockets.length];
+      for (int i = 0; i < serverSockets.length; i++) {
+        acceptThreads[i] = startAcceptThread(serverSockets[i], acceptThreadName(i, serverSockets.length));
+      }
+    }
 
-    // Start the accept thread
-    startAcceptThread();
+    if (handoffSocket != null) {
+      // Now that this instance accepts, ask the previous one to release the port
+      hotRestart = new HotRestart(this, handoffSocket);
+      hotRestart.start();
+    }
   }
 
   /**
-   * Starts the thread that accepts incoming client connections. Each accepted connection is handled by a separate thread
-   * from the pool.
+   * Names the accept threads {@code TCP-Accept-Thread}, or {@code TCP-Accept-Thread-<index>} when there are several.
    */
-  private void startAcceptThread() {
-    acceptThread = new Thread(() -> {
-      while (isRunning.get()) {
-        try {
-          // Accept incoming client connection (blocking call)
-          Socket clientSocket = serverSocket.accept();
+  static String acceptThreadName(int index, int count) {
+    return count == 1 ? "TCP-Accept-Thread" : "TCP-Accept-Thread-" + index;
+  }
 
-          // Increment connection counters
-          int connectionId = totalConnectionsAccepted.incrementAndGet();
-          activeConnections.incrementAndGet();
+  /**
+   * Starts a thread that accepts incoming client connections on one listener. Each accepted connection is handled by a
+   * separate thread from the pool.
+   *
+   * @param serverSocket The listening channel
+   * @param name         The thread name
+   * @return The started thread
+   */
+  private Thread startAcceptThread(ServerSocketChannel serverSocket, String name) {
+    Thread acceptThread = new Thread(() -> {
+      while (accepting) {
+        try {
+          // Wait for a free connection slot if accepting pauses on overload
+          admission.awaitCapacity();
+        } catch (InterruptedException e) {
+          // Interrupted by shutdown
+          break;
+        }
 
-          // Log connection info
-          String clientInfo = clientSocket.getInetAddress().getHostAddress() +
-              ":" + clientSocket.getPort();
-          System.out.println("\n[Connection #" + connectionId + "] New client connected: " + clientInfo);
-          System.out.println("[Status] Active connections: " + activeConnections.get());
+        try {
+          // Accept incoming client connection (blocking call)
+          SocketChannel clientChannel = serverSocket.accept();
+          String clientInfo = describe(clientChannel.socket());
+          if (!admission.admit(clientChannel, clientInfo)) {
+            continue;
+          }
+          TcpConnection connection = connectionOpened(clientChannel, clientInfo);
 
           // Handle client in a separate thread from the pool
-          clientThreadPool.execute(new ClientHandler(clientSocket, connectionId));
-
-        } catch (SocketException e) {
-          // Socket closed during shutdown - this is expected
-          if (isRunning.get()) {
-            System.err.println("Socket error: " + e.getMessage());
+          try {
+            clientThreadPool.execute(new ClientHandler(connection));
+          } catch (RejectedExecutionException e) {
+            // Pool already shut down
+            try {
+              clientChannel.close();
+            } catch (IOException closeError) {
+              // Ignore errors during cleanup
+            }
+            connectionClosed(connection);
           }
+
         } catch (IOException e) {
-          if (isRunning.get()) {
-            System.err.println("Error accepting client connection: " + e.getMessage());
+          admission.acceptFailed();
+          // Channel closed during shutdown - this is expected
+          if (accepting) {
+            LOG.error("Error accepting client connection: " + e.getMessage());
           }
         }
       }
-    }, "TCP-Accept-Thread");
+    }, name);
 
     acceptThread.setDaemon(true);
     acceptThread.start();
+    return acceptThread;
+  }
+
+  /**
+   * Records a newly accepted connection and adds it to the registry. Called by every I/O mode.
+   *
+   * @param channel    The channel connected to the client
+   * @param clientInfo Address of the remote peer
+   * @return The state of the new connection, carrying the identifier assigned to it
+   */
+  TcpConnection connectionOpened(NetworkChannel channel, String clientInfo) {
+    // Increment connection counters
+    TcpConnection connection = new TcpConnection(this, channel, metrics.connectionOpened(clientInfo));
+    connections.put(connection.getId(), connection);
+
+    // Log connection info; per-connection lines are debug output so connection storms do not flood the console
+    if (LOG.isEnabled(LogLevel.DEBUG)) {
+      LOG.debug("[Connection #" + connection.getId() + "] New client connected: " + clientInfo +
+          " (active connections: " + metrics.getActiveConnections() + ")");
+    }
+    return connection;
+  }
+
+  /**
+   * Routes one decoded frame to its handler. The buffer is only valid for the duration of the call.
+   *
+   * @param connection The connection the frame came from
+   * @param frame      The frame payload, between position and limit
+   */
+  void frameReceived(TcpConnection connection, ByteBuffer frame) {
+    int frameLength = frame.remaining();
+    TrafficCapture capture = this.capture;
+    if (capture != null) {
+      capture.recordMessage(connection.getId(), frame);
+    }
+    dispatcher.dispatch(connection, frame);
+    connection.metrics().recordFrame(frameLength);
+  }
+
+  /**
+   * Gets the dispatcher that routes received messages to handlers by type ID.
+   *
+   * @return The message dispatcher
+   */
+  public MessageDispatcher getDispatcher() {
+    return dispatcher;
+  }
+
+  /**
+   * Sets the codec used to split incoming byte streams into frames. Must be called before {@link #start()}. The default
+   * is a {@link LengthFieldFrameCodec} with a 4-byte length prefix, matching {@link TCPClient}.
+   *
+   * @param frameCodec The frame codec
+   */
+  public void setFrameCodec(FrameCodec frameCodec) {
+    if (frameCodec == null) {
+      throw new IllegalArgumentException("frameCodec must not be null");
+    }
+    checkNotRunning("Frame codec");
+    this.frameCodec = frameCodec;
+  }
+
+  /**
+   * Sets the maximum number of connections open at once. Must be called before {@link #start()}. Defaults to the size
+   * of the worker pool in {@link IoMode#BLOCKING} mode, so no accepted connection waits for a thread, and to unlimited
+   * otherwise.
+   *
+   * @param maxConnections The connection limit, at least 1
+   */
+  public void setMaxConnections(int maxConnections) {
+    if (maxConnections < 1) {
+      throw new IllegalArgumentException("maxConnections must be at least 1");
+    }
+    checkNotRunning("Connection limit");
+    this.maxConnections = maxConnections;
+  }
+
+  /**
+   * Gets the maximum number of connections open at once.
+   *
+   * @return The connection limit
+   */
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  /**
+   * Sets what happens to new connections once the connection limit is reached. Must be called before {@link #start()}.
+   * The default is {@link OverloadPolicy#PAUSE_ACCEPTING}.
+   *
+   * @param overloadPolicy The overload policy
+   */
+  public void setOverloadPolicy(OverloadPolicy overloadPolicy) {
+    if (overloadPolicy == null) {
+      throw new IllegalArgumentException("overloadPolicy must not be null");
+    }
+    checkNotRunning("Overload policy");
+    this.overloadPolicy = overloadPolicy;
+  }
+
+  /**
+   * Gets what happens to new connections once the connection limit is reached.
+   *
+   * @return The overload policy
+   */
+  public OverloadPolicy getOverloadPolicy() {
+    return overloadPolicy;
+  }
+
+  /**
+   * Sets the length of the kernel queue of connections waiting to be accepted. Must be called before {@link #start()}.
+   * The operating system may cap the value (for example at {@code net.core.somaxconn} on Linux).
+   *
+   * @param acceptBacklog The requested backlog, at least 1
+   */
+  public void setAcceptBacklog(int acceptBacklog) {
+    if (acceptBacklog < 1) {
+      throw new IllegalArgumentException("acceptBacklog must be at least 1");
+    }
+    checkNotRunning("Accept backlog");
+    this.acceptBacklog = acceptBacklog;
+  }
+
+  /**
+   * Gets the requested length of the kernel accept queue.
+   *
+   * @return The accept backlog
+   */
+  public int getAcceptBacklog() {
+    return acceptBacklog;
+  }
+
+  /**
+   * Sets the number of listening sockets, each with its own accept loop. With more than one, every listener is bound to
+   * the port with {@code SO_REUSEPORT} and the kernel spreads new connections across them, so accepting scales with
+   * connection churn instead of being serialized on one thread. The listeners share the connection limit, counters and
+   * lifecycle of this server. Must be called before {@link #start()}. The default is 1.
+   * <p>
+   * Each listener has its own accept backlog; on Linux, connections still queued on a listener when it closes are reset.
+   *
+   * @param acceptorThreads The number of listeners, at least 1
+   * @throws UnsupportedOperationException If more than one is requested where {@code SO_REUSEPORT} is not available
+   */
+  public void setAcceptorThreads(int acceptorThreads) {
+    if (acceptorThreads < 1) {
+      throw new IllegalArgumentException("acceptorThreads must be at least 1");
+    }
+    if (acceptorThreads > 1 && !Listeners.isReusePortSupported()) {
+      throw new UnsupportedOperationException("Multiple acceptors require SO_REUSEPORT (Linux and Java 9 or newer)");
+    }
+    checkNotRunning("Acceptor threads");
+    this.acceptorThreads = acceptorThreads;
+  }
+
+  /**
+   * Gets the number of listening sockets and accept loops.
+   *
+   * @return The number of acceptors
+   */
+  public int getAcceptorThreads() {
+    return acceptorThreads;
+  }
+
+  /**
+   * Sets how long a connection may go without any traffic before it is closed. This reaps peers that vanished without
+   * closing their connection, which TCP keep-alive only detects after hours. Must be called before {@link #start()}.
+   * Disabled by default, since clients may legitimately stay silent between messages.
+   *
+   * @param timeout The idle timeout; 0 disables it
+   * @param unit    The unit of the timeout
+   */
+  public void setIdleTimeout(long timeout, TimeUnit unit) {
+    checkNotRunning("Idle timeout");
+    idleTimeoutNanos = toTimeoutNanos(timeout, unit);
+  }
+
+  /**
+   * Gets how long a connection may go without any traffic before it is closed.
+   *
+   * @return The idle timeout in milliseconds, 0 if disabled
+   */
+  public long getIdleTimeoutMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos);
+  }
+
+  /**
+   * Sets how long a connection may go without receiving bytes while a frame is incomplete before it is closed. Must be
+   * called before {@link #start()}. The default is 30 seconds.
+   *
+   * @param timeout The read timeout; 0 disables it
+   * @param unit    The unit of the timeout
+   */
+  public void setReadTimeout(long timeout, TimeUnit unit) {
+    checkNotRunning("Read timeout");
+    readTimeoutNanos = toTimeoutNanos(timeout, unit);
+  }
+
+  /**
+   * Gets how long a connection may go without receiving bytes while a frame is incomplete.
+   *
+   * @return The read timeout in milliseconds, 0 if disabled
+   */
+  public long getReadTimeoutMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(readTimeoutNanos);
+  }
+
+  /**
+   * Sets how long a single frame may take from its first to its last byte before the connection is closed. Unlike the
+   * read timeout, this also catches peers that keep a frame open by trickling a few bytes at a time. Must be called
+   * before {@link #start()}. The default is 60 seconds.
+   *
+   * @param timeout The slow-frame timeout; 0 disables it
+   * @param unit    The unit of the timeout
+   */
+  public void setSlowFrameTimeout(long timeout, TimeUnit unit) {
+    checkNotRunning("Slow-frame timeout");
+    slowFrameTimeoutNanos = toTimeoutNanos(timeout, unit);
+  }
+
+  /**
+   * Gets how long a single frame may take from its first to its last byte.
+   *
+   * @return The slow-frame timeout in milliseconds, 0 if disabled
+   */
+  public long getSlowFrameTimeoutMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(slowFrameTimeoutNanos);
+  }
+
+  /**
+   * Sets the bounds of each connection's outbound queue. Once a connection has {@code high} bytes queued,
+   * {@link network.handler.MessageContext#send(int, ByteBuffer)} refuses further messages until the queue drains to
+   * {@code low} bytes, so a peer that stops reading cannot make the server buffer without limit. Must be called before
+   * {@link #start()}. The defaults are 32 KiB and 64 KiB.
+   *
+   * @param low  The low watermark in bytes, at least 0
+   * @param high The high watermark in bytes, greater than {@code low}
+   */
+  public void setWriteBufferWatermarks(int low, int high) {
+    if (low < 0 || high <= low) {
+      throw new IllegalArgumentException("Watermarks must satisfy 0 <= low < high: " + low + ", " + high);
+    }
+    checkNotRunning("Write buffer watermarks");
+    this.writeLowWatermark = low;
+    this.writeHighWatermark = high;
+  }
+
+  /**
+   * Gets the queued byte count at which a full outbound queue accepts messages again.
+   *
+   * @return The low watermark in bytes
+   */
+  public int getWriteBufferLowWatermark() {
+    return writeLowWatermark;
+  }
+
+  /**
+   * Gets the queued byte count at which an outbound queue stops accepting messages.
+   *
+   * @return The high watermark in bytes
+   */
+  public int getWriteBufferHighWatermark() {
+    return writeHighWatermark;
+  }
+
+  /**
+   * Enables hot restart through a control socket at the given path. A new instance started with the same port and path
+   * takes the port over from the running one: it binds next to it with {@code SO_REUSEPORT}, then asks it over the
+   * control socket to stop accepting. The old instance then {@link #drain() drains} and shuts down, so a deploy refuses
+   * no connections and its clients reconnect gradually. Must be called before {@link #start()}. Disabled by default.
+   * <p>
+   * Not needed when the listening socket is inherited from a supervisor that keeps it open across restarts, such as
+   * systemd socket activation; such a socket is used automatically in the {@link IoMode#BLOCKING},
+   * {@link IoMode#VIRTUAL_THREADS} and {@link IoMode#NIO} modes.
+   *
+   * @param path The path of the Unix-domain control socket, or null to disable hot restart
+   * @throws UnsupportedOperationException If Unix-domain sockets or {@code SO_REUSEPORT} are not available
+   */
+  public void setHandoffSocket(Path path) {
+    if (path != null && (!HotRestart.isSupported() || !Listeners.isReusePortSupported())) {
+      throw new UnsupportedOperationException("Hot restart requires Unix-domain sockets and SO_REUSEPORT (Linux and " +
+          "Java 16 or newer)");
+    }
+    checkNotRunning("Handoff socket");
+    this.handoffSocket = path;
+  }
+
+  /**
+   * Gets the path of the hot restart control socket.
+   *
+   * @return The control socket path, or null if hot restart is disabled
+   */
+  public Path getHandoffSocket() {
+    return handoffSocket;
+  }
+
+  /**
+   * Sets how long {@link #drain()} takes to close the open connections. Must be called before {@link #start()}. The
+   * default is 30 seconds.
+   *
+   * @param timeout The drain period; 0 closes every connection at once
+   * @param unit    The unit of the timeout
+   */
+  public void setDrainTimeout(long timeout, TimeUnit unit) {
+    checkNotRunning("Drain timeout");
+    drainTimeoutNanos = toTimeoutNanos(timeout, unit);
+  }
+
+  /**
+   * Gets how long {@link #drain()} takes to close the open connections.
+   *
+   * @return The drain timeout in milliseconds
+   */
+  public long getDrainTimeoutMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(drainTimeoutNanos);
+  }
+
+  /**
+   * Serves every connection over TLS. Connections start with the server's part of the handshake, and the I/O modes
+   * encrypt and decrypt on the threads that already write and read, so TLS needs no threads of its own. Must be called
+   * before {@link #start()}. Disabled by default.
+   *
+   * @param sslContext The context supplying the server's certificate and enabled protocols, or null for plaintext
+   */
+  public void setSslContext(SSLContext sslContext) {
+    checkNotRunning("SSL context");
+    this.sslContext = sslContext;
+  }
+
+  /**
+   * Gets the context connections are secured with.
+   *
+   * @return The SSL context, or null if connections are plaintext
+   */
+  public SSLContext getSslContext() {
+    return sslContext;
+  }
+
+  /**
+   * Sizes the cache of TLS sessions that reconnecting clients resume with an abbreviated handshake, skipping the key
+   * exchange and certificate verification. With TLS 1.3 the session travels in a ticket held by the client, and the
+   * timeout still bounds how long it can be resumed. Applied to the SSL context's server session context when the
+   * server starts. Must be called before {@link #start()}. The defaults are 10,000 sessions and one hour.
+   *
+   * @param size    The maximum number of cached sessions; 0 for no limit
+   * @param timeout How long a session can be resumed; 0 for no limit
+   * @param unit    The unit of the timeout
+   */
+  public void setTlsSessionCache(int size, long timeout, TimeUnit unit) {
+    if (size < 0) {
+      throw new IllegalArgumentException("size must not be negative");
+    }
+    long timeoutNanos = toTimeoutNanos(timeout, unit);
+    checkNotRunning("TLS session cache");
+    this.tlsSessionCacheSize = size;
+    this.tlsSessionTimeoutNanos = timeoutNanos;
+  }
+
+  /**
+   * Serves the readable connections of each {@link IoMode#NIO} reactor in round-robin turns instead of reading each
+   * one as far as a single read goes. In its turn a connection is read until it has no more data, has used the byte
+   * budget or has completed the frame budget; a connection with data left goes to the back of the queue. A bulk sender
+   * then only delays the other connections of its reactor by one turn, so quiet clients keep their latency while it
+   * saturates the link. Budgets are multiplied by each connection's weight, see
+   * {@link #setSchedulingWeight(MessageContext, int)}.
+   * <p>
+   * Frames are decoded a whole read at a time, so a turn ends at the first read that completes the frame budget;
+   * the byte budget bounds how far it overshoots. The other modes read each connection on its own thread or a
+   * bounded read at a time, and ignore these budgets. Must be called before {@link #start()}. Disabled by default.
+   *
+   * @param bytesPerTurn  The number of bytes a connection of weight 1 may read per turn, or 0 to disable
+   * @param framesPerTurn The number of frames after which a turn of a connection of weight 1 ends, or 0 for no limit
+   */
+  public void setFairScheduling(int bytesPerTurn, int framesPerTurn) {
+    if (bytesPerTurn < 0 || framesPerTurn < 0) {
+      throw new IllegalArgumentException("Turn budgets must not be negative: " + bytesPerTurn + ", " + framesPerTurn);
+    }
+    checkNotRunning("Fair scheduling");
+    this.turnByteBudget = bytesPerTurn;
+    this.turnFrameBudget = framesPerTurn;
+  }
+
+  /**
+   * Gets the number of bytes a connection of weight 1 may read per turn.
+   *
+   * @return The byte budget, or 0 if fair scheduling is disabled
+   */
+  public int getTurnByteBudget() {
+    return turnByteBudget;
+  }
+
+  /**
+   * Gets the number of frames after which a turn of a connection of weight 1 ends.
+   *
+   * @return The frame budget, or 0 for no limit
+   */
+  public int getTurnFrameBudget() {
+    return turnFrameBudget;
+  }
+
+  /**
+   * Sets the share of its reactor a connection gets under fair scheduling, for example to favour a class of clients
+   * once a handler has identified one. A connection of weight {@code n} gets {@code n} times the turn budgets. New
+   * connections have weight 1.
+   *
+   * @param context The connection, typically the context of a message it sent
+   * @param weight  The weight, 1 to 1000
+   * @return true if the context is an open connection of this server
+   */
+  public boolean setSchedulingWeight(MessageContext context, int weight) {
+    if (weight < 1 || weight > MAX_SCHEDULING_WEIGHT) {
+      throw new IllegalArgumentException("weight must be between 1 and " + MAX_SCHEDULING_WEIGHT + ": " + weight);
+    }
+    if (!(context instanceof TcpConnection) || !isRegistered((TcpConnection) context)) {
+      return false;
+    }
+    ((TcpConnection) context).setSchedulingWeight(weight);
+    return true;
+  }
+
+  /**
+   * Records every message this server receives, with the time and the connection it arrived on, so the traffic can be
+   * played back later with {@link network.capture.TrafficReplay}. Messages are recorded as the dispatcher sees them,
+   * after decryption and without framing. The directory receives memory-mapped segment files; it is created if missing
+   * and must not hold an earlier capture, so every run, and every instance of a hot restart, needs a directory of its
+   * own. Must be called before {@link #start()}. Disabled by default.
+   *
+   * @param directory The capture directory, or null to disable capture
+   */
+  public void setCaptureDirectory(Path directory) {
+    checkNotRunning("Capture directory");
+    this.captureDirectory = directory;
+  }
+
+  /**
+   * Gets the directory received messages are captured to.
+   *
+   * @return The capture directory, or null if capture is disabled
+   */
+  public Path getCaptureDirectory() {
+    return captureDirectory;
+  }
+
+  /**
+   * Gets the capture recording this server's traffic.
+   *
+   * @return The running capture, or null if capture is disabled or the server is stopped
+   */
+  public TrafficCapture getCapture() {
+    return capture;
+  }
+
+  /**
+   * Closes the capture, if any, once no more messages arrive.
+   */
+  private void stopCapture() {
+    TrafficCapture capture = this.capture;
+    if (capture != null) {
+      this.capture = null;
+      capture.close();
+      LOG.info("Captured " + capture.getRecordCount() + " records to " + captureDirectory + " (" +
+          capture.getDroppedCount() + " dropped)");
+    }
+  }
+
+  /**
+   * Applies the session cache settings and creates the TLS buffer pools.
+   */
+  private void startTls() {
+    SSLSessionContext sessions = sslContext.getServerSessionContext();
+    sessions.setSessionCacheSize(tlsSessionCacheSize);
+    sessions.setSessionTimeout((int) Math.min(Integer.MAX_VALUE,
+        TimeUnit.NANOSECONDS.toSeconds(tlsSessionTimeoutNanos)));
+
+    SSLSession limits = sslContext.createSSLEngine().getSession();
+    tlsPacketPool = new BufferPool(limits.getPacketBufferSize(), TLS_MAX_POOLED_BUFFERS, true);
+    tlsApplicationPool = new BufferPool(limits.getApplicationBufferSize(), TLS_MAX_POOLED_BUFFERS, false);
+  }
+
+  /**
+   * Creates the TLS state of a newly accepted connection.
+   *
+   * @return The server-side session, or null if the server is plaintext
+   */
+  TlsSession newTlsSession() {
+    SSLContext context = sslContext;
+    if (context == null) {
+      return null;
+    }
+    SSLEngine engine = context.createSSLEngine();
+    engine.setUseClientMode(false);
+    return new TlsSession(engine, tlsPacketPool, tlsApplicationPool);
+  }
+
+  private static long toTimeoutNanos(long timeout, TimeUnit unit) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("timeout must not be negative");
+    }
+    if (unit == null) {
+      throw new IllegalArgumentException("unit must not be null");
+    }
+    return unit.toNanos(timeout);
+  }
+
+  private void checkNotRunning(String setting) {
+    if (isRunning.get()) {
+      throw new IllegalStateException(setting + " cannot be changed while the server is running");
+    }
+  }
+
+  /**
+   * Gets the admission controller of the running server.
+   *
+   * @return The admission controller
+   */
+  AdmissionController admission() {
+    return admission;
+  }
+
+  /**
+   * Gets the timeouts enforced on the connections of the running server.
+   *
+   * @return The connection timeouts
+   */
+  ConnectionTimeouts timeouts() {
+    return timeouts;
+  }
+
+  /**
+   * Gets the codec used to split incoming byte streams into frames.
+   *
+   * @return The frame codec
+   */
+  public FrameCodec getFrameCodec() {
+    return frameCodec;
+  }
+
+  /**
+   * Gets the pool that supplies read buffers to this server's connections.
+   *
+   * @return The read buffer pool
+   */
+  BufferPool getReadBufferPool() {
+    return readBufferPool;
+  }
+
+  /**
+   * Records that a connection has been closed and removes it from the registry and every group. Called exactly once per
+   * accepted connection.
+   *
+   * @param connection The closed connection
+   */
+  void connectionClosed(TcpConnection connection) {
+    connections.remove(connection.getId());
+    TrafficCapture capture = this.capture;
+    if (capture != null) {
+      capture.recordClose(connection.getId());
+    }
+    for (ConnectionGroup group : groups.values()) {
+      group.removeClosed(connection);
+    }
+
+    // Update connection count and free the connection's slot
+    int remaining = metrics.connectionClosed(connection.metrics());
+    admission.release();
+    if (LOG.isEnabled(LogLevel.DEBUG)) {
+      LOG.debug("[Connection #" + connection.getId() + "] Client handler terminated: " +
+          connection.getRemoteAddress() + " (active connections: " + remaining + ")");
+    }
+  }
+
+  static String describe(Socket socket) {
+    return socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+  }
+
+  static String describe(InetSocketAddress address) {
+    return address.getAddress().getHostAddress() + ":" + address.getPort();
+  }
+
+  /**
+   * Checks whether a connection is open and belongs to this server.
+   *
+   * @param connection The connection to check
+   * @return true if the connection is registered
+   */
+  boolean isRegistered(TcpConnection connection) {
+    return connections.get(connection.getId()) == connection;
+  }
+
+  /**
+   * Runs an action for every open connection, for example to reply to each one. Connections opening or closing
+   * meanwhile may or may not be visited.
+   *
+   * @param action The action to run
+   */
+  public void forEachConnection(Consumer<? super MessageContext> action) {
+    connections.values().forEach(action);
+  }
+
+  /**
+   * Sends a typed message to every open connection. The message is framed once into a single buffer whose bytes are
+   * shared by all recipients, so the cost per connection does not grow with the message size; each connection still
+   * gets its own small buffer view and queue entry. Connections whose outbound queue is full are skipped. The message is
+   * only queued: the calling thread never waits for a connection's socket, so a client that reads slowly holds up
+   * neither the caller nor the other connections.
+   *
+   * @param typeId The message type ID, 0 to {@link network.handler.MessageHeader#MAX_TYPE_ID}
+   * @param body   The message body, between position and limit; its position is left unchanged
+   * @return The number of connections the message was queued for
+   * @throws IllegalArgumentException If the type ID is out of range or the message is too long for the frame codec
+   */
+  public int broadcast(int typeId, ByteBuffer body) {
+    if (connections.isEmpty()) {
+      return 0;
+    }
+    return TcpConnection.writeToAll(connections.values(), TcpConnection.encode(frameCodec, typeId, body, true));
+  }
+
+  /**
+   * Sends a message that already starts with its {@link network.handler.MessageHeader} to every open connection, for
+   * example to forward a received message unchanged. See {@link #broadcast(int, ByteBuffer)}.
+   *
+   * @param message The message, between position and limit; its position is left unchanged
+   * @return The number of connections the message was queued for
+   * @throws IllegalArgumentException If the message is too long for the frame codec
+   */
+  public int broadcast(ByteBuffer message) {
+    if (connections.isEmpty()) {
+      return 0;
+    }
+    return TcpConnection.writeToAll(connections.values(), TcpConnection.encode(frameCodec, message, true));
+  }
+
+  /**
+   * Gets the group with the given name, creating an empty one if it does not exist.
+   *
+   * @param name The group name
+   * @return The group
+   */
+  public ConnectionGroup getGroup(String name) {
+    if (name == null) {
+      throw new IllegalArgumentException("name must not be null");
+    }
+    return groups.computeIfAbsent(name, groupName -> new ConnectionGroup(this, groupName));
+  }
+
+  /**
+   * Removes a group. Its members stay connected.
+   *
+   * @param name The group name
+   * @return true if the group existed
+   */
+  public boolean removeGroup(String name) {
+    return name != null && groups.remove(name) != null;
+  }
+
+  /**
+   * Gets the port this server listens on.
+   *
+   * @return The port number
+   */
+  public int getPort() {
+    return port;
+  }
+
+  /**
+   * Gets the I/O mode this server was created with.
+   *
+   * @return The I/O mode
+   */
+  public IoMode getIoMode() {
+    return ioMode;
   }
 
   /**
@@ -123,7 +1077,7 @@ public class TCPServer {
    * @return The number of active connections
    */
   public int getActiveConnectionCount() {
-    return activeConnections.get();
+    return metrics.getActiveConnections();
   }
 
   /**
@@ -131,8 +1085,36 @@ public class TCPServer {
    *
    * @return The total connection count
    */
-  public int getTotalConnectionCount() {
-    return totalConnectionsAccepted.get();
+  public long getTotalConnectionCount() {
+    return metrics.getTotalConnections();
+  }
+
+  /**
+   * Gets the total number of frames received from all connections since the server started.
+   *
+   * @return The total frame count
+   */
+  public long getTotalFrameCount() {
+    return metrics.getFramesReceived();
+  }
+
+  /**
+   * Gets the server's live counters and histograms, including the counters of every open connection. While the server
+   * runs they are also registered over JMX as {@code network:type=TCPServer,port=<port>}.
+   *
+   * @return The server metrics
+   */
+  public ServerMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Copies the server-wide counters and histograms. Cheap enough to call every second.
+   *
+   * @return The snapshot
+   */
+  public MetricsSnapshot getMetricsSnapshot() {
+    return metrics.snapshot();
   }
 
   /**
@@ -144,6 +1126,84 @@ public class TCPServer {
     return isRunning.get();
   }
 
+  /**
+   * Closes the listeners. New connections go to whichever other listener shares the port, typically the next instance
+   * during a hot restart; open connections keep being served.
+   */
+  void stopAccepting() {
+    if (engine != null) {
+      engine.stopAccepting();
+      return;
+    }
+
+    accepting = false;
+    Listeners.closeAll(serverSockets);
+
+    // Wake accept threads that are paused waiting for a connection slot
+    if (acceptThreads != null) {
+      for (Thread acceptThread : acceptThreads) {
+        acceptThread.interrupt();
+      }
+    }
+  }
+
+  /**
+   * Stops accepting, closes the open connections gradually over the {@link #setDrainTimeout drain timeout} and then
+   * shuts down. Connections keep being served until they are closed, so their clients reconnect, for example to the
+   * next instance, spread over the drain period instead of all at once. Blocks until the server has shut down.
+   */
+  public void drain() {
+    if (!isRunning.get()) {
+      LOG.warn("Server is not running.");
+      return;
+    }
+
+    LOG.info("Draining " + connections.size() + " connections over " + getDrainTimeoutMillis() + " ms...");
+    stopAccepting();
+    closeGradually(drainTimeoutNanos);
+    shutdown((int) TimeUnit.NANOSECONDS.toSeconds(DRAIN_GRACE_NANOS));
+  }
+
+  /**
+   * Closes the open connections at an even pace over a period. A connection is closed once it has written its replies
+   * and is not in the middle of a frame; those still busy at the end of the period are closed regardless.
+   *
+   * @param periodNanos The period
+   */
+  private void closeGradually(long periodNanos) {
+    long start = System.nanoTime();
+    int total = connections.size();
+    int requested = 0;
+
+    while (isRunning.get() && !connections.isEmpty()) {
+      long elapsed = System.nanoTime() - start;
+      boolean overdue = elapsed >= periodNanos;
+      if (elapsed >= periodNanos + DRAIN_GRACE_NANOS) {
+        // Shutdown closes whatever is left
+        break;
+      }
+
+      // Number of connections that should have been closed by now
+      long due = overdue ? Long.MAX_VALUE : total * elapsed / periodNanos;
+      for (TcpConnection connection : connections.values()) {
+        if (requested >= due) {
+          break;
+        }
+        if (!connection.isClosedByServer() && (overdue || connection.isQuiet())) {
+          connection.close("Server draining");
+          requested++;
+        }
+      }
+
+      try {
+        Thread.sleep(DRAIN_TICK_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+  }
+
   /**
    * Gracefully shuts down the server. Waits for active connections to complete (up to timeout).
    *
@@ -151,25 +1211,41 @@ public class TCPServer {
    */
   public void shutdown(int timeoutSeconds) {
     if (!isRunning.get()) {
-      System.out.println("Server is not running.");
+      LOG.warn("Server is not running.");
       return;
     }
 
-    System.out.println("\n===========================================");
-    System.out.println("Initiating server shutdown...");
-    System.out.println("===========================================");
+    LOG.info("Initiating server shutdown...");
 
     // Stop accepting new connections
     isRunning.set(false);
+    if (hotRestart != null) {
+      hotRestart.stop();
+    }
 
-    // Close server socket to unblock accept()
-    try {
-      if (serverSocket != null && !serverSocket.isClosed()) {
-        serverSocket.close();
-      }
-    } catch (IOException e) {
-      System.err.println("Error closing server socket: " + e.getMessage());
+    if (engine != null) {
+      // Close the listening channel and every connection, then wait for the engine's threads
+      engine.shutdown(timeoutSeconds * 1000L);
+    } else {
+      shutdownBlocking(timeoutSeconds);
     }
+    timeouts.stop();
+    stopCapture();
+
+    metrics.unregister();
+    LOG.info("Server shutdown complete. Total connections served: " + metrics.getTotalConnections());
+    Log.flush();
+  }
+
+  /**
+   * Stops the blocking accept thread and the client thread pool.
+   *
+   * @param timeoutSeconds Maximum time to wait for connections to close
+   */
+  private void shutdownBlocking(int timeoutSeconds) {
+    // Close server sockets to unblock accept()
+    accepting = false;
+    Listeners.closeAll(serverSockets);
 
     // Shutdown thread pool gracefully
     clientThreadPool.shutdown();
@@ -177,32 +1253,34 @@ public class TCPServer {
     try {
       // Wait for existing client handlers to complete
       if (!clientThreadPool.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
-        System.out.println("Timeout reached. Forcing shutdown of client handlers...");
+        LOG.warn("Timeout reached. Forcing shutdown of client handlers...");
         clientThreadPool.shutdownNow();
 
         // Wait a bit more for forced shutdown
         if (!clientThreadPool.awaitTermination(5, TimeUnit.SECONDS)) {
-          System.err.println("Thread pool did not terminate cleanly.");
+          LOG.error("Thread pool did not terminate cleanly.");
         }
       }
     } catch (InterruptedException e) {
       clientThreadPool.shutdownNow();
       Thread.currentThread().interrupt();
     }
+    // The connections are closed, so writers still running are failing their writes
+    writerThreadPool.shutdownNow();
 
-    // Wait for accept thread to finish
-    if (acceptThread != null) {
-      try {
-        acceptThread.join(1000);
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
+    // Wait for the accept threads to finish, waking any that are paused waiting for a connection slot
+    if (acceptThreads != null) {
+      for (Thread acceptThread : acceptThreads) {
+        acceptThread.interrupt();
+      }
+      for (Thread acceptThread : acceptThreads) {
+        try {
+          acceptThread.join(1000);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
       }
     }
-
-    System.out.println("===========================================");
-    System.out.println("Server shutdown complete.");
-    System.out.println("Total connections served: " + totalConnectionsAccepted.get());
-    System.out.println("===========================================");
   }
 
   /**
@@ -213,198 +1291,175 @@ public class TCPServer {
   }
 
   /**
-   * Handles communication with a single client connection. Receives and processes serialized objects from the client.
+   * Handles communication with a single client connection. Blocks in bulk reads on the client channel, so an idle
+   * connection costs no CPU, and decodes frames straight out of a pooled read buffer without copying them.
    */
   private class ClientHandler implements Runnable {
 
-    private final Socket clientSocket;
-    private final int connectionId;
-    private InputStream inputStream;
+    private final TcpConnection connection;
+    private final SocketChannel clientChannel;
+    private final ConnectionMetrics metrics;
+    private final long connectionId;
 
     /**
      * Creates a new client handler.
      *
-     * @param clientSocket The socket connected to the client
-     * @param connectionId Unique identifier for this connection
+     * @param connection The connection, whose channel is a blocking {@link SocketChannel}
      */
-    public ClientHandler(Socket clientSocket, int connectionId) {
-      this.clientSocket = clientSocket;
-      this.connectionId = connectionId;
+    public ClientHandler(TcpConnection connection) {
+      this.connection = connection;
+      this.clientChannel = (SocketChannel) connection.channel();
+      this.metrics = connection.metrics();
+      this.connectionId = connection.getId();
     }
 
     @Override
     public void run() {
-      String clientInfo = clientSocket.getInetAddress().getHostAddress() +
-          ":" + clientSocket.getPort();
+      Socket clientSocket = clientChannel.socket();
+      String clientInfo = describe(clientSocket);
+      ByteBuffer readBuffer = null;
 
       try {
         // Configure socket options
         clientSocket.setKeepAlive(true);
         clientSocket.setTcpNoDelay(true);
-        clientSocket.setSoTimeout(0); // No read timeout
+        // This thread writes the replies to its reads itself. It is blocked reading the rest of the time, so sends
+        // from other threads are written by a writer task and never wait for the client
+        Thread handlerThread = Thread.currentThread();
+        connection.setFlushHandler(c -> {
+          if (Thread.currentThread() == handlerThread) {
+            c.flushBlocking();
+          } else {
+            c.flushLater(writerThreadPool);
+          }
+        });
 
-        // Create object input stream for receiving serializable objects
-        inputStream = clientSocket.getInputStream();
+        readBuffer = readBufferPool.acquire();
+        timeouts.watch(connection);
 
-        System.out.println("[Connection #" + connectionId + "] Ready to receive objects from " + clientInfo);
+        if (LOG.isEnabled(LogLevel.DEBUG)) {
+          LOG.debug("[Connection #" + connectionId + "] Ready to receive objects from " + clientInfo);
+        }
 
-        // Continuously read objects from the client
-        while (isRunning.get() && !clientSocket.isClosed()) {
+        // Continuously read from the client
+        while (isRunning.get() && clientChannel.isOpen()) {
           try {
-
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            int byteRead;
-            // Read until no more data is immediately available
-            while (inputStream.available() > 0 && (byteRead = inputStream.read()) != -1) {
-              buffer.write(byteRead);
-            }
-            if (buffer.size() > 0) {
-              printHexArray(buffer.toByteArray());
+            // Read as much as is available (blocking call)
+            readBuffer.clear();
+            int bytesRead = clientChannel.read(readBuffer);
+            readBuffer.flip();
+
+            if (bytesRead < 0 || !connection.decode(readBuffer)) {
+              // Client closed connection gracefully
+              if (LOG.isEnabled(LogLevel.DEBUG)) {
+                LOG.debug("[Connection #" + connectionId + "] Client disconnected: " + clientInfo);
+              }
+              break;
             }
 
-//            // Read object from stream (blocking call)
-//            byte[] received = new byte[1024];
-//            int bytesRead = inputStream.read(received);
-//            if (bytesRead > 0) {
-//              String message = new String(received, 0, bytesRead);
-//              // Process the received object
-//              handleReceivedObject(message, clientInfo);
-//            }
-
-          } catch (EOFException e) {
-            // Client closed connection gracefully
-            System.out.println("[Connection #" + connectionId + "] Client disconnected: " + clientInfo);
+          } catch (FrameException e) {
+            // Peer violated the framing rules; the stream cannot be resynchronized
+            metrics.recordError();
+            LOG.warn("[Connection #" + connectionId + "] Framing error: " + e.getMessage());
+            break;
+
+          } catch (SSLException e) {
+            // Failed handshake or corrupt record
+            metrics.recordError();
+            LOG.warn("[Connection #" + connectionId + "] TLS error: " + e.getMessage());
             break;
 
           } catch (SocketException e) {
             // Connection reset or closed unexpectedly
-            System.out.println("[Connection #" + connectionId + "] Connection lost: " + clientInfo +
-                " - " + e.getMessage());
+            metrics.recordError();
+            if (LOG.isEnabled(LogLevel.DEBUG)) {
+              LOG.debug("[Connection #" + connectionId + "] Connection lost: " + clientInfo + " - " + e.getMessage());
+            }
             break;
 
           } catch (IOException e) {
-            // Other I/O error
-            System.err.println("[Connection #" + connectionId + "] I/O error: " + e.getMessage());
+            // Other I/O error, including the channel being closed by shutdown, a timeout or draining
+            if (isRunning.get() && !connection.isClosedByServer()) {
+              metrics.recordError();
+              LOG.warn("[Connection #" + connectionId + "] I/O error: " + e.getMessage());
+            }
             break;
           }
         }
 
       } catch (IOException e) {
-        System.err.println("[Connection #" + connectionId + "] Error setting up client handler: " +
-            e.getMessage());
+        metrics.recordError();
+        LOG.error("[Connection #" + connectionId + "] Error setting up client handler: " + e.getMessage());
 
       } finally {
         // Clean up resources
+        connection.cancelTimeout();
+        connection.discardOutbound();
+        readBufferPool.release(readBuffer);
         cleanup(clientInfo);
       }
     }
 
-    /**
-     * Processes a received object from the client. This method can be customized to handle different object types.
-     *
-     * @param obj        The received object
-     * @param clientInfo Information about the client
-     */
-    private void handleReceivedObject(Object obj, String clientInfo) {
-      System.out.println("\n┌─────────────────────────────────────────┐");
-      System.out.println("│ OBJECT RECEIVED                         │");
-      System.out.println("├─────────────────────────────────────────┤");
-      System.out.println("│ Connection ID: #" + connectionId);
-      System.out.println("│ From: " + clientInfo);
-      System.out.println("│ Class: " + obj.getClass().getName());
-      System.out.println("│ Content: " + obj.toString());
-      System.out.println("└─────────────────────────────────────────┘\n");
-
-      // Custom handling based on object type
-      if (obj instanceof String) {
-        handleStringMessage((String) obj);
-      } else if (obj instanceof Number) {
-        handleNumberMessage((Number) obj);
-      } else {
-        // Generic handling for other objects
-        handleGenericObject(obj);
-      }
-    }
-
-    /**
-     * Handles received String objects.
-     *
-     * @param message The received string message
-     */
-    private void handleStringMessage(String message) {
-      System.out.println("[Handler] Processing String message: " + message);
-      // Add custom string processing logic here
-    }
-
-    /**
-     * Handles received Number objects.
-     *
-     * @param number The received number
-     */
-    private void handleNumberMessage(Number number) {
-      System.out.println("[Handler] Processing Number: " + number);
-      // Add custom number processing logic here
-    }
-
-    /**
-     * Handles other types of objects.
-     *
-     * @param obj The received object
-     */
-    private void handleGenericObject(Object obj) {
-      System.out.println("[Handler] Processing generic object of type: " +
-          obj.getClass().getSimpleName());
-      // Add custom object processing logic here
-    }
-
     /**
      * Cleans up resources associated with this client connection.
      *
      * @param clientInfo Information about the client
      */
     private void cleanup(String clientInfo) {
-      // Close input stream
-      if (inputStream != null) {
+      // Close channel
+      if (clientChannel.isOpen()) {
         try {
-          inputStream.close();
-        } catch (IOException e) {
-          // Ignore errors during cleanup
-        }
-      }
-
-      // Close socket
-      if (clientSocket != null && !clientSocket.isClosed()) {
-        try {
-          clientSocket.close();
+          clientChannel.close();
         } catch (IOException e) {
           // Ignore errors during cleanup
         }
       }
 
       // Update connection count
-      int remaining = activeConnections.decrementAndGet();
-      System.out.println("[Connection #" + connectionId + "] Client handler terminated: " + clientInfo);
-      System.out.println("[Status] Active connections: " + remaining);
+      connectionClosed(connection);
     }
   }
 
   public static void printHexArray(byte[] bytes) {
-    char[] hexChars = new char[bytes.length * 3]; // 2 chars per byte + space
-    for (int i = 0; i < bytes.length; i++) {
-      int v = bytes[i] & 0xFF; // Convert to unsigned
-      hexChars[i * 3] = "0123456789abcdef".charAt(v >>> 4); // High nibble
-      hexChars[i * 3 + 1] = "0123456789abcdef".charAt(v & 0x0F); // Low nibble
-      hexChars[i * 3 + 2] = ' '; // Space separator
-    }
-    System.out.println("Received message: " + new String(hexChars).trim());
+    printHexArray(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Logs the remaining bytes of a buffer as hex at debug level without changing its position. Nothing is rendered unless
+   * debug logging is enabled.
+   *
+   * @param data The bytes to print, between position and limit
+   */
+  public static void printHexArray(ByteBuffer data) {
+    LOG.hex(LogLevel.DEBUG, "Received message: ", data);
   }
 
   /**
-   * Main method demonstrating server usage. Run this server first, then run the TCPClient to test.
+   * Main method demonstrating server usage. Run this server first, then run the TCPClient to test. Pass {@code nio},
+   * {@code async} or {@code virtual_threads} as the first argument to select another I/O mode. Pass a control socket
+   * path as the second argument to enable hot restart; starting another server with the same path then takes over.
    */
   public static void main(String[] args) {
+    IoMode ioMode = args.length > 0 ? IoMode.valueOf(args[0].toUpperCase()) : IoMode.BLOCKING;
+
     // Create server on port 5000
-    TCPServer server = new TCPServer(5000);
+    TCPServer server = new TCPServer(5000, ioMode);
+    if (args.length > 1) {
+      server.setHandoffSocket(Paths.get(args[1]));
+    }
+
+    // Show connection events and hex dumps in the demo
+    Log.setLevel(LogLevel.DEBUG);
+
+    // Print text messages; dump everything else as hex
+    server.getDispatcher().register(TEXT_MESSAGE_TYPE, (context, typeId, body) ->
+        LOG.info("[Connection #" + context.getId() + "] Text from " + context.getRemoteAddress() + ": " +
+            StandardCharsets.UTF_8.decode(body)));
+    server.getDispatcher().setFallbackHandler((context, typeId, body) -> {
+      LOG.info("[Connection #" + context.getId() + "] Message type " + typeId + " from " +
+          context.getRemoteAddress());
+      printHexArray(body);
+    });
 
     try {
       // Start the server
@@ -412,12 +1467,12 @@ public class TCPServer {
 
       // Add shutdown hook for graceful shutdown on Ctrl+C
       Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-        System.out.println("\nShutdown signal received...");
+        LOG.info("Shutdown signal received...");
         server.shutdown(10);
       }));
 
       // Keep server running
-      System.out.println("\nServer is running. Press Ctrl+C to stop.\n");
+      LOG.info("Server is running. Press Ctrl+C to stop.");
 
       // Keep main thread alive
       while (server.isRunning()) {
@@ -427,7 +1482,7 @@ public class TCPServer {
           // Optional: Print periodic status updates
           // Uncomment the following line if you want status updates every minute
           // if (System.currentTimeMillis() % 60000 < 1000) {
-          //     System.out.println("[Status] Active: " + server.getActiveConnectionCount() +
+          //     LOG.info("[Status] Active: " + server.getActiveConnectionCount() +
           //                      ", Total: " + server.getTotalConnectionCount());
           // }
 
@@ -438,8 +1493,7 @@ public class TCPServer {
       }
 
     } catch (IOException e) {
-      System.err.println("Failed to start server: " + e.getMessage());
-      e.printStackTrace();
+      LOG.error("Failed to start server", e);
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,514 @@
+package network.tcp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.NetworkChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import network.codec.FrameCodec;
+import network.codec.FrameDecoder;
+import network.codec.FrameException;
+import network.codec.FrameListener;
+import network.handler.MessageContext;
+import network.handler.MessageHeader;
+import network.log.Log;
+import network.log.LogLevel;
+import network.metrics.ConnectionMetrics;
+import network.timer.HashedTimingWheel;
+
+/**
+ * Per-connection state shared by all {@link TCPServer} I/O modes. Decodes the connection's byte stream into frames,
+ * serves as the {@link MessageContext} for every message received on it and queues the messages sent back.
+ * <p>
+ * Sends are queued in an {@link OutboundBuffer} and written by the connection's flush handler, which depends on the I/O
+ * mode. Messages sent by handlers while a read is being decoded are flushed together once the read is done. Messages
+ * sent from any other thread are only queued; that thread never writes to the socket:
+ * <ul>
+ *   <li>In {@link TCPServer.IoMode#NIO} mode the connection's reactor thread writes them.</li>
+ *   <li>In {@link TCPServer.IoMode#ASYNC} mode an asynchronous write is started, which completes on the handler
+ *   pool.</li>
+ *   <li>In {@link TCPServer.IoMode#BLOCKING} and {@link TCPServer.IoMode#VIRTUAL_THREADS} mode the connection's thread is
+ *   blocked reading, so a writer task writes them with {@link #flushLater(Executor)}.</li>
+ * </ul>
+ * <p>
+ * On a TLS connection a {@link TlsSession} sits between the channel and both paths: reads are decrypted before they are
+ * decoded, and flushes write the ciphertext of the queued frames instead of the frames themselves.
+ */
+final class TcpConnection implements MessageContext, FrameListener {
+
+  private static final Log LOG = Log.get(TcpConnection.class);
+
+  private final TCPServer server;
+  private final NetworkChannel channel;
+  private final ConnectionMetrics metrics;
+  private final FrameDecoder decoder;
+  private final FrameCodec codec;
+  private final OutboundBuffer outbound;
+  private final TlsSession tls; // null on plaintext connections
+  private final ByteBuffer[] tlsBatch = new ByteBuffer[1];
+  private volatile Consumer<TcpConnection> flushHandler = connection -> { }; // Until the engine sets one up
+  private final AtomicBoolean flushScheduled = new AtomicBoolean(); // A flushLater task is waiting to run
+
+  // The thread decoding a read; its sends are flushed once after the whole read is dispatched
+  private volatile Thread decodingThread;
+
+  // Timeout state; timestamps are written by the reading thread and read by the timing wheel
+  private volatile long lastReadNanos = System.nanoTime();
+  private volatile long lastWriteNanos = lastReadNanos;
+  private volatile long frameStartNanos; // 0 while no frame is incomplete
+  private boolean frameCompleted;
+  private volatile HashedTimingWheel.Timeout timeout;
+  private volatile String closeReason;
+  private volatile Consumer<TcpConnection> closeHandler = TcpConnection::closeChannel;
+
+  // Fair scheduling: the connection's share of its reactor, and whether it waits in the reactor's run queue, which
+  // only the reactor thread touches
+  private volatile int schedulingWeight = 1;
+  private boolean scheduled;
+
+  /**
+   * Creates the state for a newly accepted connection.
+   *
+   * @param server  The server that owns the connection
+   * @param channel The channel connected to the client
+   * @param metrics The connection's counters, carrying its identifier and remote address
+   */
+  TcpConnection(TCPServer server, NetworkChannel channel, ConnectionMetrics metrics) {
+    this.server = server;
+    this.channel = channel;
+    this.metrics = metrics;
+    this.codec = server.getFrameCodec();
+    this.decoder = codec.newDecoder();
+    this.outbound = new OutboundBuffer(server.getWriteBufferLowWatermark(), server.getWriteBufferHighWatermark());
+    this.tls = server.newTlsSession();
+  }
+
+  /**
+   * Decodes newly read bytes and dispatches every frame they complete. On a TLS connection the bytes are decrypted
+   * first.
+   *
+   * @param data The bytes read from the channel, between position and limit
+   * @return false if the client closed its TLS session, which ends the connection like the end of the stream
+   * @throws FrameException If the client violated the framing rules
+   * @throws IOException    If the client violated the TLS protocol, or a handshake message could not be written
+   */
+  boolean decode(ByteBuffer data) throws IOException {
+    long now = System.nanoTime();
+    lastReadNanos = now;
+    metrics.recordRead(data.remaining(), now);
+
+    frameCompleted = false;
+    decodingThread = Thread.currentThread();
+    boolean open = true;
+    try {
+      if (tls == null) {
+        decoder.decode(data, this);
+      } else {
+        open = tls.unwrap(data, decoder, this, () -> flushHandler.accept(this));
+      }
+    } finally {
+      decodingThread = null;
+    }
+
+    // Track when the frame now pending started, for the slow-frame timeout
+    if (!decoder.hasPartialFrame()) {
+      frameStartNanos = 0;
+    } else if (frameStartNanos == 0 || frameCompleted) {
+      frameStartNanos = now;
+    }
+
+    // Write the replies to this read in one batch, along with any handshake message it called for
+    if (hasPendingWrites()) {
+      flushHandler.accept(this);
+    }
+    return open;
+  }
+
+  @Override
+  public void onFrame(ByteBuffer frame) {
+    frameCompleted = true;
+    server.frameReceived(this, frame);
+  }
+
+  long lastReadNanos() {
+    return lastReadNanos;
+  }
+
+  /**
+   * Gets the time of the last traffic in either direction.
+   */
+  long lastActivityNanos() {
+    return Math.max(lastReadNanos, lastWriteNanos);
+  }
+
+  @Override
+  public boolean send(int typeId, ByteBuffer body) {
+    MessageHeader.checkTypeId(typeId);
+    if (isClosed()) {
+      return false;
+    }
+
+    // Frame the message into its own buffer, which stays queued until written
+    return write(encode(codec, typeId, body, false));
+  }
+
+  /**
+   * Frames a typed message into a new buffer.
+   *
+   * @param codec  The codec framing the message
+   * @param typeId The message type ID
+   * @param body   The message body, between position and limit; its position is left unchanged
+   * @param direct true to allocate a direct buffer, which saves a copy on every write when the frame is sent many times
+   * @return The frame, between position and limit
+   * @throws IllegalArgumentException If the message is too long for the codec
+   */
+  static ByteBuffer encode(FrameCodec codec, int typeId, ByteBuffer body, boolean direct) {
+    MessageHeader.checkTypeId(typeId);
+    int payloadLength = MessageHeader.LENGTH + body.remaining();
+    ByteBuffer frame = allocateFrame(codec, payloadLength, direct);
+    MessageHeader.put(typeId, frame);
+    frame.put(body.duplicate());
+    codec.writeTrailer(frame);
+    frame.flip();
+    return frame;
+  }
+
+  /**
+   * Frames a message that already starts with its {@link MessageHeader} into a new buffer.
+   *
+   * @param codec   The codec framing the message
+   * @param message The message, between position and limit; its position is left unchanged
+   * @param direct  true to allocate a direct buffer
+   * @return The frame, between position and limit
+   * @throws IllegalArgumentException If the message is too long for the codec
+   */
+  static ByteBuffer encode(FrameCodec codec, ByteBuffer message, boolean direct) {
+    ByteBuffer frame = allocateFrame(codec, message.remaining(), direct);
+    frame.put(message.duplicate());
+    codec.writeTrailer(frame);
+    frame.flip();
+    return frame;
+  }
+
+  private static ByteBuffer allocateFrame(FrameCodec codec, int payloadLength, boolean direct) {
+    int frameLength = codec.encodedLength(payloadLength);
+    ByteBuffer frame = direct ? ByteBuffer.allocateDirect(frameLength) : ByteBuffer.allocate(frameLength);
+    try {
+      codec.writeHeader(payloadLength, frame);
+    } catch (FrameException e) {
+      throw new IllegalArgumentException("Cannot send message: " + e.getMessage(), e);
+    }
+    return frame;
+  }
+
+  /**
+   * Queues one shared frame on every open connection of a set. Each recipient gets a read-only view of the same bytes,
+   * so the payload is neither copied nor re-encoded per recipient. The view is still a ByteBuffer allocated per
+   * recipient, along with its queue node, because a gathering write advances the position of the buffers it writes.
+   * Recipients whose outbound queue is full are skipped. Only queues, so a recipient that reads slowly does not hold up
+   * the others.
+   *
+   * @param recipients The connections to send to
+   * @param frame      The encoded frame, between position and limit; must not be modified afterwards
+   * @return The number of connections the frame was queued on
+   */
+  static int writeToAll(Iterable<TcpConnection> recipients, ByteBuffer frame) {
+    ByteBuffer shared = frame.asReadOnlyBuffer();
+    int queued = 0;
+    for (TcpConnection recipient : recipients) {
+      if (!recipient.isClosed() && recipient.write(shared.duplicate())) {
+        queued++;
+      }
+    }
+    return queued;
+  }
+
+  @Override
+  public boolean isWritable() {
+    return !isClosed() && outbound.isWritable();
+  }
+
+  /**
+   * Queues an encoded frame and flushes it, unless the calling thread is decoding a read of this connection, in which
+   * case the frame is written with the rest of the read's replies.
+   *
+   * @param frame The frame, between position and limit; must not be modified afterwards
+   * @return true if the frame was queued; false if the outbound queue is above its high watermark
+   */
+  boolean write(ByteBuffer frame) {
+    if (!outbound.offer(frame)) {
+      return false;
+    }
+    server.getMetrics().recordFrameSent();
+    if (Thread.currentThread() != decodingThread) {
+      flushHandler.accept(this);
+    }
+    return true;
+  }
+
+  OutboundBuffer outbound() {
+    return outbound;
+  }
+
+  /**
+   * Checks whether a flush would write anything: queued frames or, on a TLS connection, a handshake message or
+   * ciphertext left over from an earlier write. Frames queued on a TLS connection wait until its handshake is done.
+   *
+   * @return true if there is something to write
+   */
+  boolean hasPendingWrites() {
+    if (tls == null) {
+      return outbound.hasPending();
+    }
+    return tls.hasPendingWrites() || (outbound.hasPending() && tls.isHandshakeComplete());
+  }
+
+  /**
+   * Collects the next gathering write of the flush in progress: the queued frames themselves or, on a TLS connection,
+   * the ciphertext they are encrypted into. Only called while holding the flush lock.
+   *
+   * @return The number of buffers of {@link #writeBatch()} to write; 0 when nothing can be written now
+   * @throws IOException If encryption fails
+   */
+  int prepareWrite() throws IOException {
+    int count = outbound.fillBatch();
+    if (tls == null) {
+      return count;
+    }
+    // Frames count as written once they are encrypted
+    outbound.written(tls.wrap(outbound.batch(), count));
+    tlsBatch[0] = tls.ciphertext();
+    return tlsBatch[0] == null ? 0 : 1;
+  }
+
+  /**
+   * Gets the buffers collected by {@link #prepareWrite()}.
+   *
+   * @return The batch array; only the first {@code prepareWrite()} entries are valid
+   */
+  ByteBuffer[] writeBatch() {
+    return tls == null ? outbound.batch() : tlsBatch;
+  }
+
+  /**
+   * Sets how queued frames are written, for example {@link #flushBlocking()}. Until it is set, frames sent to the
+   * connection (say by a broadcast right after it was accepted) stay queued; they are flushed here.
+   *
+   * @param flushHandler Starts writing the outbound queue; must tolerate being called while a flush is in progress
+   */
+  void setFlushHandler(Consumer<TcpConnection> flushHandler) {
+    this.flushHandler = flushHandler;
+    if (hasPendingWrites()) {
+      flushHandler.accept(this);
+    }
+  }
+
+  /**
+   * Accounts for bytes a flush has written from the {@link #writeBatch() batch}.
+   *
+   * @param bytes The number of bytes written by one write call
+   */
+  void wrote(long bytes) {
+    if (tls == null) {
+      outbound.written(bytes);
+    } else {
+      tls.written();
+    }
+    server.getMetrics().recordWrite(bytes);
+    lastWriteNanos = System.nanoTime();
+  }
+
+  /**
+   * Logs and counts a failed write. The caller closes the connection.
+   *
+   * @param e The write error
+   */
+  void writeFailed(IOException e) {
+    server.getMetrics().recordWriteError();
+    if (LOG.isEnabled(LogLevel.DEBUG)) {
+      LOG.debug("[Connection #" + getId() + "] Write failed: " + getRemoteAddress() + " - " + e.getMessage());
+    }
+  }
+
+  /**
+   * Writes the outbound queue to a blocking channel with gathering writes, blocking while the peer's receive window is
+   * full. Called by the connection's own thread after a read and by {@link #flushLater(Executor) writer tasks}.
+   * Whichever thread wins the flush lock writes everything queued, including frames added by other threads meanwhile.
+   */
+  void flushBlocking() {
+    GatheringByteChannel out = (GatheringByteChannel) channel;
+    while (hasPendingWrites() && outbound.tryLock()) {
+      try {
+        int count;
+        while ((count = prepareWrite()) > 0) {
+          wrote(out.write(writeBatch(), 0, count));
+        }
+      } catch (IOException e) {
+        writeFailed(e);
+        closeChannel();
+        return;
+      } finally {
+        outbound.unlock();
+      }
+    }
+  }
+
+  /**
+   * Writes the outbound queue with {@link #flushBlocking()} on a writer task rather than on the calling thread, so the
+   * caller does not wait for a peer that reads slowly. At most one task per connection waits to run at a time; frames
+   * queued while one is writing are picked up by it or by the next.
+   *
+   * @param writers Runs the writer task
+   */
+  void flushLater(Executor writers) {
+    if (!flushScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      writers.execute(() -> {
+        flushScheduled.set(false);
+        flushBlocking();
+      });
+    } catch (RejectedExecutionException e) {
+      // Server shutting down; the queue is dropped when the connection closes
+      flushScheduled.set(false);
+    }
+  }
+
+  long frameStartNanos() {
+    return frameStartNanos;
+  }
+
+  /**
+   * Checks whether the connection can be closed without losing data: no read is being dispatched, no frame is partly
+   * received and every reply has been written.
+   *
+   * @return true if the connection is between messages
+   */
+  boolean isQuiet() {
+    return decodingThread == null && frameStartNanos == 0 && !hasPendingWrites();
+  }
+
+  void setTimeout(HashedTimingWheel.Timeout timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * Stops timeout checks for a connection that is being closed.
+   */
+  void cancelTimeout() {
+    HashedTimingWheel.Timeout current = timeout;
+    if (current != null) {
+      current.cancel();
+    }
+  }
+
+  /**
+   * Sets how the server closes the connection from outside its I/O path, on a timeout or while draining. By default its
+   * channel is closed from the calling thread, which wakes a thread blocked reading it; a selector-based engine instead
+   * hands the connection back to its own thread.
+   *
+   * @param closeHandler Closes the connection
+   */
+  void setCloseHandler(Consumer<TcpConnection> closeHandler) {
+    this.closeHandler = closeHandler;
+  }
+
+  /**
+   * Closes the connection because a timeout limit was exceeded. Called from the timer thread.
+   *
+   * @param reason Which limit was exceeded
+   */
+  void expire(String reason) {
+    server.getMetrics().connectionTimedOut();
+    close(reason);
+  }
+
+  /**
+   * Closes the connection on the server's initiative, for example because a timeout limit was exceeded or the server
+   * is draining. The errors the close causes on the connection's I/O path are not reported. Called from any thread.
+   *
+   * @param reason Why the connection is closed
+   */
+  void close(String reason) {
+    closeReason = reason;
+    if (LOG.isEnabled(LogLevel.DEBUG)) {
+      LOG.debug("[Connection #" + getId() + "] " + reason + "; closing " + getRemoteAddress());
+    }
+    closeHandler.accept(this);
+  }
+
+  /**
+   * Checks whether the server closed the connection through {@link #close(String)}.
+   *
+   * @return true if the close was initiated by the server
+   */
+  boolean isClosedByServer() {
+    return closeReason != null;
+  }
+
+  boolean isClosed() {
+    return !channel.isOpen();
+  }
+
+  /**
+   * Drops unsent frames once the connection is closed, and returns the buffers of its TLS session to their pools.
+   */
+  void discardOutbound() {
+    outbound.clear();
+    if (tls != null) {
+      // A flusher on another thread may still hold the ciphertext buffer; if not, keep the lock so none starts again
+      tls.release(outbound.tryLock());
+    }
+  }
+
+  private void closeChannel() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // Ignore errors during cleanup
+    }
+  }
+
+  /**
+   * Gets the channel connected to the client. Its concrete type depends on the server's I/O mode.
+   *
+   * @return The client channel
+   */
+  NetworkChannel channel() {
+    return channel;
+  }
+
+  int schedulingWeight() {
+    return schedulingWeight;
+  }
+
+  void setSchedulingWeight(int weight) {
+    this.schedulingWeight = weight;
+  }
+
+  boolean isScheduled() {
+    return scheduled;
+  }
+
+  void setScheduled(boolean scheduled) {
+    this.scheduled = scheduled;
+  }
+
+  ConnectionMetrics metrics() {
+    return metrics;
+  }
+
+  @Override
+  public long getId() {
+    return metrics.getConnectionId();
+  }
+
+  @Override
+  public String getRemoteAddress() {
+    return metrics.getRemoteAddress();
+  }
+}
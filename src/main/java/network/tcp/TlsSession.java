@@ -0,0 +1,406 @@
+package network.tcp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import network.buffer.BufferPool;
+import network.codec.FrameDecoder;
+import network.codec.FrameListener;
+
+/**
+ * The TLS state of one connection, built on an {@link SSLEngine} so it runs on any I/O mode, including the non-blocking
+ * ones.
+ * <p>
+ * Received ciphertext is decrypted straight out of the caller's read buffer; plaintext goes to the connection's frame
+ * decoder. Outgoing frames are encrypted with one gathering {@code wrap} per TLS record into a ciphertext buffer that the
+ * flusher then writes. Handshake messages travel the same paths, so a handshake needs no thread of its own. All three
+ * buffers (a partial incoming record, decrypted plaintext and unwritten ciphertext) come from shared
+ * {@link BufferPool}s and are held only while in use, so an idle TLS connection holds none.
+ * <p>
+ * Decryption runs on the connection's reading thread and encryption on whichever thread holds the outbound flush lock;
+ * {@code SSLEngine} allows the two to overlap. Delegated handshake tasks run inline on the thread that needs them.
+ */
+final class TlsSession {
+
+  private static final ByteBuffer[] NO_DATA = {ByteBuffer.allocate(0)};
+
+  // Drops application data that arrives while a blocking client only waits for handshake messages
+  private static final FrameDecoder DISCARD = new FrameDecoder() {
+    @Override
+    public void decode(ByteBuffer in, FrameListener listener) {
+      in.position(in.limit());
+    }
+
+    @Override
+    public void reset() {
+    }
+  };
+
+  private final SSLEngine engine;
+  private final BufferPool packetPool;
+  private final BufferPool applicationPool;
+
+  // Owned by the reading thread: the start of a record whose remaining bytes have not arrived yet
+  private ByteBuffer partialRecord;
+
+  // Owned by the flusher: ciphertext not written yet, between position and limit
+  private ByteBuffer ciphertext;
+  private volatile boolean ciphertextPending;
+
+  // Set once the first handshake has finished, by whichever thread saw it finish
+  private volatile boolean established;
+
+  /**
+   * Creates the TLS state of a connection. A server-mode engine starts its handshake when the client's first message
+   * arrives; a client starts it with {@link #handshake}.
+   *
+   * @param engine          The engine, in client or server mode
+   * @param packetPool      Supplies buffers of at least the session's packet buffer size
+   * @param applicationPool Supplies buffers of at least the session's application buffer size
+   */
+  TlsSession(SSLEngine engine, BufferPool packetPool, BufferPool applicationPool) {
+    this.engine = engine;
+    this.packetPool = packetPool;
+    this.applicationPool = applicationPool;
+  }
+
+  SSLEngine engine() {
+    return engine;
+  }
+
+  /**
+   * Writes whatever {@link #wrap} produces. Called by the reading thread when the engine must send a handshake message
+   * before it can decrypt more; the write may also be left to a flush already running on another thread.
+   */
+  interface Flusher {
+
+    void flush() throws IOException;
+  }
+
+  /**
+   * Decrypts received ciphertext and passes the plaintext to a frame decoder. A record split across reads is kept until
+   * its remaining bytes arrive. Called by the connection's reading thread only.
+   *
+   * @param data     Bytes read from the channel, between position and limit; fully consumed on return
+   * @param decoder  Receives the plaintext
+   * @param listener Receives the frames the plaintext completes
+   * @param flusher  Writes handshake messages the engine needs to send before it can go on decrypting
+   * @return false if the peer closed the TLS session
+   * @throws IOException If the peer violated the TLS protocol or the framing rules
+   */
+  boolean unwrap(ByteBuffer data, FrameDecoder decoder, FrameListener listener, Flusher flusher) throws IOException {
+    ByteBuffer plaintext = applicationPool.acquire();
+    try {
+      while (true) {
+        ByteBuffer source = data;
+        if (partialRecord != null) {
+          // Complete the record carried over from the last read with as much new data as fits
+          if (!partialRecord.hasRemaining()) {
+            throw new SSLException("TLS record exceeds " + partialRecord.capacity() + " bytes");
+          }
+          int count = Math.min(partialRecord.remaining(), data.remaining());
+          int limit = data.limit();
+          data.limit(data.position() + count);
+          partialRecord.put(data);
+          data.limit(limit);
+          partialRecord.flip();
+          source = partialRecord;
+        }
+
+        boolean open = unwrap(source, plaintext, decoder, listener, flusher);
+
+        if (source == partialRecord) {
+          partialRecord.compact();
+          if (partialRecord.position() == 0) {
+            packetPool.release(partialRecord);
+            partialRecord = null;
+          }
+        } else if (data.hasRemaining()) {
+          // The read ended inside a record; keep its start
+          partialRecord = packetPool.acquire();
+          partialRecord.put(data);
+        }
+        if (!open) {
+          return false;
+        }
+        if (!data.hasRemaining()) {
+          return true;
+        }
+      }
+    } finally {
+      applicationPool.release(plaintext);
+    }
+  }
+
+  /**
+   * Unwraps every complete record of a buffer, leaving an incomplete one at its position.
+   *
+   * @return false if the peer closed the TLS session
+   */
+  private boolean unwrap(ByteBuffer source, ByteBuffer plaintext, FrameDecoder decoder, FrameListener listener,
+      Flusher flusher) throws IOException {
+    while (source.hasRemaining()) {
+      plaintext.clear();
+      SSLEngineResult result = engine.unwrap(source, plaintext);
+      if (plaintext.position() > 0) {
+        plaintext.flip();
+        decoder.decode(plaintext, listener);
+      }
+      HandshakeStatus status = result.getHandshakeStatus();
+      checkFinished(status);
+      runTasks(status);
+
+      switch (result.getStatus()) {
+        case OK:
+          if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+            if (status != HandshakeStatus.NEED_WRAP) {
+              return true;
+            }
+            // The engine sends its part of the handshake before it reads on
+            flusher.flush();
+            if (engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+              // Another thread holds the flush lock and is writing it
+              Thread.yield();
+            }
+          }
+          break;
+        case BUFFER_UNDERFLOW:
+          // The rest of the record has not arrived yet
+          return true;
+        case CLOSED:
+          return false;
+        default:
+          // The application buffer is sized for the largest record the session allows
+          throw new SSLException("Unexpected unwrap result: " + result);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether the flusher has something to write even if no frames are queued: a handshake message or ciphertext
+   * left over from an earlier write.
+   *
+   * @return true if a flush would write
+   */
+  boolean hasPendingWrites() {
+    return ciphertextPending || engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP;
+  }
+
+  /**
+   * Checks whether the handshake is done, so application data can be sent. Until then queued frames wait, and a flush
+   * only writes handshake messages.
+   *
+   * @return true once the first handshake has completed
+   */
+  boolean isHandshakeComplete() {
+    return established;
+  }
+
+  private void checkFinished(HandshakeStatus status) {
+    if (status == HandshakeStatus.FINISHED) {
+      established = true;
+    }
+  }
+
+  /**
+   * Produces the next ciphertext to write: the rest of an earlier write, else any handshake messages that are due, then
+   * TLS records encrypting as much of the given frames as fits into one packet buffer. Frames are held back while the
+   * handshake waits for the peer. Only called by the single flusher.
+   *
+   * @param frames Plaintext to encrypt, between position and limit of each buffer; positions advance past what was
+   *               encrypted
+   * @param count  The number of buffers in {@code frames}
+   * @return The number of plaintext bytes encrypted
+   * @throws SSLException If the engine fails
+   */
+  long wrap(ByteBuffer[] frames, int count) throws SSLException {
+    if (ciphertext != null && ciphertext.hasRemaining()) {
+      return 0;
+    }
+    if (ciphertext == null) {
+      ciphertext = packetPool.acquire();
+    }
+    ciphertext.clear();
+
+    long consumed = 0;
+    while (true) {
+      HandshakeStatus status = engine.getHandshakeStatus();
+      SSLEngineResult result;
+      if (status == HandshakeStatus.NEED_TASK) {
+        runTasks(status);
+        continue;
+      } else if (status == HandshakeStatus.NEED_WRAP) {
+        result = engine.wrap(NO_DATA, ciphertext);
+      } else if (status == HandshakeStatus.NOT_HANDSHAKING && established && count > 0) {
+        result = engine.wrap(frames, 0, count, ciphertext);
+        consumed += result.bytesConsumed();
+      } else {
+        // Waiting for the peer, or the record is ready
+        break;
+      }
+      checkFinished(result.getHandshakeStatus());
+      runTasks(result.getHandshakeStatus());
+      if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+        // The buffer holds a message already; write it first
+        break;
+      }
+      if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+        if (ciphertext.position() == 0 && count > 0) {
+          throw new SSLException("TLS session closed");
+        }
+        // Write the closing message, if this wrap produced one
+        break;
+      }
+      if (result.getStatus() != SSLEngineResult.Status.OK || result.bytesProduced() == 0) {
+        break;
+      }
+    }
+
+    ciphertext.flip();
+    ciphertextPending = ciphertext.hasRemaining();
+    if (!ciphertextPending) {
+      packetPool.release(ciphertext);
+      ciphertext = null;
+    }
+    return consumed;
+  }
+
+  /**
+   * Gets the ciphertext produced by {@link #wrap}.
+   *
+   * @return The ciphertext, between position and limit, or null if there is none
+   */
+  ByteBuffer ciphertext() {
+    return ciphertext;
+  }
+
+  /**
+   * Called by the flusher after writing from the {@link #ciphertext()} buffer. The buffer goes back to the pool once it
+   * is written completely.
+   */
+  void written() {
+    if (ciphertext != null && !ciphertext.hasRemaining()) {
+      ciphertextPending = false;
+      packetPool.release(ciphertext);
+      ciphertext = null;
+    }
+  }
+
+  /**
+   * Runs a blocking handshake over a pair of channels, for clients whose reads and writes are not driven by a reactor.
+   *
+   * @param in  Reads from the peer
+   * @param out Writes to the peer
+   * @throws IOException If the handshake fails or the peer closes the connection
+   */
+  void handshake(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+    engine.beginHandshake();
+    ByteBuffer received = packetPool.acquire();
+    Flusher flusher = () -> {
+      wrap(NO_DATA, 0);
+      writeFully(out);
+    };
+    try {
+      while (!isHandshakeComplete()) {
+        if (hasPendingWrites()) {
+          flusher.flush();
+        } else if (!read(in, received, flusher)) {
+          throw new EOFException("Connection closed during the TLS handshake");
+        }
+      }
+    } finally {
+      packetPool.release(received);
+    }
+  }
+
+  /**
+   * With TLS 1.3 the server sends its resumption ticket after the handshake. Reads it if it arrives before {@code in}
+   * times out, so that a reconnect can resume the session; application data received meanwhile is dropped. Does
+   * nothing for earlier protocol versions, which resume from the handshake itself.
+   *
+   * @param in Reads from the peer; should time out quickly with a {@link SocketTimeoutException}
+   * @throws IOException If the peer violated the TLS protocol
+   */
+  void awaitSessionTicket(ReadableByteChannel in) throws IOException {
+    if (!"TLSv1.3".equals(engine.getSession().getProtocol())) {
+      return;
+    }
+    ByteBuffer received = packetPool.acquire();
+    try {
+      read(in, received, () -> { });
+    } catch (SocketTimeoutException e) {
+      // No ticket; the next connection makes a full handshake
+    } finally {
+      packetPool.release(received);
+    }
+  }
+
+  private boolean read(ReadableByteChannel in, ByteBuffer received, Flusher flusher) throws IOException {
+    received.clear();
+    if (in.read(received) < 0) {
+      return false;
+    }
+    received.flip();
+    return unwrap(received, DISCARD, frame -> { }, flusher);
+  }
+
+  /**
+   * Encrypts a buffer and writes it completely to a blocking channel.
+   *
+   * @param data The plaintext, between position and limit; fully consumed on return
+   * @param out  The blocking channel
+   * @throws IOException If the engine or the channel fails
+   */
+  void writeFully(ByteBuffer data, WritableByteChannel out) throws IOException {
+    ByteBuffer[] frames = {data};
+    while (data.hasRemaining() || ciphertextPending) {
+      wrap(frames, 1);
+      writeFully(out);
+    }
+  }
+
+  private void writeFully(WritableByteChannel out) throws IOException {
+    if (ciphertext != null) {
+      while (ciphertext.hasRemaining()) {
+        out.write(ciphertext);
+      }
+      written();
+    }
+  }
+
+  /**
+   * Returns the pooled buffers when the connection closes. The ciphertext buffer is only returned if the caller holds
+   * the flush lock, since a flusher on another thread may still be using it.
+   *
+   * @param flushLockHeld true if the caller holds the outbound flush lock
+   */
+  void release(boolean flushLockHeld) {
+    engine.closeOutbound();
+    if (partialRecord != null) {
+      packetPool.release(partialRecord);
+      partialRecord = null;
+    }
+    if (flushLockHeld && ciphertext != null) {
+      packetPool.release(ciphertext);
+      ciphertext = null;
+      ciphertextPending = false;
+    }
+  }
+
+  private void runTasks(HandshakeStatus status) {
+    if (status == HandshakeStatus.NEED_TASK) {
+      Runnable task;
+      while ((task = engine.getDelegatedTask()) != null) {
+        task.run();
+      }
+    }
+  }
+}
@@ -0,0 +1,310 @@
+package network.timer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import network.log.Log;
+
+/**
+ * A hashed timing wheel for large numbers of coarse timeouts, such as per-connection idle timeouts.
+ * <p>
+ * Time is divided into ticks and the wheel into a power-of-two number of buckets; a timeout lands in the bucket of its
+ * deadline tick and carries the number of full wheel rotations left before it is due. Scheduling and cancelling are
+ * O(1) and lock-free for the caller: new and cancelled timeouts are queued and applied by the single worker thread at
+ * the next tick, which then only visits the one bucket that is due. Timeouts fire up to one tick late, never early.
+ * <p>
+ * Tasks run on the worker thread and must be short; a slow task delays every other timeout.
+ */
+public final class HashedTimingWheel {
+
+  private static final Log LOG = Log.get(HashedTimingWheel.class);
+
+  // Upper bound on new timeouts moved into the wheel per tick, so a burst cannot stall expiry
+  private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+  private final String threadName;
+  private final long tickNanos;
+  private final Bucket[] wheel;
+  private final int mask;
+
+  private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+  private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+  private final AtomicLong scheduledCount = new AtomicLong();
+
+  private volatile boolean running;
+  private volatile long startNanos;
+  private Thread worker;
+  private long tick; // Only used by the worker thread
+
+  /**
+   * Creates a stopped wheel.
+   *
+   * @param threadName    Name of the worker thread
+   * @param tickDuration  Length of one tick, the resolution of every timeout
+   * @param unit          Unit of {@code tickDuration}
+   * @param ticksPerWheel Number of buckets; rounded up to a power of two
+   */
+  public HashedTimingWheel(String threadName, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+    if (tickDuration <= 0) {
+      throw new IllegalArgumentException("tickDuration must be positive");
+    }
+    if (ticksPerWheel < 1 || ticksPerWheel > (1 << 30)) {
+      throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30");
+    }
+    this.threadName = threadName;
+    this.tickNanos = unit.toNanos(tickDuration);
+    int size = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+    this.wheel = new Bucket[size];
+    for (int i = 0; i < size; i++) {
+      wheel[i] = new Bucket();
+    }
+    this.mask = size - 1;
+  }
+
+  /**
+   * Starts the worker thread. Does nothing if the wheel is already running.
+   */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    startNanos = System.nanoTime();
+    running = true;
+    worker = new Thread(this::run, threadName);
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * Stops the worker thread. Timeouts that have not fired are discarded.
+   */
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    LockSupport.unpark(worker);
+    try {
+      worker.join(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    pendingTimeouts.clear();
+    cancelledTimeouts.clear();
+  }
+
+  /**
+   * Schedules a task to run once after a delay.
+   *
+   * @param task  The task to run on the worker thread
+   * @param delay Time until the task is due
+   * @param unit  Unit of {@code delay}
+   * @return A handle that can cancel the timeout
+   * @throws IllegalStateException If the wheel has not been started
+   */
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    if (task == null) {
+      throw new IllegalArgumentException("task must not be null");
+    }
+    if (!running) {
+      throw new IllegalStateException("Timing wheel is not running");
+    }
+    // Deadline relative to the wheel's start, so ticks and deadlines share one time base
+    long deadline = System.nanoTime() + Math.max(0, unit.toNanos(delay)) - startNanos;
+    Timeout timeout = new Timeout(this, task, deadline);
+    scheduledCount.incrementAndGet();
+    pendingTimeouts.add(timeout);
+    return timeout;
+  }
+
+  /**
+   * Gets the number of timeouts that have been scheduled and have neither fired nor been cancelled.
+   *
+   * @return The pending timeout count
+   */
+  public long getPendingCount() {
+    return scheduledCount.get();
+  }
+
+  private void run() {
+    while (running) {
+      long tickDeadline = awaitNextTick();
+      if (!running) {
+        break;
+      }
+      removeCancelled();
+      transferPending();
+      wheel[(int) (tick & mask)].expire(tickDeadline);
+      tick++;
+    }
+  }
+
+  /**
+   * Sleeps until the end of the current tick.
+   *
+   * @return The end of the tick, relative to the wheel's start
+   */
+  private long awaitNextTick() {
+    long tickDeadline = tickNanos * (tick + 1);
+    while (running) {
+      long remaining = tickDeadline - (System.nanoTime() - startNanos);
+      if (remaining <= 0) {
+        break;
+      }
+      LockSupport.parkNanos(this, remaining);
+    }
+    return tickDeadline;
+  }
+
+  private void transferPending() {
+    for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+      Timeout timeout = pendingTimeouts.poll();
+      if (timeout == null) {
+        break;
+      }
+      if (timeout.state != Timeout.ST_INIT) {
+        continue;
+      }
+      long dueTick = timeout.deadline / tickNanos;
+      timeout.remainingRounds = (dueTick - tick) / wheel.length;
+      // Timeouts already due go into the current bucket
+      long bucketTick = Math.max(dueTick, tick);
+      wheel[(int) (bucketTick & mask)].add(timeout);
+    }
+  }
+
+  private void removeCancelled() {
+    Timeout timeout;
+    while ((timeout = cancelledTimeouts.poll()) != null) {
+      if (timeout.bucket != null) {
+        timeout.bucket.remove(timeout);
+      }
+    }
+  }
+
+  /**
+   * A scheduled task. Cancelling is O(1); the wheel unlinks the timeout at its next tick.
+   */
+  public static final class Timeout {
+
+    private static final int ST_INIT = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+        AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    private final HashedTimingWheel timer;
+    private final Runnable task;
+    private final long deadline;
+    private volatile int state = ST_INIT;
+
+    // Bucket links; only touched by the worker thread
+    private long remainingRounds;
+    private Bucket bucket;
+    private Timeout next;
+    private Timeout prev;
+
+    private Timeout(HashedTimingWheel timer, Runnable task, long deadline) {
+      this.timer = timer;
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Cancels the timeout if it has not fired yet.
+     *
+     * @return true if this call cancelled it
+     */
+    public boolean cancel() {
+      if (!STATE.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+        return false;
+      }
+      timer.scheduledCount.decrementAndGet();
+      timer.cancelledTimeouts.add(this);
+      return true;
+    }
+
+    public boolean isCancelled() {
+      return state == ST_CANCELLED;
+    }
+
+    public boolean isExpired() {
+      return state == ST_EXPIRED;
+    }
+
+    private void expire() {
+      if (!STATE.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+        return;
+      }
+      timer.scheduledCount.decrementAndGet();
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        LOG.error("Timeout task failed", e);
+      }
+    }
+  }
+
+  /**
+   * A doubly linked list of the timeouts that hash to one tick.
+   */
+  private static final class Bucket {
+
+    private Timeout head;
+    private Timeout tail;
+
+    void add(Timeout timeout) {
+      timeout.bucket = this;
+      if (head == null) {
+        head = tail = timeout;
+      } else {
+        tail.next = timeout;
+        timeout.prev = tail;
+        tail = timeout;
+      }
+    }
+
+    /**
+     * Fires every timeout in the bucket whose last rotation has come and counts down the rest.
+     *
+     * @param tickDeadline End of the tick being processed
+     */
+    void expire(long tickDeadline) {
+      Timeout timeout = head;
+      while (timeout != null) {
+        Timeout next = timeout.next;
+        if (timeout.state == Timeout.ST_CANCELLED) {
+          remove(timeout);
+        } else if (timeout.remainingRounds <= 0 && timeout.deadline <= tickDeadline) {
+          remove(timeout);
+          timeout.expire();
+        } else {
+          timeout.remainingRounds--;
+        }
+        timeout = next;
+      }
+    }
+
+    void remove(Timeout timeout) {
+      if (timeout.bucket != this) {
+        return;
+      }
+      if (timeout.prev != null) {
+        timeout.prev.next = timeout.next;
+      } else {
+        head = timeout.next;
+      }
+      if (timeout.next != null) {
+        timeout.next.prev = timeout.prev;
+      } else {
+        tail = timeout.prev;
+      }
+      timeout.next = null;
+      timeout.prev = null;
+      timeout.bucket = null;
+    }
+  }
+}
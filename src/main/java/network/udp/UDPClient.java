@@ -1,25 +1,34 @@
 package network.udp;
 
 import java.io.IOException;
-import java.io.Serializable;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
+import network.handler.CodecRegistry;
+import network.handler.MessageCompression;
+import network.handler.MessageHeader;
+import network.handler.ObjectCodec;
+import network.log.Log;
+import network.log.LogLevel;
 
 /**
  * A robust UDP client that can send data to a remote server.
  * <p>
- * Features: - Thread-safe message sending - Message queuing - Graceful shutdown
+ * Features: - Thread-safe message sending - Message queuing - Graceful shutdown - Optional per-message compression -
+ * Typed objects encoded by registered codecs, see {@link #send(Object)}
  * Note: UDP is connectionless, so there's no connection state management or reconnection logic.
  */
 public class UDPClient {
 
+  private static final Log LOG = Log.get(UDPClient.class);
+
   // Connection parameters
   private final String host;
   private final int port;
@@ -35,6 +44,13 @@ public class UDPClient {
   // Message queue for data to be sent
   private final BlockingQueue<byte[]> messageQueue = new LinkedBlockingQueue<>();
 
+  // Compression of outgoing messages, null to send them as they are
+  private volatile MessageCompression compression;
+  private byte[] compressBuffer = new byte[0]; // Only used by the sender thread
+
+  // Type IDs and codecs of the objects passed to send(T), null until set
+  private volatile CodecRegistry codecRegistry;
+
   // Worker thread
   private Thread senderThread;
 
@@ -61,7 +77,7 @@ public class UDPClient {
   private void initializeSocket() {
     socketLock.lock();
     try {
-      System.out.println("Initializing UDP client for " + host + ":" + port + "...");
+      LOG.info("Initializing UDP client for " + host + ":" + port + "...");
 
       try {
         // Resolve host address
@@ -70,10 +86,10 @@ public class UDPClient {
         // Create UDP socket
         socket = new DatagramSocket();
 
-        System.out.println("UDP client initialized successfully");
+        LOG.info("UDP client initialized successfully");
 
       } catch (IOException e) {
-        System.err.println("Failed to initialize UDP client: " + e.getMessage());
+        LOG.error("Failed to initialize UDP client: " + e.getMessage());
         throw new RuntimeException("Failed to initialize UDP client", e);
       }
     } finally {
@@ -110,42 +126,61 @@ public class UDPClient {
    * @param message The byte array to send
    */
   private void sendMessageInternal(byte[] message) {
+    // Compress into the reusable buffer; messages that do not shrink are sent as they are
+    byte[] payload = message;
+    int payloadLength = message.length;
+    MessageCompression compression = this.compression;
+    if (compression != null) {
+      if (compressBuffer.length < message.length) {
+        compressBuffer = new byte[message.length];
+      }
+      int compressedLength = compression.compress(message, compressBuffer);
+      if (compressedLength >= 0) {
+        payload = compressBuffer;
+        payloadLength = compressedLength;
+      }
+    }
+
     socketLock.lock();
     try {
       if (socket == null || socket.isClosed()) {
-        System.err.println("Socket is closed. Cannot send message.");
+        LOG.warn("Socket is closed. Cannot send message.");
         return;
       }
 
       // Create datagram packet
-      DatagramPacket packet = new DatagramPacket(message, message.length, address, port);
+      DatagramPacket packet = new DatagramPacket(payload, payloadLength, address, port);
 
       // Send the packet
       socket.send(packet);
 
-      System.out.println("Message sent successfully (" + message.length + " bytes)");
+      if (LOG.isEnabled(LogLevel.DEBUG)) {
+        LOG.debug("Message sent successfully (" + payloadLength + " of " + message.length + " bytes)");
+      }
 
     } catch (IOException e) {
-      System.err.println("Error sending message: " + e.getMessage());
+      LOG.error("Error sending message: " + e.getMessage());
     } finally {
       socketLock.unlock();
     }
   }
 
   /**
-   * Public method to send a byte array. The message is queued and will be sent asynchronously.
+   * Public method to send a byte array. The message is queued and will be sent asynchronously. The bytes form the whole
+   * datagram; servers dispatching by type expect them to start with a {@link MessageHeader}, see
+   * {@link #sendMessage(int, byte[])}.
    *
    * @param message The byte array to send
    * @return true if message was queued successfully, false otherwise
    */
   public boolean sendObject(byte[] message) {
     if (message == null) {
-      System.err.println("Cannot send null message");
+      LOG.warn("Cannot send null message");
       return false;
     }
 
     if (!isRunning.get()) {
-      System.err.println("Client is shutting down. Cannot send message.");
+      LOG.warn("Client is shutting down. Cannot send message.");
       return false;
     }
 
@@ -153,14 +188,76 @@ public class UDPClient {
     boolean queued = messageQueue.add(message);
 
     if (queued) {
-      System.out.println("Message queued for sending (" + message.length + " bytes)");
+      if (LOG.isEnabled(LogLevel.DEBUG)) {
+        LOG.debug("Message queued for sending (" + message.length + " bytes)");
+      }
     } else {
-      System.err.println("Failed to queue message. Queue may be full.");
+      LOG.warn("Failed to queue message. Queue may be full.");
     }
 
     return queued;
   }
 
+  /**
+   * Sends a typed message. The body is prefixed with a {@link MessageHeader} carrying the type ID, which the server uses
+   * to select the handler. The message is queued and will be sent asynchronously.
+   *
+   * @param typeId The message type ID, 0 to {@link MessageHeader#MAX_TYPE_ID}
+   * @param body   The message body
+   * @return true if message was queued successfully, false otherwise
+   */
+  public boolean sendMessage(int typeId, byte[] body) {
+    if (body == null) {
+      LOG.warn("Cannot send null message");
+      return false;
+    }
+    return sendObject(MessageHeader.encode(typeId, body));
+  }
+
+  /**
+   * Sends an object of a class registered with the client's {@link CodecRegistry}, see
+   * {@link #setCodecRegistry(CodecRegistry)}. The object is encoded on the calling thread, so changing it afterwards
+   * does not affect the message. The message is queued and will be sent asynchronously.
+   *
+   * @param message The object to send
+   * @param <T>     The message type
+   * @return true if message was queued successfully, false otherwise
+   * @throws IllegalStateException    If no codec registry is set
+   * @throws IllegalArgumentException If the object's class is not registered
+   */
+  public <T> boolean send(T message) {
+    if (message == null) {
+      LOG.warn("Cannot send null message");
+      return false;
+    }
+    CodecRegistry codecs = codecRegistry;
+    if (codecs == null) {
+      throw new IllegalStateException("No codec registry set");
+    }
+    return sendObject(codecs.encode(message));
+  }
+
+  /**
+   * Sets the registry that maps the objects passed to {@link #send(Object)} to their type IDs and codecs. The server
+   * must register the same classes under the same type IDs.
+   *
+   * @param codecRegistry The registry, or null to disable {@link #send(Object)}
+   */
+  public void setCodecRegistry(CodecRegistry codecRegistry) {
+    this.codecRegistry = codecRegistry;
+  }
+
+  /**
+   * Compresses outgoing messages whose body reaches the compression's threshold, flagging them in their
+   * {@link MessageHeader}. The server's dispatcher needs a compression with the same dictionary, see
+   * {@link network.handler.MessageDispatcher#setCompression(MessageCompression)}. Takes effect for the next message sent.
+   *
+   * @param compression The compression, or null to send messages uncompressed
+   */
+  public void setCompression(MessageCompression compression) {
+    this.compression = compression;
+  }
+
   /**
    * Checks if the client is running.
    *
@@ -185,7 +282,7 @@ public class UDPClient {
    * @param timeoutSeconds Maximum time to wait for queued messages to be sent
    */
   public void shutdown(int timeoutSeconds) {
-    System.out.println("Initiating shutdown...");
+    LOG.info("Initiating shutdown...");
 
     // Stop accepting new messages
     isRunning.set(false);
@@ -217,7 +314,8 @@ public class UDPClient {
       socketLock.unlock();
     }
 
-    System.out.println("Shutdown complete.");
+    LOG.info("Shutdown complete.");
+    Log.flush();
   }
 
   /**
@@ -247,7 +345,7 @@ public class UDPClient {
         break;
       }
 
-      client.sendObject(message.getBytes(StandardCharsets.UTF_8));
+      client.sendMessage(UDPServer.TEXT_MESSAGE_TYPE, message.getBytes(StandardCharsets.UTF_8));
     }
 
     scanner.close();
@@ -256,11 +354,23 @@ public class UDPClient {
   }
 
   /**
-   * Example serializable class for testing.
+   * Example message class for testing, sent with {@link #send(Object)} once registered with {@link #CODEC}.
    */
-  private static class TestMessage implements Serializable {
+  private static class TestMessage {
+
+    // Writes the fields in declaration order; register with codecRegistry.register(typeId, TestMessage.class, CODEC)
+    static final ObjectCodec<TestMessage> CODEC = new ObjectCodec<TestMessage>() {
+      @Override
+      public void write(TestMessage message, ByteBuffer out) {
+        ObjectCodec.putString(out, message.message);
+        out.putInt(message.value);
+      }
 
-    private static final long serialVersionUID = 1L;
+      @Override
+      public TestMessage read(ByteBuffer in) {
+        return new TestMessage(ObjectCodec.getString(in), in.getInt());
+      }
+    };
 
     private final String message;
     private final int value;
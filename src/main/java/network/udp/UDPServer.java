@@ -4,20 +4,40 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import network.capture.TrafficCapture;
+import network.concurrent.VirtualThreads;
+import network.handler.MessageContext;
+import network.handler.MessageDispatcher;
+import network.log.Log;
+import network.log.LogLevel;
+import network.log.LogSampler;
 
 /**
  * A multi-threaded UDP server that receives data from clients.
  * <p>
+ * Every datagram is one message. The {@link MessageDispatcher} routes it by the type ID in its header to the handler
+ * registered for that type; register handlers with {@code getDispatcher().register(typeId, handler)}.
+ * <p>
  * Features: - Accepts multiple concurrent client messages - Thread pool for efficient message handling - Graceful shutdown
- * with resource cleanup - Message tracking - Comprehensive error handling
+ * with resource cleanup - Message tracking - Comprehensive error handling - Optional virtual thread per message -
+ * Optional capture of received datagrams to memory-mapped files for replay (see {@link #setCaptureDirectory(Path)})
  */
 public class UDPServer {
 
+  private static final Log LOG = Log.get(UDPServer.class);
+
+  // Only one in this many datagrams is reported at debug level; every datagram is reported at trace level
+  private static final LogSampler DATAGRAM_SAMPLER = new LogSampler(100);
+
   // Server configuration
   private final int port;
   private DatagramSocket serverSocket;
@@ -29,7 +49,17 @@ public class UDPServer {
   // Server state
   private final AtomicBoolean isRunning = new AtomicBoolean(false);
   private final AtomicInteger activeMessages = new AtomicInteger(0);
-  private final AtomicInteger totalMessagesReceived = new AtomicInteger(0);
+  private final AtomicLong totalMessagesReceived = new AtomicLong(0);
+
+  // Routes received datagrams to the handler registered for their type
+  private final MessageDispatcher dispatcher = new MessageDispatcher();
+
+  // Traffic capture: where received datagrams are recorded, null when disabled, and the capture while the server runs
+  private volatile Path captureDirectory;
+  private volatile TrafficCapture capture;
+
+  // Message type used by the demo client and server
+  static final int TEXT_MESSAGE_TYPE = 1;
 
   // Thread pool configuration
   private static final int MAX_HANDLERS = 50;
@@ -41,34 +71,65 @@ public class UDPServer {
    * @param port The port number to listen on
    */
   public UDPServer(int port) {
+    this(port, false);
+  }
+
+  /**
+   * Creates a new UDP server that listens on the specified port.
+   *
+   * @param port              The port number to listen on
+   * @param useVirtualThreads true to run every message handler on its own virtual thread instead of a fixed pool
+   * @throws UnsupportedOperationException If virtual threads are requested on a runtime without them
+   */
+  public UDPServer(int port, boolean useVirtualThreads) {
     this.port = port;
 
-    // Create a fixed thread pool for handling client messages
-    this.messageThreadPool = Executors.newFixedThreadPool(MAX_HANDLERS);
+    if (useVirtualThreads) {
+      // One virtual thread per message; a slow handler no longer holds up the others
+      this.messageThreadPool = VirtualThreads.newThreadPerTaskExecutor("UDP-Handler-");
+    } else {
+      // Create a fixed thread pool for handling client messages
+      this.messageThreadPool = Executors.newFixedThreadPool(MAX_HANDLERS);
+    }
   }
 
   /**
    * Starts the UDP server and begins receiving client messages. This method returns immediately; the server runs on
    * background threads.
    *
-   * @throws SocketException If the server cannot bind to the specified port
+   * @throws SocketException If the server cannot bind to the specified port, or the capture cannot be started; the
+   *                         capture's {@link IOException} is the cause
    */
   public void start() throws SocketException {
     if (isRunning.get()) {
-      System.out.println("Server is already running.");
+      LOG.warn("Server is already running.");
       return;
     }
 
+    if (captureDirectory != null) {
+      try {
+        capture = new TrafficCapture(captureDirectory, TrafficCapture.Transport.UDP);
+      } catch (IOException e) {
+        // Wrapped to keep the signature start() had before captures
+        SocketException wrapped = new SocketException("Cannot start capture in " + captureDirectory + ": " +
+            e.getMessage());
+        wrapped.initCause(e);
+        throw wrapped;
+      }
+    }
+
     // Create datagram socket
-    serverSocket = new DatagramSocket(port);
+    try {
+      serverSocket = new DatagramSocket(port);
+    } catch (SocketException e) {
+      stopCapture();
+      throw e;
+    }
     serverSocket.setReuseAddress(true); // Allow port reuse
 
     isRunning.set(true);
 
-    System.out.println("===========================================");
-    System.out.println("UDP Server started on port " + port);
-    System.out.println("Waiting for client messages...");
-    System.out.println("===========================================");
+    LOG.info("UDP Server started on port " + port + ", waiting for client messages...");
 
     // Start the receive thread
     startReceiveThread();
@@ -89,26 +150,34 @@ public class UDPServer {
           // Receive incoming packet (blocking call)
           serverSocket.receive(packet);
 
+          // Record in arrival order, before a handler thread picks the datagram up
+          TrafficCapture capture = UDPServer.this.capture;
+          if (capture != null) {
+            capture.recordMessage(TrafficCapture.sourceId(packet.getAddress().getAddress(), packet.getPort()),
+                ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()));
+          }
+
           // Increment message counters
-          int messageId = totalMessagesReceived.incrementAndGet();
-          activeMessages.incrementAndGet();
+          long messageId = totalMessagesReceived.incrementAndGet();
+          int active = activeMessages.incrementAndGet();
 
-          // Log message info
-          String clientInfo = packet.getAddress().getHostAddress() + ":" + packet.getPort();
-          System.out.println("\n[Message #" + messageId + "] New message from: " + clientInfo);
-          System.out.println("[Status] Active handlers: " + activeMessages.get());
+          // Log message info, sampled so a datagram flood does not turn into a console flood
+          if (LOG.isEnabled(LogLevel.TRACE) || (LOG.isEnabled(LogLevel.DEBUG) && DATAGRAM_SAMPLER.sample())) {
+            LOG.debug("[Message #" + messageId + "] New message from: " + packet.getAddress().getHostAddress() + ":" +
+                packet.getPort() + " (active handlers: " + active + ")");
+          }
 
           // Handle message in a separate thread from the pool
-          messageThreadPool.execute(new MessageHandler(packet, messageId));
+          messageThreadPool.execute(new PacketHandler(packet, messageId));
 
         } catch (SocketException e) {
           // Socket closed during shutdown - this is expected
           if (isRunning.get()) {
-            System.err.println("Socket error: " + e.getMessage());
+            LOG.error("Socket error: " + e.getMessage());
           }
         } catch (IOException e) {
           if (isRunning.get()) {
-            System.err.println("Error receiving message: " + e.getMessage());
+            LOG.error("Error receiving message: " + e.getMessage());
           }
         }
       }
@@ -118,6 +187,52 @@ public class UDPServer {
     receiveThread.start();
   }
 
+  /**
+   * Gets the dispatcher that routes received messages to handlers by type ID.
+   *
+   * @return The message dispatcher
+   */
+  public MessageDispatcher getDispatcher() {
+    return dispatcher;
+  }
+
+  /**
+   * Records every datagram this server receives, with the time and the address it came from, so the traffic can be
+   * played back later with {@link network.capture.TrafficReplay}. The directory receives memory-mapped segment files;
+   * it is created if missing and must not hold an earlier capture. Must be called before {@link #start()}. Disabled by
+   * default.
+   *
+   * @param directory The capture directory, or null to disable capture
+   */
+  public void setCaptureDirectory(Path directory) {
+    if (isRunning.get()) {
+      throw new IllegalStateException("Capture directory cannot be changed while the server is running");
+    }
+    this.captureDirectory = directory;
+  }
+
+  /**
+   * Gets the directory received datagrams are captured to.
+   *
+   * @return The capture directory, or null if capture is disabled
+   */
+  public Path getCaptureDirectory() {
+    return captureDirectory;
+  }
+
+  /**
+   * Closes the capture, if any, once the receive thread has stopped.
+   */
+  private void stopCapture() {
+    TrafficCapture capture = this.capture;
+    if (capture != null) {
+      this.capture = null;
+      capture.close();
+      LOG.info("Captured " + capture.getRecordCount() + " records to " + captureDirectory + " (" +
+          capture.getDroppedCount() + " dropped)");
+    }
+  }
+
   /**
    * Gets the number of currently active message handlers.
    *
@@ -132,7 +247,7 @@ public class UDPServer {
    *
    * @return The total message count
    */
-  public int getTotalMessageCount() {
+  public long getTotalMessageCount() {
     return totalMessagesReceived.get();
   }
 
@@ -152,13 +267,11 @@ public class UDPServer {
    */
   public void shutdown(int timeoutSeconds) {
     if (!isRunning.get()) {
-      System.out.println("Server is not running.");
+      LOG.warn("Server is not running.");
       return;
     }
 
-    System.out.println("\n===========================================");
-    System.out.println("Initiating server shutdown...");
-    System.out.println("===========================================");
+    LOG.info("Initiating server shutdown...");
 
     // Stop receiving new messages
     isRunning.set(false);
@@ -174,12 +287,12 @@ public class UDPServer {
     try {
       // Wait for existing message handlers to complete
       if (!messageThreadPool.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
-        System.out.println("Timeout reached. Forcing shutdown of message handlers...");
+        LOG.warn("Timeout reached. Forcing shutdown of message handlers...");
         messageThreadPool.shutdownNow();
 
         // Wait a bit more for forced shutdown
         if (!messageThreadPool.awaitTermination(5, TimeUnit.SECONDS)) {
-          System.err.println("Thread pool did not terminate cleanly.");
+          LOG.error("Thread pool did not terminate cleanly.");
         }
       }
     } catch (InterruptedException e) {
@@ -195,11 +308,10 @@ public class UDPServer {
         Thread.currentThread().interrupt();
       }
     }
+    stopCapture();
 
-    System.out.println("===========================================");
-    System.out.println("Server shutdown complete.");
-    System.out.println("Total messages received: " + totalMessagesReceived.get());
-    System.out.println("===========================================");
+    LOG.info("Server shutdown complete. Total messages received: " + totalMessagesReceived.get());
+    Log.flush();
   }
 
   /**
@@ -210,12 +322,14 @@ public class UDPServer {
   }
 
   /**
-   * Handles a single message from a client. Processes the received data.
+   * Handles a single message from a client. Dispatches the datagram to the handler registered for its type and serves
+   * as the handler's {@link MessageContext}.
    */
-  private class MessageHandler implements Runnable {
+  private class PacketHandler implements Runnable, MessageContext {
 
     private final DatagramPacket packet;
-    private final int messageId;
+    private final long messageId;
+    private final String clientInfo;
 
     /**
      * Creates a new message handler.
@@ -223,117 +337,81 @@ public class UDPServer {
      * @param packet    The received datagram packet
      * @param messageId Unique identifier for this message
      */
-    public MessageHandler(DatagramPacket packet, int messageId) {
+    public PacketHandler(DatagramPacket packet, long messageId) {
       this.packet = packet;
       this.messageId = messageId;
+      this.clientInfo = packet.getAddress().getHostAddress() + ":" + packet.getPort();
     }
 
     @Override
     public void run() {
-      String clientInfo = packet.getAddress().getHostAddress() + ":" + packet.getPort();
-
       try {
-        // Extract data from packet
-        byte[] data = new byte[packet.getLength()];
-        System.arraycopy(packet.getData(), packet.getOffset(), data, 0, packet.getLength());
-
-        System.out.println("[Message #" + messageId + "] Processing message from " + clientInfo);
-
-        // Print hex representation
-        printHexArray(data);
-
-        // Convert to string
-        String message = new String(data, 0, data.length);
+        if (LOG.isEnabled(LogLevel.TRACE)) {
+          LOG.trace("[Message #" + messageId + "] Processing message from " + clientInfo);
+        }
 
-        // Process the received message
-        handleReceivedObject(message, clientInfo);
+        // Route the datagram in place, without copying it out of the packet buffer
+        dispatcher.dispatch(this, ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()));
 
       } catch (Exception e) {
-        System.err.println("[Message #" + messageId + "] Error processing message: " + e.getMessage());
+        LOG.error("[Message #" + messageId + "] Error processing message: " + e.getMessage());
       } finally {
         // Update handler count
         int remaining = activeMessages.decrementAndGet();
-        System.out.println("[Message #" + messageId + "] Handler terminated: " + clientInfo);
-        System.out.println("[Status] Active handlers: " + remaining);
-      }
-    }
-
-    /**
-     * Processes a received object from the client. This method can be customized to handle different object types.
-     *
-     * @param obj        The received object
-     * @param clientInfo Information about the client
-     */
-    private void handleReceivedObject(Object obj, String clientInfo) {
-      System.out.println("\n┌─────────────────────────────────────────┐");
-      System.out.println("│ OBJECT RECEIVED                         │");
-      System.out.println("├─────────────────────────────────────────┤");
-      System.out.println("│ Message ID: #" + messageId);
-      System.out.println("│ From: " + clientInfo);
-      System.out.println("│ Class: " + obj.getClass().getName());
-      System.out.println("│ Content: " + obj.toString());
-      System.out.println("└─────────────────────────────────────────┘\n");
-
-      // Custom handling based on object type
-      if (obj instanceof String) {
-        handleStringMessage((String) obj);
-      } else if (obj instanceof Number) {
-        handleNumberMessage((Number) obj);
-      } else {
-        // Generic handling for other objects
-        handleGenericObject(obj);
+        if (LOG.isEnabled(LogLevel.TRACE)) {
+          LOG.trace("[Message #" + messageId + "] Handler terminated: " + clientInfo + " (active handlers: " +
+              remaining + ")");
+        }
       }
     }
 
-    /**
-     * Handles received String objects.
-     *
-     * @param message The received string message
-     */
-    private void handleStringMessage(String message) {
-      System.out.println("[Handler] Processing String message: " + message);
-      // Add custom string processing logic here
-    }
-
-    /**
-     * Handles received Number objects.
-     *
-     * @param number The received number
-     */
-    private void handleNumberMessage(Number number) {
-      System.out.println("[Handler] Processing Number: " + number);
-      // Add custom number processing logic here
+    @Override
+    public long getId() {
+      return messageId;
     }
 
-    /**
-     * Handles other types of objects.
-     *
-     * @param obj The received object
-     */
-    private void handleGenericObject(Object obj) {
-      System.out.println("[Handler] Processing generic object of type: " +
-          obj.getClass().getSimpleName());
-      // Add custom object processing logic here
+    @Override
+    public String getRemoteAddress() {
+      return clientInfo;
     }
   }
 
   public static void printHexArray(byte[] bytes) {
-    char[] hexChars = new char[bytes.length * 3]; // 2 chars per byte + space
-    for (int i = 0; i < bytes.length; i++) {
-      int v = bytes[i] & 0xFF; // Convert to unsigned
-      hexChars[i * 3] = "0123456789abcdef".charAt(v >>> 4); // High nibble
-      hexChars[i * 3 + 1] = "0123456789abcdef".charAt(v & 0x0F); // Low nibble
-      hexChars[i * 3 + 2] = ' '; // Space separator
-    }
-    System.out.println("Received message: " + new String(hexChars).trim());
+    printHexArray(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Logs the remaining bytes of a buffer as hex at debug level without changing its position. Nothing is rendered unless
+   * debug logging is enabled.
+   *
+   * @param data The bytes to print, between position and limit
+   */
+  public static void printHexArray(ByteBuffer data) {
+    LOG.hex(LogLevel.DEBUG, "Received message: ", data);
   }
 
   /**
-   * Main method demonstrating server usage. Run this server first, then run a UDP client to test.
+   * Main method demonstrating server usage. Run this server first, then run a UDP client to test. Pass {@code virtual}
+   * as the first argument to handle messages on virtual threads.
    */
   public static void main(String[] args) {
+    boolean useVirtualThreads = args.length > 0 && "virtual".equalsIgnoreCase(args[0]);
+
     // Create server on port 5000
-    UDPServer server = new UDPServer(5000);
+    UDPServer server = new UDPServer(5000, useVirtualThreads);
+
+    // Show hex dumps of unknown messages in the demo
+    Log.setLevel(LogLevel.DEBUG);
+
+    // Print text messages; dump everything else as hex
+    server.getDispatcher().register(TEXT_MESSAGE_TYPE, (context, typeId, body) ->
+        LOG.info("[Message #" + context.getId() + "] Text from " + context.getRemoteAddress() + ": " +
+            StandardCharsets.UTF_8.decode(body)));
+    server.getDispatcher().setFallbackHandler((context, typeId, body) -> {
+      LOG.info("[Message #" + context.getId() + "] Message type " + typeId + " from " +
+          context.getRemoteAddress());
+      printHexArray(body);
+    });
 
     try {
       // Start the server
@@ -341,12 +419,12 @@ public class UDPServer {
 
       // Add shutdown hook for graceful shutdown on Ctrl+C
       Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-        System.out.println("\nShutdown signal received...");
+        LOG.info("Shutdown signal received...");
         server.shutdown(10);
       }));
 
       // Keep server running
-      System.out.println("\nServer is running. Press Ctrl+C to stop.\n");
+      LOG.info("Server is running. Press Ctrl+C to stop.");
 
       // Keep main thread alive
       while (server.isRunning()) {
@@ -356,7 +434,7 @@ public class UDPServer {
           // Optional: Print periodic status updates
           // Uncomment the following line if you want status updates every minute
           // if (System.currentTimeMillis() % 60000 < 1000) {
-          //     System.out.println("[Status] Active: " + server.getActiveMessageCount() +
+          //     LOG.info("[Status] Active: " + server.getActiveMessageCount() +
           //                      ", Total: " + server.getTotalMessageCount());
           // }
 
@@ -366,9 +444,8 @@ public class UDPServer {
         }
       }
 
-    } catch (SocketException e) {
-      System.err.println("Failed to start server: " + e.getMessage());
-      e.printStackTrace();
+    } catch (IOException e) {
+      LOG.error("Failed to start server", e);
     }
   }
 }
\ No newline at end of file